@@ -0,0 +1,229 @@
+package index;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Locale;
+
+/**
+ * This class decides if a dataset can be loaded in memory by an indexer, by comparing an estimate of the
+ * memory needed by the dataset (computed from the size of its files, before reading them) with the free
+ * heap. The decision can be:
+ * <ul>
+ *     <li>ADMIT: the dataset can be loaded as usual</li>
+ *     <li>DOWNGRADE: the dataset must be loaded in the bounded memory mode of the indexer (for example
+ *     truncated or chunked)</li>
+ *     <li>DEFER: the dataset must be retried later, when the other datasets have released their memory</li>
+ * </ul>
+ * The memory of an admitted dataset is reserved until the indexer releases it, so concurrent stages or
+ * workers do not admit more datasets than the heap can hold. The live heap is the used heap measured by the
+ * heap pools after their last garbage collection, so the garbage not yet collected does not change the
+ * decisions. The heap allocated by the datasets in flight can be part of the live heap, so it is not counted
+ * again: the heap needed by the indexer is the larger between the live heap and the live heap measured when
+ * no dataset was in flight plus the reserved memory. A deferred dataset is retried with
+ * {@link #admitDeferred(long, long)}, that never defers it again
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class AdmissionController {
+
+    /**
+     * Decision of the controller about a dataset
+     */
+    public enum Decision {
+        ADMIT,
+        DOWNGRADE,
+        DEFER
+    }
+
+    public static final double DEFAULT_EXPANSION = 6;                       //heap bytes needed for every byte of the dataset files
+    public static final long DEFAULT_RESERVE = 512L * 1024 * 1024;          //heap bytes that are always kept free
+    public static final int LINE_BYTES = 512;                               //upper bound of the bytes of a line of a LightRDF file
+
+    private final double expansion;         //heap bytes needed for every byte of the dataset files
+    private final long reserve;             //heap bytes that are always kept free
+    private final long maxWait;             //max time in ms to wait for the memory of the datasets in flight
+    private long reserved = 0;              //heap bytes reserved by the admitted datasets not yet released
+    private long idleUsed = liveHeap();     //live heap measured the last time that no dataset was in flight
+
+    private int admitted = 0;               //number of admitted datasets
+    private int downgraded = 0;             //number of downgraded datasets
+    private int deferred = 0;               //number of deferred datasets
+    private int forced = 0;                 //number of deferred datasets retried without enough headroom
+
+    /**
+     * Constructor
+     * @param expansion heap bytes needed for every byte of the dataset files (strings are stored in UTF-16
+     *                  and every value is wrapped in a Lucene field)
+     * @param reserve heap bytes that are always kept free, for the IndexWriter and the analysis
+     * @param maxWait max time in ms to wait for the memory of the datasets in flight before downgrading
+     *                or deferring a dataset
+     */
+    public AdmissionController(double expansion, long reserve, long maxWait){
+        if(expansion <= 0)
+            throw new IllegalArgumentException("The expansion factor must be positive");
+        if(reserve < 0 || maxWait < 0)
+            throw new IllegalArgumentException("The reserve and the max wait cannot be negative");
+
+        this.expansion = expansion;
+        this.reserve = reserve;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Constructor with the default parameters and without waiting, for the sequential indexers
+     */
+    public AdmissionController(){
+        this(DEFAULT_EXPANSION, DEFAULT_RESERVE, 0);
+    }
+
+    /**
+     * This method return the total size of a list of files
+     * @param files files of the dataset, null or not existing files are ignored
+     * @return sum of the sizes in bytes of the files
+     */
+    public static long fileBytes(File... files){
+        long bytes = 0;
+        for (File file : files)
+            if (file != null && file.exists())
+                bytes += file.length();
+        return bytes;
+    }
+
+    /**
+     * This method return the bytes read from a file of which only the first lines are read
+     * @param file file of the dataset, if null or not existing 0 is returned
+     * @param lines max number of lines read from the file
+     * @return estimate of the bytes read from the file
+     */
+    public static long boundedBytes(File file, long lines){
+        return Math.min(fileBytes(file), lines * LINE_BYTES);
+    }
+
+    /**
+     * This method return the estimate of the heap needed to load some bytes of dataset files
+     * @param bytes bytes of the dataset files that will be read
+     * @return estimate of the heap bytes needed
+     */
+    public long estimateFootprint(long bytes){
+        return (long) (bytes * expansion);
+    }
+
+    /**
+     * This method return the live heap: the sum of the memory used by the heap pools after their last garbage
+     * collection. The pools that do not report the usage after a collection are counted with their current usage
+     * @return live heap in bytes
+     */
+    private static long liveHeap(){
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                MemoryUsage afterCollection = pool.getCollectionUsage();
+                used += afterCollection != null ? afterCollection.getUsed() : pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return the heap bytes that can be used by a new dataset
+     */
+    public synchronized long getHeadroom(){
+        long used = liveHeap();
+        if (reserved == 0)
+            idleUsed = used;
+
+        //the reserved memory already allocated by the datasets in flight can be in the live heap
+        return Runtime.getRuntime().maxMemory() - Math.max(used, idleUsed + reserved) - reserve;
+    }
+
+    /**
+     * This method decide if a dataset can be loaded. If the dataset does not fit in the heap and other
+     * datasets are in flight, the method waits for their memory up to the max wait of the controller.
+     * An admitted or downgraded dataset reserves its footprint until {@link #release(long)} is called
+     *
+     * @param footprint estimate of the heap needed by the dataset
+     * @param downgradedFootprint estimate of the heap needed by the dataset in the bounded memory mode of
+     *                            the indexer, -1 if the indexer has no such mode for the dataset
+     * @return the decision about the dataset
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized Decision admit(long footprint, long downgradedFootprint) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWait;
+
+        while (footprint > getHeadroom() && reserved > 0) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0)
+                break;
+            wait(wait);
+        }
+
+        long headroom = getHeadroom();
+        if (footprint <= headroom) {
+            reserved += footprint;
+            admitted++;
+            return Decision.ADMIT;
+        }
+
+        if (downgradedFootprint >= 0 && downgradedFootprint <= headroom) {
+            reserved += downgradedFootprint;
+            downgraded++;
+            return Decision.DOWNGRADE;
+        }
+
+        deferred++;
+        return Decision.DEFER;
+    }
+
+    /**
+     * This method decide the mode of a dataset that was deferred and is retried for the last time. The method
+     * waits for the memory of the datasets in flight like {@link #admit(long, long)}, but the dataset is never
+     * deferred again: if it does not fit in the heap it is downgraded when the indexer has a bounded memory mode
+     * for it, else it is admitted anyway, so a dataset that really does not fit makes the indexing fail instead
+     * of being dropped. The datasets retried without enough headroom are counted in the report
+     *
+     * @param footprint estimate of the heap needed by the dataset
+     * @param downgradedFootprint estimate of the heap needed by the dataset in the bounded memory mode of
+     *                            the indexer, -1 if the indexer has no such mode for the dataset
+     * @return ADMIT or DOWNGRADE
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized Decision admitDeferred(long footprint, long downgradedFootprint) throws InterruptedException {
+        Decision decision = admit(footprint, downgradedFootprint);
+        if (decision != Decision.DEFER)
+            return decision;
+
+        deferred--;
+        forced++;
+        if (downgradedFootprint >= 0) {
+            reserved += downgradedFootprint;
+            downgraded++;
+            return Decision.DOWNGRADE;
+        }
+
+        reserved += footprint;
+        admitted++;
+        return Decision.ADMIT;
+    }
+
+    /**
+     * This method release the heap reserved by a dataset, after it is added to the index
+     * @param footprint footprint reserved by the dataset
+     */
+    public synchronized void release(long footprint){
+        reserved = Math.max(0, reserved - footprint);
+        notifyAll();
+    }
+
+    /**
+     * @return a line with the number of admitted, downgraded, deferred and forced datasets
+     */
+    public synchronized String getReport(){
+        return String.format(Locale.ENGLISH, "Admitted: %d   Downgraded: %d   Deferred: %d   Forced: %d   Headroom: %d MB",
+                admitted, downgraded, deferred, forced, getHeadroom() / (1024 * 1024));
+    }
+}
@@ -0,0 +1,18 @@
+package index;
+
+/**
+ * This enum lists the strategies that an indexer can use for the big datasets (at least one of the LightRDF
+ * files bigger than 1 GB)
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public enum BigDatasetMode {
+    /** only the first lines of every LightRDF file are indexed */
+    TRUNCATE,
+    /** a uniform random sample of fixed size of the lines of every LightRDF file is indexed */
+    SAMPLE,
+    /** the whole dataset is indexed as chunk documents of bounded size, collapsed by dataset ID at search time */
+    CHUNK
+}
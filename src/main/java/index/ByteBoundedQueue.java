@@ -0,0 +1,102 @@
+package index;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a blocking hand-off queue between two stages of the indexing pipeline. The capacity of the
+ * queue is measured in bytes (an estimate given by the producer for every item) and not in number of items,
+ * so a few big datasets cannot fill the heap. An item bigger than the whole capacity is accepted only when
+ * the queue is empty.
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class ByteBoundedQueue<T> {
+
+    private final long capacity;                        //max number of bytes in the queue
+    private final ArrayDeque<T> items = new ArrayDeque<>();     //items in the queue
+    private final ArrayDeque<Long> sizes = new ArrayDeque<>();  //estimated size in bytes of every item in the queue
+    private long bytes;                                 //estimated bytes in the queue
+    private boolean closed;                             //indicates if the producer has finished
+
+    /**
+     * Constructor
+     * @param capacity max number of bytes in the queue
+     */
+    public ByteBoundedQueue(long capacity){
+        if(capacity < 1)
+            throw new IllegalArgumentException("The capacity of the queue must be at least 1 byte");
+        this.capacity = capacity;
+    }
+
+    /**
+     * This method add an item to the queue, waiting until there is enough space for it
+     * @param item item to add
+     * @param size estimated size of the item in bytes
+     * @return true if the item was added, false if the queue was closed and the item was dropped
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized boolean put(T item, long size) throws InterruptedException {
+        while (!closed && !items.isEmpty() && bytes + size > capacity)
+            wait();
+
+        if (closed)
+            return false;
+
+        items.addLast(item);
+        sizes.addLast(size);
+        bytes += size;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * This method remove the first item of the queue, waiting until there is one
+     * @return the first item or null if the queue is closed and empty
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized T take() throws InterruptedException {
+        while (!closed && items.isEmpty())
+            wait();
+
+        if (items.isEmpty())
+            return null;
+
+        bytes -= sizes.removeFirst();
+        notifyAll();
+        return items.removeFirst();
+    }
+
+    /**
+     * This method close the queue: the items already in the queue can still be taken, the next items
+     * added are dropped
+     */
+    public synchronized void close(){
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * This method remove all the items of the queue, for example to release the resources of the items that
+     * are dropped when the pipeline fails
+     * @return the items that were in the queue, in order
+     */
+    public synchronized List<T> drain(){
+        List<T> drained = new ArrayList<>(items);
+        items.clear();
+        sizes.clear();
+        bytes = 0;
+        notifyAll();
+        return drained;
+    }
+
+    /**
+     * @return the estimated bytes in the queue
+     */
+    public synchronized long getBytes(){
+        return bytes;
+    }
+}
@@ -0,0 +1,62 @@
+package index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class represents a data field indexed from a {@link CollapsedTokenStream}. Lucene does not allow
+ * custom term frequencies together with positions, so the field is indexed only with documents and
+ * frequencies: it can be used with BM25 and LMD but not with the FSDM proximity features
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class CollapsedDataField extends Field {
+
+    private static final FieldType type = new FieldType();
+
+    static {
+        type.setStored(false);
+        type.setTokenized(true);
+        type.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        type.freeze();
+    }
+
+    /**
+     * Constructor
+     * @param key name of the field
+     * @param tokenStream stream with the tokens of the collapsed values of the field
+     */
+    public CollapsedDataField(final String key, final TokenStream tokenStream) {
+        super(key, tokenStream, type);
+    }
+
+    /**
+     * This method count an occurrence of a value of a field
+     * @param valueCounts map field - (distinct value - number of occurrences) of a dataset
+     * @param field name of the field
+     * @param value value of the field
+     */
+    public static void count(Map<String, Map<String, Integer>> valueCounts, String field, String value){
+        valueCounts.computeIfAbsent(field, f -> new HashMap<>()).merge(value, 1, Integer::sum);
+    }
+
+    /**
+     * This method add to a document a collapsed field for every field of the counted values
+     * @param document document where to add the fields
+     * @param analyzer analyzer used for the values
+     * @param valueCounts map field - (distinct value - number of occurrences) of the document
+     */
+    public static void addFields(Document document, Analyzer analyzer, Map<String, Map<String, Integer>> valueCounts){
+        for (Map.Entry<String, Map<String, Integer>> field : valueCounts.entrySet())
+            document.add(new CollapsedDataField(field.getKey(), new CollapsedTokenStream(analyzer, field.getKey(), field.getValue())));
+    }
+}
@@ -0,0 +1,87 @@
+package index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermFrequencyAttribute;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * This class is a TokenStream over the distinct values of a field, each one with the number of times that it
+ * occurs in the dataset. Every value is analyzed only once and its tokens are emitted with a term frequency
+ * equal to the number of occurrences of the value, through the {@link TermFrequencyAttribute}. The term
+ * frequencies and the field length seen by the index are the same of the field with all the repeated values
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public final class CollapsedTokenStream extends TokenStream {
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final TermFrequencyAttribute frequencyAttribute = addAttribute(TermFrequencyAttribute.class);
+
+    private final Analyzer analyzer;                        //analyzer used for every distinct value
+    private final String field;                             //name of the field
+    private final Map<String, Integer> valueCounts;         //distinct values of the field with their number of occurrences
+    private Iterator<Map.Entry<String, Integer>> values;    //iterator over the distinct values
+    private TokenStream current;                            //token stream of the value that is currently analyzed
+    private CharTermAttribute currentTerm;                  //term attribute of the current token stream
+    private int currentCount;                               //number of occurrences of the current value
+
+    /**
+     * Constructor
+     * @param analyzer analyzer used for every distinct value
+     * @param field name of the field
+     * @param valueCounts map with the distinct values of the field and their number of occurrences
+     */
+    public CollapsedTokenStream(Analyzer analyzer, String field, Map<String, Integer> valueCounts){
+        this.analyzer = analyzer;
+        this.field = field;
+        this.valueCounts = valueCounts;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        while (true) {
+            if (current == null) {
+                if (!values.hasNext())
+                    return false;
+
+                Map.Entry<String, Integer> value = values.next();
+                current = analyzer.tokenStream(field, value.getKey());
+                currentTerm = current.addAttribute(CharTermAttribute.class);
+                currentCount = value.getValue();
+                current.reset();
+            }
+
+            if (current.incrementToken()) {
+                clearAttributes();
+                termAttribute.copyBuffer(currentTerm.buffer(), 0, currentTerm.length());
+                frequencyAttribute.setTermFrequency(currentCount);
+                return true;
+            }
+
+            current.end();
+            current.close();
+            current = null;
+        }
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        values = valueCounts.entrySet().iterator();
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (current != null)
+            current.close();
+        current = null;
+    }
+}
@@ -0,0 +1,136 @@
+package index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import parse.ContentSource;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This class is a TokenStream over all the values of a field of a dataset, pulled one at a time from some
+ * content sources while the IndexWriter inverts the field, so the values are never loaded in the document.
+ * Every value is analyzed on its own and the positions and offsets of its tokens are shifted like the
+ * IndexWriter does for the values of a multi-valued field (with the position and offset gaps of the analyzer):
+ * the postings, the norms and the term vectors of the field are the same of a field added once for every value.
+ * The sources are read only once, so the stream can be consumed only once
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public final class ContentTokenStream extends TokenStream {
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute positionAttribute = addAttribute(PositionIncrementAttribute.class);
+    private final OffsetAttribute offsetAttribute = addAttribute(OffsetAttribute.class);
+
+    private final Analyzer analyzer;                        //analyzer used for every value
+    private final String field;                             //name of the field
+    private final List<ContentSource> sources;              //sources of the values, read in order
+    private int source;                                     //index of the source that is currently read
+    private boolean started;                                //indicates if at least one value was analyzed
+    private int pendingPositions;                           //position increment of the values already ended
+    private int offsetBase;                                 //offset of the start of the current value
+    private TokenStream current;                            //token stream of the value that is currently analyzed
+    private CharTermAttribute currentTerm;                  //term attribute of the current token stream
+    private PositionIncrementAttribute currentPosition;     //position increment attribute of the current token stream
+    private OffsetAttribute currentOffset;                  //offset attribute of the current token stream
+
+    /**
+     * Constructor
+     * @param analyzer analyzer used for every value, it must be the analyzer of the IndexWriter
+     * @param field name of the field, the values of the sources with a different field are skipped
+     * @param sources sources of the values of the field, they are not closed by the stream
+     */
+    public ContentTokenStream(Analyzer analyzer, String field, List<ContentSource> sources){
+        this.analyzer = analyzer;
+        this.field = field;
+        this.sources = sources;
+    }
+
+    /**
+     * This method return the next value of the field from the sources
+     * @return the next value or null if all the sources are finished
+     * @throws IOException if there are problems during the reading of a source
+     */
+    private String nextValue() throws IOException {
+        while (source < sources.size()) {
+            ContentSource contentSource = sources.get(source);
+            if (!contentSource.next()) {
+                source++;
+                continue;
+            }
+            if (field.equals(contentSource.getField()))
+                return contentSource.getValue();
+        }
+        return null;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        while (true) {
+            if (current == null) {
+                String value = nextValue();
+                if (value == null)
+                    return false;
+
+                //gaps between two values of the same field
+                if (started) {
+                    pendingPositions += analyzer.getPositionIncrementGap(field);
+                    offsetBase += analyzer.getOffsetGap(field);
+                }
+                started = true;
+
+                current = analyzer.tokenStream(field, value);
+                currentTerm = current.addAttribute(CharTermAttribute.class);
+                currentPosition = current.addAttribute(PositionIncrementAttribute.class);
+                currentOffset = current.addAttribute(OffsetAttribute.class);
+                current.reset();
+            }
+
+            if (current.incrementToken()) {
+                clearAttributes();
+                termAttribute.copyBuffer(currentTerm.buffer(), 0, currentTerm.length());
+                positionAttribute.setPositionIncrement(pendingPositions + currentPosition.getPositionIncrement());
+                offsetAttribute.setOffset(offsetBase + currentOffset.startOffset(), offsetBase + currentOffset.endOffset());
+                pendingPositions = 0;
+                return true;
+            }
+
+            //the final position increment and offset of the value are added like the IndexWriter does
+            current.end();
+            pendingPositions += currentPosition.getPositionIncrement();
+            offsetBase += currentOffset.endOffset();
+            current.close();
+            current = null;
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        positionAttribute.setPositionIncrement(pendingPositions);
+        offsetAttribute.setOffset(offsetBase, offsetBase);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        source = 0;
+        started = false;
+        pendingPositions = 0;
+        offsetBase = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (current != null)
+            current.close();
+        current = null;
+    }
+}
@@ -1,5 +1,6 @@
 package index;
 
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.index.IndexOptions;
@@ -27,4 +28,25 @@ public class DataField extends Field {
     public DataField(final String key, final String value) {
         super(key, value, type);
     }
+
+    /**
+     * Constructor
+     * @param key name of the field
+     * @param value value of the field
+     * @param profile schema profile that sets the type of the field
+     */
+    public DataField(final String key, final String value, final SchemaProfile profile) {
+        super(key, value, profile.fieldType(key));
+    }
+
+    /**
+     * Constructor for a field whose values are pulled from a token stream during the indexing, the type of
+     * the field in the profile must not be stored
+     * @param key name of the field
+     * @param stream token stream over the values of the field
+     * @param profile schema profile that sets the type of the field
+     */
+    public DataField(final String key, final TokenStream stream, final SchemaProfile profile) {
+        super(key, stream, profile.fieldType(key));
+    }
 }
@@ -0,0 +1,124 @@
+package index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import parse.ContentSource;
+import parse.DatasetFields;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * This class splits the content of a big dataset into chunk documents with a bounded number of values, that
+ * are added to the index one at a time with {@code IndexWriter.addDocument}. Every chunk document has the ID
+ * of the dataset (the chunks of a dataset are collapsed into one result at search time) and the field that
+ * marks it as a chunk of the dataset directory (see {@link IndexJournal#chunkField(String)}). The chunk
+ * documents are built lazily while they are iterated, so only one chunk of the dataset is in memory at a time
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class DatasetChunks implements Iterable<Document> {
+
+    private final String datasetDirectoryName;  //name of the dataset directory
+    private final String datasetID;             //id of the dataset
+    private final List<ContentSource> sources;  //sources of the dataset content
+    private final int chunkSize;                //max number of content values in a chunk document
+    private final SchemaProfile profile;        //schema profile of the fields
+    private final Analyzer collapseAnalyzer;    //analyzer for the collapsed fields, null if the values are not collapsed
+
+    /**
+     * Constructor
+     * @param datasetDirectoryName name of the dataset directory, added to every chunk document
+     * @param datasetID id of the dataset, added to every chunk document
+     * @param sources list of sources of the dataset content
+     * @param chunkSize max number of content values in a chunk document
+     * @param profile schema profile of the fields
+     * @param collapseAnalyzer analyzer used to index the values of every chunk document as collapsed fields
+     *                         (see {@link CollapsedDataField}), null to index them as data fields
+     */
+    public DatasetChunks(String datasetDirectoryName, String datasetID, List<ContentSource> sources, int chunkSize,
+                         SchemaProfile profile, Analyzer collapseAnalyzer){
+        if(chunkSize < 1)
+            throw new IllegalArgumentException("The chunk size must be at least 1");
+
+        this.datasetDirectoryName = datasetDirectoryName;
+        this.datasetID = datasetID;
+        this.sources = sources;
+        this.chunkSize = chunkSize;
+        this.profile = profile;
+        this.collapseAnalyzer = collapseAnalyzer;
+    }
+
+    @Override
+    public Iterator<Document> iterator() {
+        return new Iterator<>() {
+
+            private int source = 0;                 //index of the source that is currently read
+            private Document next = null;           //next chunk document
+
+            /**
+             * This method build the next chunk document by reading at most chunkSize values from the sources
+             * @return the chunk document or null if all the sources are finished
+             */
+            private Document nextChunk() throws IOException {
+                Document chunk = null;
+                Map<String, Map<String, Integer>> valueCounts = collapseAnalyzer != null ? new HashMap<>() : null;
+                int values = 0;
+
+                while (source < sources.size() && values < chunkSize) {
+                    ContentSource contentSource = sources.get(source);
+                    if (!contentSource.next()) {
+                        source++;
+                        continue;
+                    }
+
+                    if (chunk == null) {
+                        chunk = new Document();
+                        chunk.add(IndexJournal.chunkField(datasetDirectoryName));
+                        chunk.add(new MetadataField(DatasetFields.ID, datasetID, profile));
+                        DatasetIdField.addTo(chunk, datasetID);
+                    }
+                    if (valueCounts != null)
+                        CollapsedDataField.count(valueCounts, contentSource.getField(), contentSource.getValue());
+                    else
+                        chunk.add(new DataField(contentSource.getField(), contentSource.getValue(), profile));
+                    values++;
+                }
+
+                if (chunk != null && valueCounts != null)
+                    CollapsedDataField.addFields(chunk, collapseAnalyzer, valueCounts);
+
+                return chunk;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (next != null)
+                    return true;
+
+                try {
+                    next = nextChunk();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Document next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Document document = next;
+                next = null;
+                return document;
+            }
+        };
+    }
+}
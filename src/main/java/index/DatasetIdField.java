@@ -0,0 +1,52 @@
+package index;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import parse.DatasetFields;
+
+/**
+ * This class represents the dataset ID indexed as a numeric doc value, so the ID of a hit can be read without
+ * loading its stored fields (see search.DatasetIdResolver)
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class DatasetIdField extends NumericDocValuesField {
+
+    /**
+     * Constructor
+     * @param datasetID numeric ID of the dataset
+     */
+    public DatasetIdField(final long datasetID) {
+        super(DatasetFields.ID_NUMERIC, datasetID);
+    }
+
+    /**
+     * This method tell if a dataset ID is the canonical decimal form of a long, so that the numeric value
+     * gives back the same ID (for example "0042", " 42" or "+42" are not canonical)
+     * @param datasetID ID of the dataset
+     * @return true if the ID can be stored as a numeric doc value
+     */
+    public static boolean isCanonical(String datasetID){
+        if (datasetID == null)
+            return false;
+        try {
+            return Long.toString(Long.parseLong(datasetID)).equals(datasetID);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This method add the numeric ID field to a document, if the dataset ID is the canonical form of a number.
+     * The documents with the other IDs have only the stored ID
+     * @param document document of the dataset
+     * @param datasetID ID of the dataset
+     */
+    public static void addTo(Document document, String datasetID){
+        //the ID is read from the stored fields if the number does not give back the same string
+        if (isCanonical(datasetID))
+            document.add(new DatasetIdField(Long.parseLong(datasetID)));
+    }
+}
@@ -12,18 +12,26 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.FSDirectory;
+import parse.ContentSource;
+import parse.DatasetContentReader;
 import parse.DatasetFields;
 import parse.DatasetReader;
-import utils.DatasetContent;
+import parse.LightRDFContentReader;
+import parse.MappedLineReader;
 import utils.DatasetMetaData;
-import java.nio.charset.StandardCharsets;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.Reader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Scanner;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class will execute the indexing phase of EDS
@@ -39,9 +47,72 @@ public class DatasetIndexer {
     private IndexWriter writer;                         //Lucene object for creating an index
     private IndexWriterConfig iwc;                      //IndexWriterConfig of the IndexWriter $writer wrapped inside
     private static final int RAMBUFFER_SIZE = 2048 ;    //RAMBuffer size limit for the index writer
+    private static final Set<String> SKIP_DATASETS = Set.of("dataset-11580");  //datasets that are never indexed
+    private static final long QUEUE_CAPACITY = 2L * 1024 * 1024 * 1024;        //default capacity in bytes of the pipeline queues
+    private static final int TRIPLE_LIMIT = 100000;     //max number of lines read from a LightRDF file of a big dataset
+    private static final int CHUNK_SIZE = 100000;       //max number of content values in a chunk document of a downgraded dataset
+    private static final String[] CONTENT_FIELDS = {DatasetFields.ENTITIES, DatasetFields.CLASSES, DatasetFields.LITERALS, DatasetFields.PROPERTIES};
+    private Set<String> alreadyIndexed;                 //names of the dataset directories already in the index (resume mode)
     private final boolean resume;                       //indicates if the indexer is in resume mode or not
     private final boolean no_empty_datasets;            //indicates if we have to skip the empty datasets
     private JsonObject datasetMetadata;                 //metadata of the dataset
+    private AdmissionController admission = new AdmissionController();     //decides which datasets can be loaded in memory
+    private SchemaProfile schemaProfile = SchemaProfile.FULL;  //schema used for the metadata and data fields
+
+    /**
+     * This class represents a dataset read by the prefetch stage and not yet built as a document
+     */
+    private static class PrefetchedDataset implements Closeable {
+        final String name;                      //name of the dataset directory
+        DatasetMetaData metaData;               //metadata of the dataset
+        DatasetContentReader contentJena;       //streaming reader over the content extracted from JENA, null if not present
+        DatasetContentReader contentRDFLib;     //streaming reader over the content extracted from RDFLib, null if not present
+        MappedLineReader entitiesFile;          //entities extracted from LightRDF, null if not present
+        MappedLineReader classesFile;           //classes extracted from LightRDF, null if not present
+        MappedLineReader literalsFile;          //literals extracted from LightRDF, null if not present
+        MappedLineReader propertiesFile;        //properties extracted from LightRDF, null if not present
+        List<ContentSource> sources;            //sources of the content of a downgraded dataset, null if not downgraded
+        List<List<ContentSource>> fieldSources; //sources of every content field pulled during the indexing, null if not streamed
+        boolean bigDataset;                     //indicates if the dataset is big
+        long footprint;                         //estimate of the heap bytes needed by the dataset
+        boolean deferred;                       //indicates if the dataset was deferred by the admission controller
+
+        PrefetchedDataset(String name){
+            this.name = name;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (MappedLineReader file : new MappedLineReader[]{entitiesFile, classesFile, literalsFile, propertiesFile})
+                if (file != null)
+                    file.close();
+            for (ContentSource content : new ContentSource[]{contentJena, contentRDFLib})
+                if (content != null)
+                    content.close();
+            if (sources != null)
+                for (ContentSource source : sources)
+                    source.close();
+            if (fieldSources != null)
+                for (List<ContentSource> field : fieldSources)
+                    for (ContentSource source : field)
+                        source.close();
+        }
+    }
+
+    /**
+     * This class represents a dataset built by the build stage and not yet added to the index
+     */
+    private static class BuiltDataset {
+        final PrefetchedDataset prefetched;     //dataset read by the prefetch stage
+        final Document document;                //document of the dataset, only with the metadata if the dataset is downgraded
+        final DatasetChunks chunks;             //chunk documents of a downgraded dataset, null if not downgraded
+
+        BuiltDataset(PrefetchedDataset prefetched, Document document, DatasetChunks chunks){
+            this.prefetched = prefetched;
+            this.document = document;
+            this.chunks = chunks;
+        }
+    }
 
     /**
      * Constructor: this method will create the object and set the IndexWriter
@@ -102,18 +173,6 @@ public class DatasetIndexer {
         metadataReader.close();
     }
 
-    /**
-     * This method tell if a given dataset is already indexed by considering the dataset_metadata.json file
-     * already read.
-     * @throws NullPointerException if the dataset_metadata.json file is not read before the method invocation
-     * @return true if the dataset was already indexed else false
-     */
-    private boolean isIndexed() throws NullPointerException {
-        if(!datasetMetadata.has("indexed"))
-            return false;
-        return datasetMetadata.get("indexed").getAsBoolean();
-    }
-
     /**
      * This method tell if a given dataset is empty or not
      * @throws NullPointerException if the dataset_metadata.json file is not read before the method invocation
@@ -134,10 +193,13 @@ public class DatasetIndexer {
     }
 
     /**
-     * This method will index all the datasets contained in the datasetsFolderPath directory
+     * This method open the IndexWriter, read the datasets already indexed (resume mode) and return the
+     * list of the datasets to be scanned
      * @param datasetsDirectoryPath path to the directory where all the datasets are stored
+     * @return array with the files inside the datasets directory
+     * @throws IOException if there are problems during the reading of the index
      */
-    public void indexDatasets(String datasetsDirectoryPath) throws IOException {
+    private File[] openIndex(String datasetsDirectoryPath) throws IOException {
 
         //intialize the IndexWriter Object
         try {
@@ -146,6 +208,12 @@ public class DatasetIndexer {
             throw new IllegalArgumentException("Unable to create the index files in the directory: "+indexDirectory.getPath()+" error: "+e);
         }
 
+        //in resume mode the datasets already indexed are read from the index
+        if (resume)
+            alreadyIndexed = IndexJournal.readIndexedDatasets(writer);
+        else
+            alreadyIndexed = new HashSet<>();
+
         //check for the datasetsDirectoryPath
         if(datasetsDirectoryPath.isEmpty() || datasetsDirectoryPath == null)
             throw new IllegalArgumentException("The datasets directory path cannot be null or empty");
@@ -154,210 +222,578 @@ public class DatasetIndexer {
         if(!datasetsDirectory.isDirectory() || !datasetsDirectory.exists())
             throw new IllegalArgumentException("The datasets directory specified does not exist");
 
-        File[] datasets = datasetsDirectory.listFiles();
+        return datasetsDirectory.listFiles();
+    }
+
+    /**
+     * This method tell if a given file of the datasets directory has to be scanned
+     * @param dataset File object that point to the dataset
+     * @return true if the file is a dataset directory that is not in the skip list
+     */
+    private boolean isToScan(File dataset){
+        return dataset.isDirectory() && !SKIP_DATASETS.contains(dataset.getName());
+    }
+
+    /**
+     * This method set the admission controller that decides which datasets can be loaded in memory
+     * @param admission admission controller of the indexer
+     */
+    public void setAdmissionController(AdmissionController admission){
+        this.admission = admission;
+    }
+
+    /**
+     * This method set the schema profile used for the fields: it decides which fields are stored, which have
+     * term vectors and the index options of the postings. The default profile is {@link SchemaProfile#FULL}
+     * @param schemaProfile schema profile used for the fields
+     */
+    public void setSchemaProfile(SchemaProfile schemaProfile){
+        if(schemaProfile == null)
+            throw new IllegalArgumentException("The schema profile cannot be null");
+        this.schemaProfile = schemaProfile;
+    }
+
+    /**
+     * This method tells if the content fields are pulled from the content files by a {@link ContentTokenStream}
+     * while the IndexWriter inverts them: a stored field must have its values in the document, so only the
+     * profiles that do not store the data fields can stream them
+     * @return true if the content fields are indexed in streaming
+     */
+    private boolean isStreamed(){
+        return !schemaProfile.fieldType(DatasetFields.ENTITIES).stored();
+    }
+
+    /**
+     * This method will index all the datasets contained in the datasetsFolderPath directory
+     * @param datasetsDirectoryPath path to the directory where all the datasets are stored
+     */
+    public void indexDatasets(String datasetsDirectoryPath) throws IOException {
+
+        File[] datasets = openIndex(datasetsDirectoryPath);
 
         int datasetCount = 0;
         int indexedDatasets = 0;
 
-        HashSet<String> skipDatasets = new HashSet<>();
-        skipDatasets.add("dataset-11580");
-
         FileWriter listWriter = new FileWriter("list.txt");
+        List<File> deferred = new ArrayList<>();
 
         for(File dataset: datasets){
 
-            if (dataset.isDirectory() && !skipDatasets.contains(dataset.getName())) {
+            if (isToScan(dataset)) {
 
-                //read the dataset metadata
-                readDatasetMetadata(dataset);
+                PrefetchedDataset prefetched = prefetchDataset(dataset, false);
 
-                //check if the dataset is empty
-                boolean empty = false;
-                if(no_empty_datasets)
-                    empty = isEmpty();
+                if (prefetched != null && prefetched.deferred)
+                    deferred.add(dataset);
 
-                //check if the dataset was already indexed
-                boolean indexed = false;
-                if (resume)
-                    indexed = isIndexed();
+                else if (prefetched != null){
+                    addDataset(build(prefetched));
 
-                if (!indexed && !empty){
+                    datasetIndexed(listWriter, indexedDatasets, dataset.getName());
+                    indexedDatasets += 1;
+                }
 
-                    DatasetReader reader = new DatasetReader(dataset.getAbsolutePath());
-                    DatasetMetaData metaData = reader.getMetaData();
+                if (datasetCount % 100 == 0)
+                    System.out.println("Scanned: "+datasetCount+"   Indexed: "+indexedDatasets);
 
-                    //if the dataset is mined from RDFLib or Jena we recover the json file for the content
-                    //else the two variables have null value
-                    DatasetContent contentJena = reader.getContentJena();
-                    DatasetContent contentRDFLib = reader.getContentRDFLib();
+                datasetCount++;
 
-                    //check if the dataset is mined from LightRDF
-                    Scanner entitiesFile = null;
-                    Scanner classesFile = null;
-                    Scanner literalsFile = null;
-                    Scanner propertiesFile = null;
+            }
+        }
 
-                    File entities = new File(dataset.getPath()+"/entities_lightrdf.txt");
-                    File classes = new File(dataset.getPath()+"/classes_lightrdf.txt");
-                    File literals = new File(dataset.getPath()+"/literals_lightrdf.txt");
-                    File properties = new File(dataset.getPath()+"/properties_lightrdf.txt");
+        //the deferred datasets are retried after a commit, that empties the RAM buffer of the IndexWriter
+        if (!deferred.isEmpty()) {
+            writer.commit();
 
-                    boolean bigDataset = false;
+            for (File dataset : deferred) {
+                PrefetchedDataset prefetched = prefetchDataset(dataset, true);
 
-                    if(entities.exists()){
-                        entitiesFile = new Scanner(entities);
-                        classesFile = new Scanner(classes);
-                        propertiesFile = new Scanner(properties);
-                        literalsFile = new Scanner(literals);
+                if (prefetched != null) {
+                    addDataset(build(prefetched));
 
-                        bigDataset = isBigDataset(entities,properties, literals, classes);
-                    }
+                    datasetIndexed(listWriter, indexedDatasets, dataset.getName());
+                    indexedDatasets += 1;
+                }
+            }
+        }
 
-                    try {
-                        indexDataset(metaData, contentJena, contentRDFLib, entitiesFile, classesFile, propertiesFile, literalsFile, bigDataset);
+        System.out.println("Scanned: "+datasetCount+"   Indexed: "+indexedDatasets);
+        System.out.println(admission.getReport());
 
-                    } catch (OutOfMemoryError e ){
-                        System.out.println("Out of Memory in dataset:"+dataset.getName());
+        listWriter.close();
+        writer.close();
+    }
+
+    /**
+     * This method record an indexed dataset: it writes the dataset in the list.txt log and commits the index,
+     * with the progress in the commit user data, every 50 indexed datasets
+     * @param listWriter writer of the list.txt log
+     * @param indexedDatasets number of datasets indexed before this one
+     * @param datasetDirectoryName name of the dataset directory
+     * @throws IOException if there are problems with the list.txt file or with the commit
+     */
+    private void datasetIndexed(FileWriter listWriter, int indexedDatasets, String datasetDirectoryName) throws IOException {
+
+        //store the progress in the user data of the next commit
+        IndexJournal.setCommitData(writer, indexedDatasets + 1);
+
+        if (indexedDatasets % 50 == 0)
+            writer.commit();
+
+        listWriter.write(datasetDirectoryName+"\n");
+        listWriter.flush();
+    }
+
+    /**
+     * This method will index all the datasets contained in the datasetsFolderPath directory with a pipeline
+     * of three stages that run concurrently:
+     * <ul>
+     *     <li>prefetch: reads the metadata of the datasets and opens their content files</li>
+     *     <li>build: builds the Lucene document of every dataset, reading its content files</li>
+     *     <li>index: adds the documents to the index, commits and writes the list of the indexed datasets</li>
+     * </ul>
+     * The stages are connected by queues whose capacity is measured in the estimated heap bytes of the
+     * datasets, so the prefetch stage can read ahead only a bounded amount of data. The progress line reports
+     * the fraction of time that every stage spent working (and not waiting on the queues)
+     *
+     * @param datasetsDirectoryPath path to the directory where all the datasets are stored
+     * @param queueCapacity capacity in bytes of every queue of the pipeline
+     * @throws IOException if there are problems during the indexing of the datasets
+     */
+    public void indexDatasetsPipelined(String datasetsDirectoryPath, long queueCapacity) throws IOException {
+
+        File[] datasets = openIndex(datasetsDirectoryPath);
+
+        ByteBoundedQueue<PrefetchedDataset> prefetchedQueue = new ByteBoundedQueue<>(queueCapacity);
+        ByteBoundedQueue<BuiltDataset> builtQueue = new ByteBoundedQueue<>(queueCapacity);
 
+        AtomicInteger datasetCount = new AtomicInteger(0);
+        AtomicLong prefetchTime = new AtomicLong(0);        //nanoseconds spent working by the prefetch stage
+        AtomicLong buildTime = new AtomicLong(0);           //nanoseconds spent working by the build stage
+        long indexTime = 0;                                 //nanoseconds spent working by the index stage
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread prefetchStage = new Thread(() -> {
+            try {
+                List<File> deferred = new ArrayList<>();
+
+                for (File dataset : datasets) {
+                    if (isToScan(dataset)) {
+                        long start = System.nanoTime();
+                        PrefetchedDataset prefetched = prefetchDataset(dataset, false);
+                        prefetchTime.addAndGet(System.nanoTime() - start);
+
+                        datasetCount.incrementAndGet();
+
+                        if (prefetched != null && prefetched.deferred)
+                            deferred.add(dataset);
+                        else if (prefetched != null && !prefetchedQueue.put(prefetched, prefetched.footprint)) {
+                            discard(prefetched);
+                            return;
+                        }
                     }
+                }
 
-                    //force to release memory
-                    contentRDFLib = null;
-                    contentJena = null;
-                    System.gc();
+                //the deferred datasets are retried at the end, when the pipeline is emptying
+                for (File dataset : deferred) {
+                    PrefetchedDataset prefetched = prefetchDataset(dataset, true);
+                    if (prefetched != null && !prefetchedQueue.put(prefetched, prefetched.footprint)) {
+                        discard(prefetched);
+                        return;
+                    }
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                builtQueue.close();
+            } finally {
+                prefetchedQueue.close();
+            }
+        }, "prefetch-stage");
+
+        Thread buildStage = new Thread(() -> {
+            try {
+                PrefetchedDataset prefetched;
+                while ((prefetched = prefetchedQueue.take()) != null) {
+                    long start = System.nanoTime();
+                    BuiltDataset built = build(prefetched);
+                    buildTime.addAndGet(System.nanoTime() - start);
+
+                    if (!builtQueue.put(built, prefetched.footprint)) {
+                        discard(prefetched);
+                        break;
+                    }
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                prefetchedQueue.close();
+            } finally {
+                builtQueue.close();
+            }
+        }, "build-stage");
 
-                    //update the dataset_metadata.json file with the "indexed" field
-                    updateMetadata(dataset);
+        FileWriter listWriter = new FileWriter("list.txt");
+        long pipelineStart = System.nanoTime();
+        prefetchStage.start();
+        buildStage.start();
 
-                    if (indexedDatasets % 50 == 0)
-                        writer.commit();
+        int indexedDatasets = 0;
+        try {
+            BuiltDataset built;
+            while ((built = builtQueue.take()) != null) {
+                long start = System.nanoTime();
 
-                    indexedDatasets += 1;
+                addDataset(built);
+
+                datasetIndexed(listWriter, indexedDatasets, built.prefetched.name);
+                indexedDatasets += 1;
 
-                    listWriter.write(dataset.getName()+"\n");
-                    listWriter.flush();
+                indexTime += System.nanoTime() - start;
+
+                if (indexedDatasets % 100 == 0) {
+                    double elapsed = System.nanoTime() - pipelineStart;
+                    System.out.printf(Locale.ENGLISH, "Scanned: %d   Indexed: %d   Utilization: prefetch %.0f%%  build %.0f%%  index %.0f%%   Queued: %d MB%n",
+                            datasetCount.get(), indexedDatasets,
+                            100 * prefetchTime.get() / elapsed, 100 * buildTime.get() / elapsed, 100 * indexTime / elapsed,
+                            (prefetchedQueue.getBytes() + builtQueue.getBytes()) / (1024 * 1024));
                 }
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            //unblock the other stages: the datasets still in the pipeline are dropped
+            prefetchedQueue.close();
+            builtQueue.close();
+        } finally {
+            try {
+                prefetchStage.join();
+                buildStage.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, e);
+            }
 
-                if (datasetCount % 100 == 0)
-                    System.out.println("Scanned: "+datasetCount+"   Indexed: "+indexedDatasets);
+            //the datasets dropped by a failure are still in the queues: their files are closed and their
+            //memory is released
+            for (PrefetchedDataset prefetched : prefetchedQueue.drain())
+                discard(prefetched);
+            for (BuiltDataset built : builtQueue.drain())
+                discard(built.prefetched);
+
+            try {
+                listWriter.close();
+            } finally {
+                writer.close();
+            }
+        }
 
-                datasetCount++;
+        if (failure.get() != null)
+            throw new IOException("Indexing pipeline failed", failure.get());
+
+        System.out.println("Scanned: "+datasetCount.get()+"   Indexed: "+indexedDatasets);
+        System.out.println(admission.getReport());
+    }
 
+    /**
+     * This method build a prefetched dataset: the document of the dataset, or the metadata document and the
+     * chunk documents if the dataset was downgraded. If the build fails the dataset is discarded
+     * @param prefetched dataset read by {@link #prefetchDataset(File, boolean)}
+     * @return the built dataset
+     * @throws IOException if there are problems during the reading of the LightRDF files
+     */
+    private BuiltDataset build(PrefetchedDataset prefetched) throws IOException {
+        try {
+            if (prefetched.sources == null)
+                return new BuiltDataset(prefetched, buildDocument(prefetched), null);
+
+            Document metadata = new Document();
+            metadata.add(IndexJournal.directoryField(prefetched.name));
+            addMetadata(metadata, prefetched.metaData);
+            return new BuiltDataset(prefetched, metadata, new DatasetChunks(prefetched.name, prefetched.metaData.dataset_id,
+                    prefetched.sources, CHUNK_SIZE, schemaProfile, null));
+        } catch (IOException | RuntimeException e) {
+            discard(prefetched);
+            throw e;
+        }
+    }
+
+    /**
+     * This method add a built dataset to the index: the chunk documents of a downgraded dataset are added one
+     * at a time, so the IndexWriter can flush its RAM buffer between them, and they are followed by the document
+     * that marks the dataset as indexed. The chunks of a dataset that fails, or that were left in the index by
+     * an interrupted indexing process, are deleted. The files of the dataset are closed and its memory is
+     * released in any case
+     * @param built dataset built by {@link #build(PrefetchedDataset)}
+     * @throws IOException if there are problems during the index writing of the dataset
+     */
+    private void addDataset(BuiltDataset built) throws IOException {
+        try {
+            if (built.chunks != null) {
+                if (resume)
+                    writer.deleteDocuments(IndexJournal.chunkTerm(built.prefetched.name));
+
+                try {
+                    for (Document chunk : built.chunks)
+                        writer.addDocument(chunk);
+                } catch (UncheckedIOException e) {
+                    writer.deleteDocuments(IndexJournal.chunkTerm(built.prefetched.name));
+                    throw e.getCause();
+                } catch (IOException | RuntimeException e) {
+                    writer.deleteDocuments(IndexJournal.chunkTerm(built.prefetched.name));
+                    throw e;
+                }
             }
+
+            writer.addDocument(built.document);
+        } finally {
+            discard(built.prefetched);
         }
-        listWriter.close();
-        writer.close();
     }
 
     /**
-     * This method update the dataset_metadata.json file after the dataset indexing
-     * @param dataset File object that points to the dataset directory
-     * @throws IOException if there are problems with the dataset_metadata.json file of the dataset
+     * This method drop a prefetched dataset that will not be indexed: it closes the LightRDF files of the
+     * dataset and releases the memory reserved by the dataset in the admission controller
+     * @param prefetched dataset read by {@link #prefetchDataset(File, boolean)}
      */
-    private void updateMetadata(File dataset){
-        datasetMetadata.addProperty("indexed", true);
-
-        try{
-            FileWriter datasetMetadataFile=new FileWriter(dataset.getPath()+"/dataset_metadata.json", StandardCharsets.UTF_8);
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson(datasetMetadata, datasetMetadataFile);
-            datasetMetadataFile.close();
-        } catch (IOException e){
-            System.out.println("Error while updating the dataset_metadata.json file: "+e);
+    private void discard(PrefetchedDataset prefetched) {
+        try {
+            prefetched.close();
+        } catch (IOException e) {
+            System.out.println("Unable to close the files of dataset: "+prefetched.name+" error: "+e);
+        } finally {
+            admission.release(prefetched.footprint);
         }
     }
 
     /**
-     * This method will index a single dataset
+     * This method read a dataset and open its files, if the dataset has to be indexed: the content files are
+     * opened in streaming and they are read by the build stage, or by the IndexWriter if the content fields are
+     * not stored (see {@link #isStreamed()}). Before opening the content, the heap needed by the dataset is
+     * estimated from the size of its files and submitted to the admission controller: the sources of a
+     * downgraded dataset are opened to be streamed as chunk documents (see {@link DatasetChunks}), a deferred
+     * dataset is not read
      *
-     * @param metaData a DatasetMetaData object with all the dataset meta info
-     * @param contentJena a DatasetContent object with all the dataset content extracted from JENA
-     * @param contentRDFLib a DatasetContent object with all the dataset content extracted from RDFLib
-     * @param entitiesFile file with the entities extracted from LightRDF
-     * @param classesFile file with the classes extracted from LightRDF
-     * @param propertiesFile file with the properties extracted from LightRDF
-     * @param literalsFile file with the literals extracted from LightRDF
-     * @param bigDataset boolean that indicates if the dataset is big
-     * @throws IOException if there are problems during the index writing of the dataset
+     * @param dataset File object that point to the dataset
+     * @param lastAttempt true if the dataset was already deferred: it is not deferred again (see
+     *                    {@link AdmissionController#admitDeferred(long, long)})
+     * @return the dataset ready to be built as a document, a dataset marked as deferred, or null if the
+     *         dataset is already indexed or empty
+     * @throws IOException if there are problems during the reading of the dataset files
      */
-    private void indexDataset(DatasetMetaData metaData, DatasetContent contentJena, DatasetContent contentRDFLib,
-                              Scanner entitiesFile, Scanner classesFile, Scanner propertiesFile, Scanner literalsFile, boolean bigDataset) throws IOException {
+    private PrefetchedDataset prefetchDataset(File dataset, boolean lastAttempt) throws IOException {
 
-        Document dataset = new Document();
+        //check if the dataset was already indexed, without reading its files
+        if (alreadyIndexed.contains(dataset.getName()))
+            return null;
 
-        dataset.add(new MetadataField(DatasetFields.ID, metaData.dataset_id));
-        dataset.add(new MetadataField(DatasetFields.TITLE, metaData.title));
+        //check if the dataset is empty
+        if (no_empty_datasets) {
+            readDatasetMetadata(dataset);
+            if (isEmpty())
+                return null;
+        }
+
+        PrefetchedDataset prefetched = new PrefetchedDataset(dataset.getName());
+
+        File entities = new File(dataset.getPath()+"/entities_lightrdf.txt");
+        File classes = new File(dataset.getPath()+"/classes_lightrdf.txt");
+        File literals = new File(dataset.getPath()+"/literals_lightrdf.txt");
+        File properties = new File(dataset.getPath()+"/properties_lightrdf.txt");
+
+        boolean lightRDF = entities.exists();
+        boolean bigDataset = lightRDF && isBigDataset(entities,properties, literals, classes);
+
+        //a downgraded dataset is streamed as chunk documents, only one chunk at a time is in memory
+        long chunkFootprint = admission.estimateFootprint((long) CHUNK_SIZE * AdmissionController.LINE_BYTES);
+
+        //estimate of the heap needed by the dataset, in the normal and in the truncated mode. The values of a
+        //streamed dataset are never in memory, so it needs the heap of a chunk and it is never downgraded: the
+        //shape of its document does not depend on the free heap
+        long jsonBytes = AdmissionController.fileBytes(new File(dataset.getPath()+"/dataset_content_jena.json"),
+                new File(dataset.getPath()+"/dataset_content_rdflib.json"));
+        long truncatedBytes = jsonBytes + AdmissionController.boundedBytes(entities, TRIPLE_LIMIT) + AdmissionController.boundedBytes(classes, TRIPLE_LIMIT)
+                + AdmissionController.boundedBytes(literals, TRIPLE_LIMIT) + AdmissionController.boundedBytes(properties, TRIPLE_LIMIT);
+        long footprint;
+        long downgradedFootprint;
+        if (isStreamed()) {
+            footprint = chunkFootprint;
+            downgradedFootprint = -1;
+        } else {
+            footprint = admission.estimateFootprint(bigDataset ? truncatedBytes : jsonBytes + AdmissionController.fileBytes(entities, classes, literals, properties));
+            //in the last attempt the chunked mode is used also for the small datasets that do not fit
+            downgradedFootprint = footprint > chunkFootprint || lastAttempt ? chunkFootprint : -1;
+        }
+
+        AdmissionController.Decision decision;
+        try {
+            decision = lastAttempt ? admission.admitDeferred(footprint, downgradedFootprint) : admission.admit(footprint, downgradedFootprint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the admission of dataset: "+dataset.getName());
+        }
+
+        switch (decision) {
+            case DEFER:
+                prefetched.deferred = true;
+                return prefetched;
+            case DOWNGRADE:
+                prefetched.sources = new ArrayList<>();
+                footprint = downgradedFootprint;
+                break;
+            default:
+                break;
+        }
+
+        prefetched.footprint = footprint;
+        prefetched.bigDataset = bigDataset;
+
+        try {
+            DatasetReader reader = new DatasetReader(dataset.getAbsolutePath());
+            prefetched.metaData = reader.getMetaData();
+
+            if (prefetched.sources != null) {
+
+                //the content of a downgraded dataset is read in streaming while its chunks are indexed
+                DatasetContentReader contentJena = reader.streamContentJena();
+                if (contentJena != null)
+                    prefetched.sources.add(contentJena);
+                DatasetContentReader contentRDFLib = reader.streamContentRDFLib();
+                if (contentRDFLib != null)
+                    prefetched.sources.add(contentRDFLib);
+                if (lightRDF)
+                    prefetched.sources.add(new LightRDFContentReader(dataset.getPath()));
+                return prefetched;
+            }
+
+            if (isStreamed()) {
+
+                //the values of every field are pulled from its sources while the IndexWriter inverts the field,
+                //in the order of buildDocument: JENA, RDFLib, LightRDF files
+                prefetched.fieldSources = new ArrayList<>();
+                for (String field : CONTENT_FIELDS) {
+                    List<ContentSource> sources = new ArrayList<>();
+                    prefetched.fieldSources.add(sources);
+
+                    DatasetContentReader contentJena = reader.streamContentJena(field);
+                    if (contentJena != null)
+                        sources.add(contentJena);
+                    DatasetContentReader contentRDFLib = reader.streamContentRDFLib(field);
+                    if (contentRDFLib != null)
+                        sources.add(contentRDFLib);
+
+                    File file = new File(dataset.getPath()+"/"+field+"_lightrdf.txt");
+                    if (lightRDF && file.exists())
+                        sources.add(new LightRDFContentReader(file, field, bigDataset ? TRIPLE_LIMIT : Long.MAX_VALUE));
+                }
+                return prefetched;
+            }
+
+            //if the dataset is mined from RDFLib or Jena we open in streaming the json file for the content
+            //else the two variables have null value
+            prefetched.contentJena = reader.streamContentJena();
+            prefetched.contentRDFLib = reader.streamContentRDFLib();
+
+            //check if the dataset is mined from LightRDF
+            if(lightRDF){
+                prefetched.entitiesFile = new MappedLineReader(entities);
+                prefetched.classesFile = new MappedLineReader(classes);
+                prefetched.propertiesFile = new MappedLineReader(properties);
+                prefetched.literalsFile = new MappedLineReader(literals);
+            }
+        } catch (IOException | RuntimeException e) {
+            discard(prefetched);
+            throw e;
+        }
+
+        return prefetched;
+    }
+
+    /**
+     * This method will add the metadata fields of a dataset to a document
+     * @param dataset document of the dataset
+     * @param metaData metadata of the dataset
+     */
+    private void addMetadata(Document dataset, DatasetMetaData metaData){
+        dataset.add(new MetadataField(DatasetFields.ID, metaData.dataset_id, schemaProfile));
+        DatasetIdField.addTo(dataset, metaData.dataset_id);
+        dataset.add(new MetadataField(DatasetFields.TITLE, metaData.title, schemaProfile));
 
         if (metaData.description != null)
-            dataset.add(new MetadataField(DatasetFields.DESCRIPTION, metaData.description));
+            dataset.add(new MetadataField(DatasetFields.DESCRIPTION, metaData.description, schemaProfile));
 
         if (metaData.author!=null)
-            dataset.add(new MetadataField(DatasetFields.AUTHOR, metaData.author));
+            dataset.add(new MetadataField(DatasetFields.AUTHOR, metaData.author, schemaProfile));
 
         //split the tags
         String stringTags = metaData.tags;
         String[] tags = stringTags.split(":");
 
         for(String tag: tags)
-            dataset.add(new MetadataField(DatasetFields.TAGS, tag));
+            dataset.add(new MetadataField(DatasetFields.TAGS, tag, schemaProfile));
+    }
 
-        //add the content extracted by JENA
+    /**
+     * This method will build the document of a single dataset. The values of the content files are read one
+     * at a time: if the content fields are stored every value is added to the document as a field, else the
+     * fields pull the values from their sources while the IndexWriter inverts them
+     *
+     * @param prefetched dataset read by {@link #prefetchDataset(File, boolean)}
+     * @return the document of the dataset
+     * @throws IOException if there are problems during the reading of the content files
+     */
+    private Document buildDocument(PrefetchedDataset prefetched) throws IOException {
 
-        if (contentJena != null) {
-            for (String entity : contentJena.entities)
-                dataset.add(new DataField(DatasetFields.ENTITIES, entity));
+        DatasetMetaData metaData = prefetched.metaData;
+        DatasetContentReader contentJena = prefetched.contentJena;
+        DatasetContentReader contentRDFLib = prefetched.contentRDFLib;
+        MappedLineReader entitiesFile = prefetched.entitiesFile;
+        MappedLineReader classesFile = prefetched.classesFile;
+        MappedLineReader literalsFile = prefetched.literalsFile;
+        MappedLineReader propertiesFile = prefetched.propertiesFile;
+        boolean bigDataset = prefetched.bigDataset;
 
-            for (String dClass : contentJena.classes)
-                dataset.add(new DataField(DatasetFields.CLASSES, dClass));
+        Document dataset = new Document();
 
-            for (String literal : contentJena.literals)
-                dataset.add(new DataField(DatasetFields.LITERALS, literal));
+        dataset.add(IndexJournal.directoryField(prefetched.name));
+        addMetadata(dataset, metaData);
 
-            for (String property : contentJena.properties)
-                dataset.add(new DataField(DatasetFields.PROPERTIES, property));
+        //the content fields are not stored: they are read by the IndexWriter from their sources
+        if (prefetched.fieldSources != null) {
+            for (int i = 0; i < CONTENT_FIELDS.length; i++)
+                dataset.add(new DataField(CONTENT_FIELDS[i], new ContentTokenStream(iwc.getAnalyzer(), CONTENT_FIELDS[i], prefetched.fieldSources.get(i)), schemaProfile));
+            return dataset;
         }
 
-        //release memory
-        contentJena = null;
-        System.gc();
-
-        //add the content extracted by RDFLib
+        //add the content extracted by JENA, one value at a time
 
-        if(contentRDFLib!=null){
-            for(String entity: contentRDFLib.entities)
-                dataset.add(new DataField(DatasetFields.ENTITIES, entity));
-
-            for(String dClass: contentRDFLib.classes)
-                dataset.add(new DataField(DatasetFields.CLASSES, dClass));
+        if (contentJena != null) {
+            while (contentJena.next())
+                dataset.add(new DataField(contentJena.getField(), contentJena.getValue(), schemaProfile));
+        }
 
-            for(String literal: contentRDFLib.literals)
-                dataset.add(new DataField(DatasetFields.LITERALS, literal));
+        //add the content extracted by RDFLib, one value at a time
 
-            for(String property: contentRDFLib.properties)
-                dataset.add(new DataField(DatasetFields.PROPERTIES, property));
+        if(contentRDFLib!=null){
+            while (contentRDFLib.next())
+                dataset.add(new DataField(contentRDFLib.getField(), contentRDFLib.getValue(), schemaProfile));
         }
 
-        //release memory
-        contentRDFLib = null;
-        System.gc();
-
         //check if there are elements from LightRDF
+        String line;
 
         if(entitiesFile != null && !bigDataset) {
-            while(entitiesFile.hasNext()){
-                dataset.add(new DataField(DatasetFields.ENTITIES, entitiesFile.nextLine().replace("\n", "")));
+            while((line = entitiesFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.ENTITIES, line, schemaProfile));
             }
 
-            while(classesFile.hasNext()){
-                dataset.add(new DataField(DatasetFields.CLASSES, classesFile.nextLine().replace("\n", "")));
+            while((line = classesFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.CLASSES, line, schemaProfile));
             }
 
-            while(literalsFile.hasNext()){
-                dataset.add(new DataField(DatasetFields.LITERALS, literalsFile.nextLine().replace("\n", "")));
+            while((line = literalsFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.LITERALS, line, schemaProfile));
             }
 
-            while(propertiesFile.hasNext()){
-                dataset.add(new DataField(DatasetFields.PROPERTIES, propertiesFile.nextLine().replace("\n", "")));
+            while((line = propertiesFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.PROPERTIES, line, schemaProfile));
             }
             entitiesFile.close();
             classesFile.close();
@@ -368,29 +804,27 @@ public class DatasetIndexer {
 
         if(entitiesFile != null && bigDataset) {
 
-            int tripleLimit = 100000;
-
             int i = 0;
-            while(entitiesFile.hasNext() && i < tripleLimit){
-                dataset.add(new DataField(DatasetFields.ENTITIES, entitiesFile.nextLine().replace("\n", "")));
+            while(i < TRIPLE_LIMIT && (line = entitiesFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.ENTITIES, line, schemaProfile));
                 i++;
             }
 
             i = 0;
-            while(classesFile.hasNext() && i < tripleLimit){
-                dataset.add(new DataField(DatasetFields.CLASSES, classesFile.nextLine().replace("\n", "")));
+            while(i < TRIPLE_LIMIT && (line = classesFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.CLASSES, line, schemaProfile));
                 i++;
             }
 
             i = 0;
-            while(literalsFile.hasNext() && i < tripleLimit){
-                dataset.add(new DataField(DatasetFields.LITERALS, literalsFile.nextLine().replace("\n", "")));
+            while(i < TRIPLE_LIMIT && (line = literalsFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.LITERALS, line, schemaProfile));
                 i++;
             }
 
             i = 0;
-            while(propertiesFile.hasNext() && i < tripleLimit){
-                dataset.add(new DataField(DatasetFields.PROPERTIES, propertiesFile.nextLine().replace("\n", "")));
+            while(i < TRIPLE_LIMIT && (line = propertiesFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.PROPERTIES, line, schemaProfile));
                 i++;
             }
             entitiesFile.close();
@@ -400,13 +834,7 @@ public class DatasetIndexer {
 
         }
 
-        //System.out.println((Runtime.getRuntime().totalMemory() / (1024*1024)) - (Runtime.getRuntime().freeMemory() / (1024*1024) ));
-
-        try {
-            writer.addDocument(dataset);
-        } catch (OutOfMemoryError e){
-            System.out.println("OutOfMemory in dataset: "+metaData.dataset_id);
-        }
+        return dataset;
     }
 
     /**
@@ -425,7 +853,13 @@ public class DatasetIndexer {
         boolean no_empty_dataset = false;
         DatasetIndexer indexer = new DatasetIndexer(indexPath, s, a, resume, no_empty_dataset);
 
-        indexer.indexDatasets(datasetsDirectoryPath);
+        boolean pipelined = false;
+        if (pipelined) {
+            //the prefetch stage waits up to one minute for the memory of the datasets in the pipeline
+            indexer.setAdmissionController(new AdmissionController(AdmissionController.DEFAULT_EXPANSION, AdmissionController.DEFAULT_RESERVE, 60000));
+            indexer.indexDatasetsPipelined(datasetsDirectoryPath, QUEUE_CAPACITY);
+        } else
+            indexer.indexDatasets(datasetsDirectoryPath);
 
     }
 
@@ -9,17 +9,21 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.FSDirectory;
+import parse.ContentSource;
+import parse.DatasetContentReader;
 import parse.DatasetFields;
 import parse.DatasetReader;
-import utils.DatasetContent;
 import utils.DatasetMetaData;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Scanner;
 
 /**
@@ -36,9 +40,12 @@ public class DatasetIndexerLabels {
     private IndexWriter writer;                         //Lucene object for creating an index
     private IndexWriterConfig iwc;                      //IndexWriterConfig of the IndexWriter $writer wrapped inside
     private static final int RAMBUFFER_SIZE = 2048 ;    //RAMBuffer size limit for the index writer
+    private Set<String> alreadyIndexed;                 //names of the dataset directories already in the index (resume mode)
     private final boolean resume;                       //indicates if the indexer is in resume mode or not
     private final boolean no_empty_datasets;            //indicates if we have to skip the empty datasets
     private JsonObject datasetMetadata;                 //metadata of the dataset
+    private final AdmissionController admission = new AdmissionController();   //decides which datasets can be loaded in memory
+    private SchemaProfile schemaProfile = SchemaProfile.FULL;  //schema used for the metadata and data fields
 
     /**
      * Constructor: this method will create the object and set the IndexWriter
@@ -73,6 +80,17 @@ public class DatasetIndexerLabels {
 
     }
 
+    /**
+     * This method set the schema profile used for the fields: it decides which fields are stored, which have
+     * term vectors and the index options of the postings. The default profile is {@link SchemaProfile#FULL}
+     * @param schemaProfile schema profile used for the fields
+     */
+    public void setSchemaProfile(SchemaProfile schemaProfile){
+        if(schemaProfile == null)
+            throw new IllegalArgumentException("The schema profile cannot be null");
+        this.schemaProfile = schemaProfile;
+    }
+
     /**
      * This method returns true if a given dataset is considered big (at least one of the input files is bigger
      * than 1 GB)
@@ -99,18 +117,6 @@ public class DatasetIndexerLabels {
         metadataReader.close();
     }
 
-    /**
-     * This method tell if a given dataset is already indexed by considering the dataset_metadata.json file
-     * already read.
-     * @throws NullPointerException if the dataset_metadata.json file is not read before the method invocation
-     * @return true if the dataset was already indexed else false
-     */
-    private boolean isIndexed() throws NullPointerException {
-        if(!datasetMetadata.has("indexed"))
-            return false;
-        return datasetMetadata.get("indexed").getAsBoolean();
-    }
-
     /**
      * This method tell if a given dataset is empty or not
      * @throws NullPointerException if the dataset_metadata.json file is not read before the method invocation
@@ -130,6 +136,16 @@ public class DatasetIndexerLabels {
         return empty;
     }
 
+    /**
+     * This method tells if the content fields are pulled from the content file by a {@link ContentTokenStream}
+     * while the IndexWriter inverts them: a stored field must have its values in the document, so only the
+     * profiles that do not store the data fields can stream them
+     * @return true if the content fields are indexed in streaming
+     */
+    private boolean isStreamed(){
+        return !schemaProfile.fieldType(DatasetFields.ENTITIES).stored();
+    }
+
     /**
      * This method will index all the datasets contained in the datasetsFolderPath directory
      * @param datasetsDirectoryPath path to the directory where all the datasets are stored
@@ -143,6 +159,12 @@ public class DatasetIndexerLabels {
             throw new IllegalArgumentException("Unable to create the index files in the directory: "+indexDirectory.getPath()+" error: "+e);
         }
 
+        //in resume mode the datasets already indexed are read from the index
+        if (resume)
+            alreadyIndexed = IndexJournal.readIndexedDatasets(writer);
+        else
+            alreadyIndexed = new HashSet<>();
+
         //check for the datasetsDirectoryPath
         if(datasetsDirectoryPath.isEmpty() || datasetsDirectoryPath == null)
             throw new IllegalArgumentException("The datasets directory path cannot be null or empty");
@@ -160,55 +182,33 @@ public class DatasetIndexerLabels {
         skipDatasets.add("dataset-11580");
 
         FileWriter listWriter = new FileWriter("list.txt");
+        List<File> deferred = new ArrayList<>();
 
         for(File dataset: datasets){
 
             if (dataset.isDirectory() && !skipDatasets.contains(dataset.getName())) {
 
-                //read the dataset metadata
-                readDatasetMetadata(dataset);
+                //check if the dataset was already indexed, without reading its files
+                boolean indexed = alreadyIndexed.contains(dataset.getName());
 
                 //check if the dataset is empty
                 boolean empty = false;
-                if(no_empty_datasets)
+                if(!indexed && no_empty_datasets) {
+                    readDatasetMetadata(dataset);
                     empty = isEmpty();
-
-                //check if the dataset was already indexed
-                boolean indexed = false;
-                if (resume)
-                    indexed = isIndexed();
+                }
 
                 if (!indexed && !empty){
 
-                    DatasetReader reader = new DatasetReader(dataset.getAbsolutePath());
-                    DatasetMetaData metaData = reader.getMetaData();
-
-                    //if the dataset is mined from RDFLib or Jena we recover the json file for the content
-                    //else the two variables have null value
-                    DatasetContent contentRDFLibHR = reader.getContentRDFLibHRClean();
-
-                    try {
-                        indexDataset(metaData, contentRDFLibHR);
-
-                    } catch (OutOfMemoryError e ){
-                        System.out.println("Out of Memory in dataset:"+dataset.getName());
+                    long footprint = admitDataset(dataset, false);
 
+                    if (footprint < 0)
+                        deferred.add(dataset);
+                    else {
+                        indexDatasetDirectory(dataset, footprint);
+                        datasetIndexed(listWriter, indexedDatasets, dataset.getName());
+                        indexedDatasets += 1;
                     }
-
-                    //force to release memory
-                    contentRDFLibHR = null;
-                    System.gc();
-
-                    //update the dataset_metadata.json file with the "indexed" field
-                    updateMetadata(dataset);
-
-                    if (indexedDatasets % 50 == 0)
-                        writer.commit();
-
-                    indexedDatasets += 1;
-
-                    listWriter.write(dataset.getName()+"\n");
-                    listWriter.flush();
                 }
 
                 if (datasetCount % 100 == 0)
@@ -218,81 +218,150 @@ public class DatasetIndexerLabels {
 
             }
         }
+        //the deferred datasets are retried after a commit, that empties the RAM buffer of the IndexWriter
+        if (!deferred.isEmpty()) {
+            writer.commit();
+
+            for (File dataset : deferred) {
+                long footprint = admitDataset(dataset, true);
+
+                if (footprint >= 0) {
+                    indexDatasetDirectory(dataset, footprint);
+                    datasetIndexed(listWriter, indexedDatasets, dataset.getName());
+                    indexedDatasets += 1;
+                }
+            }
+        }
+
+        System.out.println(admission.getReport());
+
         listWriter.close();
         writer.close();
     }
 
     /**
-     * This method update the dataset_metadata.json file after the dataset indexing
-     * @param dataset File object that points to the dataset directory
-     * @throws IOException if there are problems with the dataset_metadata.json file of the dataset
+     * This method submit a dataset to the admission controller, with the heap needed by the dataset estimated
+     * from the size of its content file
+     * @param dataset File object that point to the dataset
+     * @param lastAttempt true if the dataset was already deferred: it is not deferred again (see
+     *                    {@link AdmissionController#admitDeferred(long, long)})
+     * @return the footprint reserved for the dataset or -1 if the dataset is deferred
+     * @throws IOException if the thread is interrupted while waiting for the admission
+     */
+    private long admitDataset(File dataset, boolean lastAttempt) throws IOException {
+        long footprint = admission.estimateFootprint(AdmissionController.fileBytes(new File(dataset.getPath()+"/dataset_content_rdflibhr_clean.json")));
+
+        try {
+            if (lastAttempt) {
+                admission.admitDeferred(footprint, -1);
+                return footprint;
+            }
+            if (admission.admit(footprint, -1) == AdmissionController.Decision.ADMIT)
+                return footprint;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the admission of dataset: "+dataset.getName());
+        }
+
+        return -1;
+    }
+
+    /**
+     * This method read and index a single dataset directory, then release its footprint
+     * @param dataset File object that point to the dataset
+     * @param footprint footprint reserved for the dataset by the admission controller
+     * @throws IOException if there are problems during the reading or the indexing of the dataset
      */
-    private void updateMetadata(File dataset){
-        datasetMetadata.addProperty("indexed", true);
-
-        try{
-            FileWriter datasetMetadataFile=new FileWriter(dataset.getPath()+"/dataset_metadata.json", StandardCharsets.UTF_8);
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson(datasetMetadata, datasetMetadataFile);
-            datasetMetadataFile.close();
-        } catch (IOException e){
-            System.out.println("Error while updating the dataset_metadata.json file: "+e);
+    private void indexDatasetDirectory(File dataset, long footprint) throws IOException {
+        try {
+            DatasetReader reader = new DatasetReader(dataset.getAbsolutePath());
+            DatasetMetaData metaData = reader.getMetaData();
+
+            indexDataset(dataset.getName(), metaData, reader);
+        } finally {
+            admission.release(footprint);
         }
     }
 
     /**
-     * This method will index a single dataset
+     * This method record an indexed dataset: it writes the dataset in the list.txt log and commits the index,
+     * with the progress in the commit user data, every 50 indexed datasets
+     * @param listWriter writer of the list.txt log
+     * @param indexedDatasets number of datasets indexed before this one
+     * @param datasetDirectoryName name of the dataset directory
+     * @throws IOException if there are problems with the list.txt file or with the commit
+     */
+    private void datasetIndexed(FileWriter listWriter, int indexedDatasets, String datasetDirectoryName) throws IOException {
+
+        //store the progress in the user data of the next commit
+        IndexJournal.setCommitData(writer, indexedDatasets + 1);
+
+        if (indexedDatasets % 50 == 0)
+            writer.commit();
+
+        listWriter.write(datasetDirectoryName+"\n");
+        listWriter.flush();
+    }
+
+    /**
+     * This method will index a single dataset. The content file is read in streaming: if the content fields
+     * are stored every value is added to the document as a field, else the fields pull the values from the
+     * content file while the IndexWriter inverts them
      *
+     * @param datasetDirectoryName name of the dataset directory
      * @param metaData a DatasetMetaData object with all the dataset meta info
-     * @param contentRDFLibHR a DatasetContent object with all the dataset content extracted from RDFLib
-     * @throws IOException if there are problems during the index writing of the dataset
+     * @param reader DatasetReader over the dataset directory
+     * @throws IOException if there are problems during the reading or the index writing of the dataset
      */
-    private void indexDataset(DatasetMetaData metaData, DatasetContent contentRDFLibHR) throws IOException {
+    private void indexDataset(String datasetDirectoryName, DatasetMetaData metaData, DatasetReader reader) throws IOException {
 
         Document dataset = new Document();
 
-        dataset.add(new MetadataField(DatasetFields.ID, metaData.dataset_id));
-        dataset.add(new MetadataField(DatasetFields.TITLE, metaData.title));
+        dataset.add(IndexJournal.directoryField(datasetDirectoryName));
+        dataset.add(new MetadataField(DatasetFields.ID, metaData.dataset_id, schemaProfile));
+        DatasetIdField.addTo(dataset, metaData.dataset_id);
+        dataset.add(new MetadataField(DatasetFields.TITLE, metaData.title, schemaProfile));
 
         if (metaData.description != null)
-            dataset.add(new MetadataField(DatasetFields.DESCRIPTION, metaData.description));
+            dataset.add(new MetadataField(DatasetFields.DESCRIPTION, metaData.description, schemaProfile));
 
         if (metaData.author!=null)
-            dataset.add(new MetadataField(DatasetFields.AUTHOR, metaData.author));
+            dataset.add(new MetadataField(DatasetFields.AUTHOR, metaData.author, schemaProfile));
 
         //split the tags
         String stringTags = metaData.tags;
         String[] tags = stringTags.split(":");
 
         for(String tag: tags)
-            dataset.add(new MetadataField(DatasetFields.TAGS, tag));
-
-        //add the content extracted by RDFLibHR
-
-        if(contentRDFLibHR!=null){
-            for(String entity: contentRDFLibHR.entities)
-                dataset.add(new DataField(DatasetFields.ENTITIES, entity));
-
-            for(String dClass: contentRDFLibHR.classes)
-                dataset.add(new DataField(DatasetFields.CLASSES, dClass));
+            dataset.add(new MetadataField(DatasetFields.TAGS, tag, schemaProfile));
 
-            for(String literal: contentRDFLibHR.literals)
-                dataset.add(new DataField(DatasetFields.LITERALS, literal));
+        //add the content extracted by RDFLibHR, if the dataset is mined from RDFLib or Jena
 
-            for(String property: contentRDFLibHR.properties)
-                dataset.add(new DataField(DatasetFields.PROPERTIES, property));
-        }
-
-        //release memory
-        contentRDFLibHR = null;
-        System.gc();
+        List<ContentSource> opened = new ArrayList<>();
+        try {
+            if (isStreamed()) {
+                for (String field : new String[]{DatasetFields.ENTITIES, DatasetFields.CLASSES, DatasetFields.LITERALS, DatasetFields.PROPERTIES}) {
+                    DatasetContentReader contentRDFLibHR = reader.streamContentRDFLibHRClean(field);
+                    if (contentRDFLibHR != null) {
+                        opened.add(contentRDFLibHR);
+                        dataset.add(new DataField(field, new ContentTokenStream(iwc.getAnalyzer(), field, List.of(contentRDFLibHR)), schemaProfile));
+                    }
+                }
+            } else {
+                DatasetContentReader contentRDFLibHR = reader.streamContentRDFLibHRClean();
+                if (contentRDFLibHR != null) {
+                    opened.add(contentRDFLibHR);
+                    while (contentRDFLibHR.next())
+                        dataset.add(new DataField(contentRDFLibHR.getField(), contentRDFLibHR.getValue(), schemaProfile));
+                }
+            }
 
-        //System.out.println((Runtime.getRuntime().totalMemory() / (1024*1024)) - (Runtime.getRuntime().freeMemory() / (1024*1024) ));
+            //System.out.println((Runtime.getRuntime().totalMemory() / (1024*1024)) - (Runtime.getRuntime().freeMemory() / (1024*1024) ));
 
-        try {
             writer.addDocument(dataset);
-        } catch (OutOfMemoryError e){
-            System.out.println("OutOfMemory in dataset: "+metaData.dataset_id);
+        } finally {
+            for (ContentSource source : opened)
+                source.close();
         }
     }
 
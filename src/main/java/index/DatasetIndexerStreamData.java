@@ -9,18 +9,34 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.FSDirectory;
+import parse.ContentSource;
+import parse.DatasetContentReader;
 import parse.DatasetFields;
 import parse.DatasetReader;
-import utils.DatasetContent;
+import parse.MappedLineReader;
+import parse.LightRDFContentReader;
+import parse.ReservoirSampler;
+import parse.ValueListSource;
 import utils.DatasetMetaData;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Scanner;
+import java.util.Set;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class will execute the indexing phase of EDS
@@ -36,9 +52,26 @@ public class DatasetIndexerStreamData {
     private IndexWriter writer;                         //Lucene object for creating an index
     private IndexWriterConfig iwc;                      //IndexWriterConfig of the IndexWriter $writer wrapped inside
     private static final int RAMBUFFER_SIZE = 2048 ;    //RAMBuffer size limit for the index writer
+    private Set<String> alreadyIndexed;                 //names of the dataset directories already in the index (resume mode)
     private final boolean resume;                       //indicates if the indexer is in resume mode or not
     private final boolean no_empty_datasets;            //indicates if we have to skip the empty datasets
-    private JsonObject datasetMetadata;                 //metadata of the dataset
+    private final int threads;                          //number of workers used to index the datasets
+    private FileWriter listWriter;                      //writer of the list.txt file with the indexed datasets
+    private int datasetCount;                           //number of datasets scanned
+    private int indexedDatasets;                        //number of datasets indexed
+    private BigDatasetMode bigDatasetMode = BigDatasetMode.TRUNCATE;    //strategy used for the big datasets
+    private static final int CHUNK_SIZE = 100000;       //max number of content values in a chunk document of a big dataset
+    private SchemaProfile schemaProfile = SchemaProfile.FULL;  //schema used for the metadata and data fields
+    private long indexingTime;                          //time in ms of the last indexing process
+    private boolean collapseTermFrequencies = false;    //indicates if the repeated content values are collapsed with their term frequency
+    private int sampleSize = 100000;                    //number of lines sampled from every LightRDF file of a big dataset
+    private long seed = 42;                             //seed of the sampling of the big datasets
+    private static final int TRIPLE_LIMIT = 100000;     //max number of lines read from a LightRDF file of a big dataset in TRUNCATE mode
+    private AdmissionController admission = new AdmissionController();     //decides which datasets can be loaded in memory
+    private final List<File> deferred = new ArrayList<>();     //datasets deferred by the admission controller
+    private int shard = 0;                              //shard of the datasets indexed by this indexer
+    private int numShards = 1;                          //number of shards in which the datasets are partitioned
+    private boolean forwardIndex = false;               //indicates if the forward index is built after the indexing
 
     /**
      * Constructor: this method will create the object and set the IndexWriter
@@ -49,8 +82,21 @@ public class DatasetIndexerStreamData {
      * @param no_empty_datasets boolean that indicates if we want to ignore the empty datasets
      */
     public DatasetIndexerStreamData(String indexPath, Similarity similarity, Analyzer analyzer, boolean resume, boolean no_empty_datasets){
+        this(indexPath, similarity, analyzer, resume, no_empty_datasets, 1);
+    }
+
+    /**
+     * Constructor: this method will create the object and set the IndexWriter
+     * @param indexPath string with the path to the directory where to store the index
+     * @param similarity similarity that must be used during the indexing
+     * @param analyzer analyzer that must be used during the indexing phase
+     * @param resume boolean that indicates if we have to resume an indexing process
+     * @param no_empty_datasets boolean that indicates if we want to ignore the empty datasets
+     * @param threads number of workers that will index the datasets concurrently
+     */
+    public DatasetIndexerStreamData(String indexPath, Similarity similarity, Analyzer analyzer, boolean resume, boolean no_empty_datasets, int threads){
         //check for the indexPath
-        if(indexPath.isEmpty() || indexPath == null)
+        if(indexPath == null || indexPath.isEmpty())
             throw new IllegalArgumentException("The index directory path cannot be null or empty");
 
         indexDirectory = new File(indexPath);
@@ -71,6 +117,115 @@ public class DatasetIndexerStreamData {
         this.resume = resume;
         this.no_empty_datasets = no_empty_datasets;
 
+        //check for the number of threads
+        if(threads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+        this.threads = threads;
+
+    }
+
+    /**
+     * This method set the strategy used for the big datasets: with {@link BigDatasetMode#TRUNCATE} only the
+     * first lines of every LightRDF file are indexed, with {@link BigDatasetMode#SAMPLE} a random sample of
+     * the lines of every LightRDF file is indexed, with {@link BigDatasetMode#CHUNK} the whole dataset is
+     * indexed as chunk documents followed by a document with the metadata
+     * @param bigDatasetMode strategy used for the big datasets
+     */
+    public void setBigDatasetMode(BigDatasetMode bigDatasetMode){
+        if(bigDatasetMode == null)
+            throw new IllegalArgumentException("The big dataset mode cannot be null");
+        this.bigDatasetMode = bigDatasetMode;
+    }
+
+    /**
+     * This method set the schema profile used for the fields: it decides which fields are stored, which have
+     * term vectors and the index options of the postings. The default profile is {@link SchemaProfile#FULL}
+     * @param schemaProfile schema profile used for the fields
+     */
+    public void setSchemaProfile(SchemaProfile schemaProfile){
+        if(schemaProfile == null)
+            throw new IllegalArgumentException("The schema profile cannot be null");
+        this.schemaProfile = schemaProfile;
+    }
+
+    /**
+     * This method enable or disable the collapsed mode: every distinct content value of a dataset is analyzed
+     * once and its tokens are indexed with a term frequency equal to the number of occurrences of the value.
+     * The BM25 and LMD statistics are the same of the normal mode, but the content fields have no positions,
+     * no term vectors and they are not stored, so the index cannot be used for FSDM
+     * @param collapseTermFrequencies true to enable the collapsed mode
+     */
+    public void setCollapseTermFrequencies(boolean collapseTermFrequencies){
+        this.collapseTermFrequencies = collapseTermFrequencies;
+    }
+
+    /**
+     * This method enable or disable the build of the forward index (see {@link ForwardIndex}) after the last
+     * commit of the indexing. The forward index needs the {@link SchemaProfile#FULL} profile and it is not
+     * built by the shard indexers, since the document ids change with the merge of the shards
+     * @param forwardIndex true to build the forward index
+     */
+    public void setForwardIndex(boolean forwardIndex){
+        this.forwardIndex = forwardIndex;
+    }
+
+    /**
+     * This method set the parameters of the sampling of the big datasets used with {@link BigDatasetMode#SAMPLE}:
+     * every LightRDF file is read once and a uniform random sample of its lines is indexed
+     * @param sampleSize number of lines sampled from every LightRDF file
+     * @param seed seed of the sampling, the same seed gives the same index
+     */
+    public void setSampling(int sampleSize, long seed){
+        if(sampleSize < 1)
+            throw new IllegalArgumentException("The sample size must be at least 1");
+        this.sampleSize = sampleSize;
+        this.seed = seed;
+    }
+
+    /**
+     * This method restrict the indexer to one shard of the datasets: the dataset directories are partitioned
+     * by the hash of their name, and only the directories of the given shard are indexed. The list of the
+     * indexed datasets is written in list_shard_[shard].txt
+     * @param shard shard indexed by this indexer, from 0 to numShards - 1
+     * @param numShards number of shards
+     */
+    public void setShard(int shard, int numShards){
+        if(numShards < 1 || shard < 0 || shard >= numShards)
+            throw new IllegalArgumentException("The shard must be between 0 and the number of shards - 1");
+        this.shard = shard;
+        this.numShards = numShards;
+    }
+
+    /**
+     * This method divide the RAM buffer of the IndexWriter by the number of writers that are running in the
+     * same JVM, for example the shards built by the threads of one process. The writers in separate processes
+     * have their own heap and they must keep the full RAM buffer
+     * @param writers number of IndexWriters that share the heap of this JVM
+     */
+    public void setSharedRAMBuffer(int writers){
+        if(writers < 1)
+            throw new IllegalArgumentException("The number of writers must be at least 1");
+        iwc.setRAMBufferSizeMB((double) RAMBUFFER_SIZE / writers);
+    }
+
+    /**
+     * This method tell if a dataset directory belongs to a shard
+     * @param dataset File object that points to the dataset directory
+     * @param shard shard, from 0 to numShards - 1
+     * @param numShards number of shards
+     * @return true if the dataset belongs to the shard
+     */
+    public static boolean isInShard(File dataset, int shard, int numShards){
+        return Math.floorMod(dataset.getName().hashCode(), numShards) == shard;
+    }
+
+    /**
+     * This method set the admission controller that decides which datasets can be loaded in memory.
+     * With more than one worker the controller should wait for the memory of the datasets in flight
+     * @param admission admission controller of the indexer
+     */
+    public void setAdmissionController(AdmissionController admission){
+        this.admission = admission;
     }
 
     /**
@@ -88,35 +243,24 @@ public class DatasetIndexerStreamData {
     }
 
     /**
-     * This method read and load the dataset metadata in the indexer private field
+     * This method read and return the dataset metadata
      * @param dataset File object that point to the dataset
+     * @return JsonObject with the content of the dataset_metadata.json file
      * @throws IOException if there are problems with the opening/closing of the dataset_metadata.json file
      */
-    private void readDatasetMetadata(File dataset) throws IOException {
+    private JsonObject readDatasetMetadata(File dataset) throws IOException {
         FileReader metadataReader = new FileReader(dataset.getPath()+"/dataset_metadata.json");
         JsonElement metadataJson = JsonParser.parseReader(metadataReader);
-        datasetMetadata = metadataJson.getAsJsonObject();
         metadataReader.close();
-    }
-
-    /**
-     * This method tell if a given dataset is already indexed by considering the dataset_metadata.json file
-     * already read.
-     * @throws NullPointerException if the dataset_metadata.json file is not read before the method invocation
-     * @return true if the dataset was already indexed else false
-     */
-    private boolean isIndexed() throws NullPointerException {
-        if(!datasetMetadata.has("indexed"))
-            return false;
-        return datasetMetadata.get("indexed").getAsBoolean();
+        return metadataJson.getAsJsonObject();
     }
 
     /**
      * This method tell if a given dataset is empty or not
-     * @throws NullPointerException if the dataset_metadata.json file is not read before the method invocation
+     * @param datasetMetadata metadata of the dataset
      * @return true if the dataset is empty else false
      */
-    private boolean isEmpty(){
+    private boolean isEmpty(JsonObject datasetMetadata){
         boolean empty = true;
         if(datasetMetadata.has("mined_files_jena"))
             empty = empty && (datasetMetadata.get("mined_files_jena").getAsJsonArray().size() == 0);
@@ -131,239 +275,553 @@ public class DatasetIndexerStreamData {
     }
 
     /**
-     * This method will index all the datasets contained in the datasetsFolderPath directory
+     * This method will index all the datasets contained in the datasetsFolderPath directory.
+     * If the indexer was created with more than one thread the datasets are read, parsed and added to the
+     * index concurrently by a pool of workers that share the same IndexWriter
      * @param datasetsDirectoryPath path to the directory where all the datasets are stored
      */
     public void indexDatasets(String datasetsDirectoryPath) throws IOException {
 
-        //intialize the IndexWriter Object
-        try {
-            writer = new IndexWriter(FSDirectory.open(indexDirectory.toPath()), iwc);
-        } catch (IOException e) {
-            throw new IllegalArgumentException("Unable to create the index files in the directory: "+indexDirectory.getPath()+" error: "+e);
-        }
-
         //check for the datasetsDirectoryPath
-        if(datasetsDirectoryPath.isEmpty() || datasetsDirectoryPath == null)
+        if(datasetsDirectoryPath == null || datasetsDirectoryPath.isEmpty())
             throw new IllegalArgumentException("The datasets directory path cannot be null or empty");
 
         File datasetsDirectory = new File(datasetsDirectoryPath);
         if(!datasetsDirectory.isDirectory() || !datasetsDirectory.exists())
             throw new IllegalArgumentException("The datasets directory specified does not exist");
 
+        //intialize the IndexWriter Object
+        try {
+            writer = new IndexWriter(FSDirectory.open(indexDirectory.toPath()), iwc);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to create the index files in the directory: "+indexDirectory.getPath()+" error: "+e);
+        }
+
         File[] datasets = datasetsDirectory.listFiles();
 
-        int datasetCount = 0;
-        int indexedDatasets = 0;
+        datasetCount = 0;
+        indexedDatasets = 0;
 
         HashSet<String> skipDatasets = new HashSet<>();
         skipDatasets.add("dataset-11580");
 
-        FileWriter listWriter = new FileWriter("list.txt");
+        deferred.clear();
+        listWriter = null;
 
-        for(File dataset: datasets){
+        long start = System.currentTimeMillis();
 
-            if (dataset.isDirectory() && !skipDatasets.contains(dataset.getName())) {
+        try {
+            //in resume mode the datasets already indexed are read from the index
+            if (resume)
+                alreadyIndexed = IndexJournal.readIndexedDatasets(writer);
+            else
+                alreadyIndexed = new HashSet<>();
+
+            listWriter = new FileWriter(numShards == 1 ? "list.txt" : "list_shard_"+shard+".txt");
+
+            if (threads == 1) {
+                for (File dataset : datasets) {
+                    if (dataset.isDirectory() && !skipDatasets.contains(dataset.getName()) && isInShard(dataset, shard, numShards))
+                        processDataset(dataset, false);
+                }
+            } else {
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                List<Future<?>> tasks = new ArrayList<>();
+
+                for (File dataset : datasets) {
+                    if (dataset.isDirectory() && !skipDatasets.contains(dataset.getName()) && isInShard(dataset, shard, numShards)) {
+                        tasks.add(pool.submit(() -> {
+                            processDataset(dataset, false);
+                            return null;
+                        }));
+                    }
+                }
 
-                //read the dataset metadata
-                readDatasetMetadata(dataset);
+                pool.shutdown();
+
+                //wait for all the workers and propagate the first error found
+                try {
+                    for (Future<?> task : tasks)
+                        task.get();
+                } catch (InterruptedException e) {
+                    pool.shutdownNow();
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Indexing interrupted", e);
+                } catch (ExecutionException e) {
+                    pool.shutdownNow();
+                    throw new IOException("Error while indexing the datasets", e.getCause());
+                }
+            }
 
-                //check if the dataset is empty
-                boolean empty = false;
-                if(no_empty_datasets)
-                    empty = isEmpty();
+            //the deferred datasets are retried at the end, one at a time, after a commit that empties the RAM
+            //buffer of the IndexWriter
+            if (!deferred.isEmpty()) {
+                writer.commit();
+                for (File dataset : deferred)
+                    processDataset(dataset, true);
+            }
+        } finally {
+            //the writers are closed also when a dataset fails, so the index is not left locked
+            try {
+                if (listWriter != null)
+                    listWriter.close();
+            } finally {
+                writer.close();
+            }
+        }
 
-                //check if the dataset was already indexed
-                boolean indexed = false;
-                if (resume)
-                    indexed = isIndexed();
+        if (forwardIndex && numShards == 1)
+            ForwardIndex.build(indexDirectory.toPath());
 
-                if (!indexed && !empty){
+        //report of the indexing process
+        indexingTime = System.currentTimeMillis() - start;
+        System.out.println("Scanned: "+datasetCount+"   Indexed: "+indexedDatasets+"   Threads: "+threads+"   Time: "+indexingTime+" ms");
+        System.out.printf(Locale.ENGLISH, "Profile: %s   Index size: %.2f MB   Throughput: %.2f datasets/s%n",
+                schemaProfile, getIndexSize() / Math.pow(1024, 2), indexedDatasets / Math.max(indexingTime / 1000.0, 0.001));
+        System.out.println(admission.getReport());
+    }
 
-                    DatasetReader reader = new DatasetReader(dataset.getAbsolutePath());
-                    DatasetMetaData metaData = reader.getMetaData();
+    /**
+     * @return the size in bytes of the files in the index directory
+     */
+    public long getIndexSize(){
+        long size = 0;
+        File[] files = indexDirectory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                size += file.length();
+        }
+        return size;
+    }
 
-                    //if the dataset is mined from RDFLib or Jena we recover the json file for the content
-                    //else the two variables have null value
-                    DatasetContent contentJena = reader.getContentJenaDeduplication();
-                    DatasetContent contentLightRDF = reader.getContentLightRDF();
+    /**
+     * @return the number of datasets indexed by the last indexing process
+     */
+    public int getIndexedDatasets(){
+        return indexedDatasets;
+    }
 
-                    //check if the dataset is mined from LightRDF
-                    Scanner entitiesFile = null;
-                    Scanner classesFile = null;
-                    Scanner literalsFile = null;
-                    Scanner propertiesFile = null;
+    /**
+     * @return the time in ms of the last indexing process
+     */
+    public long getIndexingTime(){
+        return indexingTime;
+    }
 
-                    File entities = new File(dataset.getPath()+"/entities_lightrdf.txt");
-                    File classes = new File(dataset.getPath()+"/classes_lightrdf.txt");
-                    File literals = new File(dataset.getPath()+"/literals_lightrdf.txt");
-                    File properties = new File(dataset.getPath()+"/properties_lightrdf.txt");
+    /**
+     * This method return the bytes of the LightRDF files that are read for a big dataset in the
+     * TRUNCATE or SAMPLE mode
+     * @param files LightRDF files of the dataset
+     * @return estimate of the bytes of the lines that are kept in memory
+     */
+    private long bigDatasetBytes(File... files){
+        long lines = bigDatasetMode == BigDatasetMode.SAMPLE ? sampleSize : TRIPLE_LIMIT;
+        long bytes = 0;
+        for (File file : files)
+            bytes += AdmissionController.boundedBytes(file, lines);
+        return bytes;
+    }
+
+    /**
+     * This method will read, parse and index a single dataset directory. It can be called concurrently
+     * by the workers of the indexer. Before reading the content, the heap needed by the dataset is estimated
+     * from the size of its files and submitted to the admission controller: a downgraded dataset is indexed
+     * as chunk documents (see {@link BigDatasetMode#CHUNK}), a deferred dataset is retried at the end
+     * @param dataset File object that points to the dataset directory
+     * @param lastAttempt true if the dataset was already deferred: it is not deferred again (see
+     *                    {@link AdmissionController#admitDeferred(long, long)})
+     * @throws IOException if there are problems during the reading or the indexing of the dataset
+     */
+    private void processDataset(File dataset, boolean lastAttempt) throws IOException {
+
+        //check if the dataset was already indexed, without reading its files
+        boolean indexed = alreadyIndexed.contains(dataset.getName());
+
+        //check if the dataset is empty
+        boolean empty = false;
+        if(!indexed && no_empty_datasets)
+            empty = isEmpty(readDatasetMetadata(dataset));
+
+        if (!indexed && !empty){
+
+            File entities = new File(dataset.getPath()+"/entities_lightrdf.txt");
+            File classes = new File(dataset.getPath()+"/classes_lightrdf.txt");
+            File literals = new File(dataset.getPath()+"/literals_lightrdf.txt");
+            File properties = new File(dataset.getPath()+"/properties_lightrdf.txt");
+
+            boolean bigDataset = entities.exists() && isBigDataset(entities, properties, literals, classes);
+
+            //estimate of the heap needed by the dataset: the content is streamed, so the heap is needed
+            //by the fields of the document (or by the fields of a chunk in CHUNK mode). A streamed dataset
+            //has only one value at a time in memory (plus the sample in SAMPLE mode) and it is never
+            //downgraded, so the shape of its document does not depend on the free heap
+            long chunkFootprint = admission.estimateFootprint((long) CHUNK_SIZE * AdmissionController.LINE_BYTES);
+            long jsonBytes = AdmissionController.fileBytes(new File(dataset.getPath()+"/dataset_content_jena_deduplication.json"),
+                    new File(dataset.getPath()+"/dataset_content_lightrdf.json"));
+            boolean streamed = !(bigDataset && bigDatasetMode == BigDatasetMode.CHUNK) && isStreamed();
+
+            long footprint;
+            if (bigDataset && bigDatasetMode == BigDatasetMode.CHUNK)
+                footprint = chunkFootprint;
+            else if (streamed && bigDataset && bigDatasetMode == BigDatasetMode.SAMPLE)
+                footprint = Math.max(chunkFootprint, admission.estimateFootprint(bigDatasetBytes(entities, classes, literals, properties)));
+            else if (streamed)
+                footprint = chunkFootprint;
+            else if (bigDataset)
+                footprint = admission.estimateFootprint(jsonBytes + bigDatasetBytes(entities, classes, literals, properties));
+            else
+                footprint = admission.estimateFootprint(jsonBytes + AdmissionController.fileBytes(entities, classes, literals, properties));
+
+            //in the last attempt the CHUNK mode is used also for the small datasets that do not fit
+            long downgradedFootprint = -1;
+            if (!streamed && (footprint > chunkFootprint || lastAttempt))
+                downgradedFootprint = chunkFootprint;
+
+            AdmissionController.Decision decision;
+            try {
+                if (lastAttempt)
+                    decision = admission.admitDeferred(footprint, downgradedFootprint);
+                else
+                    decision = admission.admit(footprint, downgradedFootprint);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the admission of dataset: "+dataset.getName());
+            }
 
-                    boolean bigDataset = false;
+            if (decision == AdmissionController.Decision.DEFER) {
+                //the dataset is counted as scanned now, the retry at the end does not count it again
+                deferDataset(dataset);
+                datasetScanned();
+                return;
+            }
 
-                    if(entities.exists()){
-                        entitiesFile = new Scanner(entities);
-                        classesFile = new Scanner(classes);
-                        propertiesFile = new Scanner(properties);
-                        literalsFile = new Scanner(literals);
+            boolean chunked = (bigDataset && bigDatasetMode == BigDatasetMode.CHUNK) || decision == AdmissionController.Decision.DOWNGRADE;
+            if (decision == AdmissionController.Decision.DOWNGRADE)
+                footprint = chunkFootprint;
 
-                        bigDataset = isBigDataset(entities,properties, literals, classes);
-                    }
+            try {
+                DatasetReader reader = new DatasetReader(dataset.getAbsolutePath());
+                DatasetMetaData metaData = reader.getMetaData();
 
-                    try {
-                        indexDataset(metaData, contentJena, contentLightRDF, entitiesFile, classesFile, propertiesFile, literalsFile, bigDataset);
+                if (!chunked && isStreamed()) {
 
-                    } catch (OutOfMemoryError e ){
-                        System.out.println("Out of Memory in dataset:"+dataset.getName());
+                    //the values are pulled from the content files while the IndexWriter inverts the fields
+                    indexDatasetStreamed(dataset, metaData, reader, bigDataset);
 
-                    }
+                } else if (chunked) {
 
-                    //force to release memory
-                    contentLightRDF = null;
-                    contentJena = null;
-                    System.gc();
+                    //if the dataset is mined from LightRDF or Jena we open in streaming the json file for the content
+                    //else the two variables have null value
+                    DatasetContentReader contentJena = reader.streamContentJenaDeduplication();
+                    DatasetContentReader contentLightRDF = reader.streamContentLightRDF();
+
+                    //the whole dataset is indexed as chunk documents
+                    List<ContentSource> sources = new ArrayList<>();
+                    if (contentJena != null)
+                        sources.add(contentJena);
+                    if (contentLightRDF != null)
+                        sources.add(contentLightRDF);
+                    if (entities.exists())
+                        sources.add(new LightRDFContentReader(dataset.getPath()));
 
-                    //update the dataset_metadata.json file with the "indexed" field
-                    updateMetadata(dataset);
+                    try {
+                        indexDatasetChunks(dataset.getName(), metaData, sources);
+                    } finally {
+                        for (ContentSource source : sources)
+                            source.close();
+                    }
 
-                    if (indexedDatasets % 50 == 0)
-                        writer.commit();
+                } else {
 
-                    indexedDatasets += 1;
+                    DatasetContentReader contentJena = reader.streamContentJenaDeduplication();
+                    DatasetContentReader contentLightRDF = reader.streamContentLightRDF();
 
-                    listWriter.write(dataset.getName()+"\n");
-                    listWriter.flush();
-                }
+                    //check if the dataset is mined from LightRDF
+                    MappedLineReader entitiesFile = null;
+                    MappedLineReader classesFile = null;
+                    MappedLineReader literalsFile = null;
+                    MappedLineReader propertiesFile = null;
 
-                if (datasetCount % 100 == 0)
-                    System.out.println("Scanned: "+datasetCount+"   Indexed: "+indexedDatasets);
+                    if(entities.exists()){
+                        entitiesFile = new MappedLineReader(entities);
+                        classesFile = new MappedLineReader(classes);
+                        propertiesFile = new MappedLineReader(properties);
+                        literalsFile = new MappedLineReader(literals);
+                    }
 
-                datasetCount++;
+                    try {
+                        indexDataset(dataset.getName(), metaData, contentJena, contentLightRDF, entitiesFile, classesFile, propertiesFile, literalsFile, bigDataset);
 
+                    } finally {
+                        if (contentJena != null)
+                            contentJena.close();
+                        if (contentLightRDF != null)
+                            contentLightRDF.close();
+                    }
+                }
+            } finally {
+                admission.release(footprint);
             }
+
+            datasetIndexed(dataset);
         }
-        listWriter.close();
-        writer.close();
+
+        if (!lastAttempt)
+            datasetScanned();
     }
 
     /**
-     * This method update the dataset_metadata.json file after the dataset indexing
+     * This method add a dataset to the list of the datasets deferred by the admission controller
      * @param dataset File object that points to the dataset directory
-     * @throws IOException if there are problems with the dataset_metadata.json file of the dataset
      */
-    private void updateMetadata(File dataset){
-        datasetMetadata.addProperty("indexed", true);
-
-        try{
-            FileWriter datasetMetadataFile=new FileWriter(dataset.getPath()+"/dataset_metadata.json", StandardCharsets.UTF_8);
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson(datasetMetadata, datasetMetadataFile);
-            datasetMetadataFile.close();
-        } catch (IOException e){
-            System.out.println("Error while updating the dataset_metadata.json file: "+e);
-        }
+    private synchronized void deferDataset(File dataset) {
+        deferred.add(dataset);
     }
 
     /**
-     * This method will index a single dataset
-     *
-     * @param metaData a DatasetMetaData object with all the dataset meta info
-     * @param contentJena a DatasetContent object with all the dataset content extracted from JENA
-     * @param contentRDFLib a DatasetContent object with all the dataset content extracted from RDFLib
-     * @param entitiesFile file with the entities extracted from LightRDF
-     * @param classesFile file with the classes extracted from LightRDF
-     * @param propertiesFile file with the properties extracted from LightRDF
-     * @param literalsFile file with the literals extracted from LightRDF
-     * @param bigDataset boolean that indicates if the dataset is big
-     * @throws IOException if there are problems during the index writing of the dataset
+     * This method update the indexing counters after the indexing of a dataset: it writes the dataset
+     * in the list.txt log and commits the index, with the progress in the commit user data, every 50
+     * indexed datasets
+     * @param dataset File object that points to the dataset directory
+     * @throws IOException if there are problems with the list.txt file or with the commit
      */
-    private void indexDataset(DatasetMetaData metaData, DatasetContent contentJena, DatasetContent contentRDFLib,
-                              Scanner entitiesFile, Scanner classesFile, Scanner propertiesFile, Scanner literalsFile, boolean bigDataset) throws IOException {
+    private synchronized void datasetIndexed(File dataset) throws IOException {
+        IndexJournal.setCommitData(writer, indexedDatasets + 1);
 
-        Document dataset = new Document();
+        if (indexedDatasets % 50 == 0)
+            writer.commit();
+
+        indexedDatasets += 1;
+
+        listWriter.write(dataset.getName()+"\n");
+        listWriter.flush();
+    }
 
-        dataset.add(new MetadataField(DatasetFields.ID, metaData.dataset_id));
-        dataset.add(new MetadataField(DatasetFields.TITLE, metaData.title));
+    /**
+     * This method update the scanned datasets counter and prints the progress
+     */
+    private synchronized void datasetScanned() {
+        if (datasetCount % 100 == 0)
+            System.out.println("Scanned: "+datasetCount+"   Indexed: "+indexedDatasets);
+
+        datasetCount++;
+    }
+
+    /**
+     * This method will add the metadata fields of a dataset to a given document
+     * @param dataset document where to add the metadata fields
+     * @param metaData a DatasetMetaData object with all the dataset meta info
+     */
+    private void addMetadata(Document dataset, DatasetMetaData metaData){
+        dataset.add(new MetadataField(DatasetFields.ID, metaData.dataset_id, schemaProfile));
+        DatasetIdField.addTo(dataset, metaData.dataset_id);
+        dataset.add(new MetadataField(DatasetFields.TITLE, metaData.title, schemaProfile));
 
         if (metaData.description != null)
-            dataset.add(new MetadataField(DatasetFields.DESCRIPTION, metaData.description));
+            dataset.add(new MetadataField(DatasetFields.DESCRIPTION, metaData.description, schemaProfile));
 
         if (metaData.author!=null)
-            dataset.add(new MetadataField(DatasetFields.AUTHOR, metaData.author));
+            dataset.add(new MetadataField(DatasetFields.AUTHOR, metaData.author, schemaProfile));
 
         //split the tags
         String stringTags = metaData.tags;
         String[] tags = stringTags.split(":");
 
         for(String tag: tags)
-            dataset.add(new MetadataField(DatasetFields.TAGS, tag));
+            dataset.add(new MetadataField(DatasetFields.TAGS, tag, schemaProfile));
+    }
 
-        //add the content extracted by JENA
+    /**
+     * This method will index a big dataset as chunk documents of at most CHUNK_SIZE values, every one added with
+     * its own addDocument call so the RAM buffer of the IndexWriter can be flushed between two chunks, followed
+     * by a document with the metadata of the dataset that marks the dataset as indexed. The chunks left in the
+     * index by an interrupted or failed indexing of the dataset are deleted
+     *
+     * @param datasetDirectoryName name of the dataset directory
+     * @param metaData a DatasetMetaData object with all the dataset meta info
+     * @param sources list of sources of the dataset content
+     * @throws IOException if there are problems during the index writing of the dataset
+     */
+    private void indexDatasetChunks(String datasetDirectoryName, DatasetMetaData metaData, List<ContentSource> sources) throws IOException {
+        if (resume)
+            writer.deleteDocuments(IndexJournal.chunkTerm(datasetDirectoryName));
 
-        if (contentJena != null) {
-            for (String entity : contentJena.entities)
-                dataset.add(new DataField(DatasetFields.ENTITIES, entity));
+        try {
+            for (Document chunk : new DatasetChunks(datasetDirectoryName, metaData.dataset_id, sources, CHUNK_SIZE, schemaProfile,
+                    collapseTermFrequencies ? iwc.getAnalyzer() : null))
+                writer.addDocument(chunk);
+        } catch (UncheckedIOException e) {
+            writer.deleteDocuments(IndexJournal.chunkTerm(datasetDirectoryName));
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            writer.deleteDocuments(IndexJournal.chunkTerm(datasetDirectoryName));
+            throw e;
+        }
 
-            for (String dClass : contentJena.classes)
-                dataset.add(new DataField(DatasetFields.CLASSES, dClass));
+        Document dataset = new Document();
+        dataset.add(IndexJournal.directoryField(datasetDirectoryName));
+        addMetadata(dataset, metaData);
+        writer.addDocument(dataset);
+    }
 
-            for (String literal : contentJena.literals)
-                dataset.add(new DataField(DatasetFields.LITERALS, literal));
+    /**
+     * This method will add a content value to a dataset document, or count it if the indexer is in
+     * collapsed mode
+     * @param dataset document of the dataset
+     * @param valueCounts map field - (distinct value - number of occurrences) or null if the mode is not collapsed
+     * @param field name of the field
+     * @param value value of the field
+     */
+    private void addContent(Document dataset, Map<String, Map<String, Integer>> valueCounts, String field, String value){
+        if (valueCounts != null)
+            CollapsedDataField.count(valueCounts, field, value);
+        else
+            dataset.add(new DataField(field, value, schemaProfile));
+    }
 
-            for (String property : contentJena.properties)
-                dataset.add(new DataField(DatasetFields.PROPERTIES, property));
-        }
+    /**
+     * This method tells if the content fields are indexed in streaming (see {@link #indexDatasetStreamed}):
+     * a stored field must have its value in the document, so only the profiles that do not store the data
+     * fields can stream them, and the collapsed mode needs all the values to count them
+     * @return true if the content fields are indexed in streaming
+     */
+    private boolean isStreamed(){
+        return !collapseTermFrequencies && !schemaProfile.fieldType(DatasetFields.ENTITIES).stored();
+    }
 
-        //release memory
-        contentJena = null;
-        System.gc();
+    /**
+     * This method will index a single dataset with one field for every content field, whose values are pulled
+     * from the content files by a {@link ContentTokenStream} while the IndexWriter inverts the field. Only one
+     * value at a time is in memory (plus the sample of the LightRDF files in SAMPLE mode), and the index is the
+     * same of the one built by {@link #indexDataset}
+     *
+     * @param dataset File object that points to the dataset directory
+     * @param metaData a DatasetMetaData object with all the dataset meta info
+     * @param reader DatasetReader over the dataset directory
+     * @param bigDataset boolean that indicates if the dataset is big
+     * @throws IOException if there are problems during the reading or the index writing of the dataset
+     */
+    private void indexDatasetStreamed(File dataset, DatasetMetaData metaData, DatasetReader reader, boolean bigDataset) throws IOException {
 
-        //add the content extracted by RDFLib
+        Document document = new Document();
 
-        if(contentRDFLib!=null){
+        document.add(IndexJournal.directoryField(dataset.getName()));
+        addMetadata(document, metaData);
 
-            if(contentRDFLib.entities != null) {
-                for(String entity: contentRDFLib.entities)
-                    dataset.add(new DataField(DatasetFields.ENTITIES, entity));
-            }
+        String[] fields = {DatasetFields.ENTITIES, DatasetFields.CLASSES, DatasetFields.LITERALS, DatasetFields.PROPERTIES};
+        boolean lightRDF = new File(dataset.getPath()+"/entities_lightrdf.txt").exists();
+        List<ContentSource> opened = new ArrayList<>();
 
-            if(contentRDFLib.classes != null) {
-                for(String dClass: contentRDFLib.classes)
-                    dataset.add(new DataField(DatasetFields.CLASSES, dClass));
+        try {
+            //in SAMPLE mode the LightRDF files are sampled before, in the same order of indexDataset, so the
+            //sample does not change
+            List<List<String>> samples = null;
+            if (lightRDF && bigDataset && bigDatasetMode == BigDatasetMode.SAMPLE) {
+                Random random = new Random(seed * 31 + metaData.dataset_id.hashCode());
+                samples = new ArrayList<>();
+                for (String field : fields) {
+                    File file = new File(dataset.getPath()+"/"+field+"_lightrdf.txt");
+                    if (!file.exists()) {
+                        samples.add(null);
+                        continue;
+                    }
+                    try (MappedLineReader lines = new MappedLineReader(file)) {
+                        samples.add(ReservoirSampler.sample(lines, sampleSize, random));
+                    }
+                }
             }
 
-            if(contentRDFLib.literals != null) {
-                for(String literal: contentRDFLib.literals)
-                    dataset.add(new DataField(DatasetFields.LITERALS, literal));
-            }
+            //the values of every field are read in the order of indexDataset: JENA, LightRDF json, LightRDF files
+            for (int i = 0; i < fields.length; i++) {
+                List<ContentSource> sources = new ArrayList<>();
+
+                DatasetContentReader contentJena = reader.streamContentJenaDeduplication(fields[i]);
+                if (contentJena != null)
+                    sources.add(contentJena);
 
-            if(contentRDFLib.properties != null) {
-                for(String property: contentRDFLib.properties)
-                    dataset.add(new DataField(DatasetFields.PROPERTIES, property));
+                DatasetContentReader contentLightRDF = reader.streamContentLightRDF(fields[i]);
+                if (contentLightRDF != null)
+                    sources.add(contentLightRDF);
+
+                File file = new File(dataset.getPath()+"/"+fields[i]+"_lightrdf.txt");
+                if (samples != null) {
+                    if (samples.get(i) != null)
+                        sources.add(new ValueListSource(fields[i], samples.get(i)));
+                } else if (lightRDF && file.exists()) {
+                    sources.add(new LightRDFContentReader(file, fields[i], bigDataset ? TRIPLE_LIMIT : Long.MAX_VALUE));
+                }
+
+                opened.addAll(sources);
+                document.add(new DataField(fields[i], new ContentTokenStream(iwc.getAnalyzer(), fields[i], sources), schemaProfile));
             }
+
+            writer.addDocument(document);
+
+        } finally {
+            for (ContentSource source : opened)
+                source.close();
         }
+    }
+
+    /**
+     * This method will index a single dataset
+     *
+     * @param datasetDirectoryName name of the dataset directory
+     * @param metaData a DatasetMetaData object with all the dataset meta info
+     * @param contentJena a streaming reader over the dataset content extracted from JENA
+     * @param contentLightRDF a streaming reader over the dataset content extracted from LightRDF
+     * @param entitiesFile file with the entities extracted from LightRDF
+     * @param classesFile file with the classes extracted from LightRDF
+     * @param propertiesFile file with the properties extracted from LightRDF
+     * @param literalsFile file with the literals extracted from LightRDF
+     * @param bigDataset boolean that indicates if the dataset is big
+     * @throws IOException if there are problems during the index writing of the dataset
+     */
+    private void indexDataset(String datasetDirectoryName, DatasetMetaData metaData, DatasetContentReader contentJena, DatasetContentReader contentLightRDF,
+                              MappedLineReader entitiesFile, MappedLineReader classesFile, MappedLineReader propertiesFile, MappedLineReader literalsFile, boolean bigDataset) throws IOException {
+
+        Document dataset = new Document();
 
-        //release memory
-        contentRDFLib = null;
-        System.gc();
+        dataset.add(IndexJournal.directoryField(datasetDirectoryName));
+        addMetadata(dataset, metaData);
+
+        //in collapsed mode the content values are counted and added at the end as collapsed fields
+        Map<String, Map<String, Integer>> valueCounts = null;
+        if (collapseTermFrequencies)
+            valueCounts = new HashMap<>();
+
+        //add the content extracted by JENA, one value at a time
+
+        if (contentJena != null) {
+            while (contentJena.next())
+                addContent(dataset, valueCounts, contentJena.getField(), contentJena.getValue());
+        }
+
+        //add the content extracted by LightRDF in the json file, one value at a time
+
+        if (contentLightRDF != null) {
+            while (contentLightRDF.next())
+                addContent(dataset, valueCounts, contentLightRDF.getField(), contentLightRDF.getValue());
+        }
 
         //check if there are elements from LightRDF
+        String line;
 
         if(entitiesFile != null && !bigDataset) {
-            while(entitiesFile.hasNext()){
-                dataset.add(new DataField(DatasetFields.ENTITIES, entitiesFile.nextLine().replace("\n", "")));
+            while((line = entitiesFile.nextLine()) != null){
+                addContent(dataset, valueCounts, DatasetFields.ENTITIES, line);
             }
 
-            while(classesFile.hasNext()){
-                dataset.add(new DataField(DatasetFields.CLASSES, classesFile.nextLine().replace("\n", "")));
+            while((line = classesFile.nextLine()) != null){
+                addContent(dataset, valueCounts, DatasetFields.CLASSES, line);
             }
 
-            while(literalsFile.hasNext()){
-                dataset.add(new DataField(DatasetFields.LITERALS, literalsFile.nextLine().replace("\n", "")));
+            while((line = literalsFile.nextLine()) != null){
+                addContent(dataset, valueCounts, DatasetFields.LITERALS, line);
             }
 
-            while(propertiesFile.hasNext()){
-                dataset.add(new DataField(DatasetFields.PROPERTIES, propertiesFile.nextLine().replace("\n", "")));
+            while((line = propertiesFile.nextLine()) != null){
+                addContent(dataset, valueCounts, DatasetFields.PROPERTIES, line);
             }
             entitiesFile.close();
             classesFile.close();
@@ -372,31 +830,54 @@ public class DatasetIndexerStreamData {
 
         }
 
-        if(entitiesFile != null && bigDataset) {
+        if(entitiesFile != null && bigDataset && bigDatasetMode == BigDatasetMode.SAMPLE) {
+
+            //the random generator depends only on the seed and on the dataset, so the sample does not
+            //depend on the order in which the workers index the datasets
+            Random random = new Random(seed * 31 + metaData.dataset_id.hashCode());
+
+            for (String entity : ReservoirSampler.sample(entitiesFile, sampleSize, random))
+                addContent(dataset, valueCounts, DatasetFields.ENTITIES, entity);
+
+            for (String dClass : ReservoirSampler.sample(classesFile, sampleSize, random))
+                addContent(dataset, valueCounts, DatasetFields.CLASSES, dClass);
+
+            for (String literal : ReservoirSampler.sample(literalsFile, sampleSize, random))
+                addContent(dataset, valueCounts, DatasetFields.LITERALS, literal);
+
+            for (String property : ReservoirSampler.sample(propertiesFile, sampleSize, random))
+                addContent(dataset, valueCounts, DatasetFields.PROPERTIES, property);
 
-            int tripleLimit = 100000;
+            entitiesFile.close();
+            classesFile.close();
+            literalsFile.close();
+            propertiesFile.close();
+
+        }
+
+        if(entitiesFile != null && bigDataset && bigDatasetMode != BigDatasetMode.SAMPLE) {
 
             int i = 0;
-            while(entitiesFile.hasNext() && i < tripleLimit){
-                dataset.add(new DataField(DatasetFields.ENTITIES, entitiesFile.nextLine().replace("\n", "")));
+            while(i < TRIPLE_LIMIT && (line = entitiesFile.nextLine()) != null){
+                addContent(dataset, valueCounts, DatasetFields.ENTITIES, line);
                 i++;
             }
 
             i = 0;
-            while(classesFile.hasNext() && i < tripleLimit){
-                dataset.add(new DataField(DatasetFields.CLASSES, classesFile.nextLine().replace("\n", "")));
+            while(i < TRIPLE_LIMIT && (line = classesFile.nextLine()) != null){
+                addContent(dataset, valueCounts, DatasetFields.CLASSES, line);
                 i++;
             }
 
             i = 0;
-            while(literalsFile.hasNext() && i < tripleLimit){
-                dataset.add(new DataField(DatasetFields.LITERALS, literalsFile.nextLine().replace("\n", "")));
+            while(i < TRIPLE_LIMIT && (line = literalsFile.nextLine()) != null){
+                addContent(dataset, valueCounts, DatasetFields.LITERALS, line);
                 i++;
             }
 
             i = 0;
-            while(propertiesFile.hasNext() && i < tripleLimit){
-                dataset.add(new DataField(DatasetFields.PROPERTIES, propertiesFile.nextLine().replace("\n", "")));
+            while(i < TRIPLE_LIMIT && (line = propertiesFile.nextLine()) != null){
+                addContent(dataset, valueCounts, DatasetFields.PROPERTIES, line);
                 i++;
             }
             entitiesFile.close();
@@ -406,13 +887,12 @@ public class DatasetIndexerStreamData {
 
         }
 
+        if (valueCounts != null)
+            CollapsedDataField.addFields(dataset, iwc.getAnalyzer(), valueCounts);
+
         //System.out.println((Runtime.getRuntime().totalMemory() / (1024*1024)) - (Runtime.getRuntime().freeMemory() / (1024*1024) ));
 
-        try {
-            writer.addDocument(dataset);
-        } catch (OutOfMemoryError e){
-            System.out.println("OutOfMemory in dataset: "+metaData.dataset_id);
-        }
+        writer.addDocument(dataset);
     }
 
     /**
@@ -429,7 +909,18 @@ public class DatasetIndexerStreamData {
 
         boolean resume = false;
         boolean no_empty_dataset = false;
-        DatasetIndexerStreamData indexer = new DatasetIndexerStreamData(indexPath, s, a, resume, no_empty_dataset);
+
+        //number of indexing workers: it can be passed as first argument to measure the scaling
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 0)
+            threads = Integer.parseInt(args[0]);
+
+        DatasetIndexerStreamData indexer = new DatasetIndexerStreamData(indexPath, s, a, resume, no_empty_dataset, threads);
+
+        //with more workers a dataset waits up to one minute for the memory of the datasets in flight
+        if (threads > 1)
+            indexer.setAdmissionController(new AdmissionController(AdmissionController.DEFAULT_EXPANSION, AdmissionController.DEFAULT_RESERVE, 60000));
+        indexer.setBigDatasetMode(BigDatasetMode.TRUNCATE);
 
         indexer.indexDatasets(datasetsDirectoryPath);
 
@@ -0,0 +1,425 @@
+package index;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import utils.BoostWeights;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class implements a forward index of an index: for every document and every field it stores the
+ * positions of every term of the field by term ordinal, so the proximity features of a document (like the
+ * ordered and unordered bigram counts of FSDM) can be computed on int arrays without loading and analyzing
+ * the stored text, and reading only the terms of the query.
+ * The forward index is a single file in the index directory, memory mapped when it is read:
+ * <ul>
+ *     <li>a dictionary shared by all the fields: the ordinals are given by decreasing collection frequency,
+ *     so the frequent terms have the smallest ordinals and the shortest encoding</li>
+ *     <li>for every document and field the number of tokens, the number of distinct terms and, for every
+ *     term in increasing ordinal order, the gap from the previous ordinal, the frequency, the number of
+ *     bytes of the positions and the gaps between the positions, all encoded as variable length integers.
+ *     A lookup skips the positions of the other terms and stops after the biggest ordinal looked for</li>
+ *     <li>the tables with the offsets of the terms and of the documents, for the random access</li>
+ * </ul>
+ * The positions are read from the term vectors with positions of the index (see SchemaProfile.FULL), so they
+ * are the positions of the postings, and they are valid only for the commit of the index they were built
+ * from: the version of the reader is stored in the file and checked by isValidFor()
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class ForwardIndex implements Closeable {
+
+    public static final String FILE_NAME = "forward.fwd";       //name of the forward index file in the index directory
+    private static final String CODEC = "EDSForwardIndex";     //codec name in the header of the file
+    private static final int VERSION = 1;                       //version of the file format, 1 for the positions by ordinal
+
+    private final Directory directory;          //directory of the index
+    private final IndexInput input;             //memory mapped forward index file
+    private final long readerVersion;           //version of the reader the forward index was built from
+    private final int maxDoc;                   //number of documents of the index
+    private final String[] fields;              //fields of the forward index
+    private final int numTerms;                 //number of terms of the dictionary
+    private final long dictionaryStart;         //start of the term bytes
+    private final RandomAccessInput termTable;  //offset (long) and ordinal (int) of every term, in byte order
+    private final RandomAccessInput docTable;   //offset (long) of the terms of every document and field
+
+    /**
+     * Constructor: this method open the forward index file of an index
+     * @param directory directory of the index, it is closed by close()
+     * @throws IOException if the file does not exist or it is corrupted
+     */
+    private ForwardIndex(Directory directory) throws IOException {
+        this.directory = directory;
+        this.input = directory.openInput(FILE_NAME, IOContext.READ);
+        try {
+            CodecUtil.checkHeader(input, CODEC, VERSION, VERSION);
+            readerVersion = input.readLong();
+            maxDoc = input.readVInt();
+            fields = new String[input.readVInt()];
+            for (int f = 0; f < fields.length; f++)
+                fields[f] = input.readString();
+            numTerms = input.readVInt();
+            dictionaryStart = input.getFilePointer();
+
+            //the positions of the tables are written before the footer
+            long footerStart = input.length() - CodecUtil.footerLength();
+            input.seek(footerStart - 2 * Long.BYTES);
+            long termTableStart = input.readLong();
+            long docTableStart = input.readLong();
+            termTable = input.randomAccessSlice(termTableStart, (long) numTerms * (Long.BYTES + Integer.BYTES));
+            docTable = input.randomAccessSlice(docTableStart, ((long) maxDoc * fields.length + 1) * Long.BYTES);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method open the forward index stored in an index directory
+     * @param indexPath path to the index directory
+     * @return the forward index
+     * @throws IOException if the forward index does not exist or it is corrupted
+     */
+    public static ForwardIndex open(Path indexPath) throws IOException {
+        Directory directory = MMapDirectory.open(indexPath);
+        try {
+            return new ForwardIndex(directory);
+        } catch (IOException e) {
+            directory.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method build the forward index of the last commit of an index, for the FSDM fields
+     * @param indexPath path to the index directory
+     * @throws IOException if there are problems while reading the index or writing the forward index
+     */
+    public static void build(Path indexPath) throws IOException {
+        build(indexPath, BoostWeights.FSDMBoostWeights.keySet().toArray(String[]::new));
+    }
+
+    /**
+     * This method build the forward index of the last commit of an index. The forward index is written in a
+     * temporary file of the index directory, that replaces the forward index already built only when it is
+     * complete, so a failed build leaves the old forward index and no partial file
+     * @param indexPath path to the index directory
+     * @param fields fields of the forward index, they must have term vectors with positions
+     * @throws IOException if there are problems while reading the index or writing the forward index
+     */
+    public static void build(Path indexPath, String[] fields) throws IOException {
+        long start = System.currentTimeMillis();
+
+        try (Directory directory = MMapDirectory.open(indexPath);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+
+            //collection frequency of every term in all the fields
+            Map<BytesRef, long[]> frequencies = new HashMap<>();
+            for (String field : fields) {
+                Terms terms = MultiTerms.getTerms(reader, field);
+                if (terms == null)
+                    continue;
+                TermsEnum termsEnum = terms.iterator();
+                for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next())
+                    frequencies.computeIfAbsent(BytesRef.deepCopyOf(term), t -> new long[1])[0] += termsEnum.totalTermFreq();
+            }
+
+            //ordinals by decreasing frequency, starting from 1 since 0 is a position without a token
+            List<BytesRef> byFrequency = new ArrayList<>(frequencies.keySet());
+            byFrequency.sort((t1, t2) -> {
+                int order = Long.compare(frequencies.get(t2)[0], frequencies.get(t1)[0]);
+                return order != 0 ? order : t1.compareTo(t2);
+            });
+            Map<BytesRef, Integer> ordinals = new HashMap<>();
+            for (int i = 0; i < byFrequency.size(); i++)
+                ordinals.put(byFrequency.get(i), i + 1);
+
+            List<BytesRef> byBytes = new ArrayList<>(frequencies.keySet());
+            byBytes.sort(BytesRef::compareTo);
+
+            //the forward index is written in a temporary file that replaces the old one only when it is complete
+            IndexOutput output = directory.createTempOutput("forward", "build", IOContext.DEFAULT);
+            String tempName = output.getName();
+            boolean success = false;
+            try {
+                try (output) {
+                    CodecUtil.writeHeader(output, CODEC, VERSION);
+                    output.writeLong(reader.getVersion());
+                    output.writeVInt(reader.maxDoc());
+                    output.writeVInt(fields.length);
+                    for (String field : fields)
+                        output.writeString(field);
+
+                    //dictionary
+                    output.writeVInt(byBytes.size());
+                    long dictionaryStart = output.getFilePointer();
+                    long[] termOffsets = new long[byBytes.size()];
+                    for (int i = 0; i < byBytes.size(); i++) {
+                        BytesRef term = byBytes.get(i);
+                        termOffsets[i] = output.getFilePointer() - dictionaryStart;
+                        output.writeVInt(term.length);
+                        output.writeBytes(term.bytes, term.offset, term.length);
+                    }
+
+                    //terms of the documents, the deleted documents have no terms
+                    Bits liveDocs = MultiBits.getLiveDocs(reader);
+                    long[] docOffsets = new long[reader.maxDoc() * fields.length + 1];
+                    ByteBuffersDataOutput positionsBytes = new ByteBuffersDataOutput();
+                    PostingsEnum postings = null;
+                    for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                        for (int f = 0; f < fields.length; f++) {
+                            docOffsets[doc * fields.length + f] = output.getFilePointer();
+
+                            Terms vector = liveDocs == null || liveDocs.get(doc) ? reader.getTermVector(doc, fields[f]) : null;
+                            if (vector == null) {
+                                output.writeVLong(0);
+                                output.writeVInt(0);
+                                continue;
+                            }
+                            if (!vector.hasPositions())
+                                throw new IllegalArgumentException("The field "+fields[f]+" has no term vector positions, the forward index needs the FULL schema profile");
+
+                            //positions of every term of the field, written in increasing ordinal order
+                            int numFieldTerms = (int) vector.size();
+                            int[] termOrdinals = new int[numFieldTerms];
+                            int[][] termPositions = new int[numFieldTerms][];
+                            TermsEnum termsEnum = vector.iterator();
+                            int n = 0;
+                            for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next(), n++) {
+                                termOrdinals[n] = ordinals.get(term);
+                                postings = termsEnum.postings(postings, PostingsEnum.POSITIONS);
+                                postings.nextDoc();
+                                termPositions[n] = new int[postings.freq()];
+                                for (int k = 0; k < termPositions[n].length; k++)
+                                    termPositions[n][k] = postings.nextPosition();
+                            }
+                            Integer[] order = new Integer[n];
+                            for (int i = 0; i < n; i++)
+                                order[i] = i;
+                            Arrays.sort(order, (i1, i2) -> Integer.compare(termOrdinals[i1], termOrdinals[i2]));
+
+                            output.writeVLong(vector.getSumTotalTermFreq());
+                            output.writeVInt(n);
+                            int previousOrdinal = 0;
+                            for (int i : order) {
+                                positionsBytes.reset();
+                                int previousPosition = 0;
+                                for (int position : termPositions[i]) {
+                                    positionsBytes.writeVInt(position - previousPosition);
+                                    previousPosition = position;
+                                }
+                                output.writeVInt(termOrdinals[i] - previousOrdinal);
+                                output.writeVInt(termPositions[i].length);
+                                output.writeVInt((int) positionsBytes.size());
+                                positionsBytes.copyTo(output);
+                                previousOrdinal = termOrdinals[i];
+                            }
+                        }
+                    }
+                    docOffsets[docOffsets.length - 1] = output.getFilePointer();
+
+                    //tables for the random access
+                    long termTableStart = output.getFilePointer();
+                    for (int i = 0; i < byBytes.size(); i++) {
+                        output.writeLong(termOffsets[i]);
+                        output.writeInt(ordinals.get(byBytes.get(i)));
+                    }
+                    long docTableStart = output.getFilePointer();
+                    for (long offset : docOffsets)
+                        output.writeLong(offset);
+
+                    output.writeLong(termTableStart);
+                    output.writeLong(docTableStart);
+                    CodecUtil.writeFooter(output);
+                }
+
+                directory.sync(Collections.singleton(tempName));
+                if (Arrays.asList(directory.listAll()).contains(FILE_NAME))
+                    directory.deleteFile(FILE_NAME);
+                directory.rename(tempName, FILE_NAME);
+                directory.syncMetaData();
+                success = true;
+            } finally {
+                if (!success)
+                    IOUtils.deleteFilesIgnoringExceptions(directory, tempName);
+            }
+
+            System.out.println("Forward index built in "+(System.currentTimeMillis() - start)+" ms: "+
+                    reader.maxDoc()+" documents, "+byBytes.size()+" terms");
+        }
+    }
+
+    /**
+     * This method check if the forward index can be used with a reader: the reader must be on the same
+     * commit of the index used to build the forward index, so the document ids are the same
+     * @param reader reader of the index
+     * @return true if the document ids of the reader are the ones of the forward index
+     */
+    public boolean isValidFor(IndexReader reader) {
+        return reader instanceof DirectoryReader &&
+                ((DirectoryReader) reader).getVersion() == readerVersion &&
+                reader.maxDoc() == maxDoc;
+    }
+
+    /**
+     * This method return the position of a field in the forward index
+     * @param field name of the field
+     * @return position of the field, -1 if the field is not in the forward index
+     */
+    public int fieldOrdinal(String field) {
+        for (int f = 0; f < fields.length; f++)
+            if (fields[f].equals(field))
+                return f;
+        return -1;
+    }
+
+    /**
+     * This method return the ordinal of a term, with a binary search in the dictionary
+     * @param term the term
+     * @return ordinal of the term, -1 if the term is not in the dictionary
+     * @throws IOException if there are problems while reading the forward index
+     */
+    public int termOrdinal(BytesRef term) throws IOException {
+        IndexInput dictionary = input.clone();
+        byte[] scratch = new byte[term.length];
+        int low = 0;
+        int high = numTerms - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long entry = (long) middle * (Long.BYTES + Integer.BYTES);
+            dictionary.seek(dictionaryStart + termTable.readLong(entry));
+            int length = dictionary.readVInt();
+            if (length > scratch.length)
+                scratch = new byte[length];
+            dictionary.readBytes(scratch, 0, length);
+
+            int order = Arrays.compareUnsigned(scratch, 0, length, term.bytes, term.offset, term.offset + term.length);
+            if (order < 0)
+                low = middle + 1;
+            else if (order > 0)
+                high = middle - 1;
+            else
+                return termTable.readInt(entry + Long.BYTES);
+        }
+        return -1;
+    }
+
+    /**
+     * This method return the number of tokens of a field of a document
+     * @param doc id of the document
+     * @param field position of the field (see fieldOrdinal())
+     * @return number of tokens of the field
+     * @throws IOException if there are problems while reading the forward index
+     */
+    public long length(int doc, int field) throws IOException {
+        return seek(doc, field).readVLong();
+    }
+
+    /**
+     * This method return the positions of some terms in a field of a document. The terms of the field are
+     * sorted by ordinal, so the positions of the other terms are skipped and the reading stops after the
+     * biggest ordinal looked for
+     * @param doc id of the document
+     * @param field position of the field (see fieldOrdinal())
+     * @param ordinals ordinals of the terms (see termOrdinal()), -1 for the terms not in the dictionary
+     * @return sorted positions of every term, in the same order of ordinals, empty if the term is not in the field
+     * @throws IOException if there are problems while reading the forward index
+     */
+    public int[][] positions(int doc, int field, int[] ordinals) throws IOException {
+        int[][] positions = new int[ordinals.length][];
+        int[] wanted = Arrays.stream(ordinals).filter(ordinal -> ordinal > 0).distinct().sorted().toArray();
+
+        IndexInput terms = seek(doc, field);
+        terms.readVLong();
+        int numFieldTerms = terms.readVInt();
+        int ordinal = 0;
+        int found = 0;
+        for (int i = 0; i < numFieldTerms && found < wanted.length; i++) {
+            ordinal += terms.readVInt();
+            if (ordinal > wanted[wanted.length - 1])
+                break;
+            int freq = terms.readVInt();
+            int bytes = terms.readVInt();
+            if (Arrays.binarySearch(wanted, ordinal) < 0) {
+                terms.seek(terms.getFilePointer() + bytes);
+                continue;
+            }
+
+            int[] termPositions = new int[freq];
+            int position = 0;
+            for (int k = 0; k < freq; k++) {
+                position += terms.readVInt();
+                termPositions[k] = position;
+            }
+            for (int t = 0; t < ordinals.length; t++)
+                if (ordinals[t] == ordinal)
+                    positions[t] = termPositions;
+            found++;
+        }
+
+        for (int t = 0; t < positions.length; t++)
+            if (positions[t] == null)
+                positions[t] = new int[0];
+        return positions;
+    }
+
+    /**
+     * This method return a clone of the forward index file positioned at the terms of a field of a document
+     * @param doc id of the document
+     * @param field position of the field
+     * @return the positioned input, it can be used only by the calling thread
+     * @throws IOException if there are problems while reading the forward index
+     */
+    private IndexInput seek(int doc, int field) throws IOException {
+        if (doc < 0 || doc >= maxDoc || field < 0 || field >= fields.length)
+            throw new IllegalArgumentException("Document "+doc+" or field "+field+" not in the forward index");
+        IndexInput terms = input.clone();
+        terms.seek(docTable.readLong(((long) doc * fields.length + field) * Long.BYTES));
+        return terms;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            input.close();
+        } finally {
+            directory.close();
+        }
+    }
+
+    /**
+     * ONLY FOR DEBUG PURPOSES
+     * args[0]: path to the index directory
+     */
+    public static void main(String[] args) throws IOException {
+        String indexPath = args.length > 0 ? args[0] : "/media/manuel/Tesi/Index/Stream_Jena_LightRDF_Deduplication_Good";
+        build(Paths.get(indexPath));
+    }
+}
@@ -0,0 +1,126 @@
+package index;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiBits;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class keeps the resume state of an indexing process inside the index itself: every indexed dataset
+ * is marked with a field that contains the name of its directory, and every commit carries some user data
+ * about the progress of the indexing. A resumed indexing process reads the set of the indexed datasets
+ * from the index at startup, so the dataset directories are never modified
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class IndexJournal {
+
+    public static final String DATASET_DIRECTORY = "dataset_directory";     //field with the name of the dataset directory
+    public static final String DATASET_CHUNK = "dataset_chunk";             //field with the name of the directory of a chunked dataset
+    public static final String INDEXED_DATASETS = "indexed_datasets";       //commit user data key with the number of indexed datasets
+
+    /**
+     * This method return the field that marks a document as belonging to a given dataset directory
+     * @param datasetDirectoryName name of the dataset directory
+     * @return the field to be added to the document (indexed but not stored and not tokenized)
+     */
+    public static Field directoryField(String datasetDirectoryName){
+        return new StringField(DATASET_DIRECTORY, datasetDirectoryName, Field.Store.NO);
+    }
+
+    /**
+     * This method return the field that marks a chunk document (see {@link DatasetChunks}) as belonging to a
+     * given dataset directory. The chunks do not mark the dataset as indexed: only the metadata document,
+     * added after all the chunks, has the {@link #directoryField(String)}
+     * @param datasetDirectoryName name of the dataset directory
+     * @return the field to be added to the chunk document (indexed but not stored and not tokenized)
+     */
+    public static Field chunkField(String datasetDirectoryName){
+        return new StringField(DATASET_CHUNK, datasetDirectoryName, Field.Store.NO);
+    }
+
+    /**
+     * This method return the term that selects the chunk documents of a dataset directory, so the chunks
+     * committed by an interrupted indexing process can be deleted before the dataset is indexed again
+     * @param datasetDirectoryName name of the dataset directory
+     * @return term over the chunk field
+     */
+    public static Term chunkTerm(String datasetDirectoryName){
+        return new Term(DATASET_CHUNK, datasetDirectoryName);
+    }
+
+    /**
+     * This method read the names of the dataset directories that are already indexed in the index
+     * opened by a given IndexWriter. The datasets with only deleted documents (for example the chunks of a dataset
+     * aborted by an exception) and the chunked datasets without the metadata document are not considered indexed
+     * @param writer IndexWriter over the index
+     * @return set with the names of the indexed dataset directories
+     * @throws IOException if there are problems during the reading of the index
+     */
+    public static Set<String> readIndexedDatasets(IndexWriter writer) throws IOException {
+        Set<String> indexed = new HashSet<>();
+
+        DirectoryReader reader = DirectoryReader.open(writer);
+        try {
+            Map<String, String> userData = reader.getIndexCommit().getUserData();
+            if (userData.containsKey(INDEXED_DATASETS))
+                System.out.println("Resuming from commit with "+userData.get(INDEXED_DATASETS)+" datasets indexed");
+
+            Terms terms = MultiTerms.getTerms(reader, DATASET_DIRECTORY);
+            if (terms == null)
+                return indexed;
+
+            Bits liveDocs = MultiBits.getLiveDocs(reader);
+            TermsEnum termsEnum = terms.iterator();
+            BytesRef term;
+            PostingsEnum postings = null;
+            while ((term = termsEnum.next()) != null) {
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                if (liveDocs == null) {
+                    indexed.add(term.utf8ToString());
+                    continue;
+                }
+
+                //check that at least one document of the dataset is not deleted
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (liveDocs.get(doc)) {
+                        indexed.add(term.utf8ToString());
+                        break;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return indexed;
+    }
+
+    /**
+     * This method set the user data that will be stored with the next commit of the index
+     * @param writer IndexWriter over the index
+     * @param indexedDatasets number of datasets indexed in the current indexing process
+     */
+    public static void setCommitData(IndexWriter writer, int indexedDatasets){
+        Map<String, String> userData = new HashMap<>();
+        userData.put(INDEXED_DATASETS, String.valueOf(indexedDatasets));
+        writer.setLiveCommitData(userData.entrySet());
+    }
+}
@@ -24,4 +24,14 @@ public class MetadataField extends Field {
     public MetadataField(final String key, final String value) {
         super(key, value, type);
     }
+
+    /**
+     * Constructor
+     * @param key name of the field
+     * @param value value of the field
+     * @param profile schema profile that sets the type of the field
+     */
+    public MetadataField(final String key, final String value, final SchemaProfile profile) {
+        super(key, value, profile.fieldType(key));
+    }
 }
@@ -0,0 +1,84 @@
+package index;
+
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+import parse.DatasetFields;
+
+/**
+ * This enum lists the schemas that can be used to index the metadata and data fields of the datasets.
+ * Every profile sets storage, term vectors and index options of the fields
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public enum SchemaProfile {
+
+    /**
+     * only what is needed by BM25, TFIDF and LMD: documents and frequencies for all the fields, no term vectors,
+     * only the metadata fields are stored
+     */
+    BM25_ONLY(
+            fieldType(true, false, false, IndexOptions.DOCS_AND_FREQS),
+            fieldType(false, false, false, IndexOptions.DOCS_AND_FREQS)),
+
+    /**
+     * what is needed by the FSDMRanker: positions in the postings, term vectors without positions for the
+     * field lengths and the term frequencies, all the fields are stored
+     */
+    FSDM(
+            fieldType(true, true, false, IndexOptions.DOCS_AND_FREQS_AND_POSITIONS),
+            fieldType(true, true, false, IndexOptions.DOCS_AND_FREQS_AND_POSITIONS)),
+
+    /**
+     * everything: positions in the postings, term vectors with positions and all the fields stored
+     */
+    FULL(
+            fieldType(true, true, true, IndexOptions.DOCS_AND_FREQS_AND_POSITIONS),
+            fieldType(true, true, true, IndexOptions.DOCS_AND_FREQS_AND_POSITIONS));
+
+    private final FieldType metadataType;       //type of the metadata fields
+    private final FieldType dataType;           //type of the data fields
+
+    SchemaProfile(FieldType metadataType, FieldType dataType){
+        this.metadataType = metadataType;
+        this.dataType = dataType;
+    }
+
+    /**
+     * This method build a tokenized field type
+     * @param stored true if the field must be stored
+     * @param termVectors true if the field must have term vectors
+     * @param termVectorPositions true if the term vectors must have positions
+     * @param indexOptions index options of the postings
+     * @return the frozen field type
+     */
+    private static FieldType fieldType(boolean stored, boolean termVectors, boolean termVectorPositions, IndexOptions indexOptions){
+        FieldType type = new FieldType();
+        type.setStored(stored);
+        type.setTokenized(true);
+        type.setStoreTermVectors(termVectors);
+        type.setStoreTermVectorPositions(termVectorPositions);
+        type.setIndexOptions(indexOptions);
+        type.freeze();
+        return type;
+    }
+
+    /**
+     * This method tells if a field is a metadata field of the datasets
+     * @param field name of the field
+     * @return true if the field is a metadata field, false if it is a data field
+     */
+    public static boolean isMetadataField(String field){
+        return field.equals(DatasetFields.ID) || field.equals(DatasetFields.TITLE) || field.equals(DatasetFields.DESCRIPTION)
+                || field.equals(DatasetFields.AUTHOR) || field.equals(DatasetFields.TAGS);
+    }
+
+    /**
+     * @param field name of the field
+     * @return the type used for the field in this profile
+     */
+    public FieldType fieldType(String field){
+        return isMetadataField(field) ? metadataType : dataType;
+    }
+}
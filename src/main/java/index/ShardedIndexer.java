@@ -0,0 +1,321 @@
+package index;
+
+import analyze.CustomAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class builds the index with N independent shard writers: the dataset directories are partitioned by
+ * the hash of their name (see {@link DatasetIndexerStreamData#setShard(int, int)}), every shard is indexed
+ * in its own directory by a DatasetIndexerStreamData and at the end the shards are merged with
+ * {@code IndexWriter.addIndexes} in the final index opened by the searchers.
+ * The shards can be built by threads of the same JVM or by separate local JVM processes, so that the
+ * indexing is not limited by the heap of a single JVM
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class ShardedIndexer {
+
+    private final String indexPath;                     //path to the directory of the final index
+    private final String shardsPath;                    //path to the directory with the shard indexes
+    private final Similarity similarity;                //similarity used during the indexing
+    private final Analyzer analyzer;                    //analyzer used during the indexing
+    private final boolean no_empty_datasets;            //indicates if we have to skip the empty datasets
+    private final int numShards;                        //number of shards
+    private int threadsPerShard = 1;                    //number of workers of every shard indexer
+    private String shardHeap = "4g";                    //max heap of every shard process
+    private BigDatasetMode bigDatasetMode = BigDatasetMode.TRUNCATE;    //strategy used for the big datasets
+    private SchemaProfile schemaProfile = SchemaProfile.FULL;  //schema used for the metadata and data fields
+    private AdmissionController admission = null;       //admission controller shared by the shards of this JVM, null for one per shard
+    private boolean forwardIndex = false;               //indicates if the forward index is built after the merge
+    private boolean collapseTermFrequencies = false;    //indicates if the shard indexers use the collapsed mode
+
+    /**
+     * Constructor
+     * @param indexPath string with the path to the directory where to store the final index
+     * @param shardsPath string with the path to the directory where to store the shard indexes
+     * @param similarity similarity that must be used during the indexing
+     * @param analyzer analyzer that must be used during the indexing phase
+     * @param no_empty_datasets boolean that indicates if we want to ignore the empty datasets
+     * @param numShards number of shards
+     */
+    public ShardedIndexer(String indexPath, String shardsPath, Similarity similarity, Analyzer analyzer, boolean no_empty_datasets, int numShards){
+        //check for the paths
+        if(indexPath == null || indexPath.isEmpty() || shardsPath == null || shardsPath.isEmpty())
+            throw new IllegalArgumentException("The index and shards directory paths cannot be null or empty");
+
+        if(!new File(indexPath).isDirectory())
+            throw new IllegalArgumentException("The index directory specified does not exist");
+
+        if(numShards < 1)
+            throw new IllegalArgumentException("The number of shards must be at least 1");
+
+        this.indexPath = indexPath;
+        this.shardsPath = shardsPath;
+        this.similarity = similarity;
+        this.analyzer = analyzer;
+        this.no_empty_datasets = no_empty_datasets;
+        this.numShards = numShards;
+    }
+
+    /**
+     * This method set the number of workers of every shard indexer
+     * @param threadsPerShard number of workers
+     */
+    public void setThreadsPerShard(int threadsPerShard){
+        if(threadsPerShard < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+        this.threadsPerShard = threadsPerShard;
+    }
+
+    /**
+     * This method set the max heap of every shard process
+     * @param shardHeap max heap in the format of the -Xmx option of the JVM, for example 4g
+     */
+    public void setShardHeap(String shardHeap){
+        this.shardHeap = shardHeap;
+    }
+
+    /**
+     * This method set the strategy used for the big datasets by the shard indexers
+     * @param bigDatasetMode strategy for the big datasets
+     */
+    public void setBigDatasetMode(BigDatasetMode bigDatasetMode){
+        this.bigDatasetMode = bigDatasetMode;
+    }
+
+    /**
+     * This method set the schema profile used by the shard indexers
+     * @param schemaProfile schema profile of the fields
+     */
+    public void setSchemaProfile(SchemaProfile schemaProfile){
+        this.schemaProfile = schemaProfile;
+    }
+
+    /**
+     * This method enable or disable the collapsed mode of the shard indexers
+     * (see {@link DatasetIndexerStreamData#setCollapseTermFrequencies(boolean)})
+     * @param collapseTermFrequencies true to enable the collapsed mode
+     */
+    public void setCollapseTermFrequencies(boolean collapseTermFrequencies){
+        this.collapseTermFrequencies = collapseTermFrequencies;
+    }
+
+    /**
+     * This method enable or disable the build of the forward index (see {@link ForwardIndex}) of the final
+     * index after the merge of the shards
+     * @param forwardIndex true to build the forward index
+     */
+    public void setForwardIndex(boolean forwardIndex){
+        this.forwardIndex = forwardIndex;
+    }
+
+    /**
+     * This method return the directory of a shard index, creating it if it does not exist
+     * @param shard shard, from 0 to numShards - 1
+     * @return File object that points to the shard index directory
+     */
+    public File getShardDirectory(int shard){
+        File shardDirectory = new File(shardsPath, "shard-"+shard);
+        if(!shardDirectory.exists() && !shardDirectory.mkdirs())
+            throw new IllegalArgumentException("Unable to create the shard directory: "+shardDirectory.getPath());
+        return shardDirectory;
+    }
+
+    /**
+     * This method build the index of a single shard, with the full RAM buffer of the IndexWriter
+     * @param datasetsDirectoryPath path to the directory where all the datasets are stored
+     * @param shard shard to be indexed
+     * @throws IOException if there are problems during the indexing of the shard
+     */
+    public void indexShard(String datasetsDirectoryPath, int shard) throws IOException {
+        indexShard(datasetsDirectoryPath, shard, 1);
+    }
+
+    /**
+     * This method build the index of a single shard
+     * @param datasetsDirectoryPath path to the directory where all the datasets are stored
+     * @param shard shard to be indexed
+     * @param writers number of shard writers that share the heap of this JVM
+     * @throws IOException if there are problems during the indexing of the shard
+     */
+    private void indexShard(String datasetsDirectoryPath, int shard, int writers) throws IOException {
+        DatasetIndexerStreamData indexer = new DatasetIndexerStreamData(getShardDirectory(shard).getPath(), similarity, analyzer,
+                false, no_empty_datasets, threadsPerShard);
+        indexer.setShard(shard, numShards);
+        indexer.setSharedRAMBuffer(writers);
+        indexer.setBigDatasetMode(bigDatasetMode);
+        indexer.setSchemaProfile(schemaProfile);
+        indexer.setCollapseTermFrequencies(collapseTermFrequencies);
+        if (admission != null)
+            indexer.setAdmissionController(admission);
+        indexer.indexDatasets(datasetsDirectoryPath);
+    }
+
+    /**
+     * This method build all the shards concurrently in this JVM, one thread per shard, and merge them
+     * @param datasetsDirectoryPath path to the directory where all the datasets are stored
+     * @throws IOException if there are problems during the indexing or the merge of the shards
+     */
+    public void indexInProcess(String datasetsDirectoryPath) throws IOException {
+        long start = System.currentTimeMillis();
+
+        //the shards share the heap of this JVM, so they share the admission controller too
+        admission = new AdmissionController(AdmissionController.DEFAULT_EXPANSION, AdmissionController.DEFAULT_RESERVE, 60000);
+
+        ExecutorService pool = Executors.newFixedThreadPool(numShards);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int shard = 0; shard < numShards; shard++) {
+            int s = shard;
+            tasks.add(pool.submit(() -> {
+                indexShard(datasetsDirectoryPath, s, numShards);
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        //wait for all the shards and propagate the first error found
+        try {
+            for (Future<?> task : tasks)
+                task.get();
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Sharded indexing interrupted", e);
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            throw new IOException("Error while indexing the shards", e.getCause());
+        }
+
+        System.out.println("Shards indexed in "+(System.currentTimeMillis() - start)+" ms");
+        merge();
+    }
+
+    /**
+     * This method build every shard in a separate local JVM process and merge them when all the processes
+     * are finished. The processes run {@link #main(String[])} with the same classpath of this JVM; they use the
+     * stopwords analyzer and the BM25 similarity, since the analyzer and the similarity cannot be passed to
+     * another process
+     * @param datasetsDirectoryPath path to the directory where all the datasets are stored
+     * @throws IOException if a shard process fails or if there are problems during the merge of the shards
+     */
+    public void indexInProcesses(String datasetsDirectoryPath) throws IOException {
+        long start = System.currentTimeMillis();
+
+        String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+        String classpath = System.getProperty("java.class.path");
+
+        List<Process> processes = new ArrayList<>();
+        for (int shard = 0; shard < numShards; shard++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-Xmx"+shardHeap, "-cp", classpath, ShardedIndexer.class.getName(),
+                    "shard", datasetsDirectoryPath, indexPath, shardsPath, String.valueOf(shard), String.valueOf(numShards),
+                    String.valueOf(threadsPerShard), String.valueOf(no_empty_datasets), bigDatasetMode.name(), schemaProfile.name(),
+                    String.valueOf(collapseTermFrequencies));
+            builder.inheritIO();
+            processes.add(builder.start());
+        }
+
+        //wait for all the processes
+        try {
+            for (int shard = 0; shard < numShards; shard++) {
+                int exitCode = processes.get(shard).waitFor();
+                if (exitCode != 0)
+                    throw new IOException("The process of shard "+shard+" failed with exit code "+exitCode);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sharded indexing interrupted", e);
+        } finally {
+            for (Process process : processes)
+                process.destroy();
+        }
+
+        System.out.println("Shards indexed in "+(System.currentTimeMillis() - start)+" ms");
+        merge();
+    }
+
+    /**
+     * This method merge all the shard indexes in the final index. The chunks of a big dataset are independent
+     * documents, linked to their dataset only by the chunk field (see {@link IndexJournal#chunkTerm(String)}):
+     * the merge does not keep them next to each other or next to the metadata document of the dataset
+     * @throws IOException if there are problems during the merge
+     */
+    public void merge() throws IOException {
+        long start = System.currentTimeMillis();
+
+        IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        iwc.setSimilarity(similarity);
+        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        iwc.setCommitOnClose(true);
+        iwc.setUseCompoundFile(true);
+
+        Directory[] shards = new Directory[numShards];
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(new File(indexPath).toPath()), iwc)) {
+            for (int shard = 0; shard < numShards; shard++)
+                shards[shard] = FSDirectory.open(getShardDirectory(shard).toPath());
+
+            writer.addIndexes(shards);
+            writer.commit();
+            System.out.println("Merged "+numShards+" shards with "+writer.getDocStats().numDocs+" documents in "+(System.currentTimeMillis() - start)+" ms");
+        } finally {
+            for (Directory shard : shards)
+                if (shard != null)
+                    shard.close();
+        }
+
+        if (forwardIndex)
+            ForwardIndex.build(new File(indexPath).toPath());
+    }
+
+    /**
+     * Entry point of the shard processes and debug main.
+     * Shard process: args = shard datasetsPath indexPath shardsPath shard numShards threadsPerShard no_empty_datasets bigDatasetMode schemaProfile
+     * collapseTermFrequencies
+     * Debug: args[0] = number of shards (default 4), args[1] = "processes" to build the shards in separate JVMs
+     */
+    public static void main(String[] args) throws IOException {
+
+        Analyzer a = CustomAnalyzer.getStopwordsAnalyzer();
+        Similarity s = new BM25Similarity();
+
+        if (args.length > 0 && args[0].equals("shard")) {
+            ShardedIndexer indexer = new ShardedIndexer(args[2], args[3], s, a, Boolean.parseBoolean(args[7]), Integer.parseInt(args[5]));
+            indexer.setThreadsPerShard(Integer.parseInt(args[6]));
+            indexer.setBigDatasetMode(BigDatasetMode.valueOf(args[8]));
+            indexer.setSchemaProfile(SchemaProfile.valueOf(args[9]));
+            indexer.setCollapseTermFrequencies(Boolean.parseBoolean(args[10]));
+            indexer.indexShard(args[1], Integer.parseInt(args[4]));
+            return;
+        }
+
+        //ONLY FOR DEBUG PURPOSES
+        String indexPath = "/media/manuel/Tesi/Index/Stream_Jena_LightRDF_Deduplication_Sharded";
+        String shardsPath = "/media/manuel/Tesi/Index/Shards";
+        String datasetsDirectoryPath = "/media/manuel/Tesi/Datasets";
+
+        int numShards = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        boolean processes = args.length > 1 && args[1].equals("processes");
+
+        ShardedIndexer indexer = new ShardedIndexer(indexPath, shardsPath, s, a, false, numShards);
+        if (processes)
+            indexer.indexInProcesses(datasetsDirectoryPath);
+        else
+            indexer.indexInProcess(datasetsDirectoryPath);
+    }
+}
@@ -2,8 +2,12 @@ package index.experiments;
 
 import analyze.CustomAnalyzer;
 
+import index.AdmissionController;
+import index.ContentTokenStream;
 import index.DataField;
+import index.DatasetIdField;
 import index.MetadataField;
+import index.SchemaProfile;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
@@ -11,15 +15,23 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.FSDirectory;
+import parse.ContentSource;
+import parse.DatasetContentReader;
 import parse.DatasetFields;
 import parse.DatasetReader;
-import utils.DatasetContent;
+import parse.LightRDFContentReader;
+import parse.MappedLineReader;
+import parse.ReservoirSampler;
+import parse.ValueListSource;
 import utils.DatasetMetaData;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Scanner;
+import java.util.List;
+import java.util.Random;
 
 /**
  * This class will execute the indexing phase by considering only the literals and entities
@@ -36,6 +48,12 @@ public class DatasetIndexerLimitedFields {
     private IndexWriter writer;                         //Lucene object for creating an index
     private IndexWriterConfig iwc;                      //IndexWriterConfig of the IndexWriter $writer wrapped inside
     private static final int RAMBUFFER_SIZE = 2048 ;    //RAMBuffer size limit for the index writer
+    private boolean sampling = false;                   //indicates if the big datasets are sampled instead of truncated
+    private int sampleSize = 100000;                    //number of lines sampled from the literals file of a big dataset
+    private long seed = 42;                             //seed of the sampling of the big datasets
+    private static final int TRIPLE_LIMIT = 100000;     //max number of lines read from the literals file of a big dataset
+    private final AdmissionController admission = new AdmissionController();   //decides which datasets can be loaded in memory
+    private SchemaProfile schemaProfile = SchemaProfile.FULL;  //schema used for the metadata and data fields
 
     /**
      * Constructor: this method will create the object and set the IndexWriter
@@ -62,6 +80,31 @@ public class DatasetIndexerLimitedFields {
         iwc.setUseCompoundFile(true);
     }
 
+    /**
+     * This method enable the sampling of the big datasets: the literals file is read once and a uniform
+     * random sample of its lines is indexed, instead of the first lines
+     * @param sampleSize number of lines sampled from the literals file
+     * @param seed seed of the sampling, the same seed gives the same index
+     */
+    public void setSampling(int sampleSize, long seed){
+        if(sampleSize < 1)
+            throw new IllegalArgumentException("The sample size must be at least 1");
+        this.sampling = true;
+        this.sampleSize = sampleSize;
+        this.seed = seed;
+    }
+
+    /**
+     * This method set the schema profile used for the fields: it decides which fields are stored, which have
+     * term vectors and the index options of the postings. The default profile is {@link SchemaProfile#FULL}
+     * @param schemaProfile schema profile used for the fields
+     */
+    public void setSchemaProfile(SchemaProfile schemaProfile){
+        if(schemaProfile == null)
+            throw new IllegalArgumentException("The schema profile cannot be null");
+        this.schemaProfile = schemaProfile;
+    }
+
     /**
      * This method returns true if a given dataset is considered big (at least one of the input files is bigger
      * than 1 GB)
@@ -73,6 +116,16 @@ public class DatasetIndexerLimitedFields {
         return (literals.length() / Math.pow(1024, 2) > 1000) ;
     }
 
+    /**
+     * This method tells if the content fields are pulled from the content files by a {@link ContentTokenStream}
+     * while the IndexWriter inverts them: a stored field must have its values in the document, so only the
+     * profiles that do not store the data fields can stream them
+     * @return true if the content fields are indexed in streaming
+     */
+    private boolean isStreamed(){
+        return !schemaProfile.fieldType(DatasetFields.ENTITIES).stored();
+    }
+
     /**
      * This method will index all the datasets contained in the datasetsFolderPath directory
      * @param datasetsDirectoryPath path to the directory where all the datasets are stored
@@ -97,6 +150,7 @@ public class DatasetIndexerLimitedFields {
         File[] datasets = datasetsDirectory.listFiles();
 
         int datasetCount = 0;
+        List<File> deferred = new ArrayList<>();
 
         HashSet<String> skipDatasets = new HashSet<>();
         skipDatasets.add("dataset-11580");
@@ -105,117 +159,233 @@ public class DatasetIndexerLimitedFields {
 
             if (dataset.isDirectory() && !skipDatasets.contains(dataset.getName())) {
 
-                DatasetReader reader = new DatasetReader(dataset.getAbsolutePath());
-                DatasetMetaData metaData = reader.getMetaData();
+                if (!indexDatasetDirectory(dataset, false))
+                    deferred.add(dataset);
 
-                //in this solution the files are mined only by RDFLib
-                DatasetContent contentRDFLibHRClean = reader.getContentRDFLibHRClean();
+                //TODO: tune the parameter
+                if (datasetCount % 50 == 0)
+                    writer.commit();
 
-                Scanner literalsFile = null;
+            }
 
-                File literals = new File(dataset.getPath()+"/literals_lightrdf.txt");
+            if (datasetCount % 100 == 0)
+                System.out.println("Indexed: "+datasetCount);
 
-                boolean bigDataset = false;
+            datasetCount++;
 
-                if(literals.exists()){
-                    literalsFile = new Scanner(literals);
+        }
 
-                    bigDataset = isBigDataset(literals);
-                }
+        //the deferred datasets are retried after a commit, that empties the RAM buffer of the IndexWriter
+        if (!deferred.isEmpty()) {
+            writer.commit();
+            for (File dataset : deferred)
+                indexDatasetDirectory(dataset, true);
+        }
 
-                try {
-                    indexDataset(metaData, contentRDFLibHRClean, literalsFile, bigDataset);
+        System.out.println(admission.getReport());
 
-                } catch (OutOfMemoryError e ){
-                    System.out.println("Out of Memory in dataset:"+dataset.getName());
+        writer.close();
+    }
 
-                }
+    /**
+     * This method read and index a single dataset directory, if the admission controller admits it. The heap
+     * needed by the dataset is estimated from the size of its files. The indexer has no bounded memory mode that
+     * keeps all the content of a dataset, so a dataset is never downgraded: it is deferred, and retried alone at
+     * the end, instead of being truncated
+     * @param dataset File object that point to the dataset
+     * @param lastAttempt true if the dataset was already deferred: it is not deferred again (see
+     *                    {@link AdmissionController#admitDeferred(long, long)})
+     * @return false if the dataset is deferred, else true
+     * @throws IOException if there are problems during the reading or the indexing of the dataset
+     */
+    private boolean indexDatasetDirectory(File dataset, boolean lastAttempt) throws IOException {
 
-                //force to release memory
-                contentRDFLibHRClean = null;
-                System.gc();
+        File literals = new File(dataset.getPath()+"/literals_lightrdf.txt");
 
-                //TODO: tune the parameter
-                if (datasetCount % 50 == 0)
-                    writer.commit();
+        boolean bigDataset = literals.exists() && isBigDataset(literals);
 
-            }
+        long contentBytes = AdmissionController.fileBytes(new File(dataset.getPath()+"/dataset_content_rdflibhr_clean.json"));
+        long footprint;
+        if (bigDataset)
+            footprint = admission.estimateFootprint(contentBytes + AdmissionController.boundedBytes(literals, sampling ? sampleSize : TRIPLE_LIMIT));
+        else
+            footprint = admission.estimateFootprint(contentBytes + AdmissionController.fileBytes(literals));
 
-            if (datasetCount % 100 == 0)
-                System.out.println("Indexed: "+datasetCount);
+        AdmissionController.Decision decision;
+        try {
+            if (lastAttempt)
+                decision = admission.admitDeferred(footprint, -1);
+            else
+                decision = admission.admit(footprint, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the admission of dataset: "+dataset.getName());
+        }
 
-            datasetCount++;
+        if (decision == AdmissionController.Decision.DEFER)
+            return false;
 
+        try {
+            DatasetReader reader = new DatasetReader(dataset.getAbsolutePath());
+            DatasetMetaData metaData = reader.getMetaData();
+
+            //in this solution the files are mined only by RDFLib, only the entities and the literals are indexed
+            List<ContentSource> opened = new ArrayList<>();
+            try {
+                DatasetContentReader entities = reader.streamContentRDFLibHRClean(DatasetFields.ENTITIES);
+                if (entities != null)
+                    opened.add(entities);
+                DatasetContentReader contentLiterals = reader.streamContentRDFLibHRClean(DatasetFields.LITERALS);
+                if (contentLiterals != null)
+                    opened.add(contentLiterals);
+
+                if (isStreamed()) {
+                    indexDatasetStreamed(metaData, entities, contentLiterals, literals, bigDataset, opened);
+                } else {
+                    MappedLineReader literalsFile = null;
+                    if(literals.exists())
+                        literalsFile = new MappedLineReader(literals);
+
+                    indexDataset(metaData, entities, contentLiterals, literalsFile, bigDataset);
+                }
+            } finally {
+                for (ContentSource source : opened)
+                    source.close();
+            }
+        } finally {
+            admission.release(footprint);
         }
 
-        writer.close();
+        return true;
     }
 
 
     /**
-     * This method will index a single dataset
-     *
+     * This method will add the metadata fields of a dataset to a given document
+     * @param dataset document where to add the metadata fields
      * @param metaData a DatasetMetaData object with all the dataset meta info
-     * @param contentRDFLibHRClean a DatasetContent object with all the dataset content literals and entities cleaned up
-     * @param literalsFile file with the literals extracted from LightRDF
-     * @param bigDataset boolean that indicates if the dataset is big
-     * @throws IOException if there are problems during the index writing of the dataset
      */
-    private void indexDataset(DatasetMetaData metaData, DatasetContent contentRDFLibHRClean,
-                              Scanner literalsFile, boolean bigDataset) throws IOException {
-
-        Document dataset = new Document();
+    private void addMetadata(Document dataset, DatasetMetaData metaData){
 
-        dataset.add(new MetadataField(DatasetFields.ID, metaData.dataset_id));
-        dataset.add(new MetadataField(DatasetFields.TITLE, metaData.title));
+        dataset.add(new MetadataField(DatasetFields.ID, metaData.dataset_id, schemaProfile));
+        DatasetIdField.addTo(dataset, metaData.dataset_id);
+        dataset.add(new MetadataField(DatasetFields.TITLE, metaData.title, schemaProfile));
 
         if (metaData.description != null)
-            dataset.add(new MetadataField(DatasetFields.DESCRIPTION, metaData.description));
+            dataset.add(new MetadataField(DatasetFields.DESCRIPTION, metaData.description, schemaProfile));
 
         if (metaData.author!=null)
-            dataset.add(new MetadataField(DatasetFields.AUTHOR, metaData.author));
+            dataset.add(new MetadataField(DatasetFields.AUTHOR, metaData.author, schemaProfile));
 
         //split the tags
         String stringTags = metaData.tags;
         String[] tags = stringTags.split(":");
 
         for(String tag: tags)
-            dataset.add(new MetadataField(DatasetFields.TAGS, tag));
+            dataset.add(new MetadataField(DatasetFields.TAGS, tag, schemaProfile));
+    }
+
+    /**
+     * This method will index a single dataset with one field for the entities and one for the literals, whose
+     * values are pulled from the content files by a {@link ContentTokenStream} while the IndexWriter inverts the
+     * field. The index is the same of the one built by {@link #indexDataset}
+     *
+     * @param metaData a DatasetMetaData object with all the dataset meta info
+     * @param entities streaming reader over the entities cleaned up by RDFLibHR, null if not present
+     * @param contentLiterals streaming reader over the literals cleaned up by RDFLibHR, null if not present
+     * @param literals file with the literals extracted from LightRDF
+     * @param bigDataset boolean that indicates if the dataset is big
+     * @param opened list where the opened sources are added, they are closed by the caller
+     * @throws IOException if there are problems during the reading or the index writing of the dataset
+     */
+    private void indexDatasetStreamed(DatasetMetaData metaData, DatasetContentReader entities, DatasetContentReader contentLiterals,
+                                      File literals, boolean bigDataset, List<ContentSource> opened) throws IOException {
+
+        Document dataset = new Document();
+        addMetadata(dataset, metaData);
+
+        List<ContentSource> entitySources = new ArrayList<>();
+        if (entities != null)
+            entitySources.add(entities);
+
+        List<ContentSource> literalSources = new ArrayList<>();
+        if (contentLiterals != null)
+            literalSources.add(contentLiterals);
+
+        if (literals.exists() && bigDataset && sampling) {
+            Random random = new Random(seed * 31 + metaData.dataset_id.hashCode());
+            try (MappedLineReader literalsFile = new MappedLineReader(literals)) {
+                literalSources.add(new ValueListSource(DatasetFields.LITERALS, ReservoirSampler.sample(literalsFile, sampleSize, random)));
+            }
+        } else if (literals.exists()) {
+            LightRDFContentReader literalsFile = new LightRDFContentReader(literals, DatasetFields.LITERALS, bigDataset ? TRIPLE_LIMIT : Long.MAX_VALUE);
+            opened.add(literalsFile);
+            literalSources.add(literalsFile);
+        }
 
-        //add the content extracted by RDFLibHR
+        dataset.add(new DataField(DatasetFields.ENTITIES, new ContentTokenStream(iwc.getAnalyzer(), DatasetFields.ENTITIES, entitySources), schemaProfile));
+        dataset.add(new DataField(DatasetFields.LITERALS, new ContentTokenStream(iwc.getAnalyzer(), DatasetFields.LITERALS, literalSources), schemaProfile));
 
-        if(contentRDFLibHRClean!=null){
-            for(String entity: contentRDFLibHRClean.entities)
-                dataset.add(new DataField(DatasetFields.ENTITIES, entity));
+        writer.addDocument(dataset);
+    }
+
+    /**
+     * This method will index a single dataset
+     *
+     * @param metaData a DatasetMetaData object with all the dataset meta info
+     * @param entities streaming reader over the entities cleaned up by RDFLibHR, null if not present
+     * @param contentLiterals streaming reader over the literals cleaned up by RDFLibHR, null if not present
+     * @param literalsFile file with the literals extracted from LightRDF
+     * @param bigDataset boolean that indicates if the dataset is big
+     * @throws IOException if there are problems during the reading or the index writing of the dataset
+     */
+    private void indexDataset(DatasetMetaData metaData, DatasetContentReader entities, DatasetContentReader contentLiterals,
+                              MappedLineReader literalsFile, boolean bigDataset) throws IOException {
+
+        Document dataset = new Document();
+        addMetadata(dataset, metaData);
 
-            for(String literal: contentRDFLibHRClean.literals)
-                dataset.add(new DataField(DatasetFields.LITERALS, literal));
+        //add the content extracted by RDFLibHR, one value at a time
 
+        if (entities != null) {
+            while (entities.next())
+                dataset.add(new DataField(DatasetFields.ENTITIES, entities.getValue(), schemaProfile));
         }
 
-        //release memory
-        contentRDFLibHRClean = null;
-        System.gc();
+        if (contentLiterals != null) {
+            while (contentLiterals.next())
+                dataset.add(new DataField(DatasetFields.LITERALS, contentLiterals.getValue(), schemaProfile));
+        }
 
         //check if there are elements from LightRDF
+        String line;
 
         if(literalsFile != null && !bigDataset) {
 
-            while(literalsFile.hasNext()){
-                dataset.add(new DataField(DatasetFields.LITERALS, literalsFile.nextLine().replace("\n", "")));
+            while((line = literalsFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.LITERALS, line, schemaProfile));
             }
 
             literalsFile.close();
 
         }
 
-        if(literalsFile != null && bigDataset) {
+        if(literalsFile != null && bigDataset && sampling) {
+
+            Random random = new Random(seed * 31 + metaData.dataset_id.hashCode());
+
+            for (String literal : ReservoirSampler.sample(literalsFile, sampleSize, random))
+                dataset.add(new DataField(DatasetFields.LITERALS, literal, schemaProfile));
+
+            literalsFile.close();
+
+        }
 
-            int tripleLimit = 100000;
+        if(literalsFile != null && bigDataset && !sampling) {
 
             int i = 0;
-            while(literalsFile.hasNext() && i < tripleLimit){
-                dataset.add(new DataField(DatasetFields.LITERALS, literalsFile.nextLine().replace("\n", "")));
+            while(i < TRIPLE_LIMIT && (line = literalsFile.nextLine()) != null){
+                dataset.add(new DataField(DatasetFields.LITERALS, line, schemaProfile));
                 i++;
             }
 
@@ -225,11 +395,7 @@ public class DatasetIndexerLimitedFields {
 
         //System.out.println((Runtime.getRuntime().totalMemory() / (1024*1024)) - (Runtime.getRuntime().freeMemory() / (1024*1024) ));
 
-        try {
-            writer.addDocument(dataset);
-        } catch (OutOfMemoryError e){
-            System.out.println("OutOfMemory in dataset: "+metaData.dataset_id);
-        }
+        writer.addDocument(dataset);
     }
 
     /**
@@ -0,0 +1,56 @@
+package index.experiments;
+
+import analyze.CustomAnalyzer;
+import index.DatasetIndexerStreamData;
+import index.SchemaProfile;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * This class will build the same index with every schema profile and it will report the resulting index
+ * size and the indexing throughput of every profile
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class SchemaProfileReport {
+
+    /**
+     * ONLY FOR DEBUG PURPOSES
+     * args[0]: base directory of the indexes, args[1]: datasets directory, args[2]: number of threads
+     */
+    public static void main(String[] args) throws IOException {
+
+        String indexBasePath = args.length > 0 ? args[0] : "/media/manuel/Tesi/Index/Profiles";
+        String datasetsDirectoryPath = args.length > 1 ? args[1] : "/media/manuel/Tesi/Datasets";
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Analyzer a = CustomAnalyzer.getStopwordsAnalyzer();
+        Similarity s = new BM25Similarity();
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ENGLISH, "%-10s\t%12s\t%12s\t%16s%n", "Profile", "Size (MB)", "Time (s)", "Datasets/s"));
+
+        for (SchemaProfile profile : SchemaProfile.values()) {
+            File indexDirectory = new File(indexBasePath+"/"+profile.name());
+            if (!indexDirectory.exists() && !indexDirectory.mkdirs())
+                throw new IOException("Unable to create the index directory: "+indexDirectory.getPath());
+
+            DatasetIndexerStreamData indexer = new DatasetIndexerStreamData(indexDirectory.getPath(), s, a, false, false, threads);
+            indexer.setSchemaProfile(profile);
+            indexer.indexDatasets(datasetsDirectoryPath);
+
+            double seconds = indexer.getIndexingTime() / 1000.0;
+            report.append(String.format(Locale.ENGLISH, "%-10s\t%12.2f\t%12.2f\t%16.2f%n", profile.name(),
+                    indexer.getIndexSize() / Math.pow(1024, 2), seconds, indexer.getIndexedDatasets() / Math.max(seconds, 0.001)));
+        }
+
+        System.out.print(report);
+    }
+}
@@ -0,0 +1,32 @@
+package parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This interface represents a source of dataset content values (entities, classes, literals and properties)
+ * that are returned one at a time
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public interface ContentSource extends Closeable {
+
+    /**
+     * This method move the source to the next value
+     * @return true if there is a new value, false if the source is finished
+     * @throws IOException if there are problems during the reading of the source
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return the dataset field (see {@link DatasetFields}) of the current value
+     */
+    String getField();
+
+    /**
+     * @return the current value
+     */
+    String getValue();
+}
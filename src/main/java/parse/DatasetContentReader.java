@@ -0,0 +1,135 @@
+package parse;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class will read a dataset_content_*.json file in streaming: the entities, classes, literals and
+ * properties are returned one value at a time, so the whole content of the dataset is never loaded in memory
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class DatasetContentReader implements ContentSource {
+
+    private final JsonReader jsonReader;        //Gson streaming reader over the content file
+    private final String onlyField;             //dataset field whose values are returned, null for all the fields
+    private String field;                       //dataset field of the current value
+    private String value;                       //current value
+    private boolean inArray;                    //indicates if the reader is inside one of the content arrays
+    private boolean finished;                   //indicates if all the content file was read
+
+    /**
+     * Constructor
+     * @param contentFile File object that points to the dataset_content_*.json file
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader(File contentFile) throws IOException {
+        this(contentFile, null);
+    }
+
+    /**
+     * Constructor
+     * @param contentFile File object that points to the dataset_content_*.json file
+     * @param onlyField dataset field (see {@link DatasetFields}) whose values are returned, the arrays of the
+     *                  other fields are skipped. If null the values of all the fields are returned
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader(File contentFile, String onlyField) throws IOException {
+        this.onlyField = onlyField;
+        jsonReader = new JsonReader(new BufferedReader(new FileReader(contentFile, StandardCharsets.UTF_8)));
+        jsonReader.beginObject();
+    }
+
+    /**
+     * This method tells if a given key of the content file contains values that must be returned
+     * @param key key of the json object
+     * @return the dataset field associated to the key or null if the key must be skipped
+     */
+    private static String toDatasetField(String key){
+        if (key.equals(DatasetFields.ENTITIES))
+            return DatasetFields.ENTITIES;
+        if (key.equals(DatasetFields.CLASSES))
+            return DatasetFields.CLASSES;
+        if (key.equals(DatasetFields.LITERALS))
+            return DatasetFields.LITERALS;
+        if (key.equals(DatasetFields.PROPERTIES))
+            return DatasetFields.PROPERTIES;
+        return null;
+    }
+
+    /**
+     * This method move the reader to the next value of the content file
+     * @return true if there is a new value, false if the content file is finished
+     * @throws IOException if there are problems during the reading of the content file
+     */
+    @Override
+    public boolean next() throws IOException {
+        if (finished)
+            return false;
+
+        while (true) {
+            if (inArray) {
+                if (jsonReader.hasNext()) {
+                    if (jsonReader.peek() == JsonToken.NULL) {
+                        jsonReader.nextNull();
+                        continue;
+                    }
+                    value = jsonReader.nextString();
+                    return true;
+                }
+                jsonReader.endArray();
+                inArray = false;
+            }
+
+            if (!jsonReader.hasNext()) {
+                jsonReader.endObject();
+                finished = true;
+                field = null;
+                value = null;
+                return false;
+            }
+
+            //move to the next array of values
+            field = toDatasetField(jsonReader.nextName());
+            if (field != null && (onlyField == null || field.equals(onlyField)) && jsonReader.peek() == JsonToken.BEGIN_ARRAY) {
+                jsonReader.beginArray();
+                inArray = true;
+            } else {
+                jsonReader.skipValue();
+            }
+        }
+    }
+
+    /**
+     * @return the dataset field (see {@link DatasetFields}) of the current value
+     */
+    @Override
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * @return the current value
+     */
+    @Override
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * This method close the content file
+     * @throws IOException if there are problems when closing the content file
+     */
+    @Override
+    public void close() throws IOException {
+        jsonReader.close();
+    }
+}
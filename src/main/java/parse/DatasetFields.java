@@ -2,6 +2,7 @@ package parse;
 
 public class DatasetFields {
     public static String ID = "dataset_id";
+    public static String ID_NUMERIC = "dataset_id_numeric";
     public static String TITLE = "title";
     public static String DESCRIPTION = "description";
     public static String AUTHOR = "author";
@@ -191,4 +191,147 @@ public class DatasetReader {
     }
 
 
+    /**
+     * This method will open in streaming a dataset_content_*.json file of the dataset
+     * @param fileName name of the content file inside the dataset directory
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    private DatasetContentReader streamContent(String fileName) throws IOException {
+        return streamContent(fileName, null);
+    }
+
+    /**
+     * This method will open in streaming the values of a single field of a dataset_content_*.json file of the dataset
+     * @param fileName name of the content file inside the dataset directory
+     * @param field dataset field (see {@link DatasetFields}) whose values are returned, null for all the fields
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    private DatasetContentReader streamContent(String fileName, String field) throws IOException {
+        File contentFile = new File(datasetDirectoryPath+"/"+fileName);
+        if (contentFile.exists())
+            return new DatasetContentReader(contentFile, field);
+        return null;
+    }
+
+    /**
+     * This method will return a streaming reader over the dataset content extracted by JENA
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentJena() throws IOException {
+        return streamContent("dataset_content_jena.json");
+    }
+
+    /**
+     * This method will return a streaming reader over the values of a single field of the dataset content
+     * extracted by JENA
+     * @param field dataset field (see {@link DatasetFields}) whose values are returned
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentJena(String field) throws IOException {
+        return streamContent("dataset_content_jena.json", field);
+    }
+
+    /**
+     * This method will return a streaming reader over the dataset content extracted by JENA with triple deduplication
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentJenaDeduplication() throws IOException {
+        return streamContent("dataset_content_jena_deduplication.json");
+    }
+
+    /**
+     * This method will return a streaming reader over the values of a single field of the dataset content
+     * extracted by JENA with triple deduplication
+     * @param field dataset field (see {@link DatasetFields}) whose values are returned
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentJenaDeduplication(String field) throws IOException {
+        return streamContent("dataset_content_jena_deduplication.json", field);
+    }
+
+    /**
+     * This method will return a streaming reader over the dataset content extracted by JENA with triple
+     * deduplication and labels
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentJenaDeduplicationLabels() throws IOException {
+        return streamContent("dataset_content_jena_deduplication_labels.json");
+    }
+
+    /**
+     * This method will return a streaming reader over the dataset content extracted by LightRDF
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentLightRDF() throws IOException {
+        return streamContent("dataset_content_lightrdf.json");
+    }
+
+    /**
+     * This method will return a streaming reader over the values of a single field of the dataset content
+     * extracted by LightRDF
+     * @param field dataset field (see {@link DatasetFields}) whose values are returned
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentLightRDF(String field) throws IOException {
+        return streamContent("dataset_content_lightrdf.json", field);
+    }
+
+    /**
+     * This method will return a streaming reader over the dataset content extracted by RDFLib
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentRDFLib() throws IOException {
+        return streamContent("dataset_content_rdflib.json");
+    }
+
+    /**
+     * This method will return a streaming reader over the values of a single field of the dataset content
+     * extracted by RDFLib
+     * @param field dataset field (see {@link DatasetFields}) whose values are returned
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentRDFLib(String field) throws IOException {
+        return streamContent("dataset_content_rdflib.json", field);
+    }
+
+    /**
+     * This method will return a streaming reader over the dataset content extracted by RDFLibHR extractor
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentRDFLibHR() throws IOException {
+        return streamContent("dataset_content_rdflibhr.json");
+    }
+
+    /**
+     * This method will return a streaming reader over the dataset content extracted by RDFLibHR and cleaned
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentRDFLibHRClean() throws IOException {
+        return streamContent("dataset_content_rdflibhr_clean.json");
+    }
+
+    /**
+     * This method will return a streaming reader over the values of a single field of the dataset content
+     * extracted by RDFLibHR and cleaned
+     * @param field dataset field (see {@link DatasetFields}) whose values are returned
+     * @return object of type DatasetContentReader or null if the content file does not exist
+     * @throws IOException if there are problems when opening the content file
+     */
+    public DatasetContentReader streamContentRDFLibHRClean(String field) throws IOException {
+        return streamContent("dataset_content_rdflibhr_clean.json", field);
+    }
+
 }
@@ -0,0 +1,108 @@
+package parse;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class will read in streaming the entities, classes, literals and properties extracted by LightRDF
+ * and stored in the *_lightrdf.txt files of a dataset (one value for every line)
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class LightRDFContentReader implements ContentSource {
+
+    private final File[] files;                 //LightRDF files of the dataset
+    private final String[] fields;              //dataset field associated to every LightRDF file
+    private final long maxLines;                //max number of lines read from every file
+    private int current;                        //index of the file that is currently read
+    private long lines;                         //number of lines read from the current file
+    private MappedLineReader reader;            //line reader over the current file
+    private String value;                       //current value
+
+    /**
+     * Constructor
+     * @param datasetDirectoryPath path to the dataset directory with the *_lightrdf.txt files
+     */
+    public LightRDFContentReader(String datasetDirectoryPath){
+        files = new File[]{
+                new File(datasetDirectoryPath+"/entities_lightrdf.txt"),
+                new File(datasetDirectoryPath+"/classes_lightrdf.txt"),
+                new File(datasetDirectoryPath+"/literals_lightrdf.txt"),
+                new File(datasetDirectoryPath+"/properties_lightrdf.txt")
+        };
+        fields = new String[]{DatasetFields.ENTITIES, DatasetFields.CLASSES, DatasetFields.LITERALS, DatasetFields.PROPERTIES};
+        maxLines = Long.MAX_VALUE;
+        current = -1;
+    }
+
+    /**
+     * Constructor for a single LightRDF file
+     * @param file *_lightrdf.txt file to read
+     * @param field dataset field (see {@link DatasetFields}) associated to the file
+     * @param maxLines max number of lines read from the file, the next lines are ignored
+     */
+    public LightRDFContentReader(File file, String field, long maxLines){
+        files = new File[]{file};
+        fields = new String[]{field};
+        this.maxLines = maxLines;
+        current = -1;
+    }
+
+    /**
+     * This method move the reader to the next line of the LightRDF files, up to the max number of lines of every file
+     * @return true if there is a new value, false if all the files are finished
+     * @throws IOException if there are problems when opening the LightRDF files
+     */
+    @Override
+    public boolean next() throws IOException {
+        while (current < files.length) {
+            if (reader != null) {
+                value = lines < maxLines ? reader.nextLine() : null;
+                if (value != null) {
+                    lines++;
+                    return true;
+                }
+                reader.close();
+                reader = null;
+            }
+
+            current++;
+            lines = 0;
+            if (current < files.length && files[current].exists())
+                reader = new MappedLineReader(files[current]);
+        }
+
+        value = null;
+        return false;
+    }
+
+    /**
+     * @return the dataset field (see {@link DatasetFields}) of the current value
+     */
+    @Override
+    public String getField() {
+        return fields[current];
+    }
+
+    /**
+     * @return the current value
+     */
+    @Override
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * This method close the LightRDF file that is currently read
+     * @throws IOException if there are problems when closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (reader != null)
+            reader.close();
+        reader = null;
+        current = files.length;
+    }
+}
@@ -0,0 +1,80 @@
+package parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Scanner;
+
+/**
+ * This class compares the throughput of the line reading of a *_lightrdf.txt file done with
+ * java.util.Scanner (the original path of the indexers) and with the MappedLineReader
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class LineReaderBenchmark {
+
+    /**
+     * This method read all the lines of a file with a Scanner, as done originally by the indexers
+     * @param file file to read
+     * @return total number of chars read, to avoid that the reading is optimized away
+     * @throws IOException if there are problems when opening the file
+     */
+    private static long readScanner(File file) throws IOException {
+        long chars = 0;
+        Scanner scanner = new Scanner(file);
+        while (scanner.hasNext())
+            chars += scanner.nextLine().replace("\n", "").length();
+        scanner.close();
+        return chars;
+    }
+
+    /**
+     * This method read all the lines of a file with a MappedLineReader
+     * @param file file to read
+     * @return total number of chars read, to avoid that the reading is optimized away
+     * @throws IOException if there are problems during the reading of the file
+     */
+    private static long readMapped(File file) throws IOException {
+        long chars = 0;
+        MappedLineReader reader = new MappedLineReader(file);
+        String line;
+        while ((line = reader.nextLine()) != null)
+            chars += line.length();
+        reader.close();
+        return chars;
+    }
+
+    /**
+     * ONLY FOR DEBUG PURPOSES
+     * args[0]: path to the file to read, args[1]: number of rounds (default 5)
+     */
+    public static void main(String[] args) throws IOException {
+        File file = new File(args.length > 0 ? args[0] : "/media/manuel/Tesi/Datasets/dataset-1/literals_lightrdf.txt");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double megabytes = file.length() / Math.pow(1024, 2);
+
+        //the first round of every reader is a warm up round and it is not measured
+        readScanner(file);
+        readMapped(file);
+
+        long scannerTime = 0;
+        long mappedTime = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            long scannerChars = readScanner(file);
+            scannerTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long mappedChars = readMapped(file);
+            mappedTime += System.nanoTime() - start;
+
+            if (scannerChars != mappedChars)
+                System.out.println("Different content read: Scanner "+scannerChars+" chars, Mapped "+mappedChars+" chars");
+        }
+
+        System.out.printf(Locale.ENGLISH, "Scanner:          %.2f MB/s%n", megabytes * rounds / (scannerTime / 1e9));
+        System.out.printf(Locale.ENGLISH, "MappedLineReader: %.2f MB/s%n", megabytes * rounds / (mappedTime / 1e9));
+    }
+}
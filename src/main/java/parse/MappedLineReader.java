@@ -0,0 +1,154 @@
+package parse;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class will read the lines of a text file (like the *_lightrdf.txt files) through a memory-mapped
+ * FileChannel. The lines are split directly over the raw bytes of the file and only the lines that are
+ * returned by {@link #nextLine()} are decoded from UTF-8, the lines skipped with {@link #skipLine()} are
+ * never decoded
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class MappedLineReader implements Closeable {
+
+    private static final long REGION_SIZE = 1L << 30;  //max size of a mapped region of the file (1 GB)
+
+    private final long regionSize;              //max size of a mapped region of the file
+    private final FileChannel channel;          //channel over the file
+    private final long size;                    //size of the file in bytes
+    private MappedByteBuffer region;            //region of the file that is currently mapped
+    private long regionStart;                   //offset in the file of the current region
+    private byte[] line = new byte[1024];       //bytes of the current line
+    private int lineLength;                     //number of bytes of the current line
+
+    /**
+     * Constructor
+     * @param file File object that points to the file to read
+     * @throws IOException if there are problems when opening the file
+     */
+    public MappedLineReader(File file) throws IOException {
+        this(file, REGION_SIZE);
+    }
+
+    /**
+     * Constructor with a given max size of the mapped regions, small regions are used to test the lines
+     * that cross the boundary between two regions
+     * @param file File object that points to the file to read
+     * @param regionSize max size in bytes of a mapped region of the file
+     * @throws IOException if there are problems when opening the file
+     */
+    MappedLineReader(File file, long regionSize) throws IOException {
+        if (regionSize < 1)
+            throw new IllegalArgumentException("The region size must be at least 1 byte");
+        this.regionSize = regionSize;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+        regionStart = 0;
+    }
+
+    /**
+     * This method map the region of the file that starts at a given offset
+     * @param start offset of the region in the file
+     * @throws IOException if there are problems during the mapping of the file
+     */
+    private void map(long start) throws IOException {
+        regionStart = start;
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(regionSize, size - start));
+    }
+
+    /**
+     * This method append some bytes of the current region to the current line
+     * @param from position of the first byte in the region
+     * @param length number of bytes to append
+     */
+    private void append(int from, int length){
+        if (lineLength + length > line.length) {
+            byte[] larger = new byte[Math.max(line.length * 2, lineLength + length)];
+            System.arraycopy(line, 0, larger, 0, lineLength);
+            line = larger;
+        }
+        region.get(from, line, lineLength, length);
+        lineLength += length;
+    }
+
+    /**
+     * This method move the reader after the next line terminator
+     * @param copy true if the bytes of the line must be copied in the line buffer
+     * @return true if a line was read, false if the file is finished
+     * @throws IOException if there are problems during the reading of the file
+     */
+    private boolean readLine(boolean copy) throws IOException {
+        lineLength = 0;
+        boolean read = false;
+
+        while (true) {
+            if (region == null || !region.hasRemaining()) {
+                long next = region == null ? 0 : regionStart + region.limit();
+                if (next >= size)
+                    return read;
+                map(next);
+            }
+
+            int start = region.position();
+            int limit = region.limit();
+            int i = start;
+            while (i < limit && region.get(i) != '\n')
+                i++;
+
+            read = true;
+            if (copy)
+                append(start, i - start);
+
+            if (i < limit) {
+                region.position(i + 1);
+                return true;
+            }
+
+            //the line continues in the next region of the file
+            region.position(limit);
+        }
+    }
+
+    /**
+     * This method return the next line of the file without the line terminator
+     * @return the next line or null if the file is finished
+     * @throws IOException if there are problems during the reading of the file
+     */
+    public String nextLine() throws IOException {
+        if (!readLine(true))
+            return null;
+
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r')
+            length--;
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * This method skip the next line of the file without decoding it
+     * @return true if a line was skipped, false if the file is finished
+     * @throws IOException if there are problems during the reading of the file
+     */
+    public boolean skipLine() throws IOException {
+        return readLine(false);
+    }
+
+    /**
+     * This method close the file
+     * @throws IOException if there are problems when closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        region = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,61 @@
+package parse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class will extract a uniform random sample of fixed size from the lines of a file by reading it only
+ * once (reservoir sampling). The memory used is proportional to the sample size and not to the file size
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class ReservoirSampler {
+
+    /**
+     * This method will return a uniform random sample of the lines of a file, the file is read until the end
+     * but it is not closed. The lines that are not selected for the reservoir are skipped without decoding them.
+     * If the lines are less than the sample size, all the lines are returned in the file order
+     *
+     * @param lines MappedLineReader over the lines to sample
+     * @param sampleSize max number of lines to return
+     * @param random random generator used for the sampling, a seeded generator gives a reproducible sample
+     * @return list with the sampled lines
+     * @throws IOException if there are problems during the reading of the file
+     */
+    public static List<String> sample(MappedLineReader lines, int sampleSize, Random random) throws IOException {
+        if(sampleSize < 1)
+            throw new IllegalArgumentException("The sample size must be at least 1");
+
+        List<String> reservoir = new ArrayList<>();
+
+        //fill the reservoir with the first lines
+        String line;
+        while (reservoir.size() < sampleSize && (line = lines.nextLine()) != null)
+            reservoir.add(line);
+
+        if (reservoir.size() < sampleSize)
+            return reservoir;
+
+        //every next line i replaces a random element of the reservoir with probability sampleSize / i,
+        //the choice is done before reading the line so the discarded lines are not decoded
+        long seen = reservoir.size();
+        while (true) {
+            long j = (long) (random.nextDouble() * (seen + 1));
+            if (j < sampleSize) {
+                line = lines.nextLine();
+                if (line == null)
+                    break;
+                reservoir.set((int) j, line);
+            } else if (!lines.skipLine()) {
+                break;
+            }
+            seen++;
+        }
+
+        return reservoir;
+    }
+}
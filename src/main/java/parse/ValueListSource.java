@@ -0,0 +1,59 @@
+package parse;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class is a source of content values that are already in memory, all of the same dataset field (for
+ * example the lines sampled from a LightRDF file by the {@link ReservoirSampler})
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class ValueListSource implements ContentSource {
+
+    private final String field;                 //dataset field of the values
+    private final Iterator<String> values;      //iterator over the values
+    private String value;                       //current value
+
+    /**
+     * Constructor
+     * @param field dataset field (see {@link DatasetFields}) of the values
+     * @param values values returned by the source, in order
+     */
+    public ValueListSource(String field, List<String> values){
+        this.field = field;
+        this.values = values.iterator();
+    }
+
+    /**
+     * This method move the source to the next value of the list
+     * @return true if there is a new value, false if the list is finished
+     */
+    @Override
+    public boolean next() {
+        value = values.hasNext() ? values.next() : null;
+        return value != null;
+    }
+
+    /**
+     * @return the dataset field (see {@link DatasetFields}) of the values
+     */
+    @Override
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * @return the current value
+     */
+    @Override
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public void close() {
+    }
+}
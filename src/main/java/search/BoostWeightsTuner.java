@@ -0,0 +1,499 @@
+package search;
+
+import analyze.CustomAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import parse.DatasetFields;
+import utils.BoostWeights;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class tunes the boost weights of the fields (see utils.BoostWeights) without searching the index for
+ * every weight vector. Every query is searched once for every field: the candidate documents are the union
+ * of the top documents of the fields, and the score of every candidate in every field is cached in a
+ * matrix of floats. The score of a boosted query is the sum of the field scores multiplied by the weights
+ * of the fields, so every weight vector is evaluated in memory as a linear combination of the matrix: the
+ * candidates are collapsed by dataset like in DatasetSearcher, the top datasets are kept with a heap and
+ * the ranking is evaluated with the NDCG of the qrels
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class BoostWeightsTuner {
+
+    private final String[] fields;                  //fields of the weight vectors
+    private final int cutoff;                       //number of datasets of the evaluated rankings
+    private final List<QueryMatrix> matrices = new ArrayList<>();  //score matrices of the judged queries
+    private int threads = Runtime.getRuntime().availableProcessors();   //threads that evaluate the vectors
+
+    /**
+     * This class keeps the field scores of the candidate documents of a query and its relevance judgements
+     */
+    private static class QueryMatrix {
+        private final int[] docs;           //Lucene ids of the candidates, in increasing order
+        private final int[] datasets;       //ordinal of the dataset of every candidate
+        private final float[] scores;       //score of candidate c in field f at c * fields + f
+        private final int[] gains;          //relevance of every dataset ordinal
+        private final double idcg;          //ideal DCG of the query
+
+        private QueryMatrix(int[] docs, int[] datasets, float[] scores, int[] gains, double idcg) {
+            this.docs = docs;
+            this.datasets = datasets;
+            this.scores = scores;
+            this.gains = gains;
+            this.idcg = idcg;
+        }
+    }
+
+    /**
+     * This class is a weight vector with its evaluation
+     */
+    public static class Result {
+        private final float[] weights;      //weights of the fields
+        private final double ndcg;          //mean NDCG of the queries
+
+        private Result(float[] weights, double ndcg) {
+            this.weights = weights;
+            this.ndcg = ndcg;
+        }
+
+        /**
+         * @return weights of the fields, in the order of the fields of the tuner
+         */
+        public float[] getWeights() {
+            return weights;
+        }
+
+        /**
+         * @return mean NDCG of the queries
+         */
+        public double getNDCG() {
+            return ndcg;
+        }
+    }
+
+    /**
+     * Constructor, it searches the queries and builds the score matrices
+     * @param indexPath path to the index directory
+     * @param analyzer that must be used for the queries
+     * @param similarity Similarity of the searches
+     * @param fields fields of the weight vectors
+     * @param queries queries to search
+     * @param qrels relevance of the datasets for every query ID (see readQrels)
+     * @param depth number of documents retrieved for every field, the candidates of a query are the union of
+     *              the documents of the fields
+     * @param cutoff number of datasets of the evaluated rankings (10 for NDCG@10)
+     * @throws ParseException if there are problems during the query parsing
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    public BoostWeightsTuner(String indexPath, Analyzer analyzer, Similarity similarity, String[] fields,
+                             QualityQuery[] queries, Map<String, Map<String, Integer>> qrels, int depth,
+                             int cutoff) throws ParseException, IOException {
+        if (fields == null || fields.length == 0)
+            throw new IllegalArgumentException("The fields cannot be null or empty");
+        if (depth < cutoff || cutoff < 1)
+            throw new IllegalArgumentException("The depth must be at least the cutoff, and the cutoff at least 1");
+
+        this.fields = fields;
+        this.cutoff = cutoff;
+
+        SharedIndex index = SharedIndex.open(indexPath);
+        try (SharedIndex.SearcherLease lease = index.acquire(similarity)) {
+            IndexSearcher indexSearcher = lease.getIndexSearcher();
+            DatasetIdResolver idResolver = new DatasetIdResolver(lease.getIndexReader());
+
+            for (QualityQuery query : queries) {
+                //only the judged queries contribute to the evaluation
+                Map<String, Integer> judgements = qrels.get(query.getQueryID());
+                if (judgements == null)
+                    continue;
+                matrices.add(buildMatrix(indexSearcher, idResolver, analyzer, query, judgements, depth));
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * This method search a query in every field and build its score matrix
+     * @param indexSearcher searcher of the index
+     * @param idResolver resolver of the dataset IDs of the reader of the searcher
+     * @param analyzer that must be used for the query
+     * @param query query to search
+     * @param judgements relevance of the datasets for the query
+     * @param depth number of documents retrieved for every field
+     * @return the score matrix of the query
+     * @throws ParseException if there are problems during the query parsing
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    private QueryMatrix buildMatrix(IndexSearcher indexSearcher, DatasetIdResolver idResolver, Analyzer analyzer,
+                                    QualityQuery query, Map<String, Integer> judgements, int depth) throws ParseException, IOException {
+        String text = query.getValue(QueryFields.TEXT);
+
+        //the candidates are the top documents of every field
+        Query[] fieldQueries = new Query[fields.length];
+        TreeSet<Integer> candidates = new TreeSet<>();
+        for (int f = 0; f < fields.length; f++) {
+            fieldQueries[f] = indexSearcher.rewrite(CustomQueryBuilder.buildMultiFieldQuery(text, analyzer, new String[]{fields[f]}));
+            for (ScoreDoc doc : indexSearcher.search(fieldQueries[f], depth).scoreDocs)
+                candidates.add(doc.doc);
+        }
+        int[] docs = candidates.stream().mapToInt(Integer::intValue).toArray();
+
+        //score of every candidate in every field, 0 if the candidate does not match the field
+        float[] scores = new float[docs.length * fields.length];
+        List<LeafReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+        for (int f = 0; f < fields.length; f++) {
+            Weight weight = indexSearcher.createWeight(fieldQueries[f], ScoreMode.COMPLETE, 1f);
+            int c = 0;
+            for (LeafReaderContext leaf : leaves) {
+                int end = leaf.docBase + leaf.reader().maxDoc();
+                Scorer scorer = c < docs.length && docs[c] < end ? weight.scorer(leaf) : null;
+                for (; c < docs.length && docs[c] < end; c++) {
+                    if (scorer == null)
+                        continue;
+                    int target = docs[c] - leaf.docBase;
+                    DocIdSetIterator iterator = scorer.iterator();
+                    if (iterator.docID() < target)
+                        iterator.advance(target);
+                    if (iterator.docID() == target)
+                        scores[c * fields.length + f] = scorer.score();
+                }
+            }
+        }
+
+        //ordinals of the datasets of the candidates
+        ScoreDoc[] scoreDocs = new ScoreDoc[docs.length];
+        for (int c = 0; c < docs.length; c++)
+            scoreDocs[c] = new ScoreDoc(docs[c], 0);
+        String[] ids = idResolver.resolve(scoreDocs);
+
+        HashMap<String, Integer> ordinals = new HashMap<>();
+        int[] datasets = new int[docs.length];
+        for (int c = 0; c < docs.length; c++)
+            datasets[c] = ordinals.computeIfAbsent(ids[c], id -> ordinals.size());
+
+        int[] gains = new int[ordinals.size()];
+        for (Map.Entry<String, Integer> entry : ordinals.entrySet())
+            gains[entry.getValue()] = judgements.getOrDefault(entry.getKey(), 0);
+
+        //ideal DCG over all the judged datasets, also the ones that are not candidates
+        int[] ideal = judgements.values().stream().filter(g -> g > 0).sorted((a, b) -> b - a).mapToInt(Integer::intValue).toArray();
+        double idcg = 0;
+        for (int i = 0; i < Math.min(cutoff, ideal.length); i++)
+            idcg += ideal[i] / log2(i + 2);
+
+        return new QueryMatrix(docs, datasets, scores, gains, idcg);
+    }
+
+    /**
+     * This method set the number of threads that evaluate the weight vectors of a search
+     * @param threads number of threads, 1 for a sequential search
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+        this.threads = threads;
+    }
+
+    /**
+     * @return fields of the weight vectors
+     */
+    public String[] getFields() {
+        return fields;
+    }
+
+    /**
+     * This method evaluate a weight vector
+     * @param weights weights of the fields, in the order of the fields of the tuner
+     * @return mean NDCG of the judged queries, the queries without relevant datasets count as 0
+     */
+    public double evaluate(float[] weights) {
+        if (weights.length != fields.length)
+            throw new IllegalArgumentException("The weight vector must have a weight for every field");
+
+        int maxDatasets = 0;
+        for (QueryMatrix matrix : matrices)
+            maxDatasets = Math.max(maxDatasets, matrix.gains.length);
+        float[] datasetScores = new float[maxDatasets];
+        int[] datasetDocs = new int[maxDatasets];
+        int[] heap = new int[cutoff];
+
+        double sum = 0;
+        for (QueryMatrix matrix : matrices)
+            sum += evaluate(matrix, weights, datasetScores, datasetDocs, heap);
+        return matrices.isEmpty() ? 0 : sum / matrices.size();
+    }
+
+    /**
+     * This method evaluate a weight vector on a query
+     * @param matrix score matrix of the query
+     * @param weights weights of the fields
+     * @param datasetScores buffer for the scores of the datasets
+     * @param datasetDocs buffer for the best document of the datasets
+     * @param heap buffer for the heap of the top datasets
+     * @return NDCG of the query
+     */
+    private double evaluate(QueryMatrix matrix, float[] weights, float[] datasetScores, int[] datasetDocs, int[] heap) {
+        if (matrix.idcg == 0)
+            return 0;
+
+        int nDatasets = matrix.gains.length;
+        Arrays.fill(datasetScores, 0, nDatasets, -1);
+
+        //score of every dataset, the one of its best document like the collapsing of DatasetSearcher
+        int nFields = fields.length;
+        for (int c = 0, offset = 0; c < matrix.docs.length; c++, offset += nFields) {
+            float score = 0;
+            for (int f = 0; f < nFields; f++)
+                score += weights[f] * matrix.scores[offset + f];
+            int d = matrix.datasets[c];
+            //the documents are in increasing order, so with the same score the first document wins
+            if (score > datasetScores[d]) {
+                datasetScores[d] = score;
+                datasetDocs[d] = matrix.docs[c];
+            }
+        }
+
+        //min heap of the top datasets, the root is the worst one
+        int size = 0;
+        for (int d = 0; d < nDatasets; d++) {
+            if (size < cutoff) {
+                heap[size] = d;
+                upHeap(heap, size++, datasetScores, datasetDocs);
+            } else if (lessThan(heap[0], d, datasetScores, datasetDocs)) {
+                heap[0] = d;
+                downHeap(heap, size, datasetScores, datasetDocs);
+            }
+        }
+
+        //the datasets are popped from the worst, so the ranking is filled from the bottom
+        double dcg = 0;
+        for (int rank = size - 1; rank >= 0; rank--) {
+            int d = heap[0];
+            heap[0] = heap[rank];
+            downHeap(heap, rank, datasetScores, datasetDocs);
+            dcg += matrix.gains[d] / log2(rank + 2);
+        }
+        return dcg / matrix.idcg;
+    }
+
+    /**
+     * This method compare two datasets like the ranking of Lucene: by score and then by document
+     * @return true if the dataset a is ranked after the dataset b
+     */
+    private static boolean lessThan(int a, int b, float[] scores, int[] docs) {
+        return scores[a] < scores[b] || (scores[a] == scores[b] && docs[a] > docs[b]);
+    }
+
+    private static void upHeap(int[] heap, int i, float[] scores, int[] docs) {
+        int node = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!lessThan(node, heap[parent], scores, docs))
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = node;
+    }
+
+    private static void downHeap(int[] heap, int size, float[] scores, int[] docs) {
+        if (size == 0)
+            return;
+        int i = 0;
+        int node = heap[0];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && lessThan(heap[child + 1], heap[child], scores, docs))
+                child++;
+            if (!lessThan(heap[child], node, scores, docs))
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = node;
+    }
+
+    private static double log2(int x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    /**
+     * This method evaluate random weight vectors and return the best ones. The weights are multiples of
+     * the step between 0 and 1, like the hand tuned weights of BoostWeights
+     * @param trials number of weight vectors to evaluate
+     * @param step step of the weights, for example 0.1
+     * @param seed seed of the random generator
+     * @param top number of the best vectors to return
+     * @return the best weight vectors, from the best one
+     * @throws IOException if the evaluation is interrupted or fails
+     */
+    public List<Result> randomSearch(int trials, float step, long seed, int top) throws IOException {
+        int levels = Math.round(1 / step);
+        Random random = new Random(seed);
+        float[][] vectors = new float[trials][fields.length];
+        for (float[] vector : vectors)
+            for (int f = 0; f < fields.length; f++)
+                vector[f] = Math.round(random.nextInt(levels + 1) * step * 1000) / 1000f;
+
+        List<Result> results = evaluate(vectors);
+        return results.subList(0, Math.min(top, results.size()));
+    }
+
+    /**
+     * This method evaluate a set of weight vectors in parallel
+     * @param vectors weight vectors to evaluate
+     * @return the evaluations of the vectors, from the best one
+     * @throws IOException if the evaluation is interrupted or fails
+     */
+    public List<Result> evaluate(float[][] vectors) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<List<Result>>> tasks = new ArrayList<>();
+        int chunk = (vectors.length + threads - 1) / threads;
+        for (int start = 0; start < vectors.length; start += chunk) {
+            int from = start;
+            int to = Math.min(vectors.length, start + chunk);
+            tasks.add(pool.submit(() -> {
+                List<Result> results = new ArrayList<>();
+                for (int i = from; i < to; i++)
+                    results.add(new Result(vectors[i], evaluate(vectors[i])));
+                return results;
+            }));
+        }
+        pool.shutdown();
+
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Future<List<Result>> task : tasks)
+                results.addAll(task.get());
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Evaluation interrupted", e);
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            throw new IOException("Error while evaluating the weight vectors", e.getCause());
+        }
+
+        results.sort((a, b) -> Double.compare(b.ndcg, a.ndcg));
+        return results;
+    }
+
+    /**
+     * This method return the weights of a boost weights map in the order of the fields of the tuner
+     * @param queryWeights map with the query weights for boosting
+     * @return the weight vector, 0 for the fields without a weight
+     */
+    public float[] toVector(Map<String, Float> queryWeights) {
+        float[] weights = new float[fields.length];
+        for (int f = 0; f < fields.length; f++)
+            weights[f] = queryWeights.getOrDefault(fields[f], 0f);
+        return weights;
+    }
+
+    /**
+     * This method read the relevance judgements of a qrels file in the TREC format
+     * (query ID, iteration, dataset ID, relevance)
+     * @param qrelsPath path to the qrels file
+     * @return relevance of the judged datasets for every query ID
+     * @throws IOException if there are problems while reading the file
+     */
+    public static Map<String, Map<String, Integer>> readQrels(String qrelsPath) throws IOException {
+        Map<String, Map<String, Integer>> qrels = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(qrelsPath))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens.length < 4)
+                    continue;
+                qrels.computeIfAbsent(tokens[0], id -> new HashMap<>()).put(tokens[2], Integer.parseInt(tokens[3]));
+            }
+        }
+        return qrels;
+    }
+
+    /**
+     * ONLY FOR DEBUG PURPOSES
+     * args[0]: index path, args[1]: queries path, args[2]: qrels path, args[3]: model (BM25, TFIDF or LMD),
+     * args[4]: fields (m, d or m+d), args[5]: number of weight vectors (default 10000)
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+        String indexPath = args.length > 0 ? args[0] : "/media/manuel/Tesi/Index/Stream_Jena_LightRDF_Deduplication_Good";
+        String queryPath = args.length > 1 ? args[1] : "/home/manuel/Tesi/ACORDAR/Data/all_queries.txt";
+        String qrelsPath = args.length > 2 ? args[2] : "/home/manuel/Tesi/ACORDAR/Data/qrels.txt";
+        String model = args.length > 3 ? args[3] : "BM25";
+        String fieldSet = args.length > 4 ? args[4] : "m+d";
+        int trials = args.length > 5 ? Integer.parseInt(args[5]) : 10000;
+        Analyzer analyzer = CustomAnalyzer.getStopwordsAnalyzer();
+
+        //fields in the order of the weight arrays of BoostWeights
+        String[] metadataFields = {DatasetFields.TITLE, DatasetFields.DESCRIPTION, DatasetFields.AUTHOR, DatasetFields.TAGS};
+        String[] dataFields = {DatasetFields.ENTITIES, DatasetFields.LITERALS, DatasetFields.CLASSES, DatasetFields.PROPERTIES};
+        String[] allFields = Arrays.copyOf(metadataFields, metadataFields.length + dataFields.length);
+        System.arraycopy(dataFields, 0, allFields, metadataFields.length, dataFields.length);
+        String[] fields = fieldSet.equals("m") ? metadataFields : fieldSet.equals("d") ? dataFields : allFields;
+
+        Similarity similarity;
+        Map<String, Float> currentWeights;
+        switch (model) {
+            case "TFIDF":
+                similarity = new ClassicSimilarity();
+                currentWeights = fieldSet.equals("m") ? BoostWeights.TFIDFMetadataBoostWeights : fieldSet.equals("d") ? BoostWeights.TFIDFDataBoostWeights : BoostWeights.TFIDFBoostWeights;
+                break;
+            case "LMD":
+                similarity = new LMDirichletSimilarity();
+                currentWeights = fieldSet.equals("m") ? BoostWeights.LMDMetadataBoostWeights : fieldSet.equals("d") ? BoostWeights.LMDDataBoostWeights : BoostWeights.LMDBoostWeights;
+                break;
+            default:
+                similarity = new BM25Similarity();
+                currentWeights = fieldSet.equals("m") ? BoostWeights.BM25MetadataBoostWeights : fieldSet.equals("d") ? BoostWeights.BM25DataBoostWeights : BoostWeights.BM25BoostWeights;
+        }
+
+        long start = System.currentTimeMillis();
+        BoostWeightsTuner tuner = new BoostWeightsTuner(indexPath, analyzer, similarity, fields,
+                new QueriesReader().readQueries(queryPath), readQrels(qrelsPath), 1000, 10);
+        System.out.println("Score matrices built in "+(System.currentTimeMillis() - start)+" ms");
+
+        float[] current = tuner.toVector(currentWeights);
+        System.out.printf(Locale.ENGLISH, "current\t%.4f\t%s%n", tuner.evaluate(current), Arrays.toString(current));
+
+        start = System.currentTimeMillis();
+        List<Result> best = tuner.randomSearch(trials, 0.1f, 42, 10);
+        System.out.println(trials+" weight vectors evaluated in "+(System.currentTimeMillis() - start)+" ms");
+        System.out.println("fields\t"+String.join(", ", fields));
+        for (Result result : best)
+            System.out.printf(Locale.ENGLISH, "NDCG@10\t%.4f\t%s%n", result.getNDCG(), Arrays.toString(result.getWeights()));
+    }
+}
@@ -0,0 +1,128 @@
+package search;
+
+import analyze.CustomAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.benchmark.quality.Judge;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.benchmark.quality.trec.TrecJudge;
+import utils.BoostWeights;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * This class evaluates the cascade ranking of FSDMRanker for different numbers of candidates retrieved by the
+ * first stage: for every number of candidates K it reports the latency of the whole cascade and the recall@K
+ * of the first stage (the fraction of the relevant datasets of the qrels that FSDM can rerank), so the
+ * smallest K that keeps the quality of the ranking can be chosen. K counts the candidate documents: the chunks
+ * of a big dataset are different documents, so K candidates can contain less than K distinct datasets and
+ * the mean number of distinct datasets is reported too
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class CascadeEvaluation {
+
+    private final FSDMRanker ranker;            //ranker to evaluate
+    private final QualityQuery[] queries;       //queries of the evaluation
+    private final Judge judge;                  //relevance judgements of the queries
+
+    /**
+     * Constructor
+     * @param ranker ranker to evaluate
+     * @param queries queries of the evaluation
+     * @param judge relevance judgements of the queries
+     */
+    public CascadeEvaluation(FSDMRanker ranker, QualityQuery[] queries, Judge judge) {
+        this.ranker = ranker;
+        this.queries = queries;
+        this.judge = judge;
+    }
+
+    /**
+     * This method evaluate the cascade with a given first stage model for every number of candidates and
+     * print a line with the results for every number of candidates
+     * @param firstStage retrieval model of the first stage
+     * @param depths numbers of candidates to evaluate
+     */
+    public void evaluate(FSDMRanker.FirstStage firstStage, int[] depths) {
+        System.out.println("model\tK docs\tmean datasets\tmean ms\tp95 ms\trecall@K");
+        for (int candidates : depths) {
+            ranker.setCascade(firstStage, candidates);
+
+            //the first round loads the index pages and it is not measured
+            for (QualityQuery query : queries)
+                ranker.getFSDMRankingList(query.getValue(QueryFields.TEXT));
+
+            long[] latencies = new long[queries.length];
+            double recallSum = 0.0;
+            int judgedQueries = 0;
+            long datasetsSum = 0;
+
+            for (int i = 0; i < queries.length; i++) {
+                String text = queries[i].getValue(QueryFields.TEXT);
+
+                long start = System.nanoTime();
+                ranker.getFSDMRankingList(text);
+                latencies[i] = System.nanoTime() - start;
+
+                //the chunks of a dataset are counted once
+                Set<Integer> datasets = new HashSet<>(ranker.getCandidateList(text));
+                datasetsSum += datasets.size();
+
+                //recall of the candidates, only for the queries with at least one relevant dataset
+                int relevant = judge.maxRecall(queries[i]);
+                if (relevant == 0)
+                    continue;
+                int found = 0;
+                for (Integer datasetID : datasets)
+                    if (judge.isRelevant(String.valueOf(datasetID), queries[i]))
+                        found++;
+                recallSum += (double) found / relevant;
+                judgedQueries++;
+            }
+
+            Arrays.sort(latencies);
+            double mean = Arrays.stream(latencies).average().orElse(0) / 1e6;
+            double p95 = latencies.length > 0 ? latencies[(int) Math.ceil(0.95 * latencies.length) - 1] / 1e6 : 0;
+            double recall = judgedQueries > 0 ? recallSum / judgedQueries : 0;
+            double datasets = queries.length > 0 ? (double) datasetsSum / queries.length : 0;
+
+            System.out.printf(Locale.ENGLISH, "%s\t%d\t%.1f\t%.3f\t%.3f\t%.4f%n", firstStage, candidates, datasets, mean, p95, recall);
+        }
+    }
+
+    /**
+     * ONLY FOR DEBUG PURPOSES
+     * args[0]: index path, args[1]: queries path, args[2]: qrels path, args[3]: first stage model (BM25 or
+     * COMBINED_FIELDS), args[4]: comma separated numbers of candidates
+     */
+    public static void main(String[] args) throws IOException {
+        String indexPath = args.length > 0 ? args[0] : "/media/manuel/Tesi/Index/Stream_Jena_LightRDF_Deduplication_Good";
+        String queryPath = args.length > 1 ? args[1] : "/home/manuel/Tesi/ACORDAR/Data/all_queries.txt";
+        String qrelsPath = args.length > 2 ? args[2] : "/home/manuel/Tesi/ACORDAR/Data/qrels.txt";
+        FSDMRanker.FirstStage firstStage = args.length > 3 ? FSDMRanker.FirstStage.valueOf(args[3]) : FSDMRanker.FirstStage.BM25;
+        int[] depths = args.length > 4 ? Arrays.stream(args[4].split(",")).mapToInt(Integer::parseInt).toArray() : new int[]{10, 50, 100, 500, 1000};
+
+        Analyzer analyzer = CustomAnalyzer.getStopwordsAnalyzer();
+        int nHits = 10;
+        HashMap<String, Float> boostWeights = BoostWeights.FSDMBoostWeights;
+
+        QualityQuery[] queries = new QueriesReader().readQueries(queryPath);
+        Judge judge;
+        try (BufferedReader reader = new BufferedReader(new FileReader(qrelsPath))) {
+            judge = new TrecJudge(reader);
+        }
+
+        FSDMRanker ranker = new FSDMRanker(indexPath, analyzer, nHits, boostWeights);
+        new CascadeEvaluation(ranker, queries, judge).evaluate(firstStage, depths);
+        ranker.close();
+    }
+}
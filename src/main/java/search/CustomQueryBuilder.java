@@ -1,18 +1,34 @@
 package search;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.QueryParserBase;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.TermQuery;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
- * This class is a custom Boolean Query Builder
+ * This class is a custom Boolean Query Builder.
+ * The built queries are kept in a bounded LRU cache, keyed by the normalized text of the query, the fields,
+ * the boost weights and the analyzer, so the same query searched by many runs is parsed and analyzed only
+ * once. The Lucene queries are immutable, so the same instance can be returned to all the callers
  *
  * @author Manuel Barusco
  * @version 1.0
@@ -20,6 +36,134 @@ import java.util.Map;
  */
 public class CustomQueryBuilder {
 
+    private static int cacheSize = 1024;        //max number of queries in the cache, 0 to disable the cache
+    private static final LinkedHashMap<CacheKey, Query> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, Query> eldest) {
+            return size() > cacheSize;
+        }
+    };                                          //built queries in access order, the eldest is the least used
+
+    /**
+     * This interface builds a query that is not in the cache
+     */
+    private interface QueryFactory {
+        Query build() throws ParseException;
+    }
+
+    /**
+     * This class is the key of a query in the cache. The analyzer is compared by identity, because two
+     * analyzers of the same class can analyze the text in different ways
+     */
+    private static final class CacheKey {
+        private final String type;              //builder of the query
+        private final String text;              //normalized text of the query
+        private final String[] fields;          //fields of the query, in the order of the clauses
+        private final float[] weights;          //boost weights of the fields, null for no boosting
+        private final Analyzer analyzer;        //analyzer of the query
+
+        private CacheKey(String type, String text, String[] fields, float[] weights, Analyzer analyzer) {
+            this.type = type;
+            this.text = text;
+            this.fields = fields;
+            this.weights = weights;
+            this.analyzer = analyzer;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey))
+                return false;
+            CacheKey key = (CacheKey) o;
+            return type.equals(key.type) && Objects.equals(text, key.text) && Arrays.equals(fields, key.fields)
+                    && Arrays.equals(weights, key.weights) && analyzer == key.analyzer;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = Objects.hash(type, text);
+            hash = 31 * hash + Arrays.hashCode(fields);
+            hash = 31 * hash + Arrays.hashCode(weights);
+            return 31 * hash + System.identityHashCode(analyzer);
+        }
+    }
+
+    /**
+     * This method set the max number of queries kept in the cache
+     * @param size max number of queries, 0 to disable the cache
+     */
+    public static void setCacheSize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("The size of the cache cannot be negative");
+        synchronized (cache) {
+            cacheSize = size;
+            if (size == 0)
+                cache.clear();
+            else
+                while (cache.size() > size)
+                    cache.remove(cache.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * This method remove all the queries from the cache
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * This method return a query from the cache, building and caching it if it is not there
+     * @param key key of the query
+     * @param factory builder of the query
+     * @return the query
+     * @throws ParseException if any error occurs while parsing the query
+     */
+    private static Query cached(CacheKey key, QueryFactory factory) throws ParseException {
+        Query query;
+        synchronized (cache) {
+            query = cacheSize > 0 ? cache.get(key) : null;
+        }
+        if (query != null)
+            return query;
+
+        //the query is built outside the lock, two threads can build the same query but the result is the same
+        query = factory.build();
+        synchronized (cache) {
+            if (cacheSize > 0)
+                cache.put(key, query);
+        }
+        return query;
+    }
+
+    /**
+     * This method normalize the text of a query for the cache: the parser splits the text on the white
+     * spaces, so the runs of white spaces and the spaces at the ends do not change the query
+     * @param text of the query
+     * @return the normalized text
+     */
+    private static String normalize(String text) {
+        return text == null ? null : text.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * This method return the fields and the weights of a boost weights map, in the order of its keys
+     * @param queryWeights map with the query weights for boosting
+     * @param fields array where to put the fields
+     * @return the weights of the fields, NaN for the fields without a weight
+     */
+    private static float[] toWeights(Map<String, Float> queryWeights, String[] fields) {
+        queryWeights.keySet().toArray(fields);
+        float[] weights = new float[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            Float weight = queryWeights.get(fields[i]);
+            weights[i] = weight != null ? weight : Float.NaN;
+        }
+        return weights;
+    }
+
 
     /**
      * This method build a simple boolean
@@ -29,6 +173,14 @@ public class CustomQueryBuilder {
      * @return the BooleanQuery
      */
     public static BooleanQuery buildBooleanQuery(String[] fields, Analyzer analyzer, String text) throws ParseException {
+        CacheKey key = new CacheKey("boolean", normalize(text), fields.clone(), null, analyzer);
+        return (BooleanQuery) cached(key, () -> parseBooleanQuery(fields, analyzer, text));
+    }
+
+    /**
+     * This method parse the boolean query of buildBooleanQuery
+     */
+    private static BooleanQuery parseBooleanQuery(String[] fields, Analyzer analyzer, String text) throws ParseException {
         BooleanQuery.Builder builder = new BooleanQuery.Builder();
 
         if (text != null && !text.isEmpty() && !text.isBlank()) {
@@ -56,13 +208,172 @@ public class CustomQueryBuilder {
      * @throws ParseException if any error occurs while parsing the query given as parameter
      */
     public static Query buildBoostedQuery(String query, Analyzer analyzer, Map<String, Float> queryWeights) throws ParseException{
-        String queryEscaped = QueryParserBase.escape(query);
+        String[] fields = new String[queryWeights.size()];
+        float[] weights = toWeights(queryWeights, fields);
+
+        return cached(new CacheKey("boosted", normalize(query), fields, weights, analyzer), () -> {
+            String queryEscaped = QueryParserBase.escape(query);
 
+            MultiFieldQueryParser mqp = new MultiFieldQueryParser(fields, analyzer, queryWeights);
+            return mqp.parse(queryEscaped);
+        });
+    }
+
+    /**
+     * This method parse the query on multiple fields like buildBoostedQuery, but without boosting the fields.
+     * The weights of the fields can be applied later with boostFields, so the text of a query is parsed
+     * and analyzed only once for all the boost weights with the same fields
+     *
+     * @param query The query to parse
+     * @param analyzer that must be used for the parsing
+     * @param fields fields where to search, in the order of the clauses of the query
+     * @return a {@code Query} object
+     * @throws ParseException if any error occurs while parsing the query given as parameter
+     */
+    public static Query buildMultiFieldQuery(String query, Analyzer analyzer, String[] fields) throws ParseException {
+        return cached(new CacheKey("multifield", normalize(query), fields.clone(), null, analyzer), () -> {
+            String queryEscaped = QueryParserBase.escape(query);
+
+            MultiFieldQueryParser mqp = new MultiFieldQueryParser(fields, analyzer);
+            return mqp.parse(queryEscaped);
+        });
+    }
+
+    /**
+     * This method build a query directly from the tokens of the analyzer, without the classic query parser:
+     * for every field the query is a disjunction of a TermQuery for every token of the text. It scores the
+     * documents like buildBooleanQuery, but the text is not parsed, so the syntax of the parser is not
+     * interpreted and does not need escaping
+     *
+     * @param text of the query
+     * @param analyzer that must be used in the query analysis
+     * @param fields fields where to search
+     * @return the BooleanQuery
+     */
+    public static BooleanQuery buildTermQuery(String text, Analyzer analyzer, String[] fields) {
+        try {
+            return (BooleanQuery) cached(new CacheKey("term", normalize(text), fields.clone(), null, analyzer),
+                    () -> termQuery(text, analyzer, fields, null));
+        } catch (ParseException e) {
+            //the terms are not parsed
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * This method build a boosted query directly from the tokens of the analyzer, without the classic query
+     * parser: for every field of the weights the query is a disjunction of a TermQuery for every token of
+     * the text, boosted with the weight of the field. It scores the documents like buildBoostedQuery
+     *
+     * @param text of the query
+     * @param analyzer that must be used in the query analysis
+     * @param queryWeights map with the query weights for boosting
+     * @return the BooleanQuery
+     */
+    public static BooleanQuery buildTermQuery(String text, Analyzer analyzer, Map<String, Float> queryWeights) {
         String[] fields = new String[queryWeights.size()];
-        queryWeights.keySet().toArray(fields);
+        float[] weights = toWeights(queryWeights, fields);
 
-        MultiFieldQueryParser mqp = new MultiFieldQueryParser(fields, analyzer, queryWeights);
-        return mqp.parse(queryEscaped);
+        try {
+            return (BooleanQuery) cached(new CacheKey("term", normalize(text), fields, weights, analyzer),
+                    () -> termQuery(text, analyzer, fields, weights));
+        } catch (ParseException e) {
+            //the terms are not parsed
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * This method build the query of buildTermQuery
+     * @param text of the query
+     * @param analyzer that must be used in the query analysis
+     * @param fields fields where to search
+     * @param weights boost weights of the fields, null for no boosting
+     * @return the BooleanQuery
+     */
+    private static BooleanQuery termQuery(String text, Analyzer analyzer, String[] fields, float[] weights) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        if (text == null || text.isBlank())
+            return builder.build();
+
+        for (int i = 0; i < fields.length; i++) {
+            List<String> tokens = analyze(text, analyzer, fields[i]);
+            if (tokens.isEmpty())
+                continue;
+
+            BooleanQuery.Builder fieldBuilder = new BooleanQuery.Builder();
+            for (String token : tokens)
+                fieldBuilder.add(new TermQuery(new Term(fields[i], token)), BooleanClause.Occur.SHOULD);
+            Query fieldQuery = fieldBuilder.build();
+
+            if (weights != null && !Float.isNaN(weights[i]))
+                fieldQuery = new BoostQuery(fieldQuery, weights[i]);
+            builder.add(fieldQuery, BooleanClause.Occur.SHOULD);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * This method analyze the text of a query for a field
+     * @param text of the query
+     * @param analyzer that must be used in the query analysis
+     * @param field field of the analysis
+     * @return the tokens of the text, in order and with the repetitions
+     */
+    private static List<String> analyze(String text, Analyzer analyzer, String field) {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken())
+                tokens.add(term.toString());
+            stream.end();
+        } catch (IOException e) {
+            //the text is read from a string
+            throw new UncheckedIOException(e);
+        }
+        return tokens;
+    }
+
+    /**
+     * This method apply the boost weights of the fields to a query built by buildMultiFieldQuery: every
+     * query on a single field is boosted with the weight of its field, like MultiFieldQueryParser does.
+     * With the same fields in the same order the result is equal to the query of buildBoostedQuery
+     *
+     * @param query query built by buildMultiFieldQuery
+     * @param queryWeights map with the query weights for boosting
+     * @return the boosted query
+     */
+    public static Query boostFields(Query query, Map<String, Float> queryWeights) {
+        if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            for (BooleanClause clause : booleanQuery)
+                builder.add(boostFields(clause.getQuery(), queryWeights), clause.getOccur());
+            return builder.build();
+        }
+
+        Float boost = queryWeights.get(getField(query));
+        return boost != null ? new BoostQuery(query, boost) : query;
+    }
+
+    /**
+     * This method return the field of a query on a single field (term, synonym or phrase query)
+     * @param query query on a single field
+     * @return the field of the query, null if the query has no terms
+     */
+    private static String getField(Query query) {
+        String[] field = new String[1];
+        query.visit(new QueryVisitor() {
+            @Override
+            public void consumeTerms(Query query, Term... terms) {
+                if (field[0] == null && terms.length > 0)
+                    field[0] = terms[0].field();
+            }
+        });
+        return field[0];
     }
 
 }
@@ -0,0 +1,97 @@
+package search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.ScoreDoc;
+import parse.DatasetFields;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class resolves the dataset IDs of the documents retrieved by a search. The IDs are read from the
+ * numeric doc values of the index (see index.DatasetIdField), visiting the documents in increasing doc id
+ * order so every segment is read forward only once, without loading the stored fields of the documents.
+ * The numeric ID is written only for the IDs in canonical decimal form (see index.DatasetIdField#isCanonical),
+ * so it gives back the same string of the stored ID. The documents without the numeric ID (indexes built
+ * before the field was introduced or the other IDs) fall back to the stored ID
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class DatasetIdResolver {
+
+    private final IndexReader indexReader;      //reader of the index
+
+    /**
+     * Constructor
+     * @param indexReader reader of the index
+     */
+    public DatasetIdResolver(IndexReader indexReader){
+        this.indexReader = indexReader;
+    }
+
+    /**
+     * This method resolve the dataset IDs of an array of retrieved documents
+     * @param docs array of ScoreDoc documents retrieved, in any order
+     * @return array with the dataset ID of every document, in the same order of docs
+     * @throws IOException if there are problems while reading the index
+     */
+    public String[] resolve(ScoreDoc[] docs) throws IOException {
+        String[] ids = new String[docs.length];
+
+        //positions of the documents in increasing doc id order
+        Integer[] order = new Integer[docs.length];
+        for (int i = 0; i < docs.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> docs[i].doc));
+
+        List<LeafReaderContext> leaves = indexReader.leaves();
+        LeafReaderContext context = null;
+        NumericDocValues values = null;
+
+        for (int i : order) {
+            int doc = docs[i].doc;
+
+            //move to the segment of the document, the doc values iterator of a segment can only go forward
+            if (context == null || doc >= context.docBase + context.reader().maxDoc()) {
+                context = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                values = context.reader().getNumericDocValues(DatasetFields.ID_NUMERIC);
+            }
+
+            int segmentDoc = doc - context.docBase;
+            if (values != null && values.docID() <= segmentDoc && values.advanceExact(segmentDoc))
+                ids[i] = Long.toString(values.longValue());
+            else
+                ids[i] = getStoredID(doc);
+        }
+
+        return ids;
+    }
+
+    /**
+     * This method resolve the dataset ID of a single document
+     * @param doc id of the Lucene document
+     * @return the dataset ID
+     * @throws IOException if there are problems while reading the index
+     */
+    public String resolve(int doc) throws IOException {
+        return resolve(new ScoreDoc[]{new ScoreDoc(doc, 0)})[0];
+    }
+
+    /**
+     * This method read the dataset ID from the stored fields of a document
+     * @param doc id of the Lucene document
+     * @return the dataset ID
+     * @throws IOException if there are problems while reading the document
+     */
+    private String getStoredID(int doc) throws IOException {
+        return indexReader.document(doc, Collections.singleton(DatasetFields.ID)).get(DatasetFields.ID);
+    }
+}
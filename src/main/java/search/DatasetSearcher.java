@@ -5,8 +5,6 @@ import index.DatasetIndexer;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.benchmark.quality.QualityQuery;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
@@ -15,7 +13,6 @@ import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
-import org.apache.lucene.store.FSDirectory;
 import parse.DatasetFields;
 import utils.BoostWeights;
 
@@ -23,6 +20,10 @@ import java.io.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class will search for the best datasets that suit a given set of user queries
@@ -33,7 +34,8 @@ import java.util.*;
  */
 public class DatasetSearcher {
 
-    private IndexReader indexReader;            //Lucene object for index reading
+    private SharedIndex index;                  //index shared with the other searchers of the JVM
+    private SharedIndex.SearcherLease lease;    //reader of the index used by all the searches
     private IndexSearcher indexSearcher;        //Lucene object for index searching
     private Similarity similarity;              //Lucene Similarity object that must be used during the indexing phase
     private Analyzer analyzer;                  //Analyzer that mus be used during the indexing phase
@@ -42,6 +44,16 @@ public class DatasetSearcher {
     private String resultDirectoryPath;         //path to the directory where to save the resuls
     private int maxDatasetsRetrieved;           //max number of datasets to retrieve for every query
     private FSDMRanker fsdmRanker;              //ranker to be used for the FSDM ranking
+    private DatasetIdResolver idResolver;       //resolver of the dataset IDs of the retrieved documents
+    private ExecutorService queryPool = null;   //threads that search the queries of a run concurrently, null for none
+    private ExecutorService segmentPool = null; //threads that search the segments of the index of a query, null for none
+
+    /**
+     * This interface builds the Lucene query of a query of the run
+     */
+    private interface QueryFactory {
+        Query build(QualityQuery q) throws ParseException;
+    }
 
     /** Constructor
      *
@@ -70,15 +82,6 @@ public class DatasetSearcher {
         this.analyzer = analyzer;
         this.similarity = similarity;
 
-        try {
-            indexReader = DirectoryReader.open(FSDirectory.open(indexDirectory.toPath()));
-        } catch (IOException e) {
-            throw new IllegalArgumentException("Cannot create the IndexReader for the directory: "+indexDirectory.getPath()+" Error: "+e);
-        }
-
-        indexSearcher = new IndexSearcher(indexReader);
-        indexSearcher.setSimilarity(this.similarity);
-
         //check for the results directory path
         if(resultsDirectoryPath == null || resultsDirectoryPath.isEmpty())
             throw new IllegalArgumentException("The results directory path cannot be null or empty");
@@ -99,10 +102,74 @@ public class DatasetSearcher {
         //read the queries
         queries = new QueriesReader().readQueries(queryPath);
 
+        //the index is opened after all the checks, so a wrong argument does not leave it open
+        try {
+            index = SharedIndex.open(indexDirectory.getPath());
+            lease = index.acquire(this.similarity);
+        } catch (IOException e) {
+            if (index != null)
+                index.close();
+            throw new IllegalArgumentException("Cannot create the IndexReader for the directory: "+indexDirectory.getPath()+" Error: "+e);
+        }
+
+        indexSearcher = lease.getIndexSearcher();
+        idResolver = new DatasetIdResolver(lease.getIndexReader());
+
         this.maxDatasetsRetrieved = maxDatasetsRetrieved;
         this.fsdmRanker = fsdmRanker;
     }
 
+    /**
+     * This method set the number of queries of a run that are searched concurrently on the IndexSearcher.
+     * The results are always written in the order of the queries, so the run file is the same of a
+     * sequential run. The threads are kept for all the runs until close() is called
+     * @param threads number of threads, 1 for a sequential run
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+
+        if (queryPool != null) {
+            queryPool.shutdown();
+            queryPool = null;
+        }
+
+        if (threads > 1) {
+            queryPool = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "query-search");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * This method set the number of threads that search in parallel the segments of the index for every
+     * query (see SlicedIndexSearcher), to reduce the latency of the single queries
+     * @param segmentThreads number of threads, 1 to search the segments sequentially
+     */
+    public void setSegmentThreads(int segmentThreads) {
+        if (segmentThreads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+
+        if (segmentPool != null) {
+            segmentPool.shutdown();
+            segmentPool = null;
+        }
+
+        if (segmentThreads == 1) {
+            indexSearcher = lease.getIndexSearcher();
+        } else {
+            segmentPool = Executors.newFixedThreadPool(segmentThreads, runnable -> {
+                Thread thread = new Thread(runnable, "segment-search");
+                thread.setDaemon(true);
+                return thread;
+            });
+            indexSearcher = new SlicedIndexSearcher(lease.getIndexReader(), segmentPool);
+            indexSearcher.setSimilarity(similarity);
+        }
+    }
+
     /**
      * This method will search only on the dataset meta-data fields
      * @param runID id of the run
@@ -112,28 +179,16 @@ public class DatasetSearcher {
      */
     public void searchInMetaData(String runID, HashMap<String, Float> queryWeights) throws ParseException, IOException {
 
-        PrintWriter writer = new PrintWriter(resultDirectoryPath+"/"+runID+".txt");
-
         //specify the dataset fields where to search
         String[] fields = {DatasetFields.TITLE, DatasetFields.DESCRIPTION, DatasetFields.AUTHOR, DatasetFields.TAGS};
 
-        for (QualityQuery q:  queries) {
-            System.out.println("Searching for query: "+q.getQueryID());
-            String queryID = q.getQueryID();
-
-            Query query;
-
+        runQueries(runID, q -> {
             //check for boosting parameters
             if (queryWeights != null)
-                query = CustomQueryBuilder.buildBoostedQuery(q.getValue(QueryFields.TEXT), analyzer, queryWeights);
+                return CustomQueryBuilder.buildBoostedQuery(q.getValue(QueryFields.TEXT), analyzer, queryWeights);
             else
-                query = CustomQueryBuilder.buildBooleanQuery(fields, analyzer, q.getValue(QueryFields.TEXT));
-
-            ScoreDoc[] docs = indexSearcher.search(query, maxDatasetsRetrieved).scoreDocs;
-            writeResults(writer, runID, queryID, docs);
-        }
-
-        writer.close();
+                return CustomQueryBuilder.buildBooleanQuery(fields, analyzer, q.getValue(QueryFields.TEXT));
+        });
     }
 
     /**
@@ -148,25 +203,13 @@ public class DatasetSearcher {
         //specify the dataset fields where to search
         String[] fields = {DatasetFields.CLASSES, DatasetFields.ENTITIES, DatasetFields.PROPERTIES, DatasetFields.LITERALS};
 
-        PrintWriter writer = new PrintWriter(resultDirectoryPath+"/"+runID+".txt");
-
-        for (QualityQuery q:  queries) {
-            System.out.println("Searching for query: "+q.getQueryID());
-            String queryID = q.getQueryID();
-
-            Query query;
-
+        runQueries(runID, q -> {
             //check for boosting parameters
             if (queryWeights != null)
-                query = CustomQueryBuilder.buildBoostedQuery(q.getValue(QueryFields.TEXT), analyzer, queryWeights);
+                return CustomQueryBuilder.buildBoostedQuery(q.getValue(QueryFields.TEXT), analyzer, queryWeights);
             else
-                query = CustomQueryBuilder.buildBooleanQuery(fields, analyzer, q.getValue(QueryFields.TEXT));
-
-            ScoreDoc[] docs = indexSearcher.search(query, maxDatasetsRetrieved).scoreDocs;
-            writeResults(writer, runID, queryID, docs);
-        }
-
-        writer.close();
+                return CustomQueryBuilder.buildBooleanQuery(fields, analyzer, q.getValue(QueryFields.TEXT));
+        });
     }
 
     /**
@@ -181,28 +224,64 @@ public class DatasetSearcher {
      */
     public void searchInAllInfo(String runID, HashMap<String, Float> queryWeights) throws ParseException, IOException {
 
-        PrintWriter writer = new PrintWriter(resultDirectoryPath+"/"+runID+".txt");
-
         //specify the dataset fields where to search
         String[] fields = {DatasetFields.TITLE, DatasetFields.DESCRIPTION, DatasetFields.AUTHOR, DatasetFields.TAGS, DatasetFields.CLASSES, DatasetFields.ENTITIES, DatasetFields.PROPERTIES, DatasetFields.LITERALS};
 
-        for (QualityQuery q:  queries) {
-            System.out.println("Searching for query: "+q.getQueryID());
-            String queryID = q.getQueryID();
-
-            Query query;
-
+        runQueries(runID, q -> {
             //check for boosting parameters
             if (queryWeights != null)
-                query = CustomQueryBuilder.buildBoostedQuery(q.getValue(QueryFields.TEXT), analyzer, queryWeights);
+                return CustomQueryBuilder.buildBoostedQuery(q.getValue(QueryFields.TEXT), analyzer, queryWeights);
             else
-                query = CustomQueryBuilder.buildBooleanQuery(fields, analyzer, q.getValue(QueryFields.TEXT));
+                return CustomQueryBuilder.buildBooleanQuery(fields, analyzer, q.getValue(QueryFields.TEXT));
+        });
+    }
 
-            ScoreDoc[] docs = indexSearcher.search(query, maxDatasetsRetrieved).scoreDocs;
-            writeResults(writer, runID, queryID, docs);
-        }
+    /**
+     * This method search all the queries of a run and write the results in the run file, in the order of
+     * the queries. With more than one thread the queries are searched concurrently
+     * @param runID id of the run
+     * @param factory builder of the Lucene query of every query
+     * @throws ParseException if there are problems during the query parsing
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    private void runQueries(String runID, QueryFactory factory) throws ParseException, IOException {
+        PrintWriter writer = new PrintWriter(resultDirectoryPath+"/"+runID+".txt");
 
-        writer.close();
+        try {
+            if (queryPool == null) {
+                for (QualityQuery q : queries) {
+                    System.out.println("Searching for query: "+q.getQueryID());
+                    ScoreDoc[] docs = searchDatasets(factory.build(q), maxDatasetsRetrieved);
+                    writeResults(writer, runID, q.getQueryID(), docs);
+                }
+                return;
+            }
+
+            List<Future<ScoreDoc[]>> tasks = new ArrayList<>();
+            for (QualityQuery q : queries)
+                tasks.add(queryPool.submit(() -> searchDatasets(factory.build(q), maxDatasetsRetrieved)));
+
+            //write the results in the order of the queries and propagate the first error found
+            try {
+                for (int i = 0; i < queries.length; i++) {
+                    System.out.println("Searching for query: "+queries[i].getQueryID());
+                    writeResults(writer, runID, queries[i].getQueryID(), tasks.get(i).get());
+                }
+            } catch (InterruptedException e) {
+                for (Future<ScoreDoc[]> task : tasks)
+                    task.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new IOException("Search interrupted", e);
+            } catch (ExecutionException e) {
+                for (Future<ScoreDoc[]> task : tasks)
+                    task.cancel(true);
+                if (e.getCause() instanceof ParseException)
+                    throw (ParseException) e.getCause();
+                throw new IOException("Error while searching the queries", e.getCause());
+            }
+        } finally {
+            writer.close();
+        }
     }
 
     /**
@@ -223,9 +302,9 @@ public class DatasetSearcher {
         Query queryAllFields = CustomQueryBuilder.buildBoostedQuery(query_text, analyzer, queryWeightsAllFields);
         Query queryMetadataFields = CustomQueryBuilder.buildBoostedQuery(query_text, analyzer, queryWeightsMetadata);
 
-        ScoreDoc[] docsData = indexSearcher.search(queryData, 50). scoreDocs;
-        ScoreDoc[] docsAll = indexSearcher.search(queryAllFields, 20).scoreDocs;
-        ScoreDoc[] docsMetadata = indexSearcher.search(queryMetadataFields, 20).scoreDocs;
+        ScoreDoc[] docsData = searchDatasets(queryData, 50);
+        ScoreDoc[] docsAll = searchDatasets(queryAllFields, 20);
+        ScoreDoc[] docsMetadata = searchDatasets(queryMetadataFields, 20);
 
         System.out.println("------------    DATA     ------------");
         printResults(docsData);
@@ -237,13 +316,90 @@ public class DatasetSearcher {
     }
 
 
+    /**
+     * This method will search for the best n datasets for a given query. The hits of documents that belong
+     * to the same dataset (like the child documents of a big dataset indexed in chunks) are collapsed
+     * to the best scored one
+     * @param query query to search for
+     * @param n max number of datasets to retrieve
+     * @return array of ScoreDoc with at most one document for every dataset, ordered by score
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    private ScoreDoc[] searchDatasets(Query query, int n) throws IOException {
+        return searchDatasets(indexSearcher, idResolver, query, n);
+    }
+
+    /**
+     * This method will search for the best n datasets for a given query on an IndexSearcher, collapsing the
+     * hits of the documents that belong to the same dataset (see searchDatasets(Query, int))
+     * @param indexSearcher searcher where to search
+     * @param idResolver resolver of the dataset IDs of the reader of the searcher
+     * @param query query to search for
+     * @param n max number of datasets to retrieve
+     * @return array of ScoreDoc with at most one document for every dataset, ordered by score
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    static ScoreDoc[] searchDatasets(IndexSearcher indexSearcher, DatasetIdResolver idResolver, Query query, int n) throws IOException {
+        int hits = n;
+
+        while (true) {
+            ScoreDoc[] docs = indexSearcher.search(query, hits).scoreDocs;
+
+            String[] ids = idResolver.resolve(docs);
+
+            List<ScoreDoc> collapsed = new ArrayList<>();
+            HashSet<String> datasetIDs = new HashSet<>();
+            for (int i = 0; i < docs.length; i++) {
+                if (datasetIDs.add(ids[i])) {
+                    collapsed.add(docs[i]);
+                    if (collapsed.size() == n)
+                        break;
+                }
+            }
+
+            //if we have not enough datasets and there are other hits we search deeper
+            if (collapsed.size() == n || docs.length < hits || hits > Integer.MAX_VALUE / 2)
+                return collapsed.toArray(new ScoreDoc[0]);
+            hits *= 2;
+        }
+    }
+
+    /**
+     * This method release the reader of the index used by the searcher and the reference to the shared index.
+     * Calling it again has no effect
+     * @throws IOException if there are problems while closing the index
+     */
+    public void close() throws IOException {
+        if (segmentPool != null) {
+            segmentPool.shutdown();
+            segmentPool = null;
+        }
+        if (queryPool != null) {
+            queryPool.shutdown();
+            queryPool = null;
+        }
+        //the references are cleared first, so a second call does nothing
+        SharedIndex.SearcherLease lease = this.lease;
+        SharedIndex index = this.index;
+        this.lease = null;
+        this.index = null;
+        try {
+            if (lease != null)
+                lease.close();
+        } finally {
+            if (index != null)
+                index.close();
+        }
+    }
+
     /**
      * This method will print the output results
      * @param docs array of ScoreDoc document retrieved
      */
     public void printResults(ScoreDoc[] docs) throws IOException {
+        String[] ids = idResolver.resolve(docs);
         for(int i=0; i<docs.length; i++){
-            String docID = indexReader.document(docs[i].doc, Collections.singleton(DatasetFields.ID)).get(DatasetFields.ID);
+            String docID = ids[i];
             System.out.printf(Locale.ENGLISH, "%s\t%d\t%.6f\t%n", docID, i, docs[i].score);
         }
     }
@@ -257,12 +413,25 @@ public class DatasetSearcher {
      * @throws IOException in case there are problems during the writing of the results
      */
     public void writeResults(PrintWriter writer, String runID, String queryID, ScoreDoc[] docs) throws IOException {
+        writeResults(writer, idResolver, runID, queryID, docs);
+    }
+
+    /**
+     * This method will write the results of a query in the run output file
+     * @param writer PrintWriter object pointing to the run results file
+     * @param idResolver resolver of the dataset IDs of the documents retrieved
+     * @param runID string with the run identifier
+     * @param queryID string the query identifier
+     * @param docs array of ScoreDoc document retrieved
+     * @throws IOException in case there are problems during the writing of the results
+     */
+    static void writeResults(PrintWriter writer, DatasetIdResolver idResolver, String runID, String queryID, ScoreDoc[] docs) throws IOException {
         HashSet<String> docsIds = new HashSet<>();
+        String[] ids = idResolver.resolve(docs);
         for(int i=0; i<docs.length; i++){
-            String docID = indexReader.document(docs[i].doc, Collections.singleton(DatasetFields.ID)).get(DatasetFields.ID);
+            String docID = ids[i];
             if (!docsIds.contains(docID)){
                 writer.printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", queryID, docID, i, docs[i].score, runID);
-                writer.flush();
                 docsIds.add(docID);
             }
         }
@@ -294,6 +463,7 @@ public class DatasetSearcher {
         searcher.searchInMetaData("LMDBoost[m]", BoostWeights.LMDMetadataBoostWeights);
         searcher.searchInContent("LMDBoost[d]", BoostWeights.LMDDataBoostWeights);
         searcher.searchInAllInfo("LMDBoost[m+d]", BoostWeights.LMDBoostWeights);
+        searcher.close();
 
         // ---------- BM25 ------------ //
         s = new BM25Similarity();
@@ -304,6 +474,7 @@ public class DatasetSearcher {
         searcher.searchInMetaData("BM25Boost[m]", BoostWeights.BM25MetadataBoostWeights);
         searcher.searchInContent("BM25Boost[d]", BoostWeights.BM25DataBoostWeights);
         searcher.searchInAllInfo("BM25Boost[m+d]", BoostWeights.BM25BoostWeights);
+        searcher.close();
 
         // ---------- TFIDF  ------------ //
         s = new ClassicSimilarity();
@@ -314,6 +485,7 @@ public class DatasetSearcher {
         searcher.searchInMetaData("TFIDFBoost[m]", BoostWeights.TFIDFMetadataBoostWeights);
         searcher.searchInContent("TFIDFBoost[d]", BoostWeights.TFIDFDataBoostWeights);
         searcher.searchInAllInfo("TFIDFBoost[m+d]", BoostWeights.TFIDFBoostWeights);
+        searcher.close();
 
 
     }
@@ -0,0 +1,147 @@
+package search;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class computes the ordered and unordered bigram counts of FSDM from the sorted lists of positions of
+ * the two query terms in a document field, so the cost depends on the number of occurrences of the query
+ * terms and not on the length of the field. The unordered count over a list of tokens is also provided, for
+ * the stored text mode of the FSDMRanker
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class FSDMProximity {
+
+    /**
+     * This method return the number of positions p of the first term such that the second term is at
+     * position p + 1
+     * @param positions1 sorted positions of the first term
+     * @param positions2 sorted positions of the second term
+     * @return number of ordered adjacent occurrences of the two terms
+     */
+    public static int orderedCount(int[] positions1, int[] positions2){
+        int count = 0;
+        int j = 0;
+        for (int p : positions1) {
+            while (j < positions2.length && positions2[j] < p + 1)
+                j++;
+            if (j == positions2.length)
+                break;
+            if (positions2[j] == p + 1)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * This method return the number of windows of consecutive positions that contain both terms. The windows
+     * start at every position from 0 to length - window, as the windows over the token list of the field
+     * @param positions1 sorted positions of the first term
+     * @param positions2 sorted positions of the second term
+     * @param window size of the window
+     * @param length number of positions of the field
+     * @return number of windows that contain at least one occurrence of both terms
+     */
+    public static int unorderedCount(int[] positions1, int[] positions2, int window, long length){
+        if (positions1.length == 0 || positions2.length == 0 || length < window)
+            return 0;
+
+        int lastStart = (int) Math.min(length - window, Integer.MAX_VALUE);
+
+        //every occurrence at position p is inside the windows starting from p - window + 1 to p: the starts
+        //covered by a term are a union of intervals, and we count the starts covered by both terms
+        int[] intervals1 = coveredStarts(positions1, window, lastStart);
+        int[] intervals2 = coveredStarts(positions2, window, lastStart);
+
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < intervals1.length && j < intervals2.length) {
+            int start = Math.max(intervals1[i], intervals2[j]);
+            int end = Math.min(intervals1[i + 1], intervals2[j + 1]);
+            if (start <= end)
+                count += end - start + 1;
+
+            //move forward the interval that ends first
+            if (intervals1[i + 1] < intervals2[j + 1])
+                i += 2;
+            else
+                j += 2;
+        }
+        return count;
+    }
+
+    /**
+     * This method return the disjoint sorted intervals of the window starts that contain at least one
+     * occurrence of a term
+     * @param positions sorted positions of the term
+     * @param window size of the window
+     * @param lastStart last valid window start
+     * @return array with the bounds (inclusive) of the intervals: start1, end1, start2, end2, ...
+     */
+    private static int[] coveredStarts(int[] positions, int window, int lastStart){
+        int[] intervals = new int[2 * positions.length];
+        int n = 0;
+        for (int p : positions) {
+            int start = Math.max(0, p - window + 1);
+            int end = Math.min(p, lastStart);
+            if (start > end)
+                continue;
+
+            //merge with the previous interval if they overlap or are adjacent
+            if (n > 0 && start <= intervals[n - 1] + 1)
+                intervals[n - 1] = Math.max(intervals[n - 1], end);
+            else {
+                intervals[n++] = start;
+                intervals[n++] = end;
+            }
+        }
+        return n == intervals.length ? intervals : Arrays.copyOf(intervals, n);
+    }
+
+    /**
+     * This method return the number of windows of consecutive tokens that contain both terms. The window
+     * slides over the tokens keeping the number of occurrences of the two terms inside it, so every token is
+     * checked when it enters and when it leaves the window and nothing is allocated
+     * @param content tokens of the field
+     * @param qi1 first term
+     * @param qi2 second term
+     * @param window size of the window
+     * @return number of windows that contain at least one occurrence of both terms
+     */
+    public static int unorderedCount(List<String> content, String qi1, String qi2, int window){
+        int n = content.size();
+        if (n < window)
+            return 0;
+
+        int count1 = 0;     //occurrences of the first term in the window
+        int count2 = 0;     //occurrences of the second term in the window
+        int count = 0;
+
+        for (int i = 0; i < n; i++) {
+            //the token i enters the window
+            String entering = content.get(i);
+            if (qi1.equals(entering))
+                count1++;
+            if (qi2.equals(entering))
+                count2++;
+
+            //the token i - window leaves the window
+            if (i >= window) {
+                String leaving = content.get(i - window);
+                if (qi1.equals(leaving))
+                    count1--;
+                if (qi2.equals(leaving))
+                    count2--;
+            }
+
+            //the window from i - window + 1 to i is complete
+            if (i >= window - 1 && count1 > 0 && count2 > 0)
+                count++;
+        }
+        return count;
+    }
+}
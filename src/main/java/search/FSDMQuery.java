@@ -0,0 +1,353 @@
+package search;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class implements the FSDM scoring function as a Lucene Query, so it can be executed directly by an
+ * IndexSearcher over the whole collection (also with segment-parallel search) instead of reranking the top
+ * documents of a BM25 retrieval. Every document that contains at least one query token in one of the fields
+ * is matched. The query and collection statistics are computed once when the Weight is created, the term
+ * frequencies and the bigram counts are read from the positions of the postings and the length of every
+ * field is decoded from the norms of the field. The fields must be indexed with the positions, and with an
+ * Analyzer that removes tokens (for example the stopwords) the bigram counts see the gaps left in the positions.
+ * Lucene requires non negative scores, so the FSDM score of every document is shifted by the lower bound
+ * of the score in the collection (see FSDMStatistics.minScore()): the order of the documents does not change,
+ * and the original FSDM score is the Lucene score plus getScoreOffset(). A boosted query (for example a clause
+ * of a BooleanQuery) multiplies the shifted score by its boost. The shifted scores are floats, so
+ * documents with close FSDM scores can tie: score(IndexSearcher, ScoreDoc[]) gives the FSDM scores of the
+ * retrieved documents in double precision
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class FSDMQuery extends Query {
+
+    public static final int DEFAULT_WINDOW = 8;     //window size of the FSDM unordered component
+
+    private final Map<String, Float> boostWeights;  //weight of every field
+    private final String[] fields;                  //fields of the FSDM function
+    private final List<String> tokens;              //query tokens found by the Analyzer
+    private final int window;                       //window size of the unordered component
+    private final FSDMStatistics stats;             //statistics computed by the caller, null to compute them for every searcher
+
+    /**
+     * Constructor
+     * @param boostWeights weight of every field
+     * @param tokens query tokens found by the Analyzer
+     */
+    public FSDMQuery(Map<String, Float> boostWeights, List<String> tokens) {
+        this(boostWeights, tokens, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Constructor
+     * @param boostWeights weight of every field
+     * @param tokens query tokens found by the Analyzer
+     * @param window window size of the unordered component
+     */
+    public FSDMQuery(Map<String, Float> boostWeights, List<String> tokens, int window) {
+        this.boostWeights = new HashMap<>(boostWeights);
+        this.fields = boostWeights.keySet().toArray(String[]::new);
+        this.tokens = new ArrayList<>(tokens);
+        this.window = window;
+        this.stats = null;
+    }
+
+    /**
+     * Constructor: the query uses the statistics already computed by the caller when it is executed on their
+     * reader, so they are not computed again
+     * @param boostWeights weight of every field
+     * @param stats query and collection statistics
+     * @param window window size of the unordered component
+     */
+    public FSDMQuery(Map<String, Float> boostWeights, FSDMStatistics stats, int window) {
+        this.boostWeights = new HashMap<>(boostWeights);
+        this.fields = stats.fields;
+        this.tokens = Arrays.asList(stats.tokens);
+        this.window = window;
+        this.stats = stats;
+    }
+
+    /**
+     * This method return the statistics of the query on the reader of a searcher
+     * @param searcher searcher used to execute the query
+     * @return the statistics of the caller if they belong to the reader of the searcher, else new statistics
+     * @throws IOException if there are problems while reading the collection statistics
+     */
+    private FSDMStatistics getStatistics(IndexSearcher searcher) throws IOException {
+        if (stats != null && stats.indexReader == searcher.getIndexReader())
+            return stats;
+        return new FSDMStatistics(searcher.getIndexReader(), fields, boostWeights, tokens);
+    }
+
+    /**
+     * This method return the value that added to the Lucene score of a document gives its FSDM score
+     * @param searcher searcher used to execute the query
+     * @return lower bound of the FSDM score in the collection of the searcher
+     * @throws IOException if there are problems while reading the collection statistics
+     */
+    public double getScoreOffset(IndexSearcher searcher) throws IOException {
+        return getStatistics(searcher).minScore();
+    }
+
+    /**
+     * This method return the FSDM scores in double precision of documents retrieved by the query
+     * @param searcher searcher used to execute the query
+     * @param docs documents retrieved by the query
+     * @return FSDM score of every document, in the same order of docs
+     * @throws IOException if there are problems while reading the postings
+     */
+    public double[] score(IndexSearcher searcher, ScoreDoc[] docs) throws IOException {
+        FSDMWeight weight = (FSDMWeight) createWeight(searcher, ScoreMode.COMPLETE, 1f);
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        double[] scores = new double[docs.length];
+        for (int i = 0; i < docs.length; i++) {
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docs[i].doc, leaves));
+            int doc = docs[i].doc - leaf.docBase;
+            FSDMScorer scorer = weight.scorer(leaf);
+            if (scorer != null && scorer.iterator().advance(doc) == doc)
+                scores[i] = scorer.fsdmScore();
+            else
+                scores[i] = weight.offset;
+        }
+        return scores;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+        FSDMStatistics stats = getStatistics(searcher);
+        stats.checkPositions();
+        return new FSDMWeight(stats, stats.minScore(), boost);
+    }
+
+    @Override
+    public void visit(QueryVisitor visitor) {
+        for (String field : fields) {
+            if (!visitor.acceptField(field))
+                continue;
+            Term[] terms = new Term[tokens.size()];
+            for (int t = 0; t < terms.length; t++)
+                terms[t] = new Term(field, tokens.get(t));
+            visitor.consumeTerms(this, terms);
+        }
+    }
+
+    @Override
+    public String toString(String field) {
+        return "FSDM(" + String.join(" ", tokens) + ")" + boostWeights;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) &&
+                boostWeights.equals(((FSDMQuery) other).boostWeights) &&
+                tokens.equals(((FSDMQuery) other).tokens) &&
+                window == ((FSDMQuery) other).window;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * (31 * classHash() + boostWeights.hashCode()) + tokens.hashCode()) + window;
+    }
+
+    /**
+     * Weight of the FSDM query: it keeps the statistics of the query and it creates a scorer for every segment
+     */
+    private class FSDMWeight extends Weight {
+
+        private final FSDMStatistics stats;     //query and collection statistics
+        private final double offset;            //lower bound of the FSDM score, subtracted from every score
+        private final float boost;              //boost of the query, multiplied by the shifted score
+
+        FSDMWeight(FSDMStatistics stats, double offset, float boost) {
+            super(FSDMQuery.this);
+            this.stats = stats;
+            this.offset = offset;
+            this.boost = boost;
+        }
+
+        @Override
+        public FSDMScorer scorer(LeafReaderContext context) throws IOException {
+            LeafReader reader = context.reader();
+            PostingsEnum[][] postings = new PostingsEnum[stats.fields.length][stats.tokens.length];
+            NumericDocValues[] norms = new NumericDocValues[stats.fields.length];
+            boolean matches = false;
+
+            for (int f = 0; f < stats.fields.length; f++) {
+                norms[f] = reader.getNormValues(stats.fields[f]);
+                Terms terms = reader.terms(stats.fields[f]);
+                if (terms == null)
+                    continue;
+                TermsEnum termsEnum = terms.iterator();
+                for (int t = 0; t < stats.tokens.length; t++) {
+                    if (termsEnum.seekExact(new BytesRef(stats.tokens[t]))) {
+                        postings[f][t] = termsEnum.postings(null, PostingsEnum.POSITIONS);
+                        matches = true;
+                    }
+                }
+            }
+
+            //no query token in this segment
+            if (!matches)
+                return null;
+            return new FSDMScorer(this, stats, offset, boost, postings, norms);
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            Scorer scorer = scorer(context);
+            if (scorer != null && scorer.iterator().advance(doc) == doc) {
+                float score = scorer.score();
+                double fsdmScore = ((FSDMScorer) scorer).fsdmScore();
+                return Explanation.match(score, "FSDM score " + fsdmScore + " shifted by " + (-offset) + " and multiplied by the boost " + boost);
+            }
+            return Explanation.noMatch("no query token in the fields of the document");
+        }
+
+        @Override
+        public boolean isCacheable(LeafReaderContext context) {
+            return false;
+        }
+    }
+
+    /**
+     * Scorer of the FSDM query: it iterates over the union of the postings of the query tokens in all the
+     * fields and it scores every document with the positions of the tokens in the document
+     */
+    private class FSDMScorer extends Scorer {
+
+        private final FSDMStatistics stats;         //query and collection statistics
+        private final double offset;                //lower bound of the FSDM score
+        private final float boost;                  //boost of the query
+        private final PostingsEnum[][] postings;    //[field][token] postings of the token, null if not in the segment
+        private final NumericDocValues[] norms;     //[field] norms of the field, null if not in the segment
+        private final double[] docLength;           //[field] length of the field in the current document
+        private final int[][][] positions;          //[field][token] positions of the token in the current document
+        private final DocIdSetIterator iterator;    //union of the postings
+        private int doc = -1;                       //current document
+        private int scoredDoc = -1;                 //last scored document, the positions can be read only once
+        private double fsdmScore;                   //FSDM score of the last scored document
+
+        FSDMScorer(Weight weight, FSDMStatistics stats, double offset, float boost, PostingsEnum[][] postings, NumericDocValues[] norms) {
+            super(weight);
+            this.stats = stats;
+            this.offset = offset;
+            this.boost = boost;
+            this.postings = postings;
+            this.norms = norms;
+            this.docLength = new double[stats.fields.length];
+            this.positions = new int[stats.fields.length][stats.tokens.length][];
+            this.iterator = new DocIdSetIterator() {
+                @Override
+                public int docID() {
+                    return doc;
+                }
+
+                @Override
+                public int nextDoc() throws IOException {
+                    return advance(doc + 1);
+                }
+
+                @Override
+                public int advance(int target) throws IOException {
+                    //move every postings list behind the target and stop on the smallest doc
+                    int min = NO_MORE_DOCS;
+                    for (PostingsEnum[] fieldPostings : postings)
+                        for (PostingsEnum tokenPostings : fieldPostings) {
+                            if (tokenPostings == null)
+                                continue;
+                            int current = tokenPostings.docID();
+                            if (current < target)
+                                current = tokenPostings.advance(target);
+                            min = Math.min(min, current);
+                        }
+                    return doc = min;
+                }
+
+                @Override
+                public long cost() {
+                    long cost = 0;
+                    for (PostingsEnum[] fieldPostings : postings)
+                        for (PostingsEnum tokenPostings : fieldPostings)
+                            if (tokenPostings != null)
+                                cost += tokenPostings.cost();
+                    return cost;
+                }
+            };
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return iterator;
+        }
+
+        @Override
+        public float getMaxScore(int upTo) {
+            return Float.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public float score() throws IOException {
+            return (float) (boost * Math.max(0.0, fsdmScore() - offset));
+        }
+
+        /**
+         * This method return the FSDM score of the current document, not shifted
+         * @return FSDM score of the current document
+         * @throws IOException if there are problems while reading the postings
+         */
+        double fsdmScore() throws IOException {
+            if (scoredDoc == doc)
+                return fsdmScore;
+
+            for (int f = 0; f < stats.fields.length; f++) {
+                docLength[f] = FSDMStatistics.fieldLength(norms[f], doc);
+
+                for (int t = 0; t < stats.tokens.length; t++) {
+                    PostingsEnum tokenPostings = postings[f][t];
+                    if (tokenPostings == null || tokenPostings.docID() != doc) {
+                        positions[f][t] = new int[0];
+                        continue;
+                    }
+                    int[] tokenPositions = new int[tokenPostings.freq()];
+                    for (int k = 0; k < tokenPositions.length; k++)
+                        tokenPositions[k] = tokenPostings.nextPosition();
+                    positions[f][t] = tokenPositions;
+                }
+            }
+            scoredDoc = doc;
+            fsdmScore = stats.score(docLength, positions, window);
+            return fsdmScore;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package search;
 
 import analyze.CustomAnalyzer;
+import index.ForwardIndex;
 import javafx.util.Pair;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
@@ -12,19 +13,21 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.sandbox.search.CombinedFieldQuery;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.Similarity;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.BytesRef;
 import parse.DatasetFields;
 import utils.BoostWeights;
 
 import java.io.*;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class will implement the FSDM scoring function
@@ -32,41 +35,152 @@ import java.util.*;
  * @author Manuel Barusco
  */
 public class FSDMRanker {
-    private static Directory directory = null;
-    private static IndexReader indexReader = null;
-    private static IndexSearcher indexSearcher = null;
-    private Map<String, Double> wT;
-    private Map<String, Double> wO;
-    private Map<String, Double> wU;
-    private Map<Pair<String, String>, Long> fieldTermFreq;
-    private Map<String, List<String>> fieldContent;
-    private Map<String, Long> fieldDocLength;
+    private SharedIndex index = null;
+    private boolean storedTextProximity = true;
+    private ForwardIndex forwardIndex = null;
+    private ExecutorService pool = null;
     private Analyzer analyzer;
     private int nHits;
+    private int candidates;
+    private FirstStage firstStage = FirstStage.BM25;
     private HashMap<String, Float> boostWeights;
     private String[] fields;
-    private final int FSDMUWindowSize = 8;
 
     /**
+     * The index is shared with the other rankers and searchers of the JVM (see SharedIndex) and every query
+     * is executed on the reader of the index current when the query starts
      * @param pathIndex path to the index diretory
      * @param analyzer to be used
      * @param nHits number of documents to be returned in the final rank
      */
     public FSDMRanker(String pathIndex, Analyzer analyzer, int nHits, HashMap<String, Float> boostWeights) {
         try {
-            Path path = Paths.get(pathIndex);
-            directory = MMapDirectory.open(path);
-            indexReader = DirectoryReader.open(directory);
-            indexSearcher = new IndexSearcher(indexReader);
+            index = SharedIndex.open(pathIndex);
             this.analyzer = analyzer;
             this.boostWeights = boostWeights;
             this.fields = this.boostWeights.keySet().toArray(String[]::new);
             this.nHits = nHits;
+            this.candidates = nHits;
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Retrieval models of the first stage of the ranking, which selects the candidate documents scored by FSDM
+     */
+    public enum FirstStage {
+        BM25,               //BM25 on every field, with a MultiFieldQueryParser
+        COMBINED_FIELDS     //BM25F on the fields weighted as FSDM, with a CombinedFieldQuery for every query token
+    }
+
+    /**
+     * This method configure the ranking as a cascade: the first stage retrieves the given number of candidate
+     * documents with the given model, FSDM scores all of them and the best nHits are returned. By default the
+     * first stage is BM25 and the number of candidates is nHits. The candidates are documents, so the chunks
+     * of a big dataset are different candidates
+     * @param firstStage retrieval model of the first stage
+     * @param candidates number of candidate documents retrieved by the first stage
+     */
+    public void setCascade(FirstStage firstStage, int candidates) {
+        if (firstStage == null)
+            throw new IllegalArgumentException("The first stage model cannot be null");
+        if (candidates < nHits)
+            throw new IllegalArgumentException("The number of candidates cannot be smaller than the number of hits");
+        if (firstStage == FirstStage.COMBINED_FIELDS && boostWeights.values().stream().noneMatch(weight -> weight > 0))
+            throw new IllegalArgumentException("The combined fields first stage needs at least one field with a positive weight");
+        this.firstStage = firstStage;
+        this.candidates = candidates;
+    }
+
+    /**
+     * This method set how the bigram counts are computed: by re-tokenizing the stored text of the document
+     * (default, as in the first version of the ranker) or from the positions of the query terms in the
+     * postings, or in the forward index if it is set. The positions mode does not load the stored text, but
+     * it gives the same scores only when the analyzer does not remove tokens (for example stopwords), since
+     * the positions in the index keep a gap for every removed token, and the field lengths are decoded from
+     * the norms. The positions mode needs the fields indexed with the positions
+     * @param storedTextProximity true to compute the bigram counts from the stored text, false for the positions
+     */
+    public void setStoredTextProximity(boolean storedTextProximity) {
+        this.storedTextProximity = storedTextProximity;
+    }
+
+    /**
+     * This class contains the statistics of a single document used by the FSDM scoring function. A new
+     * instance is created for every scored document, so the documents can be scored in parallel
+     */
+    private static class DocumentStatistics {
+        private final Map<String, List<String>> fieldContent = new HashMap<>();   //tokens of every field (stored text mode)
+        private final Map<String, Long> fieldDocLength = new HashMap<>();         //number of tokens of every field
+        private final Map<String, int[][]> fieldPositions = new HashMap<>();      //positions of the query tokens in every field
+    }
+
+    /**
+     * This method set if the field lengths and the positions of the query tokens are read from the forward
+     * index of the index (see index.ForwardIndex), that must be built after the indexing. The forward index
+     * replaces the postings in the positions mode (see setStoredTextProximity) and it is used only for the
+     * readers of the commit it was built from, the other readers use the postings
+     * @param useForwardIndex true to read the documents from the forward index
+     * @throws IOException if the forward index does not exist or it cannot be opened
+     */
+    public void setForwardIndex(boolean useForwardIndex) throws IOException {
+        if (forwardIndex != null) {
+            forwardIndex.close();
+            forwardIndex = null;
+        }
+        if (useForwardIndex)
+            forwardIndex = ForwardIndex.open(index.getPath());
+    }
+
+    /**
+     * This method set the number of threads used to score the documents retrieved for a query. With more
+     * than one thread the documents are scored in parallel by a pool of threads kept until close() is called,
+     * and the FSDM query of getFSDMQueryRankingList searches the segments in parallel (see SlicedIndexSearcher)
+     * @param threads number of threads, 1 to score the documents in the calling thread
+     */
+    public void setThreads(int threads) {
+        shutdownPool();
+        if (threads > 1) {
+            pool = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "fsdm-rerank");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * This method open a new reader if the index has been changed, the next queries will use it
+     * @throws IOException if there are problems while opening the new reader
+     */
+    public void refresh() throws IOException {
+        index.refresh();
+    }
+
+    /**
+     * This method stop the threads used to score the documents, if any, and release the index
+     * @throws IOException if there are problems while closing the index
+     */
+    public void close() throws IOException {
+        shutdownPool();
+        setForwardIndex(false);
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+    }
+
+    /**
+     * This method stop the threads used to score the documents, if any
+     */
+    private void shutdownPool() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
     /**
      * This method break a given string into tokens by using the provided Analyzer
      * @param text given string text
@@ -87,79 +201,134 @@ public class FSDMRanker {
     }
 
     /**
-     * This method set some collection statistics values useful for the next calculations
-     * @param tokens list of query tokens
+     * This method return some document statistics values useful for the next calculations
+     * from the document of id docId
+     * @param docId document id
+     * @param stats query and collection statistics
+     * @return statistics of the document
+     */
+    private DocumentStatistics getDocumentStatistics(int docId, FSDMStatistics stats) {
+        if (storedTextProximity)
+            return getStoredTextStatistics(docId, stats);
+        else if (stats.termOrdinals != null && forwardIndex != null && forwardIndex.isValidFor(stats.indexReader))
+            return getForwardIndexStatistics(docId, stats);
+        else
+            return getPositionsStatistics(docId, stats);
+    }
+
+    /**
+     * This method return the length of every field and the positions of every query token in every field of
+     * the document of id docId, read from the forward index with the ordinals of the query tokens looked up once
+     * per query (see FSDMStatistics.setForwardIndex)
+     * @param docId document id
+     * @param stats query and collection statistics
+     * @return statistics of the document
      */
-    private void getCollectionStatistics(List<String> tokens) {
+    private DocumentStatistics getForwardIndexStatistics(int docId, FSDMStatistics stats) {
+        DocumentStatistics document = new DocumentStatistics();
         try {
-            wT = new HashMap<>();
-            wO = new HashMap<>();
-            wU = new HashMap<>();
-
-            //this map contains key: pair (field, token) value: total frequency of the token in the field in the collection
-            fieldTermFreq = new HashMap<>();
-
-            double base = 0.0;
-            for (int i = 0; i < fields.length; i ++) {
-                String field = fields[i];
-                float w = boostWeights.get(field);
-                base += w;
-                for (String token : tokens) {
-                    fieldTermFreq.put(new Pair<>(field, token), indexReader.totalTermFreq(new Term(field, new BytesRef(token))));
+            for (String field : fields) {
+                int f = forwardIndex.fieldOrdinal(field);
+                if (f < 0) {
+                    document.fieldDocLength.put(field, 0L);
+                    document.fieldPositions.put(field, emptyPositions(stats.tokens.length));
+                    continue;
                 }
-            }
 
-            //retrieve the FSDM field weights for every component
-            for (int i = 0; i < fields.length; i ++) {
-                String field = fields[i];
-                Double w = (double) boostWeights.get(field) / base;
-                wT.put(field, w);
-                wO.put(field, w);
-                wU.put(field, w);
+                //only the positions of the query tokens are read
+                document.fieldDocLength.put(field, forwardIndex.length(docId, f));
+                document.fieldPositions.put(field, forwardIndex.positions(docId, f, stats.termOrdinals));
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return document;
     }
 
     /**
-     * This method set some document statistics values useful for the next calculations
-     * from the document of id docId
+     * This method return the length of every field and the positions of every query token in every field of
+     * the document of id docId. The positions are read from the postings of the query terms and the lengths
+     * from the norms of the fields, so neither the stored content nor the term vectors of the document are loaded
      * @param docId document id
+     * @param stats query and collection statistics
+     * @return statistics of the document
      */
-    private void getDocumentStatistics(int docId) {
+    private DocumentStatistics getPositionsStatistics(int docId, FSDMStatistics stats) {
+        DocumentStatistics document = new DocumentStatistics();
+        IndexReader indexReader = stats.indexReader;
         try {
-            fieldContent = new HashMap<>();
-            fieldDocLength = new HashMap<>();
+            List<LeafReaderContext> leaves = indexReader.leaves();
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+            int segmentDoc = docId - leaf.docBase;
+
+            for (String field : fields) {
+                document.fieldDocLength.put(field, (long) FSDMStatistics.fieldLength(leaf.reader().getNormValues(field), segmentDoc));
+
+                int[][] positions = new int[stats.tokens.length][];
+                Terms terms = leaf.reader().terms(field);
+                TermsEnum termsEnum = terms != null ? terms.iterator() : null;
+
+                for (int t = 0; t < stats.tokens.length; t++) {
+                    positions[t] = new int[0];
+                    if (termsEnum == null || !termsEnum.seekExact(new BytesRef(stats.tokens[t])))
+                        continue;
+
+                    PostingsEnum postings = termsEnum.postings(null, PostingsEnum.POSITIONS);
+                    if (postings.advance(segmentDoc) == segmentDoc) {
+                        positions[t] = new int[postings.freq()];
+                        for (int k = 0; k < positions[t].length; k++)
+                            positions[t][k] = postings.nextPosition();
+                    }
+                }
+                document.fieldPositions.put(field, positions);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return document;
+    }
 
+    /**
+     * This method return the length and the tokens of every field of the document of id docId, by
+     * re-tokenizing its stored text
+     * @param docId document id
+     * @param stats query and collection statistics
+     * @return statistics of the document
+     */
+    private DocumentStatistics getStoredTextStatistics(int docId, FSDMStatistics stats) {
+        DocumentStatistics statistics = new DocumentStatistics();
+        IndexReader indexReader = stats.indexReader;
+        try {
             Document document = indexReader.document(docId);
             for (String field : fields)  {
                 if (document.get(field) == null)
-                    fieldContent.put(field, new ArrayList<>());
+                    statistics.fieldContent.put(field, new ArrayList<>());
                 else {
                     String fieldText = Arrays.toString(document.getValues(field));
-                    fieldContent.put(field, getTokens(fieldText));
+                    statistics.fieldContent.put(field, getTokens(fieldText));
                 }
                 Terms terms = indexReader.getTermVector(docId, field);
                 if (terms != null)
-                    fieldDocLength.put(field, terms.getSumTotalTermFreq());
+                    statistics.fieldDocLength.put(field, terms.getSumTotalTermFreq());
                 else
-                    fieldDocLength.put(field, 0L);
+                    statistics.fieldDocLength.put(field, 0L);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return statistics;
     }
 
     /**
      * This method return the number of occurrences of a given query token
      * in a given field for a given document
+     * @param indexReader reader of the index
      * @param docId id of the document
      * @param field field name
      * @param qi query token
      * @return number of occurrences of query token $qi in $field of document $docId
      */
-    private Double getTF_T(Integer docId, String field, String qi) {
+    private Double getTF_T(IndexReader indexReader, Integer docId, String field, String qi) {
         double res = 0.0;
         try {
             Terms terms = indexReader.getTermVector(docId, field);
@@ -179,13 +348,14 @@ public class FSDMRanker {
     /**
      * This method return the number of occurrences of a given couple of query tokens
      * q_i and q_i+1
+     * @param document statistics of the document
      * @param field field name
      * @param qi1 first query token
      * @param qi2 second query token
      */
-    private Double getTF_O(String field, String qi1, String qi2) {
+    private Double getTF_O(DocumentStatistics document, String field, String qi1, String qi2) {
         double res = 0.0;
-        List<String> content = fieldContent.get(field);
+        List<String> content = document.fieldContent.get(field);
         for (int i = 0; i + 1 < content.size(); i++) {
             if (qi1.equals(content.get(i)) && qi2.equals(content.get(i + 1)))
                 res += 1.0;
@@ -196,142 +366,85 @@ public class FSDMRanker {
 
     /**
      * This method return the number of occurrences of a given couple of query tokens
-     * in a window of 8 terms
+     * in a window of FSDMQuery.DEFAULT_WINDOW terms
+     * @param document statistics of the document
      * @param field field name
      * @param qi1 first query token
      * @param qi2 second query token
      */
-    private Double getTF_U(String field, String qi1, String qi2) {
-        double res = 0.0;
-        List<String> content = fieldContent.get(field);
-        for (Integer i = 0; i + FSDMUWindowSize <= content.size(); i++) {
-            Set<String> window = new HashSet<>();
-            for (Integer j = 0; j < FSDMUWindowSize;  j++) {
-                window.add(content.get(i + j));
-            }
-            if (window.contains(qi1) && window.contains(qi2))
-                res += 1.0;
-        }
+    private Double getTF_U(DocumentStatistics document, String field, String qi1, String qi2) {
+        double res = FSDMProximity.unorderedCount(document.fieldContent.get(field), qi1, qi2, FSDMQuery.DEFAULT_WINDOW);
         //System.out.println(qi1 + " " + qi2 + " TF_U: " + res);
         return res;
     }
 
     /**
-     * This method calculate the first component of FSDM
+     * This method calculate the FSDM score for a document, with the query statistics already computed. The
+     * method does not change the state of the ranker, so it can be called by many threads at the same time
      * @param docId id of the document
-     * @param query_tokens list of query tokens
-     * @return FSDM unigram scores
+     * @param stats query and collection statistics, computed once per query
+     * @return FSDM score for the document of id docId
      */
-    private double getFSDM_T(Integer docId, List<String> query_tokens) {
-        double res = 0.0;
-        try {
-            for (String qi : query_tokens) {
-                double tmp = 0.0;
-                double eps = 1e-100;
-                for (String field : fields) {
-                    if (wT.get(field) == 0.0)
-                        continue;
-
-                    //calculate the Dirichlet prior (average length of the field in the collection)
-                    double miu = (double) indexReader.getSumTotalTermFreq(field) / (double) indexReader.getDocCount(field);
-
-                    //total number of terms in the field in all the collection
-                    double Cj = (double) indexReader.getSumTotalTermFreq(field);
-                    double cf = 0.0;
-
-                    //retrieve the frequency of the term in the field in all the collection
-                    if (fieldTermFreq.containsKey(new Pair<>(field, qi)))
-                        cf = (double) fieldTermFreq.get(new Pair<>(field, qi));
-
-                    //size of the field in the document
-                    double Dj = (double) fieldDocLength.get(field);
+    public Double FSDM(Integer docId, FSDMStatistics stats) {
+        DocumentStatistics document = getDocumentStatistics(docId, stats);
+
+        double[] docLength = new double[stats.fields.length];
+        for (int f = 0; f < stats.fields.length; f++)
+            docLength[f] = (double) document.fieldDocLength.getOrDefault(stats.fields[f], 0L);
+
+        if (!storedTextProximity) {
+            int[][][] positions = new int[stats.fields.length][][];
+            for (int f = 0; f < stats.fields.length; f++) {
+                positions[f] = document.fieldPositions.get(stats.fields[f]);
+                if (positions[f] == null)
+                    positions[f] = emptyPositions(stats.tokens.length);
+            }
+            return stats.score(docLength, positions, FSDMQuery.DEFAULT_WINDOW);
+        }
 
-                    //get the term frequency in the document field and update the tmp value
-                    tmp += wT.get(field) * (getTF_T(docId, field, qi) + miu * cf / Cj) / (Dj + miu);
-                }
-                res += Math.log(tmp + eps);
+        //the counts are computed on the tokens of the stored text
+        double[][] tf = new double[stats.fields.length][stats.tokens.length];
+        double[][] ordered = new double[stats.fields.length][Math.max(stats.tokens.length - 1, 0)];
+        double[][] unordered = new double[stats.fields.length][Math.max(stats.tokens.length - 1, 0)];
+        for (int f = 0; f < stats.fields.length; f++) {
+            for (int t = 0; t < stats.tokens.length; t++)
+                if (stats.wT[f] != 0.0)
+                    tf[f][t] = getTF_T(stats.indexReader, docId, stats.fields[f], stats.tokens[t]);
+            for (int i = 0; i + 1 < stats.tokens.length; i++) {
+                if (stats.wO[f] != 0.0)
+                    ordered[f][i] = getTF_O(document, stats.fields[f], stats.tokens[i], stats.tokens[i + 1]);
+                if (stats.wU[f] != 0.0)
+                    unordered[f][i] = getTF_U(document, stats.fields[f], stats.tokens[i], stats.tokens[i + 1]);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return res;
+        return stats.score(docLength, tf, ordered, unordered);
     }
 
     /**
-     * This method calculate the second component of FSDM
-     * @param query_tokens list of query tokens
-     * @return FSDM ordered bigram score
+     * This method return the positions of the query tokens in a field without any query token
+     * @param nTokens number of query tokens
+     * @return an empty array of positions for every query token
      */
-    private Double getFSDM_O(List<String> query_tokens) {
-        String[] fields = boostWeights.keySet().toArray(String[]::new);
-        double res = 0.0;
-        try {
-            for (int i = 0; i + 1 < query_tokens.size(); i++) {
-                double tmp = 0.0;
-                double eps = 1e-100;
-
-                //we are considering q_i and q_i+1
-                String qi1 = query_tokens.get(i);
-                String qi2 = query_tokens.get(i + 1);
-
-                for (String field : fields) {
-                    if (wO.get(field) == 0.0)
-                        continue;
-                    double miu = (double) indexReader.getSumTotalTermFreq(field) / (double) indexReader.getDocCount(field);
-                    double Cj = (double) indexReader.getSumTotalTermFreq(field);
-                    double cf = 0.0;
-                    if (fieldTermFreq.containsKey(new Pair<>(field, qi1)))
-                        cf = (double) fieldTermFreq.get(new Pair<>(field, qi1));
-                    if (fieldTermFreq.containsKey(new Pair<>(field, qi2)))
-                        cf = Math.min(cf, (double) fieldTermFreq.get(new Pair<>(field, qi2)));
-                    double Dj = (double) fieldDocLength.get(field);
-                    tmp += wO.get(field) * (getTF_O(field, qi1, qi2) + miu * cf / Cj) / (Dj + miu);
-                }
-                //System.out.println("O: " + tmp);
-                res += Math.log(tmp + eps);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        //System.out.println("FSDM_O: " + res);
-        return res;
+    private static int[][] emptyPositions(int nTokens) {
+        int[][] positions = new int[nTokens][];
+        for (int t = 0; t < nTokens; t++)
+            positions[t] = new int[0];
+        return positions;
     }
 
     /**
-     * This method calculate the third component of FSDM
-     * @param query_tokens list of query tokens
-     * @return FSDM unordered bigram score
+     * This method compute the statistics of a query. When the documents are read from the forward index, the
+     * query tokens are looked up in its dictionary here, once per query
+     * @param indexReader reader of the index
+     * @param tokens query tokens found by the Analyzer
+     * @return query and collection statistics
+     * @throws IOException if there are problems while reading the collection statistics or the forward index
      */
-    private Double getFSDM_U(List<String> query_tokens) {
-        String[] fields = boostWeights.keySet().toArray(String[]::new);
-        double res = 0.0;
-        try {
-            for (int i = 0; i + 1 < query_tokens.size(); i++) {
-                double tmp = 0.0;
-                double eps = 1e-100;
-                String qi1 = query_tokens.get(i);
-                String qi2 = query_tokens.get(i + 1);
-
-                for (String field : fields) {
-                    if (wU.get(field) == 0.0) continue;
-                    double miu = (double) indexReader.getSumTotalTermFreq(field) / (double) indexReader.getDocCount(field);
-                    double Cj = (double) indexReader.getSumTotalTermFreq(field);
-                    double cf = 0.0;
-                    if (fieldTermFreq.containsKey(new Pair<>(field, qi1)))
-                        cf = (double) fieldTermFreq.get(new Pair<>(field, qi1));
-                    if (fieldTermFreq.containsKey(new Pair<>(field, qi2)))
-                        cf = Math.min(cf, (double) fieldTermFreq.get(new Pair<>(field, qi2)));
-                    double Dj = (double) fieldDocLength.get(field);
-                    tmp += wU.get(field) * (getTF_U(field, qi1, qi2) + miu * cf / Cj) / (Dj + miu);
-                }
-                //System.out.println("U: " + tmp);
-                res += Math.log(tmp + eps);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        //System.out.println("FSDM_U: " + res);
-        return res;
+    private FSDMStatistics getStatistics(IndexReader indexReader, List<String> tokens) throws IOException {
+        FSDMStatistics stats = new FSDMStatistics(indexReader, fields, boostWeights, tokens);
+        if (!storedTextProximity && forwardIndex != null && forwardIndex.isValidFor(indexReader))
+            stats.setForwardIndex(forwardIndex);
+        return stats;
     }
 
     /**
@@ -339,16 +452,51 @@ public class FSDMRanker {
      * @param docId id of the document
      * @param tokens query tokens found by the Analyzer
      * @return FSDM score for the document of id docId and for the query given in input as a set of tokens
+     * @throws IOException if there are problems while reading the collection statistics
+     */
+    public Double FSDM(Integer docId, List<String> tokens) throws IOException {
+        SharedIndex.SearcherLease lease = index.acquire(null);
+        try {
+            return FSDM(docId, getStatistics(lease.getIndexReader(), tokens));
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * This method calculate the FSDM score of every retrieved document, in parallel if a pool of threads is set
+     * @param scoreDocs documents retrieved for the query
+     * @param stats query and collection statistics
+     * @return FSDM score of every document, in the same order of scoreDocs
+     * @throws IOException if the scoring of a document fails
      */
-    public Double FSDM(Integer docId, List<String> tokens) {
-        Double lambdaT = 0.8;
-        Double lambdaO = 0.1;
-        Double lambdaU = 0.1;
-        getCollectionStatistics(tokens);
-        getDocumentStatistics(docId);
-        return lambdaT * getFSDM_T(docId, tokens) +
-                lambdaO * getFSDM_O(tokens) +
-                lambdaU * getFSDM_U(tokens);
+    private Double[] scoreDocuments(ScoreDoc[] scoreDocs, FSDMStatistics stats) throws IOException {
+        Double[] scores = new Double[scoreDocs.length];
+        if (pool == null) {
+            for (int i = 0; i < scoreDocs.length; i++)
+                scores[i] = FSDM(scoreDocs[i].doc, stats);
+            return scores;
+        }
+
+        List<Future<Double>> tasks = new ArrayList<>(scoreDocs.length);
+        for (ScoreDoc scoreDoc : scoreDocs)
+            tasks.add(pool.submit(() -> FSDM(scoreDoc.doc, stats)));
+
+        //wait for all the documents and propagate the first error found
+        try {
+            for (int i = 0; i < scores.length; i++)
+                scores[i] = tasks.get(i).get();
+        } catch (InterruptedException e) {
+            for (Future<Double> task : tasks)
+                task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Scoring interrupted", e);
+        } catch (ExecutionException e) {
+            for (Future<Double> task : tasks)
+                task.cancel(true);
+            throw new IOException("Error while scoring the documents", e.getCause());
+        }
+        return scores;
     }
 
     /**
@@ -363,39 +511,197 @@ public class FSDMRanker {
         //get the fields where to search
         String[] fields = boostWeights.keySet().toArray(String[]::new);
 
+        SharedIndex.SearcherLease lease = null;
         try {
-            //create the query object
-            QueryParser queryParser = new MultiFieldQueryParser(fields, analyzer);
+            //the same reader is used for the first stage search and for the reranking
+            lease = index.acquire(null);
+            IndexReader indexReader = lease.getIndexReader();
+
+            //search for the candidate docs
             query=QueryParser.escape(query);
-            Query parsedQuery = queryParser.parse(query);
+            List<String> queryTokens = getTokens(query);
+            ScoreDoc[] scoreDocs = searchCandidates(lease.getIndexSearcher(), query, queryTokens);
+
+            //compute the query statistics once for all the documents
+            FSDMStatistics stats = getStatistics(indexReader, queryTokens);
+            if (!storedTextProximity && stats.termOrdinals == null)
+                stats.checkPositions();
+
+            //resolve the dataset IDs of all the hits at once
+            String[] datasetIDs = new DatasetIdResolver(indexReader).resolve(scoreDocs);
+            Double[] scores = scoreDocuments(scoreDocs, stats);
+
+            //the chunks of a dataset are collapsed into one result with the best score of the chunks
+            Map<Integer, Double> datasetScores = new HashMap<>();
+            for (int i = 0; i < scoreDocs.length; i++)
+                datasetScores.merge(Integer.parseInt(datasetIDs[i]), scores[i], Math::max);
+            for (Map.Entry<Integer, Double> datasetScore : datasetScores.entrySet())
+                FSDMScoreList.add(new Pair<>(datasetScore.getKey(), datasetScore.getValue()));
+
+            //equal scores are ordered by dataset ID, so the rank does not depend on the order of the hits
+            FSDMScoreList.sort((o1, o2) -> {
+                int order = o2.getValue().compareTo(o1.getValue());
+                return order != 0 ? order : o1.getKey().compareTo(o2.getKey());
+            });
+
+            //keep only the best nHits documents of the candidates
+            if (FSDMScoreList.size() > nHits)
+                FSDMScoreList = new ArrayList<>(FSDMScoreList.subList(0, nHits));
+        } catch (IllegalStateException e) {
+            //the index cannot be scored with the configuration of the ranker
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            closeLease(lease);
+        }
+        return FSDMScoreList;
+    }
 
-            //search for the docs
-            TopDocs docsSearch = indexSearcher.search(parsedQuery, nHits);
-            ScoreDoc[] scoreDocs = docsSearch.scoreDocs;
+    /**
+     * This method returns the candidate documents retrieved by the first stage of the ranking for the input
+     * query, without the FSDM reranking
+     * @param query string with the given query
+     * @return dataset IDs of the candidate documents, ordered by the score of the first stage: a dataset
+     * indexed in chunks can appear more than once
+     */
+    public List<Integer> getCandidateList(String query) {
+        List<Integer> candidateList = new ArrayList<>();
 
-            //get the query tokens
-            List<String> queryTokens = getTokens(query);
+        SharedIndex.SearcherLease lease = null;
+        try {
+            lease = index.acquire(null);
+            query=QueryParser.escape(query);
+            ScoreDoc[] scoreDocs = searchCandidates(lease.getIndexSearcher(), query, getTokens(query));
+            for (String datasetID : new DatasetIdResolver(lease.getIndexReader()).resolve(scoreDocs))
+                candidateList.add(Integer.parseInt(datasetID));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            closeLease(lease);
+        }
+        return candidateList;
+    }
 
-            for (ScoreDoc si : scoreDocs) {
-                int docID = si.doc;
-                Set<String> fieldsToLoad = new HashSet<>();
-                fieldsToLoad.add(DatasetFields.ID);
+    /**
+     * This method retrieve the candidate documents of the first stage of the ranking
+     * @param indexSearcher searcher of the current reader
+     * @param query escaped query string
+     * @param queryTokens query tokens found by the Analyzer
+     * @return the candidate documents, ordered by the score of the first stage
+     * @throws ParseException if there are problems during the query parsing
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    private ScoreDoc[] searchCandidates(IndexSearcher indexSearcher, String query, List<String> queryTokens) throws ParseException, IOException {
+        Query firstStageQuery;
+        if (firstStage == FirstStage.COMBINED_FIELDS) {
+            //CombinedFieldQuery needs field weights >= 1, so the weights are divided by the smallest one
+            float minWeight = Float.MAX_VALUE;
+            for (String field : fields)
+                if (boostWeights.get(field) > 0)
+                    minWeight = Math.min(minWeight, boostWeights.get(field));
+
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (String token : new LinkedHashSet<>(queryTokens)) {
+                CombinedFieldQuery.Builder tokenQuery = new CombinedFieldQuery.Builder();
+                for (String field : fields)
+                    if (boostWeights.get(field) > 0)
+                        tokenQuery.addField(field, boostWeights.get(field) / minWeight);
+                tokenQuery.addTerm(new BytesRef(token));
+                builder.add(tokenQuery.build(), BooleanClause.Occur.SHOULD);
+            }
+            firstStageQuery = builder.build();
+        } else {
+            QueryParser queryParser = new MultiFieldQueryParser(fields, analyzer);
+            firstStageQuery = queryParser.parse(query);
+        }
 
-                Document document = indexReader.document(docID, fieldsToLoad);
+        return indexSearcher.search(firstStageQuery, candidates).scoreDocs;
+    }
 
-                Integer datasetID = Integer.parseInt(document.get(DatasetFields.ID));
-                Double score = 0.0;
+    /**
+     * This method returns the rank for the input query by executing FSDM as a Lucene query over the whole
+     * collection (see FSDMQuery), instead of reranking the documents retrieved by BM25. The Lucene scores are
+     * floats, so the datasets tied with the last one of the rank are retrieved too and all the datasets are
+     * ordered by their FSDM score in double precision
+     * @param query string with the given query
+     * @return rank for the query in the form of list of dataset-id, score and ordered by score
+     */
+    public List<Pair<Integer, Double>> getFSDMQueryRankingList(String query) {
+        //list for the final rank
+        List<Pair<Integer, Double>> FSDMScoreList = new ArrayList<>();
 
-                score = FSDM(docID, queryTokens);
-                FSDMScoreList.add(new Pair<>(datasetID, score));
-            }
-            FSDMScoreList.sort((o1, o2) -> o2.getValue().compareTo(o1.getValue()));
+        SharedIndex.SearcherLease lease = null;
+        try {
+            lease = index.acquire(null, pool);
+            IndexSearcher indexSearcher = lease.getIndexSearcher();
+
+            //the statistics are computed once and used by the query
+            FSDMStatistics stats = new FSDMStatistics(lease.getIndexReader(), fields, boostWeights, getTokens(query));
+            FSDMQuery fsdmQuery = new FSDMQuery(boostWeights, stats, FSDMQuery.DEFAULT_WINDOW);
+            DatasetIdResolver idResolver = new DatasetIdResolver(lease.getIndexReader());
+
+            //the chunks of a dataset are collapsed into one result, the one with the best score
+            ScoreDoc[] scoreDocs = searchWithTies(indexSearcher, idResolver, fsdmQuery);
+            double[] scores = fsdmQuery.score(indexSearcher, scoreDocs);
+            String[] datasetIDs = idResolver.resolve(scoreDocs);
+
+            for (int i = 0; i < scoreDocs.length; i++)
+                FSDMScoreList.add(new Pair<>(Integer.parseInt(datasetIDs[i]), scores[i]));
+
+            //equal scores are ordered by dataset ID, as in getFSDMRankingList
+            FSDMScoreList.sort((o1, o2) -> {
+                int order = o2.getValue().compareTo(o1.getValue());
+                return order != 0 ? order : o1.getKey().compareTo(o2.getKey());
+            });
+            if (FSDMScoreList.size() > nHits)
+                FSDMScoreList = new ArrayList<>(FSDMScoreList.subList(0, nHits));
+        } catch (IllegalStateException e) {
+            //the index cannot be scored with the FSDM query
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            closeLease(lease);
         }
         return FSDMScoreList;
     }
 
+    /**
+     * This method retrieve the best nHits datasets of the FSDM query and all the datasets with the same float
+     * score of the last one, that can have a better FSDM score in double precision
+     * @param indexSearcher searcher of the current reader
+     * @param idResolver resolver of the dataset IDs of the reader
+     * @param fsdmQuery FSDM query
+     * @return the retrieved datasets, ordered by float score
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    private ScoreDoc[] searchWithTies(IndexSearcher indexSearcher, DatasetIdResolver idResolver, FSDMQuery fsdmQuery) throws IOException {
+        if (nHits == 0)
+            return new ScoreDoc[0];
+
+        int n = nHits;
+        while (true) {
+            ScoreDoc[] scoreDocs = DatasetSearcher.searchDatasets(indexSearcher, idResolver, fsdmQuery, n);
+            if (scoreDocs.length < n || scoreDocs[n - 1].score < scoreDocs[nHits - 1].score)
+                return scoreDocs;
+            n *= 2;
+        }
+    }
+
+    /**
+     * This method release the reader of a query
+     * @param lease lease of the reader, null if the reader has not been acquired
+     */
+    private void closeLease(SharedIndex.SearcherLease lease) {
+        try {
+            if (lease != null)
+                lease.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         String queryPath = "/home/manuel/Tesi/ACORDAR/Data/all_queries.txt";
         String indexPath = "/media/manuel/Tesi/Index/Stream_Jena_LightRDF_Deduplication_Good";
@@ -427,6 +733,8 @@ public class FSDMRanker {
             }
         }
 
+        writer.close();
+        ranker.close();
     }
 
 }
@@ -0,0 +1,219 @@
+package search;
+
+import index.ForwardIndex;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class contains the statistics of the FSDM scoring function that depend only on the query and on the
+ * collection: they are computed once per query and shared by all the scored documents. Every statistic is
+ * stored in a primitive array indexed by field ordinal (the position of the field in the fields array) and,
+ * where needed, by query token ordinal
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class FSDMStatistics {
+
+    static final double LAMBDA_T = 0.8;     //weight of the unigram component
+    static final double LAMBDA_O = 0.1;     //weight of the ordered bigram component
+    static final double LAMBDA_U = 0.1;     //weight of the unordered bigram component
+    static final double EPS = 1e-100;       //smoothing of the logarithms
+
+    final IndexReader indexReader;  //reader on which the statistics are computed
+    final String[] fields;          //fields of the FSDM function
+    final String[] tokens;          //query tokens
+    final double[] wT;              //unigram weight of every field
+    final double[] wO;              //ordered bigram weight of every field
+    final double[] wU;              //unordered bigram weight of every field
+    final double[] mu;              //Dirichlet prior of every field (average length of the field in the collection)
+    final double[] cj;              //total number of terms of every field in the collection
+    final double[][] cf;            //[field][token] frequency of the token in the field in the collection
+    final double[][] cfBigram;      //[field][i] collection frequency of the bigram q_i q_i+1 (min of the two frequencies)
+    int[] termOrdinals = null;      //[token] ordinal of the token in the forward index, null if the forward index is not used
+
+    /**
+     * Constructor: this method compute all the query and collection statistics
+     * @param indexReader reader of the index
+     * @param fields fields of the FSDM function
+     * @param boostWeights weight of every field
+     * @param queryTokens query tokens found by the Analyzer
+     * @throws IOException if there are problems while reading the collection statistics
+     */
+    public FSDMStatistics(IndexReader indexReader, String[] fields, Map<String, Float> boostWeights, List<String> queryTokens) throws IOException {
+        this.indexReader = indexReader;
+        this.fields = fields;
+        this.tokens = queryTokens.toArray(new String[0]);
+
+        int nFields = fields.length;
+        int nTokens = tokens.length;
+
+        wT = new double[nFields];
+        wO = new double[nFields];
+        wU = new double[nFields];
+        mu = new double[nFields];
+        cj = new double[nFields];
+        cf = new double[nFields][nTokens];
+        cfBigram = new double[nFields][Math.max(nTokens - 1, 0)];
+
+        double base = 0.0;
+        for (String field : fields)
+            base += boostWeights.get(field);
+
+        for (int f = 0; f < nFields; f++) {
+            String field = fields[f];
+
+            //retrieve the FSDM field weights for every component
+            double w = (double) boostWeights.get(field) / base;
+            wT[f] = w;
+            wO[f] = w;
+            wU[f] = w;
+
+            cj[f] = (double) indexReader.getSumTotalTermFreq(field);
+            mu[f] = cj[f] / (double) indexReader.getDocCount(field);
+
+            for (int t = 0; t < nTokens; t++)
+                cf[f][t] = (double) indexReader.totalTermFreq(new Term(field, new BytesRef(tokens[t])));
+
+            for (int t = 0; t + 1 < nTokens; t++)
+                cfBigram[f][t] = Math.min(cf[f][t], cf[f][t + 1]);
+        }
+    }
+
+    /**
+     * This method look up the query tokens in the dictionary of a forward index, once for all the documents
+     * scored with these statistics, that will be read from the forward index
+     * @param forwardIndex forward index of the reader of the statistics
+     * @throws IOException if there are problems while reading the forward index
+     */
+    public void setForwardIndex(ForwardIndex forwardIndex) throws IOException {
+        int[] ordinals = new int[tokens.length];
+        for (int t = 0; t < ordinals.length; t++)
+            ordinals[t] = forwardIndex.termOrdinal(new BytesRef(tokens[t]));
+        termOrdinals = ordinals;
+    }
+
+    /**
+     * This method check that the fields of the bigram components are indexed with the positions, that are
+     * needed to compute the bigram counts from the postings. The fields of the BM25_ONLY schema and the
+     * collapsed fields have only the frequencies, and their postings do not return any position
+     * @throws IllegalStateException if a field of the bigram components is indexed without positions
+     */
+    public void checkPositions() {
+        for (LeafReaderContext leaf : indexReader.leaves()) {
+            for (int f = 0; f < fields.length; f++) {
+                if (wO[f] == 0.0 && wU[f] == 0.0)
+                    continue;
+                FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(fields[f]);
+                if (info != null && info.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) < 0)
+                    throw new IllegalStateException("The field " + fields[f] + " is indexed without positions, " +
+                            "the FSDM bigram counts cannot be read from the postings");
+            }
+        }
+    }
+
+    /**
+     * This method return the length of a field of a document decoded from the norms of the field. The norm is
+     * the number of tokens encoded in one byte (see BM25Similarity.computeNorm), exact for the short fields
+     * and approximated for the long ones
+     * @param norms norms of the field in the segment, null if the field is not in the segment
+     * @param doc id of the document in the segment
+     * @return number of tokens of the field, 0 if the document does not have the field
+     * @throws IOException if there are problems while reading the norms
+     */
+    public static double fieldLength(NumericDocValues norms, int doc) throws IOException {
+        if (norms != null && norms.advanceExact(doc))
+            return SmallFloat.byte4ToInt((byte) norms.longValue());
+        return 0.0;
+    }
+
+    /**
+     * This method calculate the FSDM score of a document from the positions of the query tokens
+     * @param docLength [field] number of tokens of every field of the document
+     * @param positions [field][token] sorted positions of every query token in every field of the document
+     * @param window size of the window of the unordered component
+     * @return FSDM score of the document
+     */
+    public double score(double[] docLength, int[][][] positions, int window) {
+        double[][] tf = new double[fields.length][tokens.length];
+        double[][] ordered = new double[fields.length][Math.max(tokens.length - 1, 0)];
+        double[][] unordered = new double[fields.length][Math.max(tokens.length - 1, 0)];
+
+        for (int f = 0; f < fields.length; f++) {
+            //the positions have a gap for every token removed by the analyzer, so the field can have more
+            //positions than tokens
+            long length = (long) docLength[f];
+            for (int t = 0; t < tokens.length; t++) {
+                tf[f][t] = positions[f][t].length;
+                if (positions[f][t].length > 0)
+                    length = Math.max(length, positions[f][t][positions[f][t].length - 1] + 1L);
+            }
+            for (int i = 0; i + 1 < tokens.length; i++) {
+                ordered[f][i] = FSDMProximity.orderedCount(positions[f][i], positions[f][i + 1]);
+                unordered[f][i] = FSDMProximity.unorderedCount(positions[f][i], positions[f][i + 1], window, length);
+            }
+        }
+        return score(docLength, tf, ordered, unordered);
+    }
+
+    /**
+     * This method calculate the FSDM score of a document from the counts of the query tokens and bigrams
+     * @param docLength [field] number of tokens of every field of the document
+     * @param tf [field][token] number of occurrences of every query token in every field
+     * @param ordered [field][i] number of ordered occurrences of the bigram q_i q_i+1 in every field
+     * @param unordered [field][i] number of windows with both q_i and q_i+1 in every field
+     * @return FSDM score of the document
+     */
+    public double score(double[] docLength, double[][] tf, double[][] ordered, double[][] unordered) {
+        double scoreT = 0.0;
+        for (int t = 0; t < tokens.length; t++) {
+            double tmp = 0.0;
+            for (int f = 0; f < fields.length; f++) {
+                if (wT[f] == 0.0)
+                    continue;
+                tmp += wT[f] * (tf[f][t] + mu[f] * cf[f][t] / cj[f]) / (docLength[f] + mu[f]);
+            }
+            scoreT += Math.log(tmp + EPS);
+        }
+
+        double scoreO = 0.0;
+        double scoreU = 0.0;
+        for (int i = 0; i + 1 < tokens.length; i++) {
+            double tmpO = 0.0;
+            double tmpU = 0.0;
+            for (int f = 0; f < fields.length; f++) {
+                if (wO[f] != 0.0)
+                    tmpO += wO[f] * (ordered[f][i] + mu[f] * cfBigram[f][i] / cj[f]) / (docLength[f] + mu[f]);
+                if (wU[f] != 0.0)
+                    tmpU += wU[f] * (unordered[f][i] + mu[f] * cfBigram[f][i] / cj[f]) / (docLength[f] + mu[f]);
+            }
+            scoreO += Math.log(tmpO + EPS);
+            scoreU += Math.log(tmpU + EPS);
+        }
+
+        return LAMBDA_T * scoreT + LAMBDA_O * scoreO + LAMBDA_U * scoreU;
+    }
+
+    /**
+     * This method return a lower bound of the FSDM score of any document of the collection: every component
+     * is minimum when the query tokens do not occur in the document and the fields are as long as possible,
+     * and a field of a document cannot be longer than the field in the whole collection
+     * @return lower bound of the FSDM score
+     */
+    public double minScore() {
+        int bigrams = Math.max(tokens.length - 1, 0);
+        return score(cj, new double[fields.length][tokens.length], new double[fields.length][bigrams],
+                new double[fields.length][bigrams]);
+    }
+}
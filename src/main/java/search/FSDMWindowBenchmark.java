@@ -0,0 +1,83 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * This class compares the unordered window count of FSDM done with a new HashSet for every window position
+ * (the original implementation of FSDMRanker.getTF_U) and with the sliding window counter of FSDMProximity,
+ * on a synthetic field of one million tokens
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class FSDMWindowBenchmark {
+
+    private static final int WINDOW = 8;        //window size of the FSDM unordered component
+
+    /**
+     * This method count the windows that contain both terms as done originally by FSDMRanker.getTF_U
+     * @param content tokens of the field
+     * @param qi1 first term
+     * @param qi2 second term
+     * @return number of windows that contain both terms
+     */
+    private static int countHashSet(List<String> content, String qi1, String qi2) {
+        int res = 0;
+        for (Integer i = 0; i + WINDOW <= content.size(); i++) {
+            Set<String> window = new HashSet<>();
+            for (Integer j = 0; j < WINDOW;  j++) {
+                window.add(content.get(i + j));
+            }
+            if (window.contains(qi1) && window.contains(qi2))
+                res += 1;
+        }
+        return res;
+    }
+
+    /**
+     * ONLY FOR DEBUG PURPOSES
+     * args[0]: number of tokens of the field (default 1000000), args[1]: number of rounds (default 10)
+     */
+    public static void main(String[] args) {
+        int tokens = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        //field with a vocabulary of 1000 terms, the two query terms are frequent enough to be in many windows
+        Random random = new Random(42);
+        List<String> content = new ArrayList<>(tokens);
+        for (int i = 0; i < tokens; i++)
+            content.add("term" + random.nextInt(1000));
+        String qi1 = "term1";
+        String qi2 = "term2";
+
+        //the first rounds are warm up rounds and they are not measured
+        for (int i = 0; i < 3; i++) {
+            countHashSet(content, qi1, qi2);
+            FSDMProximity.unorderedCount(content, qi1, qi2, WINDOW);
+        }
+
+        long hashSetTime = 0;
+        long slidingTime = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            int hashSetCount = countHashSet(content, qi1, qi2);
+            hashSetTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int slidingCount = FSDMProximity.unorderedCount(content, qi1, qi2, WINDOW);
+            slidingTime += System.nanoTime() - start;
+
+            if (hashSetCount != slidingCount)
+                System.out.println("Different counts: HashSet "+hashSetCount+", sliding window "+slidingCount);
+        }
+
+        System.out.printf(Locale.ENGLISH, "HashSet:        %.3f ms/op%n", hashSetTime / 1e6 / rounds);
+        System.out.printf(Locale.ENGLISH, "Sliding window: %.3f ms/op%n", slidingTime / 1e6 / rounds);
+    }
+}
@@ -3,8 +3,6 @@ package search;
 import analyze.CustomAnalyzer;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.benchmark.quality.QualityQuery;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
@@ -13,14 +11,12 @@ import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
-import org.apache.lucene.store.FSDirectory;
 import parse.DatasetFields;
 import utils.BoostWeights;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
@@ -35,7 +31,8 @@ import java.util.Locale;
  */
 public class ReducedDatasetSearcher {
 
-    private IndexReader indexReader;            //Lucene object for index reading
+    private SharedIndex index;                  //index shared with the other searchers of the JVM
+    private SharedIndex.SearcherLease lease;    //reader of the index used by all the searches
     private IndexSearcher indexSearcher;        //Lucene object for index searching
     private Similarity similarity;              //Lucene Similarity object that must be used during the indexing phase
     private Analyzer analyzer;                  //Analyzer that mus be used during the indexing phase
@@ -43,6 +40,7 @@ public class ReducedDatasetSearcher {
     private QualityQuery[] queries;             //the queries that we must search for
     private String resultDirectoryPath;         //path to the directory where to save the resuls
     private int maxDatasetsRetrieved;           //max number of datasets to retrieve for every query
+    private DatasetIdResolver idResolver;       //resolver of the dataset IDs of the retrieved documents
 
     /** Constructor
      *
@@ -69,15 +67,6 @@ public class ReducedDatasetSearcher {
         this.analyzer = analyzer;
         this.similarity = similarity;
 
-        try {
-            indexReader = DirectoryReader.open(FSDirectory.open(indexDirectory.toPath()));
-        } catch (IOException e) {
-            throw new IllegalArgumentException("Cannot create the IndexReader for the directory: "+indexDirectory.getPath()+" Error: "+e);
-        }
-
-        indexSearcher = new IndexSearcher(indexReader);
-        indexSearcher.setSimilarity(this.similarity);
-
         //check for the results directory path
         if(resultsDirectoryPath == null || resultsDirectoryPath.isEmpty())
             throw new IllegalArgumentException("The results directory path cannot be null or empty");
@@ -98,6 +87,19 @@ public class ReducedDatasetSearcher {
         //read the queries
         queries = new QueriesReader().readQueries(queryPath);
 
+        //the index is opened after all the checks, so a wrong argument does not leave it open
+        try {
+            index = SharedIndex.open(indexDirectory.getPath());
+            lease = index.acquire(this.similarity);
+        } catch (IOException e) {
+            if (index != null)
+                index.close();
+            throw new IllegalArgumentException("Cannot create the IndexReader for the directory: "+indexDirectory.getPath()+" Error: "+e);
+        }
+
+        indexSearcher = lease.getIndexSearcher();
+        idResolver = new DatasetIdResolver(lease.getIndexReader());
+
         this.maxDatasetsRetrieved = maxDatasetsRetrieved;
     }
 
@@ -235,13 +237,34 @@ public class ReducedDatasetSearcher {
     }
 
 
+    /**
+     * This method release the reader of the index used by the searcher and the reference to the shared index.
+     * Calling it again has no effect
+     * @throws IOException if there are problems while closing the index
+     */
+    public void close() throws IOException {
+        //the references are cleared first, so a second call does nothing
+        SharedIndex.SearcherLease lease = this.lease;
+        SharedIndex index = this.index;
+        this.lease = null;
+        this.index = null;
+        try {
+            if (lease != null)
+                lease.close();
+        } finally {
+            if (index != null)
+                index.close();
+        }
+    }
+
     /**
      * This method will print the output results
      * @param docs array of ScoreDoc document retrieved
      */
     public void printResults(ScoreDoc[] docs) throws IOException {
+        String[] ids = idResolver.resolve(docs);
         for(int i=0; i<docs.length; i++){
-            String docID = indexReader.document(docs[i].doc, Collections.singleton(DatasetFields.ID)).get(DatasetFields.ID);
+            String docID = ids[i];
             System.out.printf(Locale.ENGLISH, "%s\t%d\t%.6f\t%n", docID, i, docs[i].score);
         }
     }
@@ -256,8 +279,9 @@ public class ReducedDatasetSearcher {
      */
     public void writeResults(PrintWriter writer, String runID, String queryID, ScoreDoc[] docs) throws IOException {
         HashSet<String> docsIds = new HashSet<>();
+        String[] ids = idResolver.resolve(docs);
         for(int i=0; i<docs.length; i++){
-            String docID = indexReader.document(docs[i].doc, Collections.singleton(DatasetFields.ID)).get(DatasetFields.ID);
+            String docID = ids[i];
             if (!docsIds.contains(docID)){
                 writer.printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", queryID, docID, i, docs[i].score, runID);
                 writer.flush();
@@ -279,6 +303,7 @@ public class ReducedDatasetSearcher {
         Similarity s = new BM25Similarity();
         ReducedDatasetSearcher searcher = new ReducedDatasetSearcher(indexPath,a,s,resultPath, queryPath, 10);
         searcher.searchQuery("Debt Rescheduling", BoostWeights.BM25DataBoostWeights, BoostWeights.BM25MetadataBoostWeights, BoostWeights.BM25BoostWeights );
+        searcher.close();
 
         /*
 
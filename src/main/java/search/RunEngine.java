@@ -0,0 +1,281 @@
+package search;
+
+import analyze.CustomAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import parse.DatasetFields;
+import utils.BoostWeights;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class executes a matrix of run configurations (similarity, fields, boost weights and run ID) on the
+ * same index. The index is opened once and all the runs are searched on the same point-in-time reader with
+ * IndexSearchers that differ only for the Similarity. The queries are read once and every query is parsed
+ * and analyzed only once for every set of fields: the boost weights of the configurations are applied to
+ * the parsed query. The configurations are executed in parallel and every run file is the same of the run
+ * of DatasetSearcher with the same configuration
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class RunEngine {
+
+    private final SharedIndex index;                    //index shared with the other searchers of the JVM
+    private final Analyzer analyzer;                    //Analyzer that must be used for the queries
+    private final QualityQuery[] queries;               //the queries that we must search for
+    private final String resultDirectoryPath;           //path to the directory where to save the results
+    private final int maxDatasetsRetrieved;             //max number of datasets to retrieve for every query
+    private final List<Configuration> configurations = new ArrayList<>();  //configurations of the runs
+    private int threads = Runtime.getRuntime().availableProcessors();     //number of runs searched concurrently
+
+    /**
+     * This class is the configuration of a run
+     */
+    private static class Configuration {
+        private final String runID;                         //id of the run
+        private final Similarity similarity;                //Similarity of the run
+        private final String[] fields;                      //fields where to search
+        private final HashMap<String, Float> queryWeights;  //boost weights of the fields, null for no boosting
+
+        private Configuration(String runID, Similarity similarity, String[] fields, HashMap<String, Float> queryWeights) {
+            this.runID = runID;
+            this.similarity = similarity;
+            this.fields = fields;
+            this.queryWeights = queryWeights;
+        }
+
+        /**
+         * @return key of the set of fields of the configuration, the configurations with the same key share
+         * the parsed queries
+         */
+        private String getFieldsKey() {
+            return (queryWeights != null ? "boosted:" : "boolean:") + String.join(",", fields);
+        }
+    }
+
+    /**
+     * Constructor
+     * @param indexPath path to the index directory
+     * @param analyzer that must be used for the queries
+     * @param resultsDirectoryPath path to directory where to save the runs results
+     * @param queryPath path to the queries file
+     * @param maxDatasetsRetrieved max number of datasets to retrieve for every query
+     * @throws IOException if there are problems when opening the index or the queries file
+     */
+    public RunEngine(String indexPath, Analyzer analyzer, String resultsDirectoryPath, String queryPath,
+                     int maxDatasetsRetrieved) throws IOException {
+        //check for the indexPath
+        if (indexPath == null || indexPath.isEmpty())
+            throw new IllegalArgumentException("The index directory path cannot be null or empty");
+
+        File indexDirectory = new File(indexPath);
+        if (!indexDirectory.isDirectory() || !indexDirectory.exists())
+            throw new IllegalArgumentException("The index directory specified does not exist");
+
+        //check for the analyzer
+        if (analyzer == null)
+            throw new IllegalArgumentException("The analyzer cannot be null");
+        this.analyzer = analyzer;
+
+        //check for the results directory path
+        if (resultsDirectoryPath == null || resultsDirectoryPath.isEmpty())
+            throw new IllegalArgumentException("The results directory path cannot be null or empty");
+
+        File resultsDirectory = new File(resultsDirectoryPath);
+        if (!resultsDirectory.isDirectory() || !resultsDirectory.exists())
+            throw new IllegalArgumentException("The results directory specified does not exist");
+        this.resultDirectoryPath = resultsDirectoryPath;
+
+        //read the queries
+        this.queries = new QueriesReader().readQueries(queryPath);
+        this.maxDatasetsRetrieved = maxDatasetsRetrieved;
+
+        try {
+            index = SharedIndex.open(indexDirectory.getPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot create the IndexReader for the directory: "+indexDirectory.getPath()+" Error: "+e);
+        }
+    }
+
+    /**
+     * This method add a run to the matrix of the runs to execute
+     * @param runID id of the run
+     * @param similarity Similarity of the run
+     * @param fields fields where to search without boosting, ignored if the boost weights are given because
+     *               the query is searched on the fields of the weights (like in DatasetSearcher)
+     * @param queryWeights boost weights for the various query fields if we want to use boosting, else null
+     */
+    public void addConfiguration(String runID, Similarity similarity, String[] fields, HashMap<String, Float> queryWeights) {
+        if (runID == null || runID.isEmpty())
+            throw new IllegalArgumentException("The run ID cannot be null or empty");
+        if (similarity == null)
+            throw new IllegalArgumentException("The similarity cannot be null");
+
+        if (queryWeights != null) {
+            fields = new String[queryWeights.size()];
+            queryWeights.keySet().toArray(fields);
+        } else if (fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("The fields cannot be null or empty");
+        }
+
+        configurations.add(new Configuration(runID, similarity, fields, queryWeights));
+    }
+
+    /**
+     * This method set the number of runs that are searched concurrently
+     * @param threads number of threads, 1 to search the runs one after the other
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("The number of threads must be at least 1");
+        this.threads = threads;
+    }
+
+    /**
+     * This method execute all the configurations added and write a run file for every configuration
+     * @throws ParseException if there are problems during the query parsing
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    public void run() throws ParseException, IOException {
+        if (configurations.isEmpty())
+            return;
+
+        //parse every query once for every set of fields
+        Map<String, Query[]> parsedQueries = new HashMap<>();
+        for (Configuration configuration : configurations) {
+            String key = configuration.getFieldsKey();
+            if (parsedQueries.containsKey(key))
+                continue;
+
+            Query[] parsed = new Query[queries.length];
+            for (int i = 0; i < queries.length; i++) {
+                String text = queries[i].getValue(QueryFields.TEXT);
+                if (configuration.queryWeights != null)
+                    parsed[i] = CustomQueryBuilder.buildMultiFieldQuery(text, analyzer, configuration.fields);
+                else
+                    parsed[i] = CustomQueryBuilder.buildBooleanQuery(configuration.fields, analyzer, text);
+            }
+            parsedQueries.put(key, parsed);
+        }
+
+        SharedIndex.SearcherLease lease = index.acquire(null);
+        DatasetIdResolver idResolver = new DatasetIdResolver(lease.getIndexReader());
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, configurations.size()));
+
+        try {
+            List<Future<Void>> tasks = new ArrayList<>();
+            for (Configuration configuration : configurations) {
+                Query[] parsed = parsedQueries.get(configuration.getFieldsKey());
+                tasks.add(pool.submit(() -> {
+                    searchRun(configuration, parsed, lease, idResolver);
+                    return null;
+                }));
+            }
+            pool.shutdown();
+
+            //wait for all the runs and propagate the first error found
+            for (Future<Void> task : tasks)
+                task.get();
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Search interrupted", e);
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            throw new IOException("Error while searching the runs", e.getCause());
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * This method search all the queries of a run on the reader of the lease and write the run file
+     * @param configuration configuration of the run
+     * @param parsed queries parsed on the fields of the configuration, without boosting
+     * @param lease lease of the reader shared by all the runs
+     * @param idResolver resolver of the dataset IDs of the reader
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    private void searchRun(Configuration configuration, Query[] parsed, SharedIndex.SearcherLease lease,
+                           DatasetIdResolver idResolver) throws IOException {
+        IndexSearcher indexSearcher = new IndexSearcher(lease.getIndexReader());
+        indexSearcher.setSimilarity(configuration.similarity);
+
+        try (PrintWriter writer = new PrintWriter(resultDirectoryPath+"/"+configuration.runID+".txt")) {
+            for (int i = 0; i < queries.length; i++) {
+                Query query = parsed[i];
+                if (configuration.queryWeights != null)
+                    query = CustomQueryBuilder.boostFields(query, configuration.queryWeights);
+
+                ScoreDoc[] docs = DatasetSearcher.searchDatasets(indexSearcher, idResolver, query, maxDatasetsRetrieved);
+                DatasetSearcher.writeResults(writer, idResolver, configuration.runID, queries[i].getQueryID(), docs);
+            }
+        }
+        System.out.println("Run completed: "+configuration.runID);
+    }
+
+    /**
+     * This method release the reference to the shared index
+     * @throws IOException if there are problems while closing the index
+     */
+    public void close() throws IOException {
+        index.close();
+    }
+
+    /**
+     * ONLY FOR DEBUG PURPOSES
+     * args[0]: index path, args[1]: results directory path, args[2]: queries path
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+        String indexPath = args.length > 0 ? args[0] : "/media/manuel/Tesi/Index/Labelsv2_Parsing_Clean";
+        String resultPath = args.length > 1 ? args[1] : "/home/manuel/Tesi/ACORDAR/Run/ARDFS";
+        String queryPath = args.length > 2 ? args[2] : "/home/manuel/Tesi/ACORDAR/Data/all_queries.txt";
+        Analyzer a = CustomAnalyzer.getStopwordsAnalyzer();
+
+        String[] metadataFields = {DatasetFields.TITLE, DatasetFields.DESCRIPTION, DatasetFields.AUTHOR, DatasetFields.TAGS};
+        String[] dataFields = {DatasetFields.CLASSES, DatasetFields.ENTITIES, DatasetFields.PROPERTIES, DatasetFields.LITERALS};
+        String[] allFields = Arrays.copyOf(metadataFields, metadataFields.length + dataFields.length);
+        System.arraycopy(dataFields, 0, allFields, metadataFields.length, dataFields.length);
+
+        RunEngine engine = new RunEngine(indexPath, a, resultPath, queryPath, 10);
+
+        // ---------- LMD ------------ //
+        engine.addConfiguration("LMDBoost[m]", new LMDirichletSimilarity(), metadataFields, BoostWeights.LMDMetadataBoostWeights);
+        engine.addConfiguration("LMDBoost[d]", new LMDirichletSimilarity(), dataFields, BoostWeights.LMDDataBoostWeights);
+        engine.addConfiguration("LMDBoost[m+d]", new LMDirichletSimilarity(), allFields, BoostWeights.LMDBoostWeights);
+
+        // ---------- BM25 ------------ //
+        engine.addConfiguration("BM25Boost[m]", new BM25Similarity(), metadataFields, BoostWeights.BM25MetadataBoostWeights);
+        engine.addConfiguration("BM25Boost[d]", new BM25Similarity(), dataFields, BoostWeights.BM25DataBoostWeights);
+        engine.addConfiguration("BM25Boost[m+d]", new BM25Similarity(), allFields, BoostWeights.BM25BoostWeights);
+
+        // ---------- TFIDF  ------------ //
+        engine.addConfiguration("TFIDFBoost[m]", new ClassicSimilarity(), metadataFields, BoostWeights.TFIDFMetadataBoostWeights);
+        engine.addConfiguration("TFIDFBoost[d]", new ClassicSimilarity(), dataFields, BoostWeights.TFIDFDataBoostWeights);
+        engine.addConfiguration("TFIDFBoost[m+d]", new ClassicSimilarity(), allFields, BoostWeights.TFIDFBoostWeights);
+
+        engine.run();
+        engine.close();
+    }
+}
@@ -0,0 +1,107 @@
+package search;
+
+import analyze.CustomAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import utils.BoostWeights;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class measures the latency of the single queries on the [m+d] fields with BM25, searching the
+ * segments of the index sequentially and in parallel with a SlicedIndexSearcher, and it reports the 50th and
+ * the 99th percentile of the latencies for every number of threads
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class SearchLatencyBenchmark {
+
+    /**
+     * This method measure the latency of every query on a searcher
+     * @param searcher searcher to be measured
+     * @param queries queries to be searched
+     * @param rounds number of times every query is searched
+     * @param hits number of documents retrieved for every query
+     * @return sorted latencies in nanoseconds
+     * @throws IOException if the index searcher has some problems during the search in the index
+     */
+    private static long[] measure(IndexSearcher searcher, Query[] queries, int rounds, int hits) throws IOException {
+        //the first round loads the index pages and it is not measured
+        for (Query query : queries)
+            searcher.search(query, hits);
+
+        long[] latencies = new long[queries.length * rounds];
+        int n = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (Query query : queries) {
+                long start = System.nanoTime();
+                searcher.search(query, hits);
+                latencies[n++] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * This method return a percentile of the sorted latencies in milliseconds
+     * @param latencies sorted latencies in nanoseconds
+     * @param percentile percentile, from 0 to 100
+     * @return the percentile in milliseconds
+     */
+    private static double percentile(long[] latencies, double percentile) {
+        if (latencies.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * ONLY FOR DEBUG PURPOSES
+     * args[0]: index path, args[1]: queries path, args[2]: comma separated numbers of threads,
+     * args[3]: number of rounds (default 5)
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+        String indexPath = args.length > 0 ? args[0] : "/media/manuel/Tesi/Index/Stream_Jena_LightRDF_Deduplication_Good";
+        String queryPath = args.length > 1 ? args[1] : "/home/manuel/Tesi/ACORDAR/Data/all_queries.txt";
+        int[] threads = args.length > 2 ? Arrays.stream(args[2].split(",")).mapToInt(Integer::parseInt).toArray() : new int[]{2, 4, 8};
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int hits = 10;
+        Analyzer analyzer = CustomAnalyzer.getStopwordsAnalyzer();
+
+        QualityQuery[] qualityQueries = new QueriesReader().readQueries(queryPath);
+        Query[] queries = new Query[qualityQueries.length];
+        for (int i = 0; i < queries.length; i++)
+            queries[i] = CustomQueryBuilder.buildBoostedQuery(qualityQueries[i].getValue(QueryFields.TEXT), analyzer, BoostWeights.BM25BoostWeights);
+
+        SharedIndex index = SharedIndex.open(indexPath);
+        System.out.println("threads\tslices\tp50 ms\tp99 ms");
+
+        SharedIndex.SearcherLease lease = index.acquire(new BM25Similarity());
+        long[] latencies = measure(lease.getIndexSearcher(), queries, rounds, hits);
+        System.out.printf(Locale.ENGLISH, "%d\t%d\t%.3f\t%.3f%n", 1, 1, percentile(latencies, 50), percentile(latencies, 99));
+        lease.close();
+
+        for (int n : threads) {
+            ExecutorService pool = Executors.newFixedThreadPool(n);
+            lease = index.acquire(new BM25Similarity(), pool);
+            latencies = measure(lease.getIndexSearcher(), queries, rounds, hits);
+            System.out.printf(Locale.ENGLISH, "%d\t%d\t%.3f\t%.3f%n", n, lease.getIndexSearcher().getSlices().length,
+                    percentile(latencies, 50), percentile(latencies, 99));
+            lease.close();
+            pool.shutdown();
+        }
+
+        index.close();
+    }
+}
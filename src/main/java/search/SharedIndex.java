@@ -0,0 +1,190 @@
+package search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * This class keeps a single memory mapped Directory and a single SearcherManager for every index opened in
+ * the JVM, so all the searchers and rankers that work on the same index share the same mappings and file
+ * handles. The indexes are reference counted: open() returns the instance already opened for the same
+ * path, and the index is closed when every open() is matched by a close().
+ * The searches are done with a SearcherLease, which pins a point-in-time reader of the index until it is
+ * closed and gives an IndexSearcher with the requested Similarity, so users with different similarities
+ * can search concurrently on the same reader
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public final class SharedIndex implements Closeable {
+
+    private static final Map<Path, SharedIndex> indexes = new HashMap<>();   //opened indexes by path
+
+    private final Path path;                    //path to the index directory
+    private final Directory directory;          //memory mapped directory of the index
+    private final SearcherManager manager;      //manager of the readers of the index
+    private int references = 0;                 //number of open() not yet closed
+
+    /**
+     * Constructor
+     * @param path real path to the index directory
+     * @throws IOException if there are problems while opening the index
+     */
+    private SharedIndex(Path path) throws IOException {
+        this.path = path;
+        this.directory = MMapDirectory.open(path);
+        try {
+            this.manager = new SearcherManager(directory, null);
+        } catch (IOException e) {
+            directory.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method return the shared instance of the index in the given directory, opening it if needed.
+     * Every call must be matched by a call to close()
+     * @param indexPath path to the index directory
+     * @return the shared index
+     * @throws IOException if there are problems while opening the index
+     */
+    public static SharedIndex open(String indexPath) throws IOException {
+        Path path = Paths.get(indexPath).toRealPath();
+        synchronized (indexes) {
+            SharedIndex index = indexes.get(path);
+            if (index == null) {
+                index = new SharedIndex(path);
+                indexes.put(path, index);
+            }
+            index.references++;
+            return index;
+        }
+    }
+
+    /**
+     * This method acquire the current reader of the index. The reader stays open until the lease is closed
+     * @param similarity Similarity of the searcher, null for the default one of Lucene
+     * @return lease of the current reader
+     * @throws IOException if there are problems while acquiring the reader
+     */
+    public SearcherLease acquire(Similarity similarity) throws IOException {
+        return new SearcherLease(manager, similarity, null);
+    }
+
+    /**
+     * This method acquire the current reader of the index with a searcher that searches the segments in
+     * parallel (see SlicedIndexSearcher). The reader stays open until the lease is closed
+     * @param similarity Similarity of the searcher, null for the default one of Lucene
+     * @param executor executor that searches the segments, null for a sequential searcher
+     * @return lease of the current reader
+     * @throws IOException if there are problems while acquiring the reader
+     */
+    public SearcherLease acquire(Similarity similarity, Executor executor) throws IOException {
+        return new SearcherLease(manager, similarity, executor);
+    }
+
+    /**
+     * This method open a new reader if the index has been changed since the last refresh. The leases already
+     * acquired keep their reader, the next leases get the new one
+     * @throws IOException if there are problems while opening the new reader
+     */
+    public void refresh() throws IOException {
+        manager.maybeRefresh();
+    }
+
+    /**
+     * @return path to the index directory
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * This method release a reference to the index, the last reference closes the index. The readers
+     * still leased are closed when their lease is closed
+     * @throws IOException if there are problems while closing the index
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (indexes) {
+            if (references == 0)
+                return;
+            if (--references > 0)
+                return;
+            indexes.remove(path);
+        }
+        try {
+            manager.close();
+        } finally {
+            directory.close();
+        }
+    }
+
+    /**
+     * This class pins a point-in-time reader of a SharedIndex, so the documents retrieved with its searcher
+     * can be resolved on the same reader. A lease must be closed to release the reader
+     */
+    public static class SearcherLease implements Closeable {
+
+        private final SearcherManager manager;      //manager that gave the reader
+        private final IndexSearcher acquired;       //searcher acquired from the manager
+        private final IndexSearcher searcher;       //searcher with the requested Similarity
+        private boolean closed = false;             //true if the reader has been released
+
+        /**
+         * Constructor
+         * @param manager manager of the readers of the index
+         * @param similarity Similarity of the searcher, null for the default one of Lucene
+         * @param executor executor that searches the segments, null for a sequential searcher
+         * @throws IOException if there are problems while acquiring the reader
+         */
+        private SearcherLease(SearcherManager manager, Similarity similarity, Executor executor) throws IOException {
+            this.manager = manager;
+            this.acquired = manager.acquire();
+            if (executor != null)
+                this.searcher = new SlicedIndexSearcher(acquired.getIndexReader(), executor);
+            else
+                this.searcher = new IndexSearcher(acquired.getIndexReader());
+            if (similarity != null)
+                searcher.setSimilarity(similarity);
+        }
+
+        /**
+         * @return reader pinned by the lease
+         */
+        public IndexReader getIndexReader() {
+            return acquired.getIndexReader();
+        }
+
+        /**
+         * @return searcher on the reader pinned by the lease, with the requested Similarity
+         */
+        public IndexSearcher getIndexSearcher() {
+            return searcher;
+        }
+
+        /**
+         * This method release the reader, it can be called more than once
+         * @throws IOException if there are problems while releasing the reader
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            manager.release(acquired);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * This class is an IndexSearcher that searches the segments of the index in parallel with an Executor.
+ * The default slicing of Lucene puts up to 250000 documents in a slice, so an index of datasets (few
+ * documents, but very big ones) is searched in a single slice by a single thread. Here the segments are
+ * instead partitioned in as many slices as the threads of the executor, balancing the number of documents
+ * of the slices: the segments are taken from the biggest one and every segment goes to the slice with
+ * less documents. A segment cannot be split, so an index merged in a single segment is still searched by
+ * one thread
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class SlicedIndexSearcher extends IndexSearcher {
+
+    /**
+     * Constructor
+     * @param reader reader of the index
+     * @param executor executor that searches the slices
+     */
+    public SlicedIndexSearcher(IndexReader reader, Executor executor) {
+        super(reader, executor);
+    }
+
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        int numSlices = Math.max(1, Math.min(parallelism(getExecutor()), leaves.size()));
+
+        List<LeafReaderContext> bySize = new ArrayList<>(leaves);
+        bySize.sort(Comparator.comparingInt((LeafReaderContext leaf) -> leaf.reader().maxDoc()).reversed());
+
+        List<List<LeafReaderContext>> slices = new ArrayList<>();
+        long[] sliceDocs = new long[numSlices];
+        for (int i = 0; i < numSlices; i++)
+            slices.add(new ArrayList<>());
+
+        for (LeafReaderContext leaf : bySize) {
+            int smallest = 0;
+            for (int i = 1; i < numSlices; i++)
+                if (sliceDocs[i] < sliceDocs[smallest])
+                    smallest = i;
+            slices.get(smallest).add(leaf);
+            sliceDocs[smallest] += leaf.reader().maxDoc();
+        }
+
+        List<LeafSlice> result = new ArrayList<>();
+        for (List<LeafReaderContext> slice : slices)
+            if (!slice.isEmpty())
+                result.add(new LeafSlice(slice));
+        return result.toArray(new LeafSlice[0]);
+    }
+
+    /**
+     * This method return the number of threads that can search the slices at the same time
+     * @param executor executor of the searcher
+     * @return number of threads of the executor, the number of processors if it is not known
+     */
+    private static int parallelism(Executor executor) {
+        if (executor instanceof ThreadPoolExecutor)
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        if (executor instanceof ForkJoinPool)
+            return ((ForkJoinPool) executor).getParallelism();
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,210 @@
+package index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import parse.DatasetFields;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the collapsed mode ({@link CollapsedDataField} and {@link CollapsedTokenStream}): the statistics used
+ * by BM25 and LMD must be the same of the fields with all the repeated values
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class CollapsedDataFieldTest {
+
+    private static final String[] FIELDS = {DatasetFields.ENTITIES, DatasetFields.LITERALS};
+
+    private static final List<List<String>> DATASETS = Arrays.asList(
+            Arrays.asList("river water", "river water", "the river", "lake", "river water", "of the"),
+            Arrays.asList("lake", "lake", "lake", "water of the lake"),
+            Arrays.asList("single value"),
+            Arrays.asList("sea", "river", "sea", "river", "sea water", "sea water", "sea water"));
+
+    private static final String[] QUERY_TERMS = {"river", "water", "lake", "sea", "value", "missing"};
+
+    private final Analyzer analyzer = new StandardAnalyzer(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+    private Directory perValue;             //index with one field for every value
+    private Directory collapsed;            //index with the collapsed fields
+    private DirectoryReader perValueReader; //reader over the index with one field for every value
+    private DirectoryReader collapsedReader;//reader over the index with the collapsed fields
+
+    @Before
+    public void setUp() throws IOException {
+        perValue = index(false);
+        collapsed = index(true);
+        perValueReader = DirectoryReader.open(perValue);
+        collapsedReader = DirectoryReader.open(collapsed);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        perValueReader.close();
+        collapsedReader.close();
+        perValue.close();
+        collapsed.close();
+    }
+
+    /**
+     * This method index the datasets, every value in both the content fields
+     * @param collapse true to index the collapsed fields, false to add one field for every value
+     * @return the directory of the index
+     * @throws IOException if there are problems during the indexing
+     */
+    private Directory index(boolean collapse) throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer))) {
+            for (List<String> values : DATASETS) {
+                Document document = new Document();
+                Map<String, Map<String, Integer>> valueCounts = new HashMap<>();
+                for (String field : FIELDS) {
+                    for (String value : values) {
+                        if (collapse)
+                            CollapsedDataField.count(valueCounts, field, value);
+                        else
+                            document.add(new DataField(field, value, SchemaProfile.FULL));
+                    }
+                }
+                if (collapse)
+                    CollapsedDataField.addFields(document, analyzer, valueCounts);
+                writer.addDocument(document);
+            }
+        }
+        return directory;
+    }
+
+    @Test
+    public void sameTermStatistics() throws IOException {
+        assertEquals(1, perValueReader.leaves().size());
+        LeafReader expected = perValueReader.leaves().get(0).reader();
+        LeafReader actual = collapsedReader.leaves().get(0).reader();
+
+        for (String field : FIELDS) {
+            Terms expectedTerms = expected.terms(field);
+            Terms actualTerms = actual.terms(field);
+            assertEquals(field, expectedTerms.size(), actualTerms.size());
+            assertEquals(field, expectedTerms.getSumTotalTermFreq(), actualTerms.getSumTotalTermFreq());
+            assertEquals(field, expectedTerms.getSumDocFreq(), actualTerms.getSumDocFreq());
+            assertEquals(field, expectedTerms.getDocCount(), actualTerms.getDocCount());
+
+            TermsEnum expectedEnum = expectedTerms.iterator();
+            TermsEnum actualEnum = actualTerms.iterator();
+            while (expectedEnum.next() != null) {
+                assertEquals(expectedEnum.term(), actualEnum.next());
+                String term = expectedEnum.term().utf8ToString();
+                assertEquals(term, expectedEnum.docFreq(), actualEnum.docFreq());
+                assertEquals(term, expectedEnum.totalTermFreq(), actualEnum.totalTermFreq());
+
+                PostingsEnum expectedPostings = expectedEnum.postings(null, PostingsEnum.FREQS);
+                PostingsEnum actualPostings = actualEnum.postings(null, PostingsEnum.FREQS);
+                while (expectedPostings.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    assertEquals(term, expectedPostings.docID(), actualPostings.nextDoc());
+                    assertEquals(term, expectedPostings.freq(), actualPostings.freq());
+                }
+                assertEquals(term, DocIdSetIterator.NO_MORE_DOCS, actualPostings.nextDoc());
+            }
+            assertNull(actualEnum.next());
+        }
+    }
+
+    @Test
+    public void sameNorms() throws IOException {
+        LeafReader expected = perValueReader.leaves().get(0).reader();
+        LeafReader actual = collapsedReader.leaves().get(0).reader();
+
+        for (String field : FIELDS) {
+            NumericDocValues expectedNorms = expected.getNormValues(field);
+            NumericDocValues actualNorms = actual.getNormValues(field);
+            for (int doc = 0; doc < expected.maxDoc(); doc++) {
+                assertTrue(expectedNorms.advanceExact(doc));
+                assertTrue(actualNorms.advanceExact(doc));
+                assertEquals(field + " " + doc, expectedNorms.longValue(), actualNorms.longValue());
+            }
+        }
+    }
+
+    /**
+     * This method check that a query retrieves the same documents with the same scores in the two indexes
+     * @param similarity similarity of the searchers
+     * @param query query to be executed
+     * @throws IOException if there are problems during the search
+     */
+    private void assertSameScores(Similarity similarity, Query query) throws IOException {
+        IndexSearcher expectedSearcher = new IndexSearcher(perValueReader);
+        IndexSearcher actualSearcher = new IndexSearcher(collapsedReader);
+        expectedSearcher.setSimilarity(similarity);
+        actualSearcher.setSimilarity(similarity);
+
+        ScoreDoc[] expected = expectedSearcher.search(query, 10).scoreDocs;
+        ScoreDoc[] actual = actualSearcher.search(query, 10).scoreDocs;
+        assertEquals(query.toString(), expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(query.toString(), expected[i].doc, actual[i].doc);
+            assertEquals(query.toString(), expected[i].score, actual[i].score, 0.0f);
+        }
+    }
+
+    /**
+     * This method check the scores of the term queries and of a boolean query over all the fields
+     * @param similarity similarity of the searchers
+     * @throws IOException if there are problems during the search
+     */
+    private void assertSameScores(Similarity similarity) throws IOException {
+        BooleanQuery.Builder all = new BooleanQuery.Builder();
+        for (String field : FIELDS) {
+            for (String term : QUERY_TERMS) {
+                TermQuery query = new TermQuery(new Term(field, term));
+                assertSameScores(similarity, query);
+                all.add(query, BooleanClause.Occur.SHOULD);
+            }
+        }
+        assertSameScores(similarity, all.build());
+    }
+
+    @Test
+    public void sameBM25Scores() throws IOException {
+        assertSameScores(new BM25Similarity());
+    }
+
+    @Test
+    public void sameLMDScores() throws IOException {
+        assertSameScores(new LMDirichletSimilarity());
+    }
+}
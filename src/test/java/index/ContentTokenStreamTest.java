@@ -0,0 +1,215 @@
+package index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.Test;
+import parse.ContentSource;
+import parse.DatasetFields;
+import parse.ValueListSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of the {@link ContentTokenStream}: a field streamed from its sources must give the same postings,
+ * positions, offsets, norms and term vectors of the field added once for every value
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class ContentTokenStreamTest {
+
+    private static final FieldType TYPE = new FieldType();    //indexed type with positions and offsets everywhere
+
+    static {
+        TYPE.setTokenized(true);
+        TYPE.setStoreTermVectors(true);
+        TYPE.setStoreTermVectorPositions(true);
+        TYPE.setStoreTermVectorOffsets(true);
+        TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        TYPE.freeze();
+    }
+
+    private static final List<List<String>> DATASETS = Arrays.asList(
+            Arrays.asList("River Water", "the water of the river", "", "lake and the", "of the", "river basin"),
+            Arrays.asList("single"),
+            Arrays.asList("", "the", "water water water", "a river of a lake"));
+
+    /**
+     * This method build an analyzer with stopwords and a given gap between the values of a field
+     * @param positionGap position increment gap between two values
+     * @param offsetGap offset gap between two values
+     * @return the analyzer
+     */
+    private static Analyzer gapAnalyzer(int positionGap, int offsetGap) {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                StandardTokenizer tokenizer = new StandardTokenizer();
+                TokenStream stream = new StopFilter(new LowerCaseFilter(tokenizer), EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+                return new TokenStreamComponents(tokenizer, stream);
+            }
+
+            @Override
+            public int getPositionIncrementGap(String fieldName) {
+                return positionGap;
+            }
+
+            @Override
+            public int getOffsetGap(String fieldName) {
+                return offsetGap;
+            }
+        };
+    }
+
+    /**
+     * This method index the datasets, with the values of every dataset split in two sources
+     * @param analyzer analyzer of the IndexWriter
+     * @param streamed true to add the values with a {@link ContentTokenStream}, false to add one field for every value
+     * @return the directory of the index
+     * @throws IOException if there are problems during the indexing
+     */
+    private static Directory index(Analyzer analyzer, boolean streamed) throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer))) {
+            for (List<String> values : DATASETS) {
+                Document document = new Document();
+                if (streamed) {
+                    int half = values.size() / 2;
+                    List<ContentSource> sources = Arrays.asList(
+                            new ValueListSource(DatasetFields.LITERALS, values.subList(0, half)),
+                            new ValueListSource(DatasetFields.ENTITIES, Arrays.asList("skipped", "values")),
+                            new ValueListSource(DatasetFields.LITERALS, values.subList(half, values.size())));
+                    document.add(new Field(DatasetFields.LITERALS, new ContentTokenStream(analyzer, DatasetFields.LITERALS, sources), TYPE));
+                } else {
+                    for (String value : values)
+                        document.add(new Field(DatasetFields.LITERALS, value, TYPE));
+                }
+                writer.addDocument(document);
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * This method check that two term enumerations have the same terms with the same postings
+     * @param expected terms of the field added once for every value
+     * @param actual terms of the streamed field
+     * @throws IOException if there are problems while reading the index
+     */
+    private static void assertSameTerms(Terms expected, Terms actual) throws IOException {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getSumTotalTermFreq(), actual.getSumTotalTermFreq());
+        assertEquals(expected.getSumDocFreq(), actual.getSumDocFreq());
+        assertEquals(expected.getDocCount(), actual.getDocCount());
+
+        TermsEnum expectedTerms = expected.iterator();
+        TermsEnum actualTerms = actual.iterator();
+        while (expectedTerms.next() != null) {
+            assertEquals(expectedTerms.term(), actualTerms.next());
+            String term = expectedTerms.term().utf8ToString();
+            assertEquals(term, expectedTerms.docFreq(), actualTerms.docFreq());
+            assertEquals(term, expectedTerms.totalTermFreq(), actualTerms.totalTermFreq());
+
+            PostingsEnum expectedPostings = expectedTerms.postings(null, PostingsEnum.ALL);
+            PostingsEnum actualPostings = actualTerms.postings(null, PostingsEnum.ALL);
+            while (expectedPostings.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                assertEquals(term, expectedPostings.docID(), actualPostings.nextDoc());
+                assertEquals(term, expectedPostings.freq(), actualPostings.freq());
+                for (int i = 0; i < expectedPostings.freq(); i++) {
+                    assertEquals(term, expectedPostings.nextPosition(), actualPostings.nextPosition());
+                    assertEquals(term, expectedPostings.startOffset(), actualPostings.startOffset());
+                    assertEquals(term, expectedPostings.endOffset(), actualPostings.endOffset());
+                }
+            }
+            assertEquals(term, DocIdSetIterator.NO_MORE_DOCS, actualPostings.nextDoc());
+        }
+        assertNull(actualTerms.next());
+    }
+
+    /**
+     * This method index the datasets in the two ways and check that the indexes are the same
+     * @param analyzer analyzer of the IndexWriter
+     * @throws IOException if there are problems during the indexing or while reading the index
+     */
+    private static void assertSameIndex(Analyzer analyzer) throws IOException {
+        try (Directory perValue = index(analyzer, false); Directory streamed = index(analyzer, true);
+             DirectoryReader expectedReader = DirectoryReader.open(perValue); DirectoryReader actualReader = DirectoryReader.open(streamed)) {
+
+            assertEquals(1, expectedReader.leaves().size());
+            assertEquals(1, actualReader.leaves().size());
+            LeafReader expected = expectedReader.leaves().get(0).reader();
+            LeafReader actual = actualReader.leaves().get(0).reader();
+
+            assertSameTerms(expected.terms(DatasetFields.LITERALS), actual.terms(DatasetFields.LITERALS));
+            assertNull(actual.terms(DatasetFields.ENTITIES));
+
+            NumericDocValues expectedNorms = expected.getNormValues(DatasetFields.LITERALS);
+            NumericDocValues actualNorms = actual.getNormValues(DatasetFields.LITERALS);
+            for (int doc = 0; doc < expected.maxDoc(); doc++) {
+                assertEquals(expectedNorms.advanceExact(doc), actualNorms.advanceExact(doc));
+                assertEquals(expectedNorms.longValue(), actualNorms.longValue());
+
+                Terms expectedVector = expected.getTermVector(doc, DatasetFields.LITERALS);
+                Terms actualVector = actual.getTermVector(doc, DatasetFields.LITERALS);
+                assertNotNull(expectedVector);
+                assertSameTerms(expectedVector, actualVector);
+            }
+        }
+    }
+
+    @Test
+    public void sameIndexWithTheStandardAnalyzer() throws IOException {
+        assertSameIndex(new StandardAnalyzer(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET));
+    }
+
+    @Test
+    public void sameIndexWithPositionAndOffsetGaps() throws IOException {
+        assertSameIndex(gapAnalyzer(100, 10));
+    }
+
+    @Test
+    public void sameIndexWithoutGaps() throws IOException {
+        assertSameIndex(gapAnalyzer(0, 0));
+    }
+
+    @Test
+    public void sourcesWithoutValuesGiveNoTokens() throws IOException {
+        List<ContentSource> sources = new ArrayList<>();
+        sources.add(new ValueListSource(DatasetFields.LITERALS, new ArrayList<>()));
+        sources.add(new ValueListSource(DatasetFields.ENTITIES, Arrays.asList("other", "field")));
+        try (ContentTokenStream stream = new ContentTokenStream(new StandardAnalyzer(), DatasetFields.LITERALS, sources)) {
+            stream.reset();
+            assertFalse(stream.incrementToken());
+            stream.end();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import parse.DatasetFields;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link ForwardIndex}: the positions must be the positions of the postings, and the forward index
+ * can be built again over the one of a previous commit
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class ForwardIndexTest {
+
+    private static final String[] FIELDS = {DatasetFields.TITLE, DatasetFields.LITERALS};
+
+    private static final String[][] DATASETS = {
+            {"River water", "clear water in the river near the city and the lake"},
+            {"Lake", "the lake and the river and the lake"},
+            {"Sea water", "sea water sea water sea"}
+    };
+
+    private static final String[] TERMS = {"river", "water", "lake", "sea", "city", "missing"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Analyzer analyzer = new StandardAnalyzer(EnglishAnalyzer.ENGLISH_STOP_WORDS_SET);
+
+    /**
+     * This method add some datasets to an index and commit them
+     * @param directory directory of the index
+     * @param datasets title and literals of every dataset
+     * @throws IOException if there are problems during the indexing
+     */
+    private void addDatasets(Directory directory, String[][] datasets) throws IOException {
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer))) {
+            for (String[] dataset : datasets) {
+                Document document = new Document();
+                document.add(new MetadataField(DatasetFields.TITLE, dataset[0]));
+                document.add(new DataField(DatasetFields.LITERALS, dataset[1]));
+                writer.addDocument(document);
+            }
+        }
+    }
+
+    /**
+     * This method check that the forward index of an index has the lengths and the positions of its postings
+     * @param indexPath path to the index directory
+     * @param reader reader of the last commit of the index
+     * @throws IOException if there are problems while reading the index or the forward index
+     */
+    private static void assertSamePositions(Path indexPath, DirectoryReader reader) throws IOException {
+        try (ForwardIndex forwardIndex = ForwardIndex.open(indexPath)) {
+            assertTrue(forwardIndex.isValidFor(reader));
+            int[] ordinals = new int[TERMS.length];
+            for (int t = 0; t < TERMS.length; t++)
+                ordinals[t] = forwardIndex.termOrdinal(new BytesRef(TERMS[t]));
+
+            for (String field : FIELDS) {
+                int f = forwardIndex.fieldOrdinal(field);
+                for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                    assertEquals(reader.getTermVector(doc, field).getSumTotalTermFreq(), forwardIndex.length(doc, f));
+
+                    int[][] positions = forwardIndex.positions(doc, f, ordinals);
+                    LeafReaderContext leaf = reader.leaves().get(ReaderUtil.subIndex(doc, reader.leaves()));
+                    int segmentDoc = doc - leaf.docBase;
+                    Terms terms = leaf.reader().terms(field);
+                    for (int t = 0; t < TERMS.length; t++) {
+                        int[] expected = new int[0];
+                        TermsEnum termsEnum = terms.iterator();
+                        if (termsEnum.seekExact(new BytesRef(TERMS[t]))) {
+                            PostingsEnum postings = termsEnum.postings(null, PostingsEnum.POSITIONS);
+                            if (postings.advance(segmentDoc) == segmentDoc) {
+                                expected = new int[postings.freq()];
+                                for (int k = 0; k < expected.length; k++)
+                                    expected[k] = postings.nextPosition();
+                            }
+                        }
+                        assertArrayEquals(field + " " + doc + " " + TERMS[t], expected, positions[t]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void positionsAreThePositionsOfThePostings() throws IOException {
+        Path indexPath = folder.newFolder("index").toPath();
+        try (Directory directory = FSDirectory.open(indexPath)) {
+            addDatasets(directory, DATASETS);
+            ForwardIndex.build(indexPath, FIELDS);
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                assertSamePositions(indexPath, reader);
+            }
+        }
+    }
+
+    @Test
+    public void forwardIndexIsReplacedByANewBuild() throws IOException {
+        Path indexPath = folder.newFolder("index").toPath();
+        try (Directory directory = FSDirectory.open(indexPath)) {
+            addDatasets(directory, Arrays.copyOfRange(DATASETS, 0, 2));
+            ForwardIndex.build(indexPath, FIELDS);
+            Set<String> files = new TreeSet<>(Arrays.asList(directory.listAll()));
+
+            addDatasets(directory, Arrays.copyOfRange(DATASETS, 2, 3));
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                try (ForwardIndex old = ForwardIndex.open(indexPath)) {
+                    assertFalse(old.isValidFor(reader));
+                }
+                ForwardIndex.build(indexPath, FIELDS);
+                assertSamePositions(indexPath, reader);
+            }
+
+            //no temporary file is left in the index directory
+            for (String file : directory.listAll())
+                assertTrue(file, files.contains(file) || file.startsWith("_") || file.startsWith("segments"));
+        }
+    }
+}
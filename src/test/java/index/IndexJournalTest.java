@@ -0,0 +1,133 @@
+package index;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import parse.DatasetFields;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the resume state kept by the {@link IndexJournal}
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class IndexJournalTest {
+
+    private Directory directory;        //in memory index
+    private IndexWriter writer;         //writer over the index
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new ByteBuffersDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    /**
+     * This method add the document of a dataset marked with its directory
+     * @param datasetDirectoryName name of the dataset directory
+     * @throws IOException if there are problems during the indexing
+     */
+    private void addDataset(String datasetDirectoryName) throws IOException {
+        Document document = new Document();
+        document.add(IndexJournal.directoryField(datasetDirectoryName));
+        document.add(new MetadataField(DatasetFields.TITLE, "title of " + datasetDirectoryName));
+        writer.addDocument(document);
+    }
+
+    /**
+     * This method add a chunk document of a dataset (see {@link DatasetChunks})
+     * @param datasetDirectoryName name of the dataset directory
+     * @throws IOException if there are problems during the indexing
+     */
+    private void addChunk(String datasetDirectoryName) throws IOException {
+        Document document = new Document();
+        document.add(IndexJournal.chunkField(datasetDirectoryName));
+        document.add(new DataField(DatasetFields.ENTITIES, "entity of " + datasetDirectoryName));
+        writer.addDocument(document);
+    }
+
+    @Test
+    public void emptyIndexHasNoIndexedDatasets() throws IOException {
+        assertEquals(Collections.emptySet(), IndexJournal.readIndexedDatasets(writer));
+    }
+
+    @Test
+    public void committedDatasetsAreIndexed() throws IOException {
+        addDataset("dataset-1");
+        addDataset("dataset-2");
+        writer.commit();
+
+        assertEquals(Set.of("dataset-1", "dataset-2"), IndexJournal.readIndexedDatasets(writer));
+    }
+
+    @Test
+    public void deletedDatasetsAreNotIndexedAfterResume() throws IOException {
+        addDataset("dataset-1");
+        addDataset("dataset-2");
+        addDataset("dataset-3");
+        writer.commit();
+
+        writer.deleteDocuments(new Term(IndexJournal.DATASET_DIRECTORY, "dataset-2"));
+        writer.commit();
+        writer.close();
+
+        //the resumed writer opens the last commit, with the deleted documents still in the segments
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer())
+                .setOpenMode(IndexWriterConfig.OpenMode.APPEND));
+        assertEquals(Set.of("dataset-1", "dataset-3"), IndexJournal.readIndexedDatasets(writer));
+
+        //a dataset indexed again after the deletion is indexed
+        addDataset("dataset-2");
+        assertEquals(Set.of("dataset-1", "dataset-2", "dataset-3"), IndexJournal.readIndexedDatasets(writer));
+    }
+
+    @Test
+    public void chunksWithoutMetadataDocumentAreNotIndexed() throws IOException {
+        addChunk("dataset-1");
+        addChunk("dataset-1");
+        addChunk("dataset-2");
+        addDataset("dataset-2");
+        writer.commit();
+
+        assertEquals(Set.of("dataset-2"), IndexJournal.readIndexedDatasets(writer));
+
+        //the chunks left by the interrupted dataset are deleted before indexing it again
+        writer.deleteDocuments(IndexJournal.chunkTerm("dataset-1"));
+        writer.commit();
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals(2, reader.numDocs());
+        }
+    }
+
+    @Test
+    public void commitDataCarriesTheIndexedDatasets() throws IOException {
+        addDataset("dataset-1");
+        IndexJournal.setCommitData(writer, 1);
+        writer.commit();
+
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals("1", reader.getIndexCommit().getUserData().get(IndexJournal.INDEXED_DATASETS));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package parse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of the {@link DatasetContentReader}
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class DatasetContentReaderTest {
+
+    private static final String CONTENT = "{"
+            + "\"dataset_id\": \"42\","
+            + "\"entities\": [\"river\", null, \"lake\"],"
+            + "\"statistics\": {\"entities\": [\"nested\"], \"count\": [1, 2]},"
+            + "\"classes\": [],"
+            + "\"literals\": [\"clear water\", \"\"],"
+            + "\"unknown\": [\"skipped\", [\"nested\"]],"
+            + "\"properties\": [null, \"flows into\"],"
+            + "\"entities\": [\"sea\"]"
+            + "}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * This method write a content file with a given content
+     * @param content json content of the file
+     * @return the file
+     * @throws IOException if there are problems when writing the file
+     */
+    private File file(String content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * This method read all the values of a reader as "field=value" strings
+     * @param reader reader over the content file
+     * @return the values of the content file, in order
+     * @throws IOException if there are problems during the reading of the content file
+     */
+    private static List<String> readAll(DatasetContentReader reader) throws IOException {
+        List<String> values = new ArrayList<>();
+        while (reader.next())
+            values.add(reader.getField() + "=" + reader.getValue());
+        return values;
+    }
+
+    @Test
+    public void allFieldsInFileOrder() throws IOException {
+        try (DatasetContentReader reader = new DatasetContentReader(file(CONTENT))) {
+            assertEquals(Arrays.asList("entities=river", "entities=lake", "literals=clear water", "literals=",
+                    "properties=flows into", "entities=sea"), readAll(reader));
+        }
+    }
+
+    @Test
+    public void nullValuesAreSkipped() throws IOException {
+        try (DatasetContentReader reader = new DatasetContentReader(file("{\"entities\": [null, null], \"classes\": [null]}"))) {
+            assertEquals(Collections.emptyList(), readAll(reader));
+        }
+    }
+
+    @Test
+    public void unknownKeysAndNonArraysAreSkipped() throws IOException {
+        String content = "{\"title\": \"a title\", \"entities\": null, \"classes\": \"not an array\","
+                + " \"other\": {\"literals\": [\"nested\"]}, \"literals\": [\"kept\"]}";
+        try (DatasetContentReader reader = new DatasetContentReader(file(content))) {
+            assertEquals(Collections.singletonList("literals=kept"), readAll(reader));
+        }
+    }
+
+    @Test
+    public void onlyTheRequestedFieldIsReturned() throws IOException {
+        try (DatasetContentReader reader = new DatasetContentReader(file(CONTENT), DatasetFields.ENTITIES)) {
+            assertEquals(Arrays.asList("entities=river", "entities=lake", "entities=sea"), readAll(reader));
+        }
+        try (DatasetContentReader reader = new DatasetContentReader(file(CONTENT), DatasetFields.CLASSES)) {
+            assertEquals(Collections.emptyList(), readAll(reader));
+        }
+        try (DatasetContentReader reader = new DatasetContentReader(file(CONTENT), DatasetFields.PROPERTIES)) {
+            assertEquals(Collections.singletonList("properties=flows into"), readAll(reader));
+        }
+    }
+
+    @Test
+    public void emptyObjectHasNoValues() throws IOException {
+        try (DatasetContentReader reader = new DatasetContentReader(file("{}"))) {
+            assertEquals(Collections.emptyList(), readAll(reader));
+        }
+    }
+
+    @Test
+    public void finishedReaderStaysFinished() throws IOException {
+        try (DatasetContentReader reader = new DatasetContentReader(file("{\"entities\": [\"a\"]}"))) {
+            readAll(reader);
+            assertFalse(reader.next());
+            assertNull(reader.getField());
+            assertNull(reader.getValue());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package parse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link MappedLineReader}
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class MappedLineReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * This method write a file with a given content
+     * @param content content of the file
+     * @return the file
+     * @throws IOException if there are problems when writing the file
+     */
+    private File file(String content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * This method read all the lines of a reader
+     * @param reader reader over the file
+     * @return the lines of the file
+     * @throws IOException if there are problems during the reading of the file
+     */
+    private static List<String> readAll(MappedLineReader reader) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.nextLine()) != null)
+            lines.add(line);
+        return lines;
+    }
+
+    @Test
+    public void unixLineTerminators() throws IOException {
+        try (MappedLineReader reader = new MappedLineReader(file("a\nbb\nccc\n"))) {
+            assertEquals(Arrays.asList("a", "bb", "ccc"), readAll(reader));
+            assertNull(reader.nextLine());
+        }
+    }
+
+    @Test
+    public void windowsLineTerminators() throws IOException {
+        try (MappedLineReader reader = new MappedLineReader(file("a\r\nbb\r\n\r\nccc\r\n"))) {
+            assertEquals(Arrays.asList("a", "bb", "", "ccc"), readAll(reader));
+        }
+    }
+
+    @Test
+    public void missingFinalNewline() throws IOException {
+        try (MappedLineReader reader = new MappedLineReader(file("a\nbb\nccc"))) {
+            assertEquals(Arrays.asList("a", "bb", "ccc"), readAll(reader));
+        }
+        try (MappedLineReader reader = new MappedLineReader(file("a\r\nccc\r"))) {
+            assertEquals(Arrays.asList("a", "ccc"), readAll(reader));
+        }
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        try (MappedLineReader reader = new MappedLineReader(file(""))) {
+            assertNull(reader.nextLine());
+            assertFalse(reader.skipLine());
+        }
+    }
+
+    @Test
+    public void linesCrossingRegionBoundaries() throws IOException {
+        //multi-byte characters and \r\n terminators split by the regions at every possible offset
+        String content = "èntity one\r\nclass two\nliteral «three»\r\n\nproperty four";
+        List<String> expected = Arrays.asList("èntity one", "class two", "literal «three»", "", "property four");
+
+        for (long regionSize = 1; regionSize <= 16; regionSize++) {
+            try (MappedLineReader reader = new MappedLineReader(file(content), regionSize)) {
+                assertEquals("region size " + regionSize, expected, readAll(reader));
+            }
+        }
+    }
+
+    @Test
+    public void skippedLinesAcrossRegions() throws IOException {
+        try (MappedLineReader reader = new MappedLineReader(file("first line\nsecond line\nthird line\n"), 4)) {
+            assertTrue(reader.skipLine());
+            assertEquals("second line", reader.nextLine());
+            assertTrue(reader.skipLine());
+            assertFalse(reader.skipLine());
+        }
+    }
+}
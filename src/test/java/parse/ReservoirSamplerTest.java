@@ -0,0 +1,100 @@
+package parse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link ReservoirSampler}
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class ReservoirSamplerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * This method write a file with the lines "line0", "line1", ...
+     * @param lines number of lines
+     * @return the file
+     * @throws IOException if there are problems when writing the file
+     */
+    private File linesFile(int lines) throws IOException {
+        List<String> content = new ArrayList<>();
+        for (int i = 0; i < lines; i++)
+            content.add("line" + i);
+        File file = folder.newFile();
+        Files.write(file.toPath(), content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * This method sample a file with a given seed
+     * @param file file to sample
+     * @param sampleSize max number of lines to return
+     * @param seed seed of the random generator
+     * @return the sampled lines
+     * @throws IOException if there are problems during the reading of the file
+     */
+    private static List<String> sample(File file, int sampleSize, long seed) throws IOException {
+        try (MappedLineReader lines = new MappedLineReader(file)) {
+            return ReservoirSampler.sample(lines, sampleSize, new Random(seed));
+        }
+    }
+
+    @Test
+    public void sameSeedGivesSameSample() throws IOException {
+        File file = linesFile(10000);
+        assertEquals(sample(file, 100, 42), sample(file, 100, 42));
+    }
+
+    @Test
+    public void differentSeedsGiveDifferentSamples() throws IOException {
+        File file = linesFile(10000);
+        assertNotEquals(sample(file, 100, 42), sample(file, 100, 43));
+    }
+
+    @Test
+    public void sampleHasSampleSizeDistinctLinesOfTheFile() throws IOException {
+        File file = linesFile(10000);
+        List<String> sample = sample(file, 100, 7);
+
+        assertEquals(100, sample.size());
+        assertEquals(100, new HashSet<>(sample).size());
+        HashSet<String> lines = new HashSet<>(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        assertTrue(lines.containsAll(sample));
+    }
+
+    @Test
+    public void fewerLinesThanSampleSizeAreAllReturnedInOrder() throws IOException {
+        File file = linesFile(5);
+        assertEquals(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8), sample(file, 100, 7));
+    }
+
+    @Test
+    public void sampleOfAnEmptyFileIsEmpty() throws IOException {
+        File file = folder.newFile();
+        assertTrue(sample(file, 10, 7).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sampleSizeMustBePositive() throws IOException {
+        sample(linesFile(5), 0, 7);
+    }
+}
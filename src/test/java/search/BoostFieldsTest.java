@@ -0,0 +1,163 @@
+package search;
+
+import analyze.CustomAnalyzer;
+import index.DataField;
+import index.MetadataField;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import parse.DatasetFields;
+import utils.BoostWeights;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link CustomQueryBuilder#boostFields(Query, Map)}, used by the {@link RunEngine} to boost a query
+ * parsed once: the boosted multi field query must score the documents exactly as the query of
+ * {@link CustomQueryBuilder#buildBoostedQuery(String, Analyzer, Map)}
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class BoostFieldsTest {
+
+    private static final String[] QUERIES = {
+            "river water",
+            "air quality of the cities",
+            "census 2010 population",
+            "bank-museum art",
+            "the",
+            "\"school\" AND history (energy)"
+    };
+
+    private final Analyzer analyzer = CustomAnalyzer.getStopwordsAnalyzer();
+    private Directory directory;        //in memory index
+    private DirectoryReader reader;     //reader over the index
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer))) {
+            writer.addDocument(dataset("River water quality", "Water samples of the river", "Environment agency",
+                    "water, river", "river_basin water_sample", "clear water in the river near the city"));
+            writer.addDocument(dataset("Air quality", "Air quality of the cities and energy consumption", "City council",
+                    "air, energy", "air_station city", "the air of the city has a good quality"));
+            writer.addDocument(dataset("Census 2010", "Population census of 2010", "Statistics office",
+                    "census, population", "census_tract school", "population of every school district in 2010"));
+            writer.addDocument(dataset("Museums and banks", "Art in the museum of the bank", "Bank museum",
+                    "art, museum, bank", "bank museum art", "history of the art of the bank museum"));
+            writer.addDocument(dataset("School history", "History of the schools and their energy", "School board",
+                    "school, history", "school_building", "energy used by every school in the history of the city"));
+        }
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    /**
+     * This method build the document of a dataset with all the fields of the boost weights
+     * @param title title of the dataset
+     * @param description description of the dataset
+     * @param author author of the dataset
+     * @param tags tags of the dataset
+     * @param entities entities of the dataset, also used for the classes
+     * @param literals literals of the dataset
+     * @return the document
+     */
+    private static Document dataset(String title, String description, String author, String tags, String entities, String literals) {
+        Document document = new Document();
+        document.add(new MetadataField(DatasetFields.TITLE, title));
+        document.add(new MetadataField(DatasetFields.DESCRIPTION, description));
+        document.add(new MetadataField(DatasetFields.AUTHOR, author));
+        document.add(new MetadataField(DatasetFields.TAGS, tags));
+        document.add(new DataField(DatasetFields.ENTITIES, entities));
+        document.add(new DataField(DatasetFields.LITERALS, literals));
+        document.add(new DataField(DatasetFields.CLASSES, entities + " " + tags));
+        document.add(new DataField(DatasetFields.PROPERTIES, title + " " + author));
+        return document;
+    }
+
+    /**
+     * This method check that the two queries of every text retrieve the same documents with the same scores
+     * @param similarity similarity of the searcher
+     * @param queryWeights boost weights of the fields
+     * @throws ParseException if there are problems during the query parsing
+     * @throws IOException if there are problems during the search
+     */
+    private void assertSameScores(Similarity similarity, Map<String, Float> queryWeights) throws ParseException, IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(similarity);
+        String[] fields = queryWeights.keySet().toArray(new String[0]);
+
+        for (String text : QUERIES) {
+            Query boosted = CustomQueryBuilder.buildBoostedQuery(text, analyzer, queryWeights);
+            Query multiField = CustomQueryBuilder.boostFields(CustomQueryBuilder.buildMultiFieldQuery(text, analyzer, fields), queryWeights);
+            assertEquals(text, boosted, multiField);
+
+            ScoreDoc[] expected = searcher.search(boosted, 10).scoreDocs;
+            ScoreDoc[] actual = searcher.search(multiField, 10).scoreDocs;
+            assertEquals(text, expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(text, expected[i].doc, actual[i].doc);
+                assertEquals(text, expected[i].score, actual[i].score, 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void bm25ScoresAreTheSame() throws ParseException, IOException {
+        assertSameScores(new BM25Similarity(), BoostWeights.BM25BoostWeights);
+        assertSameScores(new BM25Similarity(), BoostWeights.BM25MetadataBoostWeights);
+        assertSameScores(new BM25Similarity(), BoostWeights.BM25DataBoostWeights);
+    }
+
+    @Test
+    public void lmdScoresAreTheSame() throws ParseException, IOException {
+        assertSameScores(new LMDirichletSimilarity(), BoostWeights.LMDBoostWeights);
+        assertSameScores(new LMDirichletSimilarity(), BoostWeights.LMDDataBoostWeights);
+    }
+
+    @Test
+    public void tfidfScoresAreTheSame() throws ParseException, IOException {
+        assertSameScores(new ClassicSimilarity(), BoostWeights.TFIDFBoostWeights);
+        assertSameScores(new ClassicSimilarity(), BoostWeights.TFIDFMetadataBoostWeights);
+    }
+
+    @Test
+    public void queriesMatchSomeDocuments() throws ParseException, IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        Query query = CustomQueryBuilder.buildBoostedQuery("river water", analyzer, BoostWeights.BM25BoostWeights);
+        assertTrue(searcher.search(query, 10).scoreDocs.length > 0);
+    }
+
+    @Test
+    public void fieldsWithoutWeightAreNotBoosted() throws ParseException {
+        String[] fields = {DatasetFields.TITLE, DatasetFields.DESCRIPTION};
+        Query query = CustomQueryBuilder.buildMultiFieldQuery("river", analyzer, fields);
+        assertEquals(query, CustomQueryBuilder.boostFields(query, Map.of()));
+    }
+}
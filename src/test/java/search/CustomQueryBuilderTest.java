@@ -0,0 +1,226 @@
+package search;
+
+import analyze.CustomAnalyzer;
+import index.DataField;
+import index.MetadataField;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import parse.DatasetFields;
+import utils.BoostWeights;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of the query cache of {@link CustomQueryBuilder} and of the queries built from the tokens of the analyzer
+ * by {@link CustomQueryBuilder#buildTermQuery(String, Analyzer, String[])}
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class CustomQueryBuilderTest {
+
+    private static final String[] FIELDS = {
+            DatasetFields.TITLE, DatasetFields.DESCRIPTION, DatasetFields.AUTHOR, DatasetFields.TAGS,
+            DatasetFields.ENTITIES, DatasetFields.LITERALS, DatasetFields.CLASSES, DatasetFields.PROPERTIES
+    };
+
+    private static final String[] QUERIES = {
+            "river water",
+            "air quality of the cities",
+            "census 2010 population",
+            "river river water",
+            "school",
+            "the"
+    };
+
+    private final Analyzer analyzer = CustomAnalyzer.getStopwordsAnalyzer();
+    private Directory directory;        //in memory index
+    private DirectoryReader reader;     //reader over the index
+
+    @Before
+    public void setUp() throws IOException {
+        CustomQueryBuilder.clearCache();
+        directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer))) {
+            writer.addDocument(dataset("River water quality", "Water samples of the river", "Environment agency",
+                    "water, river", "river_basin water_sample", "clear water in the river near the city"));
+            writer.addDocument(dataset("Air quality", "Air quality of the cities and energy consumption", "City council",
+                    "air, energy", "air_station city", "the air of the city has a good quality"));
+            writer.addDocument(dataset("Census 2010", "Population census of 2010", "Statistics office",
+                    "census, population", "census_tract school", "population of every school district in 2010"));
+            writer.addDocument(dataset("School history", "History of the schools and the river", "School board",
+                    "school, history", "school_building", "water used by every school in the history of the city"));
+        }
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        CustomQueryBuilder.setCacheSize(1024);
+        CustomQueryBuilder.clearCache();
+        reader.close();
+        directory.close();
+    }
+
+    /**
+     * This method build the document of a dataset with all the fields of the boost weights
+     * @param title title of the dataset
+     * @param description description of the dataset
+     * @param author author of the dataset
+     * @param tags tags of the dataset
+     * @param entities entities of the dataset, also used for the classes
+     * @param literals literals of the dataset
+     * @return the document
+     */
+    private static Document dataset(String title, String description, String author, String tags, String entities, String literals) {
+        Document document = new Document();
+        document.add(new MetadataField(DatasetFields.TITLE, title));
+        document.add(new MetadataField(DatasetFields.DESCRIPTION, description));
+        document.add(new MetadataField(DatasetFields.AUTHOR, author));
+        document.add(new MetadataField(DatasetFields.TAGS, tags));
+        document.add(new DataField(DatasetFields.ENTITIES, entities));
+        document.add(new DataField(DatasetFields.LITERALS, literals));
+        document.add(new DataField(DatasetFields.CLASSES, entities + " " + tags));
+        document.add(new DataField(DatasetFields.PROPERTIES, title + " " + author));
+        return document;
+    }
+
+    /**
+     * This method check that two queries match the same documents with the same scores, up to the rounding
+     * of the float sums: the clauses of the two queries are summed in different orders
+     * @param similarity similarity of the searcher
+     * @param text text of the queries
+     * @param expected query built by the query parser
+     * @param actual query built from the tokens
+     * @throws IOException if there are problems during the search
+     */
+    private void assertSameScores(Similarity similarity, String text, Query expected, Query actual) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(similarity);
+
+        Map<Integer, Float> expectedScores = new HashMap<>();
+        for (ScoreDoc scoreDoc : searcher.search(expected, reader.maxDoc()).scoreDocs)
+            expectedScores.put(scoreDoc.doc, scoreDoc.score);
+        ScoreDoc[] actualDocs = searcher.search(actual, reader.maxDoc()).scoreDocs;
+
+        assertEquals(text, expectedScores.size(), actualDocs.length);
+        for (ScoreDoc scoreDoc : actualDocs) {
+            Float score = expectedScores.get(scoreDoc.doc);
+            assertNotNull(text, score);
+            assertEquals(text, score, scoreDoc.score, 1e-5f * score);
+        }
+    }
+
+    @Test
+    public void whitespaceVariantsReturnTheCachedQuery() throws ParseException {
+        Map<String, Float> weights = BoostWeights.BM25BoostWeights;
+        Query boosted = CustomQueryBuilder.buildBoostedQuery("river water", analyzer, weights);
+        Query bool = CustomQueryBuilder.buildBooleanQuery(FIELDS, analyzer, "river water");
+        Query term = CustomQueryBuilder.buildTermQuery("river water", analyzer, FIELDS);
+
+        for (String text : new String[]{"  river water", "river   water ", "river\twater\n", "\n river \t water  "}) {
+            assertSame(text, boosted, CustomQueryBuilder.buildBoostedQuery(text, analyzer, weights));
+            assertSame(text, bool, CustomQueryBuilder.buildBooleanQuery(FIELDS, analyzer, text));
+            assertSame(text, term, CustomQueryBuilder.buildTermQuery(text, analyzer, FIELDS));
+        }
+        assertNotSame(boosted, CustomQueryBuilder.buildBoostedQuery("river  waters", analyzer, weights));
+    }
+
+    @Test
+    public void otherAnalyzerMissesTheCache() throws ParseException {
+        Analyzer other = CustomAnalyzer.getStopwordsAnalyzer();
+        Map<String, Float> weights = BoostWeights.BM25BoostWeights;
+
+        Query boosted = CustomQueryBuilder.buildBoostedQuery("river water", analyzer, weights);
+        Query otherBoosted = CustomQueryBuilder.buildBoostedQuery("river water", other, weights);
+        assertNotSame(boosted, otherBoosted);
+        assertEquals(boosted, otherBoosted);
+
+        Query term = CustomQueryBuilder.buildTermQuery("river water", analyzer, FIELDS);
+        assertNotSame(term, CustomQueryBuilder.buildTermQuery("river water", other, FIELDS));
+        assertSame(otherBoosted, CustomQueryBuilder.buildBoostedQuery("river water", other, weights));
+    }
+
+    @Test
+    public void zeroSizeDisablesTheCache() throws ParseException {
+        Query cached = CustomQueryBuilder.buildBoostedQuery("river water", analyzer, BoostWeights.BM25BoostWeights);
+        CustomQueryBuilder.setCacheSize(0);
+
+        Query first = CustomQueryBuilder.buildBoostedQuery("river water", analyzer, BoostWeights.BM25BoostWeights);
+        Query second = CustomQueryBuilder.buildBoostedQuery("river water", analyzer, BoostWeights.BM25BoostWeights);
+        assertNotSame(cached, first);
+        assertNotSame(first, second);
+        assertEquals(first, second);
+
+        //the queries built while the cache is disabled are not kept
+        CustomQueryBuilder.setCacheSize(2);
+        assertNotSame(second, CustomQueryBuilder.buildBoostedQuery("river water", analyzer, BoostWeights.BM25BoostWeights));
+    }
+
+    @Test
+    public void leastRecentlyUsedQueryIsEvicted() throws ParseException {
+        CustomQueryBuilder.setCacheSize(2);
+        Query river = CustomQueryBuilder.buildTermQuery("river", analyzer, FIELDS);
+        Query water = CustomQueryBuilder.buildTermQuery("water", analyzer, FIELDS);
+
+        //river is used again, so water is the least recently used query when lake is added
+        assertSame(river, CustomQueryBuilder.buildTermQuery("river", analyzer, FIELDS));
+        CustomQueryBuilder.buildTermQuery("lake", analyzer, FIELDS);
+        assertSame(river, CustomQueryBuilder.buildTermQuery("river", analyzer, FIELDS));
+        assertNotSame(water, CustomQueryBuilder.buildTermQuery("water", analyzer, FIELDS));
+
+        //a smaller cache keeps only the most recently used queries
+        Query lake = CustomQueryBuilder.buildTermQuery("lake", analyzer, FIELDS);
+        CustomQueryBuilder.setCacheSize(1);
+        assertSame(lake, CustomQueryBuilder.buildTermQuery("lake", analyzer, FIELDS));
+        assertNotSame(river, CustomQueryBuilder.buildTermQuery("river", analyzer, FIELDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeSizeIsRejected() {
+        CustomQueryBuilder.setCacheSize(-1);
+    }
+
+    @Test
+    public void termQueryScoresLikeTheBooleanQuery() throws ParseException, IOException {
+        for (Similarity similarity : new Similarity[]{new BM25Similarity(), new LMDirichletSimilarity()})
+            for (String text : QUERIES)
+                assertSameScores(similarity, text, CustomQueryBuilder.buildBooleanQuery(FIELDS, analyzer, text),
+                        CustomQueryBuilder.buildTermQuery(text, analyzer, FIELDS));
+    }
+
+    @Test
+    public void boostedTermQueryScoresLikeTheBoostedQuery() throws ParseException, IOException {
+        for (String text : QUERIES) {
+            assertSameScores(new BM25Similarity(), text, CustomQueryBuilder.buildBoostedQuery(text, analyzer, BoostWeights.BM25BoostWeights),
+                    CustomQueryBuilder.buildTermQuery(text, analyzer, BoostWeights.BM25BoostWeights));
+            assertSameScores(new BM25Similarity(), text, CustomQueryBuilder.buildBoostedQuery(text, analyzer, BoostWeights.BM25DataBoostWeights),
+                    CustomQueryBuilder.buildTermQuery(text, analyzer, BoostWeights.BM25DataBoostWeights));
+            assertSameScores(new LMDirichletSimilarity(), text, CustomQueryBuilder.buildBoostedQuery(text, analyzer, BoostWeights.LMDBoostWeights),
+                    CustomQueryBuilder.buildTermQuery(text, analyzer, BoostWeights.LMDBoostWeights));
+        }
+    }
+}
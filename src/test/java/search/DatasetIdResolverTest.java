@@ -0,0 +1,144 @@
+package search;
+
+import index.DatasetIdField;
+import index.MetadataField;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import parse.DatasetFields;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link DatasetIdResolver}, with the numeric doc values and the fallback to the stored ID
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class DatasetIdResolverTest {
+
+    private Directory directory;        //in memory index
+    private IndexWriter writer;         //writer over the index
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new ByteBuffersDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    /**
+     * This method add the document of a dataset with its stored ID and, if canonical, its numeric ID
+     * @param datasetID ID of the dataset
+     * @throws IOException if there are problems during the indexing
+     */
+    private void addDataset(String datasetID) throws IOException {
+        Document document = new Document();
+        document.add(new MetadataField(DatasetFields.ID, datasetID));
+        DatasetIdField.addTo(document, datasetID);
+        writer.addDocument(document);
+    }
+
+    /**
+     * This method resolve the IDs of all the documents of the index, in reverse doc id order
+     * @return the IDs in reverse doc id order
+     * @throws IOException if there are problems while reading the index
+     */
+    private String[] resolveAllReversed() throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(writer)) {
+            ScoreDoc[] docs = new ScoreDoc[reader.maxDoc()];
+            for (int i = 0; i < docs.length; i++)
+                docs[i] = new ScoreDoc(docs.length - 1 - i, 0);
+            return new DatasetIdResolver(reader).resolve(docs);
+        }
+    }
+
+    @Test
+    public void onlyCanonicalNumbersAreCanonical() {
+        assertTrue(DatasetIdField.isCanonical("42"));
+        assertTrue(DatasetIdField.isCanonical("-7"));
+        assertTrue(DatasetIdField.isCanonical("0"));
+        assertFalse(DatasetIdField.isCanonical("0042"));
+        assertFalse(DatasetIdField.isCanonical(" 42"));
+        assertFalse(DatasetIdField.isCanonical("42 "));
+        assertFalse(DatasetIdField.isCanonical("+42"));
+        assertFalse(DatasetIdField.isCanonical("-0"));
+        assertFalse(DatasetIdField.isCanonical("dataset-42"));
+        assertFalse(DatasetIdField.isCanonical("99999999999999999999"));
+        assertFalse(DatasetIdField.isCanonical(""));
+        assertFalse(DatasetIdField.isCanonical(null));
+    }
+
+    @Test
+    public void numericIdsAreResolved() throws IOException {
+        addDataset("1");
+        addDataset("20");
+        addDataset("300");
+
+        assertArrayEquals(new String[]{"300", "20", "1"}, resolveAllReversed());
+    }
+
+    @Test
+    public void nonCanonicalIdsFallBackToTheStoredId() throws IOException {
+        addDataset("0042");
+        addDataset(" 42");
+        addDataset("+42");
+        addDataset("dataset-42");
+
+        assertArrayEquals(new String[]{"dataset-42", "+42", " 42", "0042"}, resolveAllReversed());
+    }
+
+    @Test
+    public void mixedIdsInTheSameSegment() throws IOException {
+        addDataset("7");
+        addDataset("007");
+        addDataset("abc");
+        addDataset("8");
+
+        assertArrayEquals(new String[]{"8", "abc", "007", "7"}, resolveAllReversed());
+    }
+
+    @Test
+    public void mixedIdsInSeveralSegments() throws IOException {
+        addDataset("0010");
+        addDataset("11");
+        writer.commit();
+        addDataset("12");
+        addDataset("x13");
+        writer.commit();
+        addDataset("014");
+
+        assertArrayEquals(new String[]{"014", "x13", "12", "11", "0010"}, resolveAllReversed());
+    }
+
+    @Test
+    public void singleDocumentIsResolved() throws IOException {
+        addDataset("5");
+        addDataset("05");
+
+        try (DirectoryReader reader = DirectoryReader.open(writer)) {
+            DatasetIdResolver resolver = new DatasetIdResolver(reader);
+            assertEquals("5", resolver.resolve(0));
+            assertEquals("05", resolver.resolve(1));
+        }
+    }
+}
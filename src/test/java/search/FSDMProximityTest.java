@@ -0,0 +1,133 @@
+package search;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the bigram counts of {@link FSDMProximity} against the window of the first version of the
+ * FSDMRanker, that built the set of the tokens of every window
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class FSDMProximityTest {
+
+    private static final int WINDOW = FSDMQuery.DEFAULT_WINDOW;    //window of the unordered component
+
+    /**
+     * This method count the windows that contain both terms as the first version of the FSDMRanker
+     * @param content tokens of the field
+     * @param qi1 first term
+     * @param qi2 second term
+     * @param window size of the window
+     * @return number of windows that contain both terms
+     */
+    private static int baselineUnorderedCount(List<String> content, String qi1, String qi2, int window) {
+        int res = 0;
+        for (int i = 0; i + window <= content.size(); i++) {
+            Set<String> tokens = new HashSet<>();
+            for (int j = 0; j < window; j++)
+                tokens.add(content.get(i + j));
+            if (tokens.contains(qi1) && tokens.contains(qi2))
+                res++;
+        }
+        return res;
+    }
+
+    /**
+     * This method count the adjacent occurrences of the two terms as the first version of the FSDMRanker
+     * @param content tokens of the field
+     * @param qi1 first term
+     * @param qi2 second term
+     * @return number of ordered adjacent occurrences of the two terms
+     */
+    private static int baselineOrderedCount(List<String> content, String qi1, String qi2) {
+        int res = 0;
+        for (int i = 0; i + 1 < content.size(); i++)
+            if (qi1.equals(content.get(i)) && qi2.equals(content.get(i + 1)))
+                res++;
+        return res;
+    }
+
+    /**
+     * This method return the sorted positions of a term in a list of tokens
+     * @param content tokens of the field
+     * @param term term to be found
+     * @return positions of the term
+     */
+    private static int[] positions(List<String> content, String term) {
+        return IntStream.range(0, content.size()).filter(i -> content.get(i).equals(term)).toArray();
+    }
+
+    /**
+     * This method check the list and the positions counts against the baseline for all the pairs of terms
+     * @param content tokens of the field
+     * @param window size of the window
+     */
+    private static void assertSameCounts(List<String> content, int window) {
+        Set<String> terms = new HashSet<>(content);
+        terms.add("missing");
+        for (String qi1 : terms) {
+            for (String qi2 : terms) {
+                String message = qi1 + " " + qi2 + " in " + content;
+                int expected = baselineUnorderedCount(content, qi1, qi2, window);
+                assertEquals(message, expected, FSDMProximity.unorderedCount(content, qi1, qi2, window));
+                assertEquals(message, expected, FSDMProximity.unorderedCount(positions(content, qi1),
+                        positions(content, qi2), window, content.size()));
+                assertEquals(message, baselineOrderedCount(content, qi1, qi2),
+                        FSDMProximity.orderedCount(positions(content, qi1), positions(content, qi2)));
+            }
+        }
+    }
+
+    @Test
+    public void fieldShorterThanTheWindowHasNoWindows() {
+        List<String> content = Arrays.asList("a", "b", "c");
+        assertEquals(0, FSDMProximity.unorderedCount(content, "a", "b", WINDOW));
+        assertEquals(0, FSDMProximity.unorderedCount(new int[]{0}, new int[]{1}, WINDOW, content.size()));
+        assertSameCounts(content, WINDOW);
+    }
+
+    @Test
+    public void fieldAsLongAsTheWindowHasOneWindow() {
+        List<String> content = Arrays.asList("a", "x", "x", "x", "x", "x", "x", "b");
+        assertEquals(1, FSDMProximity.unorderedCount(content, "a", "b", WINDOW));
+        assertSameCounts(content, WINDOW);
+    }
+
+    @Test
+    public void emptyFieldHasNoWindows() {
+        assertSameCounts(Collections.emptyList(), WINDOW);
+    }
+
+    @Test
+    public void sameTermTwice() {
+        List<String> content = Arrays.asList("a", "b", "a", "c", "d", "e", "f", "g", "h", "a", "i", "j");
+        assertSameCounts(content, WINDOW);
+    }
+
+    @Test
+    public void randomFieldsMatchTheBaseline() {
+        Random random = new Random(42);
+        String[] vocabulary = {"a", "b", "c", "d", "e"};
+        for (int round = 0; round < 200; round++) {
+            List<String> content = new ArrayList<>();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++)
+                content.add(vocabulary[random.nextInt(vocabulary.length)]);
+            assertSameCounts(content, WINDOW);
+            assertSameCounts(content, 1 + random.nextInt(10));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package search;
+
+import analyze.CustomAnalyzer;
+import index.DataField;
+import index.DatasetIdField;
+import index.MetadataField;
+import javafx.util.Pair;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import parse.DatasetFields;
+import utils.BoostWeights;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the {@link FSDMQuery}: the scores of the query must be the scores of the {@link FSDMRanker} in the
+ * positions mode, and the rank must not depend on the segment-parallel search
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class FSDMQueryTest {
+
+    private static final String[] WORDS = {"river", "water", "lake", "sea", "city", "census", "population", "school"};
+
+    private static final String[] QUERIES = {
+            "river water",
+            "river water river",
+            "the lake of the city",
+            "census population school missing",
+            "sea"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Analyzer analyzer = CustomAnalyzer.getStopwordsAnalyzer();
+    private final HashMap<String, Float> boostWeights = BoostWeights.FSDMBoostWeights;
+    private String indexPath;           //path of the index
+    private Directory directory;        //directory of the index
+    private DirectoryReader reader;     //reader over the index
+
+    @Before
+    public void setUp() throws IOException {
+        indexPath = folder.newFolder("index").getPath();
+        directory = FSDirectory.open(Paths.get(indexPath));
+
+        //every dataset is committed in its own segment, so the sliced searcher has many slices
+        IndexWriterConfig config = new IndexWriterConfig(analyzer).setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < 24; i++) {
+                Document document = new Document();
+                String datasetID = String.valueOf(i);
+                document.add(new MetadataField(DatasetFields.ID, datasetID));
+                DatasetIdField.addTo(document, datasetID);
+                //the datasets i and i + 12 have the same content, so their scores are tied
+                int c = i % 12;
+                document.add(new MetadataField(DatasetFields.TITLE, text(c, 3)));
+                if (c % 3 != 0)
+                    document.add(new MetadataField(DatasetFields.DESCRIPTION, "the " + text(c % 6, 7) + " of the " + text(c % 6 + 1, 5)));
+                if (c % 4 != 0)
+                    document.add(new DataField(DatasetFields.LITERALS, text(c % 5, 12)));
+                if (c % 2 == 0)
+                    document.add(new DataField(DatasetFields.ENTITIES, text(c % 7, 9)));
+                if (c % 5 == 1) {
+                    document.add(new MetadataField(DatasetFields.AUTHOR, text(c, 2)));
+                    document.add(new MetadataField(DatasetFields.TAGS, text(c + 1, 2)));
+                    document.add(new DataField(DatasetFields.CLASSES, text(c + 2, 4)));
+                    document.add(new DataField(DatasetFields.PROPERTIES, text(c + 3, 4)));
+                }
+                writer.addDocument(document);
+                writer.commit();
+            }
+        }
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    /**
+     * This method build a text of words taken from a fixed list
+     * @param seed first word of the text
+     * @param length number of words of the text
+     * @return the text
+     */
+    private static String text(int seed, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            text.append(WORDS[(seed * 5 + i * (seed % 3 + 1)) % WORDS.length]).append(' ');
+        return text.toString().trim();
+    }
+
+    /**
+     * This method break a text into tokens with the analyzer of the test
+     * @param text given text
+     * @return the tokens of the text
+     * @throws IOException if there are problems during the analysis
+     */
+    private List<String> tokens(String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream("", new StringReader(text))) {
+            CharTermAttribute charTerm = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken())
+                tokens.add(charTerm.toString());
+            stream.end();
+        }
+        return tokens;
+    }
+
+    @Test
+    public void scoresAreThePositionsModeScores() throws IOException {
+        FSDMRanker ranker = new FSDMRanker(indexPath, analyzer, 10, boostWeights);
+        ranker.setStoredTextProximity(false);
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for (String query : QUERIES) {
+                List<String> queryTokens = tokens(query);
+                FSDMQuery fsdmQuery = new FSDMQuery(boostWeights, queryTokens);
+                ScoreDoc[] docs = searcher.search(fsdmQuery, reader.maxDoc()).scoreDocs;
+                assertTrue(query, docs.length > 0);
+
+                double[] scores = fsdmQuery.score(searcher, docs);
+                for (int i = 0; i < docs.length; i++)
+                    assertEquals(query + " " + docs[i].doc, ranker.FSDM(docs[i].doc, queryTokens), scores[i], 0.0);
+            }
+        } finally {
+            ranker.close();
+        }
+    }
+
+    @Test
+    public void boostMultipliesTheShiftedScore() throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        for (String query : QUERIES) {
+            FSDMQuery fsdmQuery = new FSDMQuery(boostWeights, tokens(query));
+            ScoreDoc[] expected = searcher.search(fsdmQuery, reader.maxDoc()).scoreDocs;
+            for (float boost : new float[]{2f, 0.5f}) {
+                ScoreDoc[] actual = searcher.search(new BoostQuery(fsdmQuery, boost), reader.maxDoc()).scoreDocs;
+                assertEquals(query, expected.length, actual.length);
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(query, expected[i].doc, actual[i].doc);
+                    assertEquals(query, boost * expected[i].score, actual[i].score, 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void slicedSearchGivesTheSameRank() throws IOException {
+        assertTrue(reader.leaves().size() > 4);
+        for (int nHits : new int[]{1, 5, 10, 30}) {
+            FSDMRanker sequential = new FSDMRanker(indexPath, analyzer, nHits, boostWeights);
+            FSDMRanker sliced = new FSDMRanker(indexPath, analyzer, nHits, boostWeights);
+            sliced.setThreads(4);
+            try {
+                for (String query : QUERIES) {
+                    List<Pair<Integer, Double>> expected = sequential.getFSDMQueryRankingList(query);
+                    List<Pair<Integer, Double>> actual = sliced.getFSDMQueryRankingList(query);
+                    assertTrue(query, !expected.isEmpty());
+                    assertEquals(query + " " + nHits, expected.size(), actual.size());
+                    for (int i = 0; i < expected.size(); i++) {
+                        assertEquals(query + " " + nHits, expected.get(i).getKey(), actual.get(i).getKey());
+                        assertEquals(query + " " + nHits, expected.get(i).getValue(), actual.get(i).getValue(), 0.0);
+                    }
+                }
+            } finally {
+                sequential.close();
+                sliced.close();
+            }
+        }
+    }
+}
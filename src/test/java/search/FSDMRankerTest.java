@@ -0,0 +1,335 @@
+package search;
+
+import analyze.CustomAnalyzer;
+import index.DataField;
+import index.DatasetIdField;
+import index.ForwardIndex;
+import index.MetadataField;
+import javafx.util.Pair;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import parse.DatasetFields;
+import utils.BoostWeights;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the scores of the {@link FSDMRanker} against the unigram, ordered and unordered components computed
+ * as in the first version of the ranker, that read every statistic directly from the index for every document,
+ * of the scores read from the forward index and of the rank of the ranker with many threads
+ *
+ * @author Manuel Barusco
+ * @version 1.0
+ * @since 1.0
+ */
+public class FSDMRankerTest {
+
+    private static final int WINDOW = 8;        //window of the unordered component of the first version
+
+    private static final String[] QUERIES = {
+            "river water",
+            "river water river",
+            "water water water",
+            "the river of the city and the water of the lake",
+            "lake sea river missing lake",
+            "population census river"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Analyzer analyzer = CustomAnalyzer.getStopwordsAnalyzer();
+    private final HashMap<String, Float> boostWeights = BoostWeights.FSDMBoostWeights;
+    private String indexPath;           //path of the index
+    private Directory directory;        //directory of the index
+    private DirectoryReader reader;     //reader over the index
+
+    @Before
+    public void setUp() throws IOException {
+        indexPath = folder.newFolder("index").getPath();
+        directory = FSDirectory.open(Paths.get(indexPath));
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer))) {
+            //a dataset with all the fields, some of them with many values
+            Document document = dataset("1", "River water quality", "Water samples of the river and of the lake");
+            document.add(new MetadataField(DatasetFields.AUTHOR, "Environment agency"));
+            document.add(new MetadataField(DatasetFields.TAGS, "water"));
+            document.add(new MetadataField(DatasetFields.TAGS, "river"));
+            document.add(new DataField(DatasetFields.ENTITIES, "river_basin water_sample"));
+            document.add(new DataField(DatasetFields.LITERALS, "clear water in the river near the city and the lake"));
+            document.add(new DataField(DatasetFields.LITERALS, "river water river water sea river lake water"));
+            document.add(new DataField(DatasetFields.CLASSES, "river lake"));
+            document.add(new DataField(DatasetFields.PROPERTIES, "flows into"));
+            writer.addDocument(document);
+
+            //datasets without some of the fields, the second one tied with the first one
+            for (String datasetID : new String[]{"2", "5"}) {
+                document = dataset(datasetID, "Lake and sea", "The water of the sea and of the lake");
+                document.add(new DataField(DatasetFields.LITERALS, "sea water sea water lake river sea city lake water river"));
+                writer.addDocument(document);
+            }
+
+            document = dataset("3", "Census 2010", "Population census of 2010");
+            document.add(new MetadataField(DatasetFields.AUTHOR, "Statistics office"));
+            document.add(new DataField(DatasetFields.CLASSES, "census population"));
+            writer.addDocument(document);
+
+            document = dataset("4", "Water water water", "");
+            document.add(new MetadataField(DatasetFields.TAGS, "river, water"));
+            document.add(new DataField(DatasetFields.ENTITIES, "water river water river water river water river water"));
+            document.add(new DataField(DatasetFields.PROPERTIES, "river water"));
+            writer.addDocument(document);
+        }
+        reader = DirectoryReader.open(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    /**
+     * This method build the document of a dataset with its ID, title and description
+     * @param datasetID ID of the dataset
+     * @param title title of the dataset
+     * @param description description of the dataset
+     * @return the document
+     */
+    private static Document dataset(String datasetID, String title, String description) {
+        Document document = new Document();
+        document.add(new MetadataField(DatasetFields.ID, datasetID));
+        DatasetIdField.addTo(document, datasetID);
+        document.add(new MetadataField(DatasetFields.TITLE, title));
+        document.add(new MetadataField(DatasetFields.DESCRIPTION, description));
+        return document;
+    }
+
+    /**
+     * This method break a text into tokens with the analyzer of the test
+     * @param text given text
+     * @return the tokens of the text
+     * @throws IOException if there are problems during the analysis
+     */
+    private List<String> tokens(String text) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream("", new StringReader(text))) {
+            CharTermAttribute charTerm = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken())
+                tokens.add(charTerm.toString());
+            stream.end();
+        }
+        return tokens;
+    }
+
+    /**
+     * This method return the number of occurrences of a token in a field of a document, from the term vector
+     * @param docId id of the document
+     * @param field field name
+     * @param qi query token
+     * @return number of occurrences of the token
+     * @throws IOException if there are problems while reading the term vector
+     */
+    private double termFrequency(int docId, String field, String qi) throws IOException {
+        Terms terms = reader.getTermVector(docId, field);
+        if (terms == null)
+            return 0.0;
+        TermsEnum termsEnum = terms.iterator();
+        return termsEnum.seekExact(new BytesRef(qi)) ? termsEnum.totalTermFreq() : 0.0;
+    }
+
+    /**
+     * This method count the ordered and the unordered occurrences of two tokens as the first version of the ranker
+     * @param content tokens of the field
+     * @param qi1 first token
+     * @param qi2 second token
+     * @param ordered true for the adjacent occurrences, false for the windows with both tokens
+     * @return number of occurrences of the bigram
+     */
+    private static double bigramFrequency(List<String> content, String qi1, String qi2, boolean ordered) {
+        double res = 0.0;
+        if (ordered) {
+            for (int i = 0; i + 1 < content.size(); i++)
+                if (qi1.equals(content.get(i)) && qi2.equals(content.get(i + 1)))
+                    res += 1.0;
+            return res;
+        }
+        for (int i = 0; i + WINDOW <= content.size(); i++) {
+            Set<String> window = new HashSet<>();
+            for (int j = 0; j < WINDOW; j++)
+                window.add(content.get(i + j));
+            if (window.contains(qi1) && window.contains(qi2))
+                res += 1.0;
+        }
+        return res;
+    }
+
+    /**
+     * This method calculate the FSDM score of a document with the formulas of the first version of the ranker
+     * @param docId id of the document
+     * @param queryTokens query tokens
+     * @return FSDM score of the document
+     * @throws IOException if there are problems while reading the index
+     */
+    private double baselineFSDM(int docId, List<String> queryTokens) throws IOException {
+        String[] fields = boostWeights.keySet().toArray(String[]::new);
+        IndexReader indexReader = reader;
+        Document document = indexReader.document(docId);
+
+        double base = 0.0;
+        for (String field : fields)
+            base += boostWeights.get(field);
+
+        double scoreT = 0.0;
+        for (String qi : queryTokens) {
+            double tmp = 0.0;
+            for (String field : fields) {
+                double w = (double) boostWeights.get(field) / base;
+                double miu = (double) indexReader.getSumTotalTermFreq(field) / (double) indexReader.getDocCount(field);
+                double cj = (double) indexReader.getSumTotalTermFreq(field);
+                double cf = (double) indexReader.totalTermFreq(new Term(field, qi));
+                double dj = docLength(docId, field);
+                tmp += w * (termFrequency(docId, field, qi) + miu * cf / cj) / (dj + miu);
+            }
+            scoreT += Math.log(tmp + 1e-100);
+        }
+
+        double scoreO = 0.0;
+        double scoreU = 0.0;
+        for (int i = 0; i + 1 < queryTokens.size(); i++) {
+            String qi1 = queryTokens.get(i);
+            String qi2 = queryTokens.get(i + 1);
+            double tmpO = 0.0;
+            double tmpU = 0.0;
+            for (String field : fields) {
+                double w = (double) boostWeights.get(field) / base;
+                double miu = (double) indexReader.getSumTotalTermFreq(field) / (double) indexReader.getDocCount(field);
+                double cj = (double) indexReader.getSumTotalTermFreq(field);
+                double cf = Math.min(indexReader.totalTermFreq(new Term(field, qi1)), indexReader.totalTermFreq(new Term(field, qi2)));
+                double dj = docLength(docId, field);
+                List<String> content = document.get(field) == null ? new ArrayList<>() : tokens(Arrays.toString(document.getValues(field)));
+                tmpO += w * (bigramFrequency(content, qi1, qi2, true) + miu * cf / cj) / (dj + miu);
+                tmpU += w * (bigramFrequency(content, qi1, qi2, false) + miu * cf / cj) / (dj + miu);
+            }
+            scoreO += Math.log(tmpO + 1e-100);
+            scoreU += Math.log(tmpU + 1e-100);
+        }
+        return 0.8 * scoreT + 0.1 * scoreO + 0.1 * scoreU;
+    }
+
+    /**
+     * This method return the number of tokens of a field of a document, from the term vector
+     * @param docId id of the document
+     * @param field field name
+     * @return number of tokens of the field, 0 if the document does not have the field
+     * @throws IOException if there are problems while reading the term vector
+     */
+    private double docLength(int docId, String field) throws IOException {
+        Terms terms = reader.getTermVector(docId, field);
+        return terms != null ? terms.getSumTotalTermFreq() : 0.0;
+    }
+
+    @Test
+    public void scoresAreTheBaselineScores() throws IOException {
+        FSDMRanker ranker = new FSDMRanker(indexPath, analyzer, 10, boostWeights);
+        try {
+            for (String query : QUERIES) {
+                List<String> queryTokens = tokens(query);
+                for (int docId = 0; docId < reader.maxDoc(); docId++)
+                    assertEquals(query + " " + docId, baselineFSDM(docId, queryTokens), ranker.FSDM(docId, queryTokens), 1e-12);
+            }
+        } finally {
+            ranker.close();
+        }
+    }
+
+    @Test
+    public void forwardIndexScoresAreThePositionsModeScores() throws IOException {
+        ForwardIndex.build(Paths.get(indexPath));
+        FSDMRanker positions = new FSDMRanker(indexPath, analyzer, 10, boostWeights);
+        FSDMRanker forward = new FSDMRanker(indexPath, analyzer, 10, boostWeights);
+        positions.setStoredTextProximity(false);
+        forward.setStoredTextProximity(false);
+        forward.setForwardIndex(true);
+        try {
+            for (String query : QUERIES) {
+                List<String> queryTokens = tokens(query);
+                for (int docId = 0; docId < reader.maxDoc(); docId++)
+                    assertEquals(query + " " + docId, positions.FSDM(docId, queryTokens), forward.FSDM(docId, queryTokens), 0.0);
+            }
+        } finally {
+            positions.close();
+            forward.close();
+        }
+    }
+
+    /**
+     * This method check that the rank of every query does not depend on the number of threads of the ranker
+     * @param storedTextProximity true to compute the bigram counts from the stored text, false for the positions
+     * @throws IOException if there are problems while closing the rankers
+     */
+    private void assertSameRankWithThreads(boolean storedTextProximity) throws IOException {
+        FSDMRanker sequential = new FSDMRanker(indexPath, analyzer, 10, boostWeights);
+        FSDMRanker parallel = new FSDMRanker(indexPath, analyzer, 10, boostWeights);
+        sequential.setStoredTextProximity(storedTextProximity);
+        parallel.setStoredTextProximity(storedTextProximity);
+        sequential.setThreads(1);
+        parallel.setThreads(4);
+        try {
+            boolean ties = false;
+            for (String query : QUERIES) {
+                List<Pair<Integer, Double>> expected = sequential.getFSDMRankingList(query);
+                List<Pair<Integer, Double>> actual = parallel.getFSDMRankingList(query);
+                assertEquals(query, expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(query, expected.get(i).getKey(), actual.get(i).getKey());
+                    assertEquals(query, expected.get(i).getValue(), actual.get(i).getValue(), 0.0);
+                    if (i > 0 && expected.get(i).getValue().equals(expected.get(i - 1).getValue()))
+                        ties = true;
+                }
+            }
+            assertTrue(ties);
+        } finally {
+            sequential.close();
+            parallel.close();
+        }
+    }
+
+    @Test
+    public void sameRankWithOneAndManyThreads() throws IOException {
+        assertSameRankWithThreads(true);
+    }
+
+    @Test
+    public void sameRankWithOneAndManyThreadsInPositionsMode() throws IOException {
+        assertSameRankWithThreads(false);
+    }
+}